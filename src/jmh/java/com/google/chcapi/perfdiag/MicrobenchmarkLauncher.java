@@ -0,0 +1,48 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag;
+
+import java.util.Arrays;
+
+import org.openjdk.jmh.Main;
+
+/**
+ * Entry point of the microbenchmarks of the client hot paths. Accepts the usual JMH command line
+ * options and always adds the GC profiler, so allocation rates per operation are reported next to
+ * the times.
+ */
+public class MicrobenchmarkLauncher {
+  
+  /**
+   * Runs microbenchmarks.
+   * 
+   * @param args JMH command line options, for example a regular expression of benchmarks to run.
+   * @throws Exception if the options are invalid or a benchmark failed.
+   */
+  public static void main(String[] args) throws Exception {
+    for (int i = 0; i + 1 < args.length; i++) {
+      if (args[i].equals("-prof") && args[i + 1].startsWith("gc")) {
+        // GC profiler is configured already
+        Main.main(args);
+        return;
+      }
+    }
+    final String[] withGc = Arrays.copyOf(args, args.length + 2);
+    withGc[args.length] = "-prof";
+    withGc[args.length + 1] = "gc";
+    Main.main(withGc);
+  }
+  
+}
@@ -0,0 +1,128 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures adding values to {@link MetricAggregates} and evaluating percentiles, both for
+ * aggregates of a known number of values and for aggregates estimating percentiles by
+ * {@link QuantileSketch}. Values are drawn from a log-normal distribution like request latencies.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricAggregatesBenchmark {
+  
+  /* Number of latency-like values, a power of two */
+  private static final int VALUES = 65536;
+  
+  /* Latency-like values shared by all states */
+  private static final double[] LATENCIES = new double[VALUES];
+  static {
+    final Random random = new Random(42L);
+    for (int i = 0; i < VALUES; i++) {
+      LATENCIES[i] = Math.exp(5.0 + 0.6 * random.nextGaussian());
+    }
+  }
+  
+  /**
+   * Aggregates values are added to, one per mode.
+   */
+  @State(Scope.Thread)
+  public static class Adding {
+    
+    /* Index of the next value */
+    int next;
+    
+    MetricAggregates sketch;
+    MetricAggregates array;
+    
+    @Setup(Level.Iteration)
+    public void setUp() {
+      sketch = new MetricAggregates();
+      array = new MetricAggregates(VALUES);
+      next = 0;
+    }
+    
+  }
+  
+  /**
+   * Aggregates filled with values, with percentiles not evaluated yet. Array aggregates cache
+   * their sorted values, so each invocation gets new aggregates.
+   */
+  @State(Scope.Thread)
+  public static class Filled {
+    
+    /* Number of values */
+    @Param({"1000", "100000"})
+    public int count;
+    
+    MetricAggregates sketch;
+    MetricAggregates array;
+    
+    @Setup(Level.Invocation)
+    public void setUp() {
+      sketch = new MetricAggregates();
+      array = new MetricAggregates(count);
+      for (int i = 0; i < count; i++) {
+        sketch.addValue(LATENCIES[i & (VALUES - 1)]);
+        array.addValue(LATENCIES[i & (VALUES - 1)]);
+      }
+    }
+    
+  }
+  
+  @Benchmark
+  public void addToSketch(Adding state) {
+    state.sketch.addValue(LATENCIES[state.next++ & (VALUES - 1)]);
+  }
+  
+  @Benchmark
+  public void addToArray(Adding state) {
+    final int index = state.next++ & (VALUES - 1);
+    if (index == 0 && state.array.getCount() > 0L) {
+      state.array = new MetricAggregates(VALUES);
+    }
+    state.array.addValue(LATENCIES[index]);
+  }
+  
+  @Benchmark
+  public double percentileOfSketch(Filled state) {
+    return state.sketch.getPercentile(MetricAggregates.P99);
+  }
+  
+  @Benchmark
+  public double percentileOfArray(Filled state) {
+    return state.array.getPercentile(MetricAggregates.P99);
+  }
+  
+}
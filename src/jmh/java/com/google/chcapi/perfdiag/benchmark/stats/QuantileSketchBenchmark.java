@@ -0,0 +1,99 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares speed of exact {@link MetricAggregates} with aggregates estimating percentiles by
+ * {@link QuantileSketch} on the data {@code QuantileSketchTest} checks accuracy on: log-normal
+ * latencies, 10% of them zero. Each invocation adds all values and evaluates the percentiles
+ * reported by the benchmarks, which is how aggregates are used at the end of a run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QuantileSketchBenchmark {
+  
+  /* Percentiles reported by the benchmarks */
+  private static final double[] PERCENTILES = {
+      MetricAggregates.MEDIAN, MetricAggregates.P90, MetricAggregates.P99, MetricAggregates.P99_9
+  };
+  
+  /* Number of values */
+  @Param({"1000", "100000", "1000000"})
+  public int count;
+  
+  /* Log-normal latencies in milliseconds, 10% of them zero */
+  private double[] values;
+  
+  @Setup
+  public void setUp() {
+    final Random random = new Random(42L);
+    values = new double[count];
+    for (int i = 0; i < count; i++) {
+      values[i] = random.nextInt(10) == 0 ? 0.0 : Math.exp(5.0 + 1.5 * random.nextGaussian());
+    }
+  }
+  
+  @Benchmark
+  public void exact(Blackhole blackhole) {
+    evaluate(new MetricAggregates(count), blackhole);
+  }
+  
+  @Benchmark
+  public void sketch(Blackhole blackhole) {
+    evaluate(new MetricAggregates(), blackhole);
+  }
+  
+  @Benchmark
+  public QuantileSketch mergeHalves() {
+    final QuantileSketch first = new QuantileSketch();
+    final QuantileSketch second = new QuantileSketch();
+    for (int i = 0; i < count; i++) {
+      (i < count / 2 ? first : second).add(values[i]);
+    }
+    first.merge(second);
+    return first;
+  }
+  
+  /* Adds all values to the aggregates and evaluates the percentiles */
+  private void evaluate(MetricAggregates aggregates, Blackhole blackhole) {
+    for (double value : values) {
+      aggregates.addValue(value);
+    }
+    for (double p : PERCENTILES) {
+      blackhole.consume(aggregates.getPercentile(p));
+    }
+  }
+  
+}
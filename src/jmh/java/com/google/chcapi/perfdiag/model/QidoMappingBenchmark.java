@@ -0,0 +1,116 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures mapping of a QIDO instance listing to DICOM attributes: binding to {@link Attributes}
+ * with Jackson data binding and streaming into a {@link DicomCatalog} with
+ * {@link QidoResponseParser}. The listing has the attributes returned by the DICOM store for
+ * instances, of which only the UIDs and the number of frames are mapped.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QidoMappingBenchmark {
+  
+  /* Number of instances in the listing */
+  @Param({"100", "10000"})
+  public int instances;
+  
+  /* Mapper configured as the benchmarks used to map listings before the streaming parser */
+  private final ObjectMapper mapper = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  
+  /* QIDO response */
+  private byte[] listing;
+  
+  @Setup
+  public void setUp() throws IOException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (JsonGenerator json = new JsonFactory().createGenerator(output)) {
+      json.writeStartArray();
+      for (int i = 0; i < instances; i++) {
+        json.writeStartObject();
+        writeAttribute(json, "00080016", "UI", "1.2.840.10008.5.1.4.1.1.77.1.6");
+        writeAttribute(json, "00080018", "UI", "1.3.6.1.4.1.5962.99.1.3." + i);
+        writeAttribute(json, "00080060", "CS", "SM");
+        writeAttribute(json, "0020000D", "UI", "1.3.6.1.4.1.5962.99.1.1");
+        writeAttribute(json, "0020000E", "UI", "1.3.6.1.4.1.5962.99.1.2." + i / 100);
+        json.writeObjectFieldStart("00200013");
+        json.writeStringField("vr", "IS");
+        json.writeArrayFieldStart("Value");
+        json.writeNumber(i + 1);
+        json.writeEndArray();
+        json.writeEndObject();
+        json.writeObjectFieldStart("00280008");
+        json.writeStringField("vr", "IS");
+        json.writeArrayFieldStart("Value");
+        json.writeNumber(1 + i % 64);
+        json.writeEndArray();
+        json.writeEndObject();
+        json.writeEndObject();
+      }
+      json.writeEndArray();
+    }
+    listing = output.toByteArray();
+  }
+  
+  @Benchmark
+  public Attributes[] dataBinding() throws IOException {
+    return mapper.readValue(listing, Attributes[].class);
+  }
+  
+  @Benchmark
+  public DicomCatalog streamingParser() throws IOException {
+    return QidoResponseParser.parse(new ByteArrayInputStream(listing));
+  }
+  
+  /* Writes DICOM JSON attribute with a single string value */
+  private static void writeAttribute(JsonGenerator json, String tag, String vr, String value)
+      throws IOException {
+    json.writeObjectFieldStart(tag);
+    json.writeStringField("vr", vr);
+    json.writeArrayFieldStart("Value");
+    json.writeString(value);
+    json.writeEndArray();
+    json.writeEndObject();
+  }
+  
+}
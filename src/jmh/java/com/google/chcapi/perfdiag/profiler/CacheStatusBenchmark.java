@@ -0,0 +1,91 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.profiler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link CacheStatus#fromResponse(HttpResponse)} for responses with the headers of
+ * different caches. Each response also carries the usual headers of a DICOMweb frame response,
+ * since every header lookup scans them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheStatusBenchmark {
+  
+  /* Cache header of the response, "none" is a response without cache headers */
+  @Param({"none", "X-Cache-Status", "X-Cache", "Cache-Status", "Via", "Age"})
+  public String header;
+  
+  /* Response to obtain cache status from */
+  private HttpResponse response;
+  
+  @Setup
+  public void setUp() {
+    response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+    response.addHeader("Content-Type",
+        "multipart/related; boundary=1b2c3d; type=\"application/octet-stream\"");
+    response.addHeader("Content-Length", "524288");
+    response.addHeader("Date", "Mon, 19 Oct 2026 10:00:00 GMT");
+    response.addHeader("Server", "ESF");
+    response.addHeader("X-Request-Id", "4f1c2d3e-5a6b-7c8d-9e0f-a1b2c3d4e5f6");
+    switch (header) {
+      case "X-Cache-Status":
+        response.addHeader(header, "HIT");
+        break;
+      case "X-Cache":
+        response.addHeader(header, "MISS from edge-1, HIT from edge-2");
+        break;
+      case "Cache-Status":
+        response.addHeader(header, "OriginCache; fwd=uri-miss, EdgeCache; hit; ttl=30");
+        break;
+      case "Via":
+        response.addHeader(header, "1.1 varnish, http/1.1 proxy (ApacheTrafficServer [cHs f ])");
+        break;
+      case "Age":
+        response.addHeader(header, "42");
+        break;
+      default:
+        break;
+    }
+  }
+  
+  @Benchmark
+  public CacheStatus fromResponse() {
+    return CacheStatus.fromResponse(response);
+  }
+  
+}
@@ -0,0 +1,90 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.profiler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import picocli.CommandLine;
+
+import com.google.chcapi.perfdiag.benchmark.config.DicomStudyConfig;
+
+/**
+ * Measures construction of DICOMweb requests by {@link HttpRequestProfilerFactory}: building and
+ * encoding of the URI, parsing it into an HTTP request and setting the authorization header. A
+ * fixed access token is set, so no credentials are needed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestFactoryBenchmark {
+  
+  /* Configuration of a study with IDs which need encoding */
+  private DicomStudyConfig config;
+  
+  /* Series and instance UIDs of a typical length */
+  private String seriesId;
+  private String instanceId;
+  
+  /* Frame index, changes with every request as when retrieving a study */
+  private int frameIndex;
+  
+  @Setup
+  public void setUp() {
+    config = CommandLine.populateCommand(new DicomStudyConfig(), "-p", "perf-test-project",
+        "-l", "us-central1", "-d", "perf dataset", "-s", "store/1",
+        "-y", "1.3.6.1.4.1.5962.99.1.2280943358.716200484.1363785608958.3.0");
+    seriesId = "1.3.6.1.4.1.5962.99.1.2280943358.716200484.1363785608958.4.0";
+    instanceId = "1.3.6.1.4.1.5962.99.1.2280943358.716200484.1363785608958.5.0";
+    HttpRequestProfilerFactory.setAccessToken("ya29.microbenchmark-access-token");
+  }
+  
+  @Benchmark
+  public HttpRequestProfiler retrieveFrame() {
+    return HttpRequestProfilerFactory.createRetrieveDicomInstanceFrameRequest(config, seriesId,
+        instanceId, (frameIndex++ & 1023) + 1);
+  }
+  
+  @Benchmark
+  public HttpRequestProfiler retrieveFrameBatch() {
+    return HttpRequestProfilerFactory.createRetrieveDicomInstanceFramesRequest(config, seriesId,
+        instanceId, (frameIndex++ & 1023) * 8 + 1, 8);
+  }
+  
+  @Benchmark
+  public HttpRequestProfiler retrieveInstance() {
+    return HttpRequestProfilerFactory.createRetrieveDicomStudyInstanceRequest(config, seriesId,
+        instanceId);
+  }
+  
+  @Benchmark
+  public HttpRequestProfiler listStudyInstances() {
+    return HttpRequestProfilerFactory.createListDicomStudyInstancesRequest(config);
+  }
+  
+}
@@ -0,0 +1,96 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.profiler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.http.client.methods.HttpGet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the client side of a request executed by {@link HttpRequestProfiler} against an HTTP
+ * server running in the same process: sending the request over a pooled connection, checking the
+ * response and draining the body. The server writes a preallocated body, so most of the time and
+ * allocation left is the client's.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseDrainBenchmark {
+  
+  /* Size of the response body in bytes, a single frame up to a whole instance */
+  @Param({"16384", "524288", "8388608"})
+  public int size;
+  
+  /* Server returning the body */
+  private HttpServer server;
+  private ExecutorService serverThreads;
+  
+  /* URI of the body */
+  private String uri;
+  
+  @Setup
+  public void setUp() throws IOException {
+    final byte[] body = new byte[size];
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/frames", exchange -> {
+      exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream output = exchange.getResponseBody()) {
+        output.write(body);
+      }
+    });
+    serverThreads = Executors.newFixedThreadPool(2);
+    server.setExecutor(serverThreads);
+    server.start();
+    uri = "http://localhost:" + server.getAddress().getPort() + "/frames";
+    HttpRequestProfiler.configureHttpClients(1, 2);
+  }
+  
+  @TearDown
+  public void tearDown() {
+    server.stop(0);
+    serverThreads.shutdownNow();
+  }
+  
+  @Benchmark
+  public HttpRequestMetrics drain() throws IOException {
+    return new HttpRequestProfiler(new HttpGet(uri)).execute(NullOutputStream.NULL_OUTPUT_STREAM);
+  }
+  
+}
@@ -0,0 +1,148 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.profiler;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpGet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import picocli.CommandLine;
+
+import com.google.chcapi.perfdiag.benchmark.config.DicomStudyConfig;
+
+/**
+ * Measures creating the frame requests of a whole study of {@link #FRAMES} frames, as the retrieve
+ * study benchmark does, with {@link HttpRequestProfilerFactory} and with the construction the
+ * factory used before DICOMweb URIs were precompiled: every request encoded the store and study
+ * again, concatenated a new authorization header and built its URI in a default sized builder.
+ * Run with the GC profiler to compare bytes allocated per study ({@code gc.alloc.rate.norm}).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StudyFrameRequestsBenchmark {
+  
+  /**
+   * Number of frames of the study.
+   */
+  public static final int FRAMES = 100000;
+  
+  /* Endpoint and access token of the requests */
+  private static final String ENDPOINT = "https://healthcare.googleapis.com/v1beta1";
+  private static final String ACCESS_TOKEN = "ya29.microbenchmark-access-token";
+  
+  /* Number of frames of each instance, a study of whole slide images has thousands */
+  @Param({"1", "1000"})
+  public int framesPerInstance;
+  
+  /* Configuration of the study */
+  private DicomStudyConfig config;
+  
+  /* Series and instance UIDs of each instance of the study */
+  private String[] seriesIds;
+  private String[] instanceIds;
+  
+  @Setup
+  public void setUp() {
+    config = CommandLine.populateCommand(new DicomStudyConfig(), "-p", "perf-test-project",
+        "-l", "us-central1", "-d", "perf-dataset", "-s", "perf-store",
+        "-y", "1.3.6.1.4.1.5962.99.1.2280943358.716200484.1363785608958.3.0");
+    final int instances = FRAMES / framesPerInstance;
+    seriesIds = new String[instances];
+    instanceIds = new String[instances];
+    for (int i = 0; i < instances; i++) {
+      seriesIds[i] = "1.3.6.1.4.1.5962.99.1.2280943358.716200484.1363785608958.4." + i / 100;
+      instanceIds[i] = "1.3.6.1.4.1.5962.99.1.2280943358.716200484.1363785608958.5." + i;
+    }
+    HttpRequestProfilerFactory.setAccessToken(ACCESS_TOKEN);
+  }
+  
+  @Benchmark
+  public void precompiled(Blackhole blackhole) {
+    for (int i = 0; i < seriesIds.length; i++) {
+      final String framesUri = HttpRequestProfilerFactory.getDicomInstanceFramesUri(config,
+          seriesIds[i], instanceIds[i]);
+      for (int frame = 1; frame <= framesPerInstance; frame++) {
+        blackhole.consume(HttpRequestProfilerFactory.createRetrieveDicomInstanceFramesRequest(
+            framesUri, frame, 1));
+      }
+    }
+  }
+  
+  @Benchmark
+  public void rebuiltPerRequest(Blackhole blackhole) {
+    for (int i = 0; i < seriesIds.length; i++) {
+      for (int frame = 1; frame <= framesPerInstance; frame++) {
+        blackhole.consume(createFrameRequest(seriesIds[i], instanceIds[i], frame));
+      }
+    }
+  }
+  
+  /* Creates frame request the way the factory did before URIs were precompiled */
+  private HttpRequestProfiler createFrameRequest(String seriesId, String instanceId,
+      int frameIndex) {
+    final HttpGet request = new HttpGet(new StringBuilder(ENDPOINT)
+        .append("/projects/")
+        .append(encode(config.getProjectId()))
+        .append("/locations/")
+        .append(encode(config.getLocationId()))
+        .append("/datasets/")
+        .append(encode(config.getDatasetId()))
+        .append("/dicomStores/")
+        .append(encode(config.getDicomStoreId()))
+        .append("/dicomWeb")
+        .append("/studies")
+        .append("/")
+        .append(encode(config.getDicomStudyId()))
+        .append("/series/")
+        .append(encode(seriesId))
+        .append("/instances/")
+        .append(encode(instanceId))
+        .append("/frames/")
+        .append(frameIndex)
+        .toString());
+    request.setHeader("Authorization", "Bearer " + ACCESS_TOKEN);
+    return new HttpRequestProfiler(request);
+  }
+  
+  /* Encodes URI token */
+  private static String encode(String token) {
+    try {
+      return URLEncoder.encode(token, StandardCharsets.UTF_8.name());
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+  
+}
@@ -14,7 +14,11 @@
 
 package com.google.chcapi.perfdiag;
 
+import com.google.chcapi.perfdiag.benchmark.CatalogCommand;
+import com.google.chcapi.perfdiag.benchmark.CompareCommand;
+import com.google.chcapi.perfdiag.benchmark.DecodeLogCommand;
 import com.google.chcapi.perfdiag.benchmark.DownloadDatasetBenchmark;
+import com.google.chcapi.perfdiag.benchmark.RetrieveSeriesBenchmark;
 import com.google.chcapi.perfdiag.benchmark.RetrieveStudyBenchmark;
 import java.util.ResourceBundle;
 import picocli.CommandLine;
@@ -29,6 +33,10 @@ import picocli.CommandLine.ParseResult;
  * @author Mikhail Ukhlin
  * @see DownloadDatasetBenchmark
  * @see RetrieveStudyBenchmark
+ * @see RetrieveSeriesBenchmark
+ * @see CatalogCommand
+ * @see CompareCommand
+ * @see DecodeLogCommand
  */
 @Command
 public class BenchmarkLauncher implements Runnable {
@@ -81,10 +89,14 @@ public class BenchmarkLauncher implements Runnable {
           .setCommandName("perfdiag")
           .setResourceBundle(ResourceBundle.getBundle("cli-messages"))
           .setExecutionExceptionHandler(createBenchmarkExceptionHandler())
+          .addSubcommand("catalog", new CatalogCommand())
+          .addSubcommand("compare", new CompareCommand())
+          .addSubcommand("decode-log", new DecodeLogCommand())
           .addSubcommand(
               "benchmark",
               new CommandLine(LAUNCHER)
                   .addSubcommand("help", new HelpCommand())
                   .addSubcommand("download-dataset", new DownloadDatasetBenchmark())
-                  .addSubcommand("retrieve-study", new RetrieveStudyBenchmark()));
+                  .addSubcommand("retrieve-study", new RetrieveStudyBenchmark())
+                  .addSubcommand("retrieve-series", new RetrieveSeriesBenchmark()));
 }
@@ -16,11 +16,30 @@ package com.google.chcapi.perfdiag.benchmark;
 
 import java.io.File;
 import java.io.PrintStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 import picocli.CommandLine.Mixin;
 
 import com.google.chcapi.perfdiag.benchmark.config.CommonConfig;
+import com.google.chcapi.perfdiag.benchmark.config.ManifestConfig;
+import com.google.chcapi.perfdiag.benchmark.stats.CacheReport;
+import com.google.chcapi.perfdiag.benchmark.stats.FlightRecording;
+import com.google.chcapi.perfdiag.benchmark.stats.HistogramLog;
+import com.google.chcapi.perfdiag.benchmark.stats.IterationStats;
+import com.google.chcapi.perfdiag.benchmark.stats.LatencyHistogram;
+import com.google.chcapi.perfdiag.benchmark.stats.MetricsEndpoint;
+import com.google.chcapi.perfdiag.benchmark.stats.PayloadSizeBreakdown;
+import com.google.chcapi.perfdiag.benchmark.stats.RequestLog;
+import com.google.chcapi.perfdiag.benchmark.stats.SaturationMonitor;
+import com.google.chcapi.perfdiag.benchmark.stats.SlowestRequests;
+import com.google.chcapi.perfdiag.benchmark.stats.Timeline;
+import com.google.chcapi.perfdiag.profiler.CacheStatus;
+import com.google.chcapi.perfdiag.profiler.HttpRequestMetrics;
 import com.google.chcapi.perfdiag.profiler.HttpRequestProfilerFactory;
 
 /**
@@ -38,12 +57,127 @@ import com.google.chcapi.perfdiag.profiler.HttpRequestProfilerFactory;
  */
 public abstract class Benchmark extends BenchmarkMessages implements Runnable {
   
+  /**
+   * Maximum number of rows of adaptive concurrency timeline printed to stdout.
+   */
+  private static final int MAX_TIMELINE_ROWS = 20;
+  
+  /**
+   * Histogram log tag of response latencies.
+   */
+  private static final String RESPONSE_LATENCY_TAG = "response";
+  
+  /**
+   * Histogram log tag of total latencies.
+   */
+  private static final String TOTAL_LATENCY_TAG = "total";
+  
   /**
    * Common benchmark configuration from command line.
    */
   @Mixin
   protected CommonConfig commonConfig;
   
+  /**
+   * Manifest cache configuration from command line.
+   */
+  @Mixin
+  protected ManifestConfig manifestConfig;
+  
+  /**
+   * Cache of QIDO listings.
+   */
+  protected ManifestCache manifestCache;
+  
+  /**
+   * Adaptive limit of the most recently created request executor or {@code null} if adaptive
+   * concurrency is disabled.
+   */
+  private ConcurrencyLimiter concurrencyLimiter;
+  
+  /**
+   * Response latencies of all requests of all iterations.
+   */
+  private final LatencyHistogram responseLatencies = new LatencyHistogram();
+  
+  /**
+   * Total latencies of all requests of all iterations.
+   */
+  private final LatencyHistogram totalLatencies = new LatencyHistogram();
+  
+  /**
+   * Response latencies of all requests of all iterations by cache status.
+   */
+  private final Map<CacheStatus, LatencyHistogram> cacheStatusResponseLatencies =
+      createCacheStatusHistograms();
+  
+  /**
+   * Total latencies of all requests of all iterations by cache status.
+   */
+  private final Map<CacheStatus, LatencyHistogram> cacheStatusTotalLatencies =
+      createCacheStatusHistograms();
+  
+  /**
+   * Transfer rates in KiB per second of all requests of all iterations by cache status.
+   */
+  private final Map<CacheStatus, LatencyHistogram> cacheStatusTransferRates =
+      createCacheStatusHistograms();
+  
+  /**
+   * The slowest requests of all iterations.
+   */
+  private final SlowestRequests slowestRequests = new SlowestRequests();
+  
+  /**
+   * Breakdown of requests of all iterations by response size.
+   */
+  private final PayloadSizeBreakdown payloadSizeBreakdown = new PayloadSizeBreakdown();
+  
+  /**
+   * Numbers of cache hits and misses by iteration.
+   */
+  private final Map<Integer, long[]> iterationCacheCounts = new TreeMap<>();
+  
+  /**
+   * Current iteration number.
+   */
+  private int iteration;
+  
+  /**
+   * Histogram log of request latencies or {@code null} if histogram log is not written.
+   */
+  private HistogramLog histogramLog;
+  
+  /**
+   * Timeline of requests or {@code null} if timeline is not written.
+   */
+  private Timeline timeline;
+  
+  /**
+   * Log of requests or {@code null} if requests are not logged.
+   */
+  private RequestLog requestLog;
+  
+  /**
+   * Endpoint of live metrics or {@code null} if metrics are not served.
+   */
+  private MetricsEndpoint metricsEndpoint;
+  
+  /**
+   * Flight Recorder recording of the benchmark or {@code null} if the benchmark is not recorded.
+   */
+  private FlightRecording flightRecording;
+  
+  /**
+   * Monitor of resources of the benchmark process.
+   */
+  private SaturationMonitor saturationMonitor;
+  
+  /**
+   * Cache report of studies or {@code null} if cache report is not written.
+   */
+  private CacheReport cacheReport;
+  
   /**
    * Benchmark entry point.
    */
@@ -53,6 +187,13 @@ public abstract class Benchmark extends BenchmarkMessages implements Runnable {
     authorize();
     executeBenchmark();
     printAggregates();
+    if (totalLatencies.getTotalCount() > 0L) {
+      printRequestLatencies(responseLatencies, totalLatencies);
+    }
+    printCacheEffectiveness();
+    printPayloadSizeBreakdown();
+    printSlowestRequests();
+    printSaturation();
   }
   
   /**
@@ -65,12 +206,33 @@ public abstract class Benchmark extends BenchmarkMessages implements Runnable {
       throw BenchmarkException.iterationsInvalid(commonConfig.getIterations());
     } else if (commonConfig.getMaxThreads() < 1) {
       throw BenchmarkException.threadsInvalid(commonConfig.getMaxThreads());
+    } else if (commonConfig.getHttpClients() < 1
+        || commonConfig.getHttpClients() > commonConfig.getMaxThreads()) {
+      throw BenchmarkException.httpClientsInvalid(commonConfig.getHttpClients());
+    }
+    if (commonConfig.getTimelineInterval() < 1L) {
+      throw BenchmarkException.timelineIntervalInvalid(commonConfig.getTimelineInterval());
     }
+    final Integer metricsPort = commonConfig.getMetricsPort();
+    if (metricsPort != null && (metricsPort < 0 || metricsPort > 65535)) {
+      throw BenchmarkException.metricsPortInvalid(metricsPort);
+    }
+    if (commonConfig.getJfrFile() != null) {
+      if (commonConfig.getJfrThreshold() < 0L) {
+        throw BenchmarkException.jfrThresholdInvalid(commonConfig.getJfrThreshold());
+      } else if (!FlightRecording.isAvailable()) {
+        throw BenchmarkException.jfrUnavailable();
+      }
+    }
+    if (manifestConfig.getTtl() < 0L) {
+      throw BenchmarkException.manifestTtlInvalid(manifestConfig.getTtl());
+    }
+    manifestCache = new ManifestCache(manifestConfig);
   }
   
   /**
-   * Sets custom DICOM API endpoint if provided and acquires access token before benchmark
-   * execution.
+   * Sets custom DICOM API endpoint if provided, creates HTTP clients and acquires access token
+   * before benchmark execution.
    * 
    * @throws BenchmarkException if an error occurred.
    * @see HttpRequestProfilerFactory#refreshToken()
@@ -78,6 +240,8 @@ public abstract class Benchmark extends BenchmarkMessages implements Runnable {
   private void authorize() {
     try {
       HttpRequestProfilerFactory.setEndpoint(commonConfig.getEndpoint());
+      HttpRequestProfilerFactory.setHttpClients(commonConfig.getHttpClients(),
+          commonConfig.getMaxThreads());
       HttpRequestProfilerFactory.refreshToken();
     } catch (Exception e) {
       throw BenchmarkException.authorizationFailed(e);
@@ -86,23 +250,94 @@ public abstract class Benchmark extends BenchmarkMessages implements Runnable {
   
   /**
    * Executes benchmark. This method just invokes {@link #runIterations(PrintStream)} and provides
-   * output stream if {@code --output} command line option is specified.
+   * output stream if {@code --output} command line option is specified. Creates histogram log,
+   * timeline, cache report and request log if {@code --histogram-log}, {@code --timeline},
+   * {@code --cache-report} and {@code --request-log} command line options are specified. Serves
+   * live metrics if {@code --metrics-port} command line option is specified. Records the benchmark
+   * with Flight Recorder if {@code --jfr} command line option is specified. Writes the slowest
+   * requests if {@code --slowest-requests} command line option is specified. Resources of the
+   * benchmark process are monitored while iterations run.
    * 
    * @throws BenchmarkException if an error occurred.
    * @see #runIterations(PrintStream)
    * @see CommonConfig#getOutputFile()
+   * @see CommonConfig#getHistogramLogFile()
+   * @see CommonConfig#getTimelineFile()
+   * @see CommonConfig#getCacheReportFile()
+   * @see CommonConfig#getSlowestRequestsFile()
+   * @see CommonConfig#getRequestLogFile()
+   * @see CommonConfig#getJfrFile()
    */
   private void executeBenchmark() {
     final File outputFile = commonConfig.getOutputFile();
-    if (outputFile == null) {
-      // Run benchmark and write metrics to stdout
-      runIterations(null);
-    } else {
-      // Run benchmark and write metrics to the specified output file
-      try (PrintStream output = new PrintStream(outputFile)) {
-        runIterations(output);
-      } catch (FileNotFoundException e) {
-        throw BenchmarkException.ioError(e);
+    final File histogramLogFile = commonConfig.getHistogramLogFile();
+    final File timelineFile = commonConfig.getTimelineFile();
+    final File cacheReportFile = commonConfig.getCacheReportFile();
+    final File requestLogFile = commonConfig.getRequestLogFile();
+    final File jfrFile = commonConfig.getJfrFile();
+    try {
+      flightRecording = jfrFile == null ? null
+          : new FlightRecording(jfrFile, commonConfig.getJfrThreshold());
+      histogramLog = histogramLogFile == null ? null : new HistogramLog(histogramLogFile);
+      timeline = timelineFile == null ? null
+          : new Timeline(timelineFile, commonConfig.getTimelineInterval());
+      cacheReport = cacheReportFile == null ? null : new CacheReport(cacheReportFile);
+      requestLog = requestLogFile == null ? null
+          : new RequestLog(requestLogFile, commonConfig.getRequestLogFormat());
+      if (commonConfig.getMetricsPort() != null) {
+        metricsEndpoint = new MetricsEndpoint(commonConfig.getMetricsPort());
+        printMetricsServed(metricsEndpoint.getPort(), MetricsEndpoint.PATH);
+      }
+      saturationMonitor = new SaturationMonitor(RequestExecutor.THREAD_NAME_PREFIX);
+      if (outputFile == null) {
+        // Run benchmark and write metrics to stdout
+        runIterations(null);
+      } else {
+        // Run benchmark and write metrics to the specified output file
+        try (PrintStream output = new PrintStream(outputFile)) {
+          runIterations(output);
+        }
+      }
+      saturationMonitor.close();
+      if (requestLog != null) {
+        requestLog.close();
+        printRequestLogWritten(requestLog.getWrittenCount(), requestLog.getDroppedCount(),
+            requestLogFile.getPath());
+      }
+      if (commonConfig.getSlowestRequestsFile() != null) {
+        slowestRequests.write(commonConfig.getSlowestRequestsFile());
+      }
+      if (flightRecording != null) {
+        flightRecording.close();
+        printFlightRecordingWritten(jfrFile.getPath());
+      }
+    } catch (IOException e) {
+      throw BenchmarkException.ioError(e);
+    } finally {
+      if (histogramLog != null) {
+        histogramLog.close();
+      }
+      if (timeline != null) {
+        timeline.close();
+      }
+      if (cacheReport != null) {
+        cacheReport.close();
+      }
+      if (requestLog != null) {
+        try {
+          requestLog.close();
+        } catch (IOException e) {
+          // Benchmark failed already, the error of the log is secondary
+        }
+      }
+      if (metricsEndpoint != null) {
+        metricsEndpoint.close();
+      }
+      if (flightRecording != null) {
+        flightRecording.close();
+      }
+      if (saturationMonitor != null) {
+        saturationMonitor.close();
       }
     }
   }
@@ -122,6 +357,16 @@ public abstract class Benchmark extends BenchmarkMessages implements Runnable {
     for (int i = 0; i < iterations; i++) {
       try {
         printIterationStarted(i);
+        iteration = i;
+        if (timeline != null) {
+          timeline.setIteration(i);
+        }
+        if (requestLog != null) {
+          requestLog.setIteration(i);
+        }
+        if (metricsEndpoint != null) {
+          metricsEndpoint.setIteration(i);
+        }
         runIteration(i, output);
       } catch (Exception e) {
         throw BenchmarkException.iterationFailed(i, e);
@@ -130,6 +375,199 @@ public abstract class Benchmark extends BenchmarkMessages implements Runnable {
     printBenchmarkCompleted();
   }
   
+  /**
+   * Creates request executor with the specified number of threads. If adaptive concurrency is
+   * enabled, the number of threads is the upper bound of the adaptive limit.
+   * 
+   * @param threads Maximum number of threads to run in parallel.
+   * @param stats Statistics to fold metrics of completed requests into.
+   * @return Request executor.
+   * @see CommonConfig#isAdaptiveConcurrency()
+   */
+  protected RequestExecutor createRequestExecutor(int threads, IterationStats stats) {
+    concurrencyLimiter = commonConfig.isAdaptiveConcurrency()
+        ? new ConcurrencyLimiter(threads)
+        : null;
+    return new RequestExecutor(threads, concurrencyLimiter, timeline, requestLog,
+        metricsEndpoint, commonConfig.getProgress(), stats);
+  }
+  
+  /**
+   * Prints the limit and the throughput over time and the converged limit of the most recently
+   * created request executor to stdout if adaptive concurrency is enabled.
+   */
+  protected void printAdaptiveConcurrency() {
+    if (concurrencyLimiter != null) {
+      final List<ConcurrencyLimiter.Sample> timeline = concurrencyLimiter.getTimeline();
+      if (!timeline.isEmpty()) {
+        // Print at most MAX_TIMELINE_ROWS evenly spaced samples
+        final int step = (timeline.size() + MAX_TIMELINE_ROWS - 1) / MAX_TIMELINE_ROWS;
+        printConcurrencyTimeline();
+        for (int i = 0; i < timeline.size(); i += step) {
+          final ConcurrencyLimiter.Sample sample = timeline.get(i);
+          printConcurrencyTimelineRow(sample.getElapsedTime(), sample.getLimit(),
+              sample.getThroughput());
+        }
+      }
+      printConvergedConcurrency(concurrencyLimiter.getConvergedLimit(),
+          commonConfig.getMaxThreads(), concurrencyLimiter.getConvergedThroughput());
+    }
+  }
+  
+  /**
+   * Wraps the specified task so that its request is counted in the cache report of the specified
+   * study once it completes.
+   * 
+   * @param studyId ID of the study the task retrieves.
+   * @param task Task to wrap.
+   * @return Task counted in the cache report or the specified task if cache report is disabled.
+   */
+  protected Callable<HttpRequestMetrics> cacheReported(String studyId,
+      Callable<HttpRequestMetrics> task) {
+    final CacheReport cacheReport = this.cacheReport;
+    if (cacheReport == null) {
+      return task;
+    }
+    return () -> {
+      final HttpRequestMetrics metrics = task.call();
+      cacheReport.add(studyId, metrics);
+      return metrics;
+    };
+  }
+  
+  /**
+   * Adds latencies of requests completed with the specified stats to per-request latencies of all
+   * iterations and writes them to histogram log if it is enabled. If any request was a cache hit
+   * or miss, latencies of each cache status are also written to histogram log with the cache
+   * status appended to the tag (e.g. {@code total_hit}). Should be called once all requests are
+   * completed.
+   * 
+   * @param stats Statistics of completed requests.
+   */
+  protected void recordLatencies(IterationStats stats) {
+    if (stats.getRequestCount() > 0L) {
+      final LatencyHistogram response = stats.getResponseLatencyHistogram();
+      final LatencyHistogram total = stats.getTotalLatencyHistogram();
+      responseLatencies.add(response);
+      totalLatencies.add(total);
+      slowestRequests.addAll(stats.getSlowestRequests());
+      payloadSizeBreakdown.add(stats.getPayloadSizeBreakdown());
+      if (histogramLog != null) {
+        histogramLog.write(RESPONSE_LATENCY_TAG, stats.getFirstStartTime(),
+            stats.getLastEndTime(), response);
+        histogramLog.write(TOTAL_LATENCY_TAG, stats.getFirstStartTime(), stats.getLastEndTime(),
+            total);
+      }
+      final boolean cached = stats.getCacheHits() + stats.getCacheMisses() > 0;
+      for (CacheStatus cacheStatus : CacheStatus.values()) {
+        final LatencyHistogram cacheStatusResponse = stats.getResponseLatencyHistogram(cacheStatus);
+        final LatencyHistogram cacheStatusTotal = stats.getTotalLatencyHistogram(cacheStatus);
+        cacheStatusResponseLatencies.get(cacheStatus).add(cacheStatusResponse);
+        cacheStatusTotalLatencies.get(cacheStatus).add(cacheStatusTotal);
+        cacheStatusTransferRates.get(cacheStatus).add(stats.getTransferRateHistogram(cacheStatus));
+        if (histogramLog != null && cached && cacheStatusTotal.getTotalCount() > 0L) {
+          final String suffix = "_" + cacheStatus.name().toLowerCase();
+          histogramLog.write(RESPONSE_LATENCY_TAG + suffix, stats.getFirstStartTime(),
+              stats.getLastEndTime(), cacheStatusResponse);
+          histogramLog.write(TOTAL_LATENCY_TAG + suffix, stats.getFirstStartTime(),
+              stats.getLastEndTime(), cacheStatusTotal);
+        }
+      }
+      final long[] cacheCounts = iterationCacheCounts.computeIfAbsent(iteration, i -> new long[2]);
+      cacheCounts[0] += stats.getCacheHits();
+      cacheCounts[1] += stats.getCacheMisses();
+    }
+  }
+  
+  /**
+   * Prints latencies and transfer rates of requests of all iterations by cache status and hit
+   * ratio of each iteration to stdout, if any request was a cache hit or miss.
+   */
+  private void printCacheEffectiveness() {
+    final long hits = cacheStatusTotalLatencies.get(CacheStatus.HIT).getTotalCount();
+    final long misses = cacheStatusTotalLatencies.get(CacheStatus.MISS).getTotalCount();
+    if (hits + misses == 0L) {
+      return;
+    }
+    printCacheEffectivenessHeader(hits, misses,
+        cacheStatusTotalLatencies.get(CacheStatus.NA).getTotalCount());
+    for (CacheStatus cacheStatus : CacheStatus.values()) {
+      if (cacheStatusTotalLatencies.get(cacheStatus).getTotalCount() > 0L) {
+        printCacheEffectivenessRow(cacheStatus, cacheStatusResponseLatencies.get(cacheStatus),
+            cacheStatusTotalLatencies.get(cacheStatus), cacheStatusTransferRates.get(cacheStatus));
+      }
+    }
+    printCacheHitRatios();
+    for (Map.Entry<Integer, long[]> entry : iterationCacheCounts.entrySet()) {
+      printCacheHitRatio(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+    }
+  }
+  
+  /**
+   * Prints resources used by the benchmark process to stdout, with warnings if the client rather
+   * than the server is the likely bottleneck.
+   */
+  private void printSaturation() {
+    if (saturationMonitor == null || saturationMonitor.getSampleCount() == 0) {
+      return;
+    }
+    printClientResources(saturationMonitor);
+    if (saturationMonitor.isCpuSaturated()) {
+      printClientCpuSaturated(saturationMonitor.getCpuSaturatedRatio(),
+          saturationMonitor.getMaxCpuUsage());
+    }
+    if (saturationMonitor.isGcSaturated()) {
+      printClientGcSaturated(saturationMonitor.getGcSaturatedRatio(),
+          saturationMonitor.getMaxGcTimeRatio());
+    }
+  }
+  
+  /**
+   * Prints latencies and transfer rates of requests of all iterations by response size and the
+   * fitted model of latency as a function of response size to stdout, if any request completed.
+   */
+  private void printPayloadSizeBreakdown() {
+    if (payloadSizeBreakdown.getRequestCount() == 0L) {
+      return;
+    }
+    printPayloadSizeBreakdownHeader();
+    for (int bucket = 0; bucket < PayloadSizeBreakdown.BUCKET_COUNT; bucket++) {
+      final LatencyHistogram total = payloadSizeBreakdown.getTotalLatencyHistogram(bucket);
+      if (total != null) {
+        printPayloadSizeBreakdownRow(PayloadSizeBreakdown.getBucketLowestSize(bucket),
+            bucket + 1 < PayloadSizeBreakdown.BUCKET_COUNT
+                ? PayloadSizeBreakdown.getBucketLowestSize(bucket + 1) : Long.MAX_VALUE,
+            payloadSizeBreakdown.getResponseLatencyHistogram(bucket), total,
+            payloadSizeBreakdown.getTransferRate(bucket));
+      }
+    }
+    printPayloadSizeModel(payloadSizeBreakdown.getOverhead(),
+        payloadSizeBreakdown.getOverheadError(), payloadSizeBreakdown.getBandwidth(),
+        payloadSizeBreakdown.getRSquare(), payloadSizeBreakdown.getRequestCount());
+  }
+  
+  /**
+   * Prints the slowest requests of all iterations to stdout.
+   */
+  private void printSlowestRequests() {
+    final List<HttpRequestMetrics> requests = slowestRequests.getRequests();
+    if (!requests.isEmpty()) {
+      printSlowestRequestsHeader(requests.size());
+      for (int i = 0; i < requests.size(); i++) {
+        printSlowestRequest(i + 1, requests.get(i));
+      }
+    }
+  }
+  
+  /* Creates empty histogram for each cache status */
+  private static Map<CacheStatus, LatencyHistogram> createCacheStatusHistograms() {
+    final Map<CacheStatus, LatencyHistogram> histograms = new EnumMap<>(CacheStatus.class);
+    for (CacheStatus cacheStatus : CacheStatus.values()) {
+      histograms.put(cacheStatus, new LatencyHistogram());
+    }
+    return histograms;
+  }
+  
   /**
    * Runs benchmark iteration and writes metrics to the specified output stream.
    * 
@@ -54,6 +54,181 @@ public class BenchmarkException extends RuntimeException {
     return new BenchmarkException(BenchmarkMessages.format("error.threadsInvalid", threads));
   }
   
+  /**
+   * Creates {@code BenchmarkException} instance with invalid split threshold error detail message.
+   * 
+   * @param threshold Invalid split threshold provided from command line.
+   * @return {@code BenchmarkException} instance with invalid split threshold error detail message.
+   */
+  public static BenchmarkException splitThresholdInvalid(int threshold) {
+    return new BenchmarkException(BenchmarkMessages.format("error.splitThresholdInvalid",
+        threshold));
+  }
+  
+  /**
+   * Creates {@code BenchmarkException} instance with invalid number of HTTP clients error detail
+   * message.
+   * 
+   * @param clients Invalid number of HTTP clients provided from command line.
+   * @return {@code BenchmarkException} instance with invalid number of HTTP clients error detail
+   *         message.
+   */
+  public static BenchmarkException httpClientsInvalid(int clients) {
+    return new BenchmarkException(BenchmarkMessages.format("error.httpClientsInvalid", clients));
+  }
+  
+  /**
+   * Creates {@code BenchmarkException} instance with invalid manifest TTL error detail message.
+   * 
+   * @param ttl Invalid manifest TTL provided from command line.
+   * @return {@code BenchmarkException} instance with invalid manifest TTL error detail message.
+   */
+  public static BenchmarkException manifestTtlInvalid(long ttl) {
+    return new BenchmarkException(BenchmarkMessages.format("error.manifestTtlInvalid", ttl));
+  }
+  
+  /**
+   * Creates {@code BenchmarkException} instance with missing option error detail message.
+   * 
+   * @param option Name of the missing option.
+   * @return {@code BenchmarkException} instance with missing option error detail message.
+   */
+  public static BenchmarkException optionMissing(String option) {
+    return new BenchmarkException(BenchmarkMessages.format("error.optionMissing", option));
+  }
+  
+  /**
+   * Creates {@code BenchmarkException} instance with invalid timeline interval error detail
+   * message.
+   * 
+   * @param interval Invalid timeline interval provided from command line.
+   * @return {@code BenchmarkException} instance with invalid timeline interval error detail
+   *         message.
+   */
+  public static BenchmarkException timelineIntervalInvalid(long interval) {
+    return new BenchmarkException(BenchmarkMessages.format("error.timelineIntervalInvalid",
+        interval));
+  }
+  
+  /**
+   * Creates {@code BenchmarkException} instance with invalid metrics port error detail message.
+   * 
+   * @param port Invalid metrics port provided from command line.
+   * @return {@code BenchmarkException} instance with invalid metrics port error detail message.
+   */
+  public static BenchmarkException metricsPortInvalid(int port) {
+    return new BenchmarkException(BenchmarkMessages.format("error.metricsPortInvalid", port));
+  }
+  
+  /**
+   * Creates {@code BenchmarkException} instance with invalid flight recording threshold error
+   * detail message.
+   * 
+   * @param threshold Invalid threshold provided from command line.
+   * @return {@code BenchmarkException} instance with invalid threshold error detail message.
+   */
+  public static BenchmarkException jfrThresholdInvalid(long threshold) {
+    return new BenchmarkException(BenchmarkMessages.format("error.jfrThresholdInvalid",
+        threshold));
+  }
+  
+  /**
+   * Creates {@code BenchmarkException} instance with Flight Recorder unavailable error detail
+   * message.
+   * 
+   * @return {@code BenchmarkException} instance with Flight Recorder unavailable error detail
+   *         message.
+   */
+  public static BenchmarkException jfrUnavailable() {
+    return new BenchmarkException(BenchmarkMessages.format("error.jfrUnavailable"));
+  }
+  
+  /**
+   * Creates {@code BenchmarkException} instance with invalid frames per request error detail
+   * message.
+   * 
+   * @param frames Invalid number of frames per request provided from command line.
+   * @return {@code BenchmarkException} instance with invalid frames per request error detail
+   *         message.
+   */
+  public static BenchmarkException framesPerRequestInvalid(int frames) {
+    return new BenchmarkException(BenchmarkMessages.format("error.framesPerRequestInvalid",
+        frames));
+  }
+  
+  /**
+   * Creates {@code BenchmarkException} instance with conflicting options error detail message.
+   * 
+   * @param option First option provided from command line.
+   * @param conflictingOption Option which cannot be used together with the first one.
+   * @return {@code BenchmarkException} instance with conflicting options error detail message.
+   */
+  public static BenchmarkException optionsConflict(String option, String conflictingOption) {
+    return new BenchmarkException(BenchmarkMessages.format("error.optionsConflict", option,
+        conflictingOption));
+  }
+  
+  /**
+   * Creates {@code BenchmarkException} instance with invalid regression threshold error detail
+   * message.
+   * 
+   * @param threshold Invalid regression threshold provided from command line.
+   * @return {@code BenchmarkException} instance with invalid regression threshold error detail
+   *         message.
+   */
+  public static BenchmarkException thresholdInvalid(double threshold) {
+    return new BenchmarkException(BenchmarkMessages.format("error.thresholdInvalid", threshold));
+  }
+  
+  /**
+   * Creates {@code BenchmarkException} instance with invalid significance level error detail
+   * message.
+   * 
+   * @param alpha Invalid significance level provided from command line.
+   * @return {@code BenchmarkException} instance with invalid significance level error detail
+   *         message.
+   */
+  public static BenchmarkException alphaInvalid(double alpha) {
+    return new BenchmarkException(BenchmarkMessages.format("error.alphaInvalid", alpha));
+  }
+  
+  /**
+   * Creates {@code BenchmarkException} instance with unknown metric error detail message.
+   * 
+   * @param metric Metric name provided from command line.
+   * @param file Path of baseline file which has no such metric.
+   * @return {@code BenchmarkException} instance with unknown metric error detail message.
+   */
+  public static BenchmarkException metricNotFound(String metric, String file) {
+    return new BenchmarkException(BenchmarkMessages.format("error.metricNotFound", metric, file));
+  }
+  
+  /**
+   * Creates {@code BenchmarkException} instance with unreadable compared file error detail
+   * message.
+   * 
+   * @param file Path of results file or histogram log.
+   * @param cause Exception cause.
+   * @return {@code BenchmarkException} instance with unreadable compared file error detail
+   *         message.
+   */
+  public static BenchmarkException compareFileInvalid(String file, Exception cause) {
+    return new BenchmarkException(BenchmarkMessages.format("error.compareFileInvalid", file,
+        cause.getMessage()));
+  }
+  
+  /**
+   * Creates exception for request log which could not be decoded.
+   * 
+   * @param file Path of request log.
+   * @param cause Exception cause.
+   * @return Created exception.
+   */
+  public static BenchmarkException requestLogInvalid(String file, Exception cause) {
+    return new BenchmarkException(BenchmarkMessages.format("error.requestLogInvalid", file,
+        cause.getMessage()));
+  }
+  
   /**
    * Creates {@code BenchmarkException} instance with IO error detail message.
    * 
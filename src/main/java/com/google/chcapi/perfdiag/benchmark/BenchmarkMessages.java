@@ -14,9 +14,16 @@
 
 package com.google.chcapi.perfdiag.benchmark;
 
+import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
 
+import com.google.chcapi.perfdiag.benchmark.stats.LatencyHistogram;
 import com.google.chcapi.perfdiag.benchmark.stats.MetricAggregates;
+import com.google.chcapi.perfdiag.benchmark.stats.SampleComparison;
+import com.google.chcapi.perfdiag.benchmark.stats.SaturationMonitor;
+import com.google.chcapi.perfdiag.profiler.CacheStatus;
+import com.google.chcapi.perfdiag.profiler.HttpRequestMetrics;
 
 /**
  * Helper class used to format and print benchmark messages from resource bundle.
@@ -62,10 +69,35 @@ public abstract class BenchmarkMessages {
   }
   
   /**
-   * Prints {@code '.'} character to stdout indicating that some process is working.
+   * Prints progress of requests to stdout. Values which are not known yet are printed as
+   * {@code n/a}.
+   * 
+   * @param live Whether the progress line is redrawn in place rather than printed as a new line.
+   * @param elapsed Elapsed time in seconds.
+   * @param completed Number of completed requests.
+   * @param total Expected total number of requests or {@code -1} if unknown.
+   * @param inFlight Number of requests being executed.
+   * @param transferRate Current transfer rate in MB per second.
+   * @param frameRate Current number of frames read per second.
+   * @param p50 Median total latency of recent requests in milliseconds.
+   * @param p99 99th percentile of total latency of recent requests in milliseconds.
+   * @param failures Number of failed requests.
+   * @param hitRatio Cache hit ratio in percent.
    */
-  public static void printProgress() {
-    System.out.print(".");
+  public static void printProgress(boolean live, double elapsed, long completed, long total,
+      long inFlight, double transferRate, double frameRate, double p50, double p99, long failures,
+      double hitRatio) {
+    final String progress = format("message.progress", elapsed, completed,
+        total < 0L ? "" : String.format("/%,d", total), inFlight, transferRate,
+        formatEstimate("%,.1f", frameRate), formatEstimate("%,.0f", p50),
+        formatEstimate("%,.0f", p99), failures, formatEstimate("%.1f%%", hitRatio));
+    if (live) {
+      // Return to the line start and erase the rest of the previous line
+      System.out.print("\r" + progress + "\u001B[K");
+      System.out.flush();
+    } else {
+      System.out.println(progress);
+    }
   }
   
   /**
@@ -103,6 +135,399 @@ public abstract class BenchmarkMessages {
     print("message.stadiesFound", studies, threads);
   }
   
+  /**
+   * Prints message to stdout that studies are retrieved while the listing is being received.
+   * 
+   * @param threads Maximum number of threads to run in parallel.
+   */
+  public static void printStudiesPipelined(int threads) {
+    print("message.studiesPipelined", threads);
+  }
+  
+  /**
+   * Prints time to first study and overlap of the listing and download phases to stdout.
+   * 
+   * @param timeToFirstStudy Time from iteration start until the first study has been read.
+   * @param overlap Time the study listing and study downloads ran concurrently.
+   */
+  public static void printListingOverlap(long timeToFirstStudy, long overlap) {
+    print("message.listingOverlap", timeToFirstStudy, overlap);
+  }
+  
+  /**
+   * Prints utilization of threads executing requests to stdout.
+   * 
+   * @param utilization Thread utilization from {@code 0.0} to {@code 1.0}.
+   * @param busyTime Total time threads spent executing requests.
+   * @param threads Number of threads.
+   */
+  public static void printThreadUtilization(double utilization, long busyTime, int threads) {
+    print("message.threadUtilization", utilization * 100.0, busyTime, threads);
+  }
+  
+  /**
+   * Prints message to stdout that listing has been loaded from manifest file.
+   * 
+   * @param objects Number of listed DICOM objects.
+   * @param file Path of manifest file.
+   * @param latency Latency of loading manifest file.
+   */
+  public static void printManifestLoaded(int objects, String file, long latency) {
+    print("message.manifestLoaded", objects, file, latency);
+  }
+  
+  /**
+   * Prints message to stdout that listing has been stored to manifest file.
+   * 
+   * @param objects Number of listed DICOM objects.
+   * @param file Path of manifest file.
+   */
+  public static void printManifestStored(int objects, String file) {
+    print("message.manifestStored", objects, file);
+  }
+  
+  /**
+   * Prints percentiles of per-request latencies to stdout.
+   * 
+   * @param responseLatencies Histogram of response latencies.
+   * @param totalLatencies Histogram of total latencies.
+   */
+  public static void printRequestLatencies(LatencyHistogram responseLatencies,
+      LatencyHistogram totalLatencies) {
+    print("message.requestLatencies",
+        totalLatencies.getTotalCount(),
+        responseLatencies.getMean(),
+        responseLatencies.getValueAtPercentile(MetricAggregates.MEDIAN),
+        responseLatencies.getValueAtPercentile(MetricAggregates.P90),
+        responseLatencies.getValueAtPercentile(MetricAggregates.P99),
+        responseLatencies.getValueAtPercentile(MetricAggregates.P99_9),
+        responseLatencies.getMaxValue(),
+        totalLatencies.getMean(),
+        totalLatencies.getValueAtPercentile(MetricAggregates.MEDIAN),
+        totalLatencies.getValueAtPercentile(MetricAggregates.P90),
+        totalLatencies.getValueAtPercentile(MetricAggregates.P99),
+        totalLatencies.getValueAtPercentile(MetricAggregates.P99_9),
+        totalLatencies.getMaxValue());
+  }
+  
+  /**
+   * Prints header of cache effectiveness table to stdout.
+   * 
+   * @param hits Number of cache hits.
+   * @param misses Number of cache misses.
+   * @param unknown Number of requests with unknown cache status.
+   */
+  public static void printCacheEffectivenessHeader(long hits, long misses, long unknown) {
+    print("message.cacheEffectiveness", 100.0 * hits / (hits + misses), hits, misses, unknown);
+  }
+  
+  /**
+   * Prints latencies and transfer rates of requests with the specified cache status to stdout.
+   * 
+   * @param cacheStatus Cache status of requests.
+   * @param responseLatencies Histogram of response latencies.
+   * @param totalLatencies Histogram of total latencies.
+   * @param transferRates Histogram of transfer rates in KiB per second.
+   */
+  public static void printCacheEffectivenessRow(CacheStatus cacheStatus,
+      LatencyHistogram responseLatencies, LatencyHistogram totalLatencies,
+      LatencyHistogram transferRates) {
+    print("message.cacheEffectivenessRow", cacheStatus, totalLatencies.getTotalCount(),
+        responseLatencies.getValueAtPercentile(MetricAggregates.MEDIAN),
+        responseLatencies.getValueAtPercentile(MetricAggregates.P99),
+        totalLatencies.getValueAtPercentile(MetricAggregates.MEDIAN),
+        totalLatencies.getValueAtPercentile(MetricAggregates.P99),
+        transferRates.getValueAtPercentile(MetricAggregates.MEDIAN) / 1024.0,
+        transferRates.getValueAtPercentile(MetricAggregates.P10) / 1024.0);
+  }
+  
+  /**
+   * Prints URL of the metrics endpoint to stdout.
+   * 
+   * @param port Port of the metrics endpoint.
+   * @param path Path of the metrics endpoint.
+   */
+  public static void printMetricsServed(int port, String path) {
+    print("message.metricsServed", port, path);
+  }
+  
+  /**
+   * Prints path of the written Flight Recorder recording to stdout.
+   * 
+   * @param file Path of the recording.
+   */
+  public static void printFlightRecordingWritten(String file) {
+    print("message.flightRecordingWritten", file);
+  }
+  
+  /**
+   * Prints number of requests written to request log and warns about dropped requests to stdout.
+   * 
+   * @param written Number of logged requests.
+   * @param dropped Number of requests which were not logged.
+   * @param file Path of request log.
+   */
+  public static void printRequestLogWritten(long written, long dropped, String file) {
+    print("message.requestLogWritten", written, file);
+    if (dropped > 0L) {
+      print("message.requestLogDropped", dropped);
+    }
+  }
+  
+  /**
+   * Prints number of requests decoded from binary request log to stdout.
+   * 
+   * @param records Number of decoded requests.
+   * @param input Path of binary request log.
+   * @param output Path of JSON Lines file.
+   */
+  public static void printRequestLogDecoded(long records, String input, String output) {
+    print("message.requestLogDecoded", records, input, output);
+  }
+  
+  /**
+   * Prints header of table of latencies by response size to stdout.
+   */
+  public static void printPayloadSizeBreakdownHeader() {
+    print("message.payloadSizeBreakdown");
+  }
+  
+  /**
+   * Prints latencies and transfer rate of requests of the specified size range to stdout.
+   * 
+   * @param lowestSize Lowest response size of the range in bytes, inclusive.
+   * @param highestSize Highest response size of the range in bytes, exclusive.
+   * @param responseLatencies Histogram of response latencies.
+   * @param totalLatencies Histogram of total latencies.
+   * @param transferRate Bytes read per second.
+   */
+  public static void printPayloadSizeBreakdownRow(long lowestSize, long highestSize,
+      LatencyHistogram responseLatencies, LatencyHistogram totalLatencies, double transferRate) {
+    print("message.payloadSizeBreakdownRow", formatSize(lowestSize), formatSize(highestSize),
+        totalLatencies.getTotalCount(),
+        responseLatencies.getValueAtPercentile(MetricAggregates.MEDIAN),
+        totalLatencies.getValueAtPercentile(MetricAggregates.MEDIAN),
+        totalLatencies.getValueAtPercentile(MetricAggregates.P99),
+        Double.isNaN(transferRate) ? 0.0 : transferRate / 1048576.0);
+  }
+  
+  /**
+   * Prints model of latency as a function of response size to stdout. Values which could not be
+   * estimated are printed as {@code n/a}.
+   * 
+   * @param overhead Fixed per-request overhead in milliseconds.
+   * @param overheadError Standard error of the overhead in milliseconds.
+   * @param bandwidth Effective bandwidth of a single request in bytes per second.
+   * @param rSquare Coefficient of determination of the model.
+   * @param requests Number of requests the model is fitted to.
+   */
+  public static void printPayloadSizeModel(double overhead, double overheadError,
+      double bandwidth, double rSquare, long requests) {
+    print("message.payloadSizeModel", requests, formatEstimate("%,.1f", overhead),
+        formatEstimate("%,.1f", overheadError), formatEstimate("%,.2f", bandwidth / 1048576.0),
+        formatEstimate("%.3f", rSquare));
+  }
+  
+  /**
+   * Prints resources used by the benchmark process to stdout. Values which are not supported by
+   * the JVM are printed as {@code n/a}.
+   * 
+   * @param monitor Monitor of resources of the benchmark process.
+   */
+  public static void printClientResources(SaturationMonitor monitor) {
+    print("message.clientResources", monitor.getSampleCount(),
+        formatEstimate("%.1f", 100.0 * monitor.getCpuUsage()),
+        formatEstimate("%.1f", 100.0 * monitor.getMaxCpuUsage()), monitor.getProcessors(),
+        formatEstimate("%.1f", 100.0 * monitor.getGcTimeRatio()), monitor.getGcTime(),
+        monitor.getGcCount(), formatEstimate("%,.1f", monitor.getAllocationRate() / 1048576.0),
+        monitor.getMaxHeapUsed() / 1048576.0, monitor.getHeapLimit() / 1048576.0,
+        formatEstimate("%.1f", 100.0 * monitor.getWorkersRunning()),
+        formatEstimate("%.1f", 100.0 * monitor.getWorkersInIo()),
+        formatEstimate("%.1f", 100.0 * monitor.getWorkersBlocked()),
+        formatEstimate("%.1f", 100.0 * monitor.getWorkersWaiting()));
+  }
+  
+  /**
+   * Prints warning that the benchmark process was likely CPU bound to stdout.
+   * 
+   * @param saturatedRatio Fraction of samples in which CPU usage exceeded the threshold.
+   * @param maxCpuUsage Maximum CPU usage in a sample from 0 to 1.
+   */
+  public static void printClientCpuSaturated(double saturatedRatio, double maxCpuUsage) {
+    print("message.clientCpuSaturated", 100.0 * SaturationMonitor.CPU_THRESHOLD,
+        100.0 * saturatedRatio, 100.0 * maxCpuUsage);
+  }
+  
+  /**
+   * Prints warning that the benchmark process spent too much time in garbage collection to
+   * stdout.
+   * 
+   * @param saturatedRatio Fraction of samples in which GC time exceeded the threshold.
+   * @param maxGcTimeRatio Maximum fraction of time of a sample spent in garbage collection.
+   */
+  public static void printClientGcSaturated(double saturatedRatio, double maxGcTimeRatio) {
+    print("message.clientGcSaturated", 100.0 * SaturationMonitor.GC_THRESHOLD,
+        100.0 * saturatedRatio, 100.0 * maxGcTimeRatio);
+  }
+  
+  /* Formats number of bytes with binary unit prefix */
+  private static String formatSize(long bytes) {
+    if (bytes == Long.MAX_VALUE) {
+      return "max";
+    }
+    final String[] units = {"B", "KiB", "MiB", "GiB", "TiB", "PiB", "EiB"};
+    int unit = 0;
+    while (unit + 1 < units.length && bytes >= 1024L && bytes % 1024L == 0L) {
+      bytes /= 1024L;
+      unit++;
+    }
+    return bytes + " " + units[unit];
+  }
+  
+  /* Formats estimated value or returns n/a if the value could not be estimated */
+  private static String formatEstimate(String format, double value) {
+    return Double.isNaN(value) || Double.isInfinite(value) ? "n/a"
+        : String.format(format, value);
+  }
+  
+  /**
+   * Prints header of the slowest requests table to stdout.
+   * 
+   * @param requests Number of the slowest requests.
+   */
+  public static void printSlowestRequestsHeader(int requests) {
+    print("message.slowestRequests", requests);
+  }
+  
+  /**
+   * Prints row of the slowest requests table to stdout.
+   * 
+   * @param rank Rank of the request, {@code 1} is the slowest.
+   * @param metrics Metrics of the request.
+   */
+  public static void printSlowestRequest(int rank, HttpRequestMetrics metrics) {
+    print("message.slowestRequest", rank, metrics.getTotalLatency(),
+        metrics.getResponseLatency(), metrics.getBytesRead(), metrics.getCacheStatus(),
+        metrics.isConnectionReused() ? "yes" : "no", metrics.getUri());
+  }
+  
+  /**
+   * Prints header of cache hit ratios of iterations to stdout.
+   */
+  public static void printCacheHitRatios() {
+    print("message.cacheHitRatios");
+  }
+  
+  /**
+   * Prints cache hit ratio of the specified iteration to stdout.
+   * 
+   * @param iteration Iteration number.
+   * @param hits Number of cache hits.
+   * @param misses Number of cache misses.
+   */
+  public static void printCacheHitRatio(int iteration, long hits, long misses) {
+    print("message.cacheHitRatio", iteration,
+        hits + misses == 0L ? 0.0 : 100.0 * hits / (hits + misses), hits, misses);
+  }
+  
+  /**
+   * Prints message to stdout that tasks recorded in journal file are skipped.
+   * 
+   * @param file Path of journal file.
+   * @param tasks Number of completed tasks.
+   * @param bytesRead Number of bytes read by completed tasks.
+   * @param latency Time in milliseconds between the first and last recorded task.
+   */
+  public static void printJournalResumed(String file, int tasks, long bytesRead, long latency) {
+    print("message.journalResumed", file, tasks, bytesRead, latency);
+  }
+  
+  /**
+   * Prints error message to stderr that journal file could not be written and journaling stopped.
+   * 
+   * @param file Path of journal file.
+   * @param error Message of the write error.
+   */
+  public static void printJournalFailed(String file, String error) {
+    printError("message.journalFailed", file, error);
+  }
+  
+  /**
+   * Prints details of stored manifest file to stdout.
+   * 
+   * @param fileSize Size of manifest file in bytes.
+   * @param uids Number of distinct UIDs.
+   * @param uidBytes Number of bytes of encoded UIDs.
+   */
+  public static void printCatalogStored(long fileSize, int uids, int uidBytes) {
+    print("message.catalogStored", fileSize, uids, uidBytes);
+  }
+  
+  /**
+   * Prints header of comparison of candidate run with baseline run to stdout.
+   * 
+   * @param baselineFile Path of baseline file.
+   * @param candidateFile Path of candidate file.
+   */
+  public static void printComparison(String baselineFile, String candidateFile) {
+    print("message.comparison", candidateFile, baselineFile);
+  }
+  
+  /**
+   * Prints comparison of a metric to stdout.
+   * 
+   * @param metric Metric name.
+   * @param comparison Comparison of metric values.
+   * @param verdict Whether the metric is significantly better or worse, empty if not.
+   */
+  public static void printComparisonRow(String metric, SampleComparison comparison,
+      String verdict) {
+    print("message.comparisonRow", metric, comparison.getBaselineMedian(),
+        comparison.getCandidateMedian(), comparison.getChange(), comparison.getLowerChange(),
+        comparison.getUpperChange(), comparison.getPValue(), verdict);
+  }
+  
+  /**
+   * Prints result of comparison to stdout.
+   * 
+   * @param regressions Number of regressed gated metrics.
+   * @param threshold Minimum relative change of median in percent considered as regression.
+   * @param alpha Significance level.
+   */
+  public static void printComparisonCompleted(int regressions, double threshold, double alpha) {
+    print(regressions == 0 ? "message.comparisonPassed" : "message.comparisonFailed", regressions,
+        threshold, alpha);
+  }
+  
+  /**
+   * Prints header of adaptive concurrency timeline to stdout.
+   */
+  public static void printConcurrencyTimeline() {
+    print("message.concurrencyTimeline");
+  }
+  
+  /**
+   * Prints row of adaptive concurrency timeline to stdout.
+   * 
+   * @param elapsedTime Time in milliseconds since the requests started.
+   * @param limit Limit of requests executed in parallel.
+   * @param throughput Completed requests per second.
+   */
+  public static void printConcurrencyTimelineRow(long elapsedTime, int limit, double throughput) {
+    print("message.concurrencyTimelineRow", elapsedTime / 1000.0, limit, throughput);
+  }
+  
+  /**
+   * Prints converged adaptive concurrency to stdout.
+   * 
+   * @param limit Converged limit of requests executed in parallel.
+   * @param threads Maximum number of threads.
+   * @param throughput Completed requests per second at the converged limit.
+   */
+  public static void printConvergedConcurrency(int limit, int threads, double throughput) {
+    print("message.convergedConcurrency", limit, threads, throughput);
+  }
+  
   /**
    * Prints study instances found message to stdout.
    * 
@@ -123,6 +548,25 @@ public abstract class BenchmarkMessages {
     printError("message.requestFailed", cause.getMessage());
   }
   
+  /**
+   * Prints number of failed requests by HTTP status code to stdout.
+   * 
+   * @param failures Total number of failed requests.
+   * @param failuresByStatus Number of failed requests by HTTP status code, {@code 0} if no
+   *        response was received.
+   */
+  public static void printRequestFailures(long failures, Map<Integer, Long> failuresByStatus) {
+    final StringBuilder statuses = new StringBuilder();
+    for (Map.Entry<Integer, Long> entry : failuresByStatus.entrySet()) {
+      if (statuses.length() > 0) {
+        statuses.append(", ");
+      }
+      statuses.append(entry.getKey() == 0 ? format("message.noResponse") : entry.getKey())
+          .append(": ").append(String.format("%,d", entry.getValue()));
+    }
+    print("message.requestFailures", failures, statuses);
+  }
+  
   /**
    * Prints metrics of retrieve study iteration to stdout.
    * 
@@ -249,6 +693,165 @@ public abstract class BenchmarkMessages {
         frameRateAggregates.getPercentile(MetricAggregates.P99));
   }
   
+  /**
+   * Prints number of frames per request of the following metrics to stdout.
+   * 
+   * @param frames Number of frames per request.
+   */
+  public static void printFramesPerRequest(int frames) {
+    print("message.framesPerRequest", frames);
+  }
+  
+  /**
+   * Prints comparison of mean metrics of retrieve study benchmark for each number of frames per
+   * request to stdout.
+   * 
+   * @param framesPerRequest Numbers of frames per request.
+   * @param requestSizeAggregates Aggregates for bytes read per request.
+   * @param firstFrameAggregates Aggregates for latency of reading first frame.
+   * @param totalAggregates Aggregates for latency of downloading the whole study.
+   * @param transferRateAggregates Aggregates for transfer rate of downloading the whole study.
+   * @param frameRateAggregates Aggregates for frame rate of downloading the whole study.
+   */
+  public static void printFramesPerRequestSweep(
+      List<Integer> framesPerRequest,
+      MetricAggregates[] requestSizeAggregates,
+      MetricAggregates[] firstFrameAggregates,
+      MetricAggregates[] totalAggregates,
+      MetricAggregates[] transferRateAggregates,
+      MetricAggregates[] frameRateAggregates) {
+    print("message.framesPerRequestSweep");
+    for (int i = 0; i < framesPerRequest.size(); i++) {
+      print("message.framesPerRequestSweepRow",
+          framesPerRequest.get(i),
+          requestSizeAggregates[i].getMean(),
+          firstFrameAggregates[i].getMean(),
+          totalAggregates[i].getMean(),
+          transferRateAggregates[i].getMean(),
+          frameRateAggregates[i].getMean());
+    }
+  }
+  
+  /**
+   * Prints series found message to stdout.
+   * 
+   * @param series Number of found series.
+   * @param instances Number of instances of found series.
+   * @param threads Maximum number of threads to run in parallel.
+   */
+  public static void printSeriesFound(int series, long instances, int threads) {
+    print("message.seriesFound", series, instances, threads);
+  }
+  
+  /**
+   * Prints metrics of retrieve series iteration to stdout.
+   * 
+   * @param querySeriesLatency Latency of querying series.
+   * @param firstResponseLatency Latency of first byte received.
+   * @param firstSeriesLatency Latency of reading first series.
+   * @param totalLatency Latency of reading all series.
+   * @param totalBytesRead Total bytes read.
+   * @param transferRate Bytes read per second.
+   * @param seriesRate Series read per second.
+   * @param instanceRate Instances read per second.
+   * @param seriesLatencyAggregates Aggregates for latency of reading each series.
+   * @param seriesTransferRateAggregates Aggregates for transfer rate of reading each series.
+   * @param cacheHits Number of cache hits.
+   * @param cacheMisses Number of cache misses.
+   */
+  public static void printRetrieveSeriesMetrics(long querySeriesLatency,
+      long firstResponseLatency, long firstSeriesLatency, long totalLatency, long totalBytesRead,
+      double transferRate, double seriesRate, double instanceRate,
+      MetricAggregates seriesLatencyAggregates, MetricAggregates seriesTransferRateAggregates,
+      int cacheHits, int cacheMisses) {
+    print("message.retrieveSeriesMetrics",
+        querySeriesLatency,
+        firstResponseLatency,
+        firstSeriesLatency,
+        totalLatency,
+        totalBytesRead,
+        transferRate,
+        seriesRate,
+        instanceRate,
+        seriesLatencyAggregates.getMin(),
+        seriesLatencyAggregates.getPercentile(MetricAggregates.MEDIAN),
+        seriesLatencyAggregates.getPercentile(MetricAggregates.P90),
+        seriesLatencyAggregates.getPercentile(MetricAggregates.P99),
+        seriesLatencyAggregates.getMax(),
+        seriesTransferRateAggregates.getMin(),
+        seriesTransferRateAggregates.getPercentile(MetricAggregates.MEDIAN),
+        seriesTransferRateAggregates.getMax(),
+        cacheHits,
+        cacheMisses);
+  }
+  
+  /**
+   * Prints aggregates of retrieve series benchmark to stdout.
+   * 
+   * @param querySeriesAggregates Aggregates for latency of querying series.
+   * @param firstResponseAggregates Aggregates for latency of first byte received.
+   * @param firstSeriesAggregates Aggregates for latency of reading first series.
+   * @param totalAggregates Aggregates for latency of reading all series.
+   * @param transferRateAggregates Aggregates for transfer rate of reading all series.
+   * @param seriesRateAggregates Aggregates for series rate of reading all series.
+   */
+  public static void printRetrieveSeriesAggregates(
+      MetricAggregates querySeriesAggregates,
+      MetricAggregates firstResponseAggregates,
+      MetricAggregates firstSeriesAggregates,
+      MetricAggregates totalAggregates,
+      MetricAggregates transferRateAggregates,
+      MetricAggregates seriesRateAggregates) {
+    print("message.retrieveSeriesAggregates", aggregateTableArgs(
+        querySeriesAggregates,
+        firstResponseAggregates,
+        firstSeriesAggregates,
+        totalAggregates,
+        transferRateAggregates,
+        seriesRateAggregates));
+  }
+  
+  /**
+   * Returns arguments of aggregates table message: min, max, mean, stddev, median and p1 to p99
+   * rows, each row has a value for each of the specified aggregates.
+   * 
+   * @param columns Aggregates of table columns.
+   * @return Arguments of aggregates table message.
+   */
+  private static Object[] aggregateTableArgs(MetricAggregates... columns) {
+    final double[] percentiles = {
+      MetricAggregates.MEDIAN,
+      MetricAggregates.P1,
+      MetricAggregates.P2,
+      MetricAggregates.P5,
+      MetricAggregates.P10,
+      MetricAggregates.P90,
+      MetricAggregates.P95,
+      MetricAggregates.P98,
+      MetricAggregates.P99
+    };
+    final Object[] args = new Object[columns.length * (4 + percentiles.length)];
+    int i = 0;
+    for (MetricAggregates column : columns) {
+      args[i++] = column.getMin();
+    }
+    for (MetricAggregates column : columns) {
+      args[i++] = column.getMax();
+    }
+    for (MetricAggregates column : columns) {
+      args[i++] = column.getMean();
+    }
+    for (MetricAggregates column : columns) {
+      args[i++] = column.getStddev();
+    }
+    for (double p : percentiles) {
+      for (MetricAggregates column : columns) {
+        args[i++] = column.getPercentile(p);
+      }
+    }
+    return args;
+  }
+  
   /**
    * Prints metrics of download dataset iteration to stdout.
    * 
@@ -0,0 +1,135 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import picocli.CommandLine.Mixin;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Command;
+
+import com.google.chcapi.perfdiag.model.DicomCatalog;
+import com.google.chcapi.perfdiag.model.QidoResponseParser;
+import com.google.chcapi.perfdiag.benchmark.config.DicomSeriesConfig;
+import com.google.chcapi.perfdiag.benchmark.config.EndpointConfig;
+import com.google.chcapi.perfdiag.benchmark.config.ManifestConfig;
+import com.google.chcapi.perfdiag.profiler.HttpRequestProfiler;
+import com.google.chcapi.perfdiag.profiler.HttpRequestProfilerFactory;
+
+/**
+ * Command which lists DICOM store or study once and writes the listing to the manifest cache, so
+ * benchmarks run with the same {@code --manifest-cache} directory start retrieving data without
+ * querying the DICOM store. The listing requests are the same as the requests of benchmarks.
+ * 
+ * @see ManifestCache
+ */
+@Command
+public class CatalogCommand extends BenchmarkMessages implements Runnable {
+  
+  /**
+   * Listing written to the manifest cache.
+   */
+  public enum Level {
+    
+    /** Studies of the DICOM store listed by {@code download-dataset} benchmark. */
+    STUDIES,
+    
+    /** Series of the DICOM store or study listed by {@code retrieve-series} benchmark. */
+    SERIES,
+    
+    /** Instances of the study listed by {@code retrieve-study} benchmark. */
+    INSTANCES
+    
+  }
+  
+  /**
+   * Endpoint configuration from command line.
+   */
+  @Mixin
+  protected EndpointConfig endpointConfig;
+  
+  /**
+   * DICOM store and optional study configuration from command line.
+   */
+  @Mixin
+  protected DicomSeriesConfig dicomSeriesConfig;
+  
+  /**
+   * Manifest cache configuration from command line.
+   */
+  @Mixin
+  protected ManifestConfig manifestConfig;
+  
+  /**
+   * Listing written to the manifest cache.
+   */
+  @Option(
+      names = {"--level"},
+      descriptionKey = "option.level.description",
+      required = false
+  )
+  private Level level = Level.STUDIES;
+  
+  /**
+   * Command entry point.
+   */
+  @Override
+  public void run() {
+    if (manifestConfig.getDirectory() == null) {
+      throw BenchmarkException.optionMissing("--manifest-cache");
+    } else if (level == Level.INSTANCES && dicomSeriesConfig.getDicomStudyId() == null) {
+      throw BenchmarkException.optionMissing("--dicom-study");
+    }
+    try {
+      HttpRequestProfilerFactory.setEndpoint(endpointConfig.getEndpoint());
+      HttpRequestProfilerFactory.refreshToken();
+    } catch (Exception e) {
+      throw BenchmarkException.authorizationFailed(e);
+    }
+    try {
+      final HttpRequestProfiler request = createListingRequest();
+      final DicomCatalog catalog = new DicomCatalog();
+      request.execute(content -> QidoResponseParser.parse(content, catalog));
+      final File file = new ManifestCache(manifestConfig).store(request, catalog);
+      printCatalogStored(file.length(), catalog.getUidCount(), catalog.getUidByteCount());
+    } catch (IOException e) {
+      throw BenchmarkException.ioError(e);
+    }
+  }
+  
+  /**
+   * Creates listing request of the configured level, the request must match the listing request
+   * of the corresponding benchmark.
+   */
+  private HttpRequestProfiler createListingRequest() {
+    final String studyId = dicomSeriesConfig.getDicomStudyId();
+    switch (level) {
+      case SERIES:
+        return studyId == null
+            ? HttpRequestProfilerFactory.createListDicomSeriesRequest(dicomSeriesConfig,
+                QidoResponseParser.STUDY_UID, QidoResponseParser.NUMBER_OF_SERIES_RELATED_INSTANCES)
+            : HttpRequestProfilerFactory.createListDicomStudySeriesRequest(dicomSeriesConfig,
+                studyId, QidoResponseParser.NUMBER_OF_SERIES_RELATED_INSTANCES);
+      case INSTANCES:
+        return HttpRequestProfilerFactory.createListDicomStudyInstancesRequest(dicomSeriesConfig,
+            studyId);
+      default:
+        return HttpRequestProfilerFactory.createListDicomStudiesRequest(dicomSeriesConfig,
+            QidoResponseParser.NUMBER_OF_STUDY_RELATED_INSTANCES);
+    }
+  }
+  
+}
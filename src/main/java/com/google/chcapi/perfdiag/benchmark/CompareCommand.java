@@ -0,0 +1,265 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.ExitCode;
+import picocli.CommandLine.IExitCodeGenerator;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import com.google.chcapi.perfdiag.benchmark.stats.LatencyHistogram;
+import com.google.chcapi.perfdiag.benchmark.stats.SampleComparison;
+
+/**
+ * Command which compares metrics of benchmark runs and fails if a gated metric regresses. The
+ * first file is the baseline, each following file is compared with it. Files are either results
+ * written by {@code --output} option of benchmarks, where each iteration is a value of every
+ * column, or histogram logs written by {@code --histogram-log} option, where each request is a
+ * value of {@code RESPONSE_LATENCY} and {@code TOTAL_LATENCY} metrics. Metrics which names contain
+ * {@code LATENCY} are better when lower and metrics which names contain {@code PER_SECOND} are
+ * better when higher, other metrics are compared but never regress.
+ *
+ * @see SampleComparison
+ */
+@Command
+public class CompareCommand extends BenchmarkMessages implements Runnable, IExitCodeGenerator {
+  
+  /**
+   * Exit code of the command if any gated metric regresses.
+   */
+  public static final int EXIT_CODE_REGRESSION = 3;
+  
+  /* Column of results files which rows are compared separately */
+  private static final String GROUP_COLUMN = "FRAMES_PER_REQUEST";
+  
+  /* Column of results files which is not a metric */
+  private static final String ITERATION_COLUMN = "ITERATION";
+  
+  /**
+   * Results files or histogram logs, the first one is the baseline.
+   */
+  @Parameters(
+      arity = "2..*",
+      paramLabel = "FILE",
+      descriptionKey = "option.compare-files.description"
+  )
+  private List<File> files;
+  
+  /**
+   * Metrics which fail the command if they regress.
+   */
+  @Option(
+      names = {"--metric"},
+      descriptionKey = "option.metric.description",
+      split = ",",
+      required = false
+  )
+  private List<String> gatedMetrics;
+  
+  /**
+   * Minimum relative change of median in percent to consider as regression.
+   */
+  @Option(
+      names = {"--threshold"},
+      descriptionKey = "option.threshold.description",
+      required = false
+  )
+  private double threshold = 5.0;
+  
+  /**
+   * Significance level of the test.
+   */
+  @Option(
+      names = {"--alpha"},
+      descriptionKey = "option.alpha.description",
+      required = false
+  )
+  private double alpha = 0.05;
+  
+  /**
+   * Exit code of the command.
+   */
+  private int exitCode = ExitCode.OK;
+  
+  /**
+   * Command entry point.
+   */
+  @Override
+  public void run() {
+    if (!(threshold >= 0.0)) {
+      throw BenchmarkException.thresholdInvalid(threshold);
+    } else if (!(alpha > 0.0 && alpha < 1.0)) {
+      throw BenchmarkException.alphaInvalid(alpha);
+    }
+    final File baselineFile = files.get(0);
+    final Map<String, double[]> baseline = load(baselineFile);
+    if (gatedMetrics != null) {
+      for (String metric : gatedMetrics) {
+        if (baseline.keySet().stream().noneMatch(name -> isMetric(name, metric))) {
+          throw BenchmarkException.metricNotFound(metric, baselineFile.getPath());
+        }
+      }
+    }
+    int regressions = 0;
+    for (File candidateFile : files.subList(1, files.size())) {
+      final Map<String, double[]> candidate = load(candidateFile);
+      printComparison(baselineFile.getPath(), candidateFile.getPath());
+      for (Map.Entry<String, double[]> entry : baseline.entrySet()) {
+        final String name = entry.getKey();
+        final double[] candidateValues = candidate.get(name);
+        if (candidateValues == null) {
+          continue;
+        }
+        final SampleComparison comparison = new SampleComparison(entry.getValue(), candidateValues);
+        final int direction = getDirection(name);
+        final boolean significant = comparison.getPValue() < alpha;
+        final double change = comparison.getChange() * direction;
+        String verdict = "";
+        if (significant && direction != 0 && change < -threshold) {
+          final boolean gated = gatedMetrics == null
+              || gatedMetrics.stream().anyMatch(metric -> isMetric(name, metric));
+          verdict = gated ? "REGRESSION" : "worse";
+          regressions += gated ? 1 : 0;
+        } else if (significant && direction != 0 && change > threshold) {
+          verdict = "better";
+        }
+        printComparisonRow(name, comparison, verdict);
+      }
+    }
+    printComparisonCompleted(regressions, threshold, alpha);
+    if (regressions > 0) {
+      exitCode = EXIT_CODE_REGRESSION;
+    }
+  }
+  
+  /**
+   * Returns {@link #EXIT_CODE_REGRESSION} if any gated metric regresses.
+   */
+  @Override
+  public int getExitCode() {
+    return exitCode;
+  }
+  
+  /**
+   * Returns {@code true} if the metric has the specified name, ignoring the group of results
+   * file rows.
+   */
+  private static boolean isMetric(String name, String metric) {
+    return name.equalsIgnoreCase(metric) || name.toUpperCase(Locale.US).startsWith(
+        metric.toUpperCase(Locale.US) + " [");
+  }
+  
+  /**
+   * Returns {@code 1} if the metric is better when higher, {@code -1} if the metric is better
+   * when lower or {@code 0} if the metric has no direction.
+   */
+  private static int getDirection(String name) {
+    if (name.contains("PER_SECOND")) {
+      return 1;
+    } else if (name.contains("LATENCY")) {
+      return -1;
+    }
+    return 0;
+  }
+  
+  /**
+   * Loads values of metrics from results file or histogram log.
+   */
+  private static Map<String, double[]> load(File file) {
+    try {
+      final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+      return !lines.isEmpty() && lines.get(0).startsWith("#[Histogram log format")
+          ? loadHistogramLog(lines) : loadResults(lines);
+    } catch (IOException | RuntimeException e) {
+      throw BenchmarkException.compareFileInvalid(file.getPath(), e);
+    }
+  }
+  
+  /**
+   * Loads values of metrics from lines of results file, rows with different number of frames per
+   * request are separate metrics.
+   */
+  private static Map<String, double[]> loadResults(List<String> lines) {
+    if (lines.isEmpty()) {
+      throw new IllegalArgumentException("File is empty");
+    }
+    final String[] columns = lines.get(0).split(",");
+    int groupColumn = -1;
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = columns[i].trim();
+      groupColumn = columns[i].equals(GROUP_COLUMN) ? i : groupColumn;
+    }
+    final Map<String, List<Double>> metrics = new LinkedHashMap<>();
+    for (String line : lines.subList(1, lines.size())) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      final String[] values = line.split(",");
+      if (values.length != columns.length) {
+        throw new IllegalArgumentException("Unexpected number of columns: " + line);
+      }
+      final String group = groupColumn < 0 ? ""
+          : " [" + GROUP_COLUMN + "=" + values[groupColumn].trim() + "]";
+      for (int i = 0; i < columns.length; i++) {
+        if (i != groupColumn && !columns[i].equals(ITERATION_COLUMN)) {
+          metrics.computeIfAbsent(columns[i] + group, name -> new ArrayList<>())
+              .add(Double.parseDouble(values[i].trim()));
+        }
+      }
+    }
+    final Map<String, double[]> samples = new LinkedHashMap<>();
+    metrics.forEach((name, values) ->
+        samples.put(name, values.stream().mapToDouble(Double::doubleValue).toArray()));
+    return samples;
+  }
+  
+  /**
+   * Loads per-request latencies from lines of histogram log, histograms of all intervals with the
+   * same tag are merged.
+   */
+  private static Map<String, double[]> loadHistogramLog(List<String> lines) {
+    final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+    for (String line : lines) {
+      if (line.startsWith("#") || line.startsWith("\"") || line.trim().isEmpty()) {
+        continue;
+      }
+      String tag = "";
+      String interval = line;
+      if (line.startsWith("Tag=")) {
+        tag = line.substring(4, line.indexOf(',')).toUpperCase(Locale.US) + "_";
+        interval = line.substring(line.indexOf(',') + 1);
+      }
+      final String encoded = interval.substring(interval.lastIndexOf(',') + 1).trim();
+      histograms.computeIfAbsent(tag + "LATENCY", name -> new LatencyHistogram())
+          .add(LatencyHistogram.decode(encoded));
+    }
+    final Map<String, double[]> samples = new LinkedHashMap<>();
+    histograms.forEach((name, histogram) ->
+        samples.put(name, histogram.getValues(SampleComparison.MAX_SAMPLE_SIZE)));
+    return samples;
+  }
+  
+}
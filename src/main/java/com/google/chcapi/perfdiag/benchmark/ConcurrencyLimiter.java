@@ -0,0 +1,360 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark;
+
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import com.google.chcapi.perfdiag.profiler.HttpRequestException;
+
+/**
+ * Adaptive limit of requests executed in parallel. The limit follows the AIMD (additive increase,
+ * multiplicative decrease) scheme:
+ * <ul>
+ *   <li>Starting from a single request, the limit grows by one for each successful request until
+ *   the first congestion signal (slow start), then by one per limit's worth of successful
+ *   requests.</li>
+ *   <li>The limit is halved when a request fails with {@code 429 Too Many Requests}, a server error
+ *   or a connection error (connect or read timeout, reset or no response).</li>
+ *   <li>The limit is decreased by {@link #LATENCY_BACKOFF_RATIO} when the short term average of
+ *   response latency exceeds the long term average by more than {@link #LATENCY_TOLERANCE}.</li>
+ * </ul>
+ * Only requests sent after the last decrease may decrease the limit again, so a single congestion
+ * event is not counted once per request in flight. The limit never exceeds the maximum number of
+ * threads. The limit and the throughput are sampled every {@link #SAMPLE_INTERVAL} milliseconds.
+ */
+public class ConcurrencyLimiter {
+  
+  /**
+   * Ratio the limit is multiplied by on overload errors.
+   */
+  public static final double BACKOFF_RATIO = 0.5;
+  
+  /**
+   * Ratio the limit is multiplied by on latency increase.
+   */
+  public static final double LATENCY_BACKOFF_RATIO = 0.9;
+  
+  /**
+   * Ratio of short term to long term average latency treated as latency increase.
+   */
+  public static final double LATENCY_TOLERANCE = 1.5;
+  
+  /**
+   * Interval in milliseconds of sampling the limit and the throughput.
+   */
+  public static final long SAMPLE_INTERVAL = 1000L;
+  
+  /* Smoothing factor of short term average latency (about 10 requests) */
+  private static final double SHORT_SMOOTHING = 0.1;
+  
+  /* Smoothing factor of long term average latency (about 100 requests) */
+  private static final double LONG_SMOOTHING = 0.01;
+  
+  /* Number of requests before latency gradient is taken into account */
+  private static final int WARMUP_REQUESTS = 20;
+  
+  /* HTTP status code of rate limited request */
+  private static final int SC_TOO_MANY_REQUESTS = 429;
+  
+  /**
+   * Maximum value of the limit.
+   */
+  private final int maxLimit;
+  
+  /**
+   * Time in milliseconds when the limiter has been created.
+   */
+  private final long startTime;
+  
+  /**
+   * Samples of the limit and the throughput.
+   */
+  private final List<Sample> timeline = new ArrayList<>();
+  
+  /**
+   * Current limit of requests executed in parallel.
+   */
+  private double limit = 1.0;
+  
+  /**
+   * Whether the limit is in slow start phase, i.e. no congestion has been detected yet.
+   */
+  private boolean slowStart = true;
+  
+  /**
+   * Number of requests currently executed.
+   */
+  private int inFlight;
+  
+  /**
+   * Number of completed requests.
+   */
+  private long completed;
+  
+  /**
+   * Short term exponential moving average of response latency.
+   */
+  private double shortLatency;
+  
+  /**
+   * Long term exponential moving average of response latency.
+   */
+  private double longLatency;
+  
+  /**
+   * Time in milliseconds of the last decrease of the limit.
+   */
+  private long lastBackoffTime = Long.MIN_VALUE;
+  
+  /**
+   * Time in milliseconds of the last sample.
+   */
+  private long lastSampleTime;
+  
+  /**
+   * Number of completed requests at the time of the last sample.
+   */
+  private long lastSampleCompleted;
+  
+  /**
+   * Constructs a new {@code ConcurrencyLimiter} with the specified maximum limit.
+   *
+   * @param maxLimit Maximum number of requests executed in parallel.
+   */
+  public ConcurrencyLimiter(int maxLimit) {
+    this.maxLimit = maxLimit;
+    this.startTime = System.currentTimeMillis();
+    this.lastSampleTime = startTime;
+  }
+  
+  /**
+   * Waits until the number of requests in flight is below the limit and counts a new request.
+   *
+   * @return Time in milliseconds when the request has been admitted.
+   * @throws InterruptedException if the current thread was interrupted while waiting.
+   */
+  public synchronized long acquire() throws InterruptedException {
+    while (inFlight >= (int) limit) {
+      wait();
+    }
+    inFlight++;
+    return System.currentTimeMillis();
+  }
+  
+  /**
+   * Releases request completed successfully and adjusts the limit.
+   *
+   * @param admitTime Time in milliseconds when the request has been admitted.
+   * @param responseLatency Latency of the response in milliseconds.
+   */
+  public synchronized void onSuccess(long admitTime, long responseLatency) {
+    completed++;
+    if (completed == 1) {
+      shortLatency = responseLatency;
+      longLatency = responseLatency;
+    } else {
+      shortLatency += SHORT_SMOOTHING * (responseLatency - shortLatency);
+      longLatency += LONG_SMOOTHING * (responseLatency - longLatency);
+    }
+    if (completed > WARMUP_REQUESTS && shortLatency > LATENCY_TOLERANCE * longLatency) {
+      backoff(admitTime, LATENCY_BACKOFF_RATIO);
+    } else {
+      limit = Math.min(maxLimit, limit + (slowStart ? 1.0 : 1.0 / limit));
+    }
+    release();
+  }
+  
+  /**
+   * Releases failed request and decreases the limit if the failure indicates overload.
+   *
+   * @param admitTime Time in milliseconds when the request has been admitted.
+   * @param cause Exception cause.
+   */
+  public synchronized void onFailure(long admitTime, Exception cause) {
+    if (isOverload(cause)) {
+      backoff(admitTime, BACKOFF_RATIO);
+    }
+    release();
+  }
+  
+  /**
+   * Returns current limit of requests executed in parallel.
+   *
+   * @return Current limit of requests executed in parallel.
+   */
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+  
+  /**
+   * Returns the limit the controller converged to, i.e. median of limit samples taken during the
+   * second half of execution, or current limit if there are no samples.
+   *
+   * @return Converged limit of requests executed in parallel.
+   */
+  public synchronized int getConvergedLimit() {
+    final List<Sample> tail = getConvergedSamples();
+    if (tail.isEmpty()) {
+      return (int) limit;
+    }
+    final int[] limits = new int[tail.size()];
+    for (int i = 0; i < limits.length; i++) {
+      limits[i] = tail.get(i).getLimit();
+    }
+    Arrays.sort(limits);
+    return limits[limits.length / 2];
+  }
+  
+  /**
+   * Returns mean throughput in requests per second of the second half of execution.
+   *
+   * @return Converged throughput in requests per second.
+   */
+  public synchronized double getConvergedThroughput() {
+    final List<Sample> tail = getConvergedSamples();
+    double sum = 0.0;
+    for (Sample sample : tail) {
+      sum += sample.getThroughput();
+    }
+    return tail.isEmpty() ? 0.0 : sum / tail.size();
+  }
+  
+  /**
+   * Returns samples of the limit and the throughput taken every {@link #SAMPLE_INTERVAL}
+   * milliseconds.
+   *
+   * @return Samples of the limit and the throughput.
+   */
+  public synchronized List<Sample> getTimeline() {
+    return new ArrayList<>(timeline);
+  }
+  
+  /* Returns samples of the second half of execution */
+  private List<Sample> getConvergedSamples() {
+    return timeline.subList(timeline.size() / 2, timeline.size());
+  }
+  
+  /* Decreases the limit unless the request was admitted before the last decrease */
+  private void backoff(long admitTime, double ratio) {
+    if (admitTime >= lastBackoffTime) {
+      limit = Math.max(1.0, limit * ratio);
+      lastBackoffTime = System.currentTimeMillis();
+      slowStart = false;
+    }
+  }
+  
+  /* Decrements number of requests in flight, takes sample if needed and wakes up waiters */
+  private void release() {
+    inFlight--;
+    final long now = System.currentTimeMillis();
+    if (now - lastSampleTime >= SAMPLE_INTERVAL) {
+      final double throughput =
+          (double) (completed - lastSampleCompleted) * 1000.0 / (double) (now - lastSampleTime);
+      timeline.add(new Sample(now - startTime, (int) limit, throughput));
+      lastSampleTime = now;
+      lastSampleCompleted = completed;
+    }
+    notifyAll();
+  }
+  
+  /**
+   * Returns {@code true} if the specified failure indicates that the service is overloaded: the
+   * request was rate limited, failed with server error or the connection failed. Other failures
+   * without response, such as parse errors, local IO errors or interruption on shutdown, are not
+   * overload.
+   */
+  private static boolean isOverload(Exception cause) {
+    final int status = HttpRequestException.getStatusCode(cause);
+    if (status != 0) {
+      return status == SC_TOO_MANY_REQUESTS || status >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+    }
+    final Throwable failure = cause instanceof HttpRequestException ? cause.getCause() : cause;
+    return failure instanceof ConnectTimeoutException
+        || failure instanceof SocketTimeoutException
+        || failure instanceof NoHttpResponseException
+        || failure instanceof SocketException;
+  }
+  
+  /**
+   * Sample of the limit and the throughput.
+   */
+  public static class Sample {
+    
+    /**
+     * Time in milliseconds since the limiter has been created.
+     */
+    private final long elapsedTime;
+    
+    /**
+     * Limit of requests executed in parallel.
+     */
+    private final int limit;
+    
+    /**
+     * Completed requests per second since the previous sample.
+     */
+    private final double throughput;
+    
+    /**
+     * Constructs a new {@code Sample}.
+     *
+     * @param elapsedTime Time in milliseconds since the limiter has been created.
+     * @param limit Limit of requests executed in parallel.
+     * @param throughput Completed requests per second since the previous sample.
+     */
+    public Sample(long elapsedTime, int limit, double throughput) {
+      this.elapsedTime = elapsedTime;
+      this.limit = limit;
+      this.throughput = throughput;
+    }
+    
+    /**
+     * Returns time in milliseconds since the limiter has been created.
+     *
+     * @return Time in milliseconds since the limiter has been created.
+     */
+    public long getElapsedTime() {
+      return elapsedTime;
+    }
+    
+    /**
+     * Returns limit of requests executed in parallel.
+     *
+     * @return Limit of requests executed in parallel.
+     */
+    public int getLimit() {
+      return limit;
+    }
+    
+    /**
+     * Returns completed requests per second since the previous sample.
+     *
+     * @return Completed requests per second.
+     */
+    public double getThroughput() {
+      return throughput;
+    }
+  
+  }
+  
+}
@@ -0,0 +1,68 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import com.google.chcapi.perfdiag.benchmark.stats.RequestLog;
+
+/**
+ * Command which converts binary request log written by {@code --request-log} option of benchmarks
+ * to JSON Lines, one JSON object per request, for offline analysis.
+ * 
+ * @see RequestLog
+ */
+@Command
+public class DecodeLogCommand extends BenchmarkMessages implements Runnable {
+  
+  /**
+   * Binary request log.
+   */
+  @Parameters(
+      arity = "1",
+      paramLabel = "FILE",
+      descriptionKey = "option.request-log-file.description"
+  )
+  private File inputFile;
+  
+  /**
+   * JSON Lines file to write decoded requests to.
+   */
+  @Option(
+      names = {"-o", "--output"},
+      descriptionKey = "option.request-log-output.description",
+      required = true
+  )
+  private File outputFile;
+  
+  /**
+   * Command entry point.
+   */
+  @Override
+  public void run() {
+    try {
+      final long records = RequestLog.decode(inputFile, outputFile);
+      printRequestLogDecoded(records, inputFile.getPath(), outputFile.getPath());
+    } catch (IOException e) {
+      throw BenchmarkException.requestLogInvalid(inputFile.getPath(), e);
+    }
+  }
+  
+}
@@ -14,28 +14,31 @@
 
 package com.google.chcapi.perfdiag.benchmark;
 
+import java.util.Set;
 import java.util.List;
+import java.util.Queue;
 import java.util.ArrayList;
-import java.util.concurrent.Future;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import java.io.File;
 import java.io.PrintStream;
-import java.io.ByteArrayOutputStream;
+import java.io.InterruptedIOException;
 
 import picocli.CommandLine.Mixin;
 import picocli.CommandLine.Command;
 
 import org.apache.commons.io.output.NullOutputStream;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-
-import com.google.chcapi.perfdiag.model.Attributes;
+import com.google.chcapi.perfdiag.model.DicomCatalog;
+import com.google.chcapi.perfdiag.model.QidoResponseParser;
 import com.google.chcapi.perfdiag.benchmark.config.DicomStoreConfig;
+import com.google.chcapi.perfdiag.benchmark.config.DownloadDatasetConfig;
+import com.google.chcapi.perfdiag.benchmark.config.DownloadDatasetConfig.Schedule;
+import com.google.chcapi.perfdiag.benchmark.stats.IterationStats;
 import com.google.chcapi.perfdiag.benchmark.stats.MetricAggregates;
 import com.google.chcapi.perfdiag.profiler.HttpRequestProfiler;
 import com.google.chcapi.perfdiag.profiler.HttpRequestProfilerFactory;
@@ -57,6 +60,12 @@ public class DownloadDatasetBenchmark extends Benchmark {
   @Mixin
   protected DicomStoreConfig dicomStoreConfig;
   
+  /**
+   * Download dataset configuration from command line.
+   */
+  @Mixin
+  protected DownloadDatasetConfig downloadDatasetConfig;
+  
   /**
    * Aggregates for latency of querying studies.
    */
@@ -82,12 +91,30 @@ public class DownloadDatasetBenchmark extends Benchmark {
    */
   private MetricAggregates transferRateAggregates;
   
+  /**
+   * Journal of tasks completed in the current iteration or {@code null} if journal is disabled.
+   */
+  private DownloadJournal journal;
+  
   /**
    * Validates configuration and initializes aggregates.
    */
   @Override
   protected void validateConfig() {
     super.validateConfig();
+    if (downloadDatasetConfig.getSplitThreshold() < 0) {
+      throw BenchmarkException.splitThresholdInvalid(downloadDatasetConfig.getSplitThreshold());
+    } else if (downloadDatasetConfig.isResume() && downloadDatasetConfig.getJournal() == null) {
+      throw BenchmarkException.optionMissing("--journal");
+    } else if (downloadDatasetConfig.isPipelined()) {
+      if (manifestCache.isEnabled()) {
+        throw BenchmarkException.optionsConflict("--pipelined", "--manifest-cache");
+      } else if (downloadDatasetConfig.getSchedule() != Schedule.LISTING) {
+        throw BenchmarkException.optionsConflict("--pipelined", "--schedule");
+      } else if (downloadDatasetConfig.getSplitThreshold() > 0) {
+        throw BenchmarkException.optionsConflict("--pipelined", "--split-threshold");
+      }
+    }
     final int iterations = commonConfig.getIterations();
     queryStudiesAggregates = new MetricAggregates(iterations);
     firstResponseAggregates = new MetricAggregates(iterations);
@@ -106,81 +133,151 @@ public class DownloadDatasetBenchmark extends Benchmark {
    */
   @Override
   protected void runIteration(int iteration, PrintStream output) throws Exception {
-    final AtomicReference<HttpRequestMetrics> firstResponseMetrics = new AtomicReference<>();
-    final AtomicReference<HttpRequestMetrics> firstStudyMetrics = new AtomicReference<>();
+    final IterationStats stats = new IterationStats();
     
-    // Fetch list of available studies
+    // Skip tasks completed by the interrupted run, their metrics are merged into the iteration
+    final File journalFile = downloadDatasetConfig.getJournal();
+    final IterationStats resumedStats = new IterationStats();
+    final Set<String> completed = journalFile != null && downloadDatasetConfig.isResume()
+        ? DownloadJournal.read(journalFile, iteration, resumedStats) : Collections.emptySet();
+    final long resumedLatency = resumedStats.getRequestCount() > 0
+        ? resumedStats.getLastEndTime() - resumedStats.getFirstStartTime() : 0L;
+    if (!completed.isEmpty()) {
+      printJournalResumed(journalFile.getPath(), completed.size(), resumedStats.getBytesRead(),
+          resumedLatency);
+    }
+    
+    // Fetch list of available studies, include sizes of studies if they are needed for scheduling
+    // or the listing is cached (so the same manifest serves all schedules)
+    final Schedule schedule = downloadDatasetConfig.getSchedule();
+    final int splitThreshold = downloadDatasetConfig.getSplitThreshold();
     final HttpRequestProfiler queryStudiesRequest =
-        HttpRequestProfilerFactory.createListDicomStudiesRequest(dicomStoreConfig);
-    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        schedule == Schedule.LARGEST_FIRST || splitThreshold > 0 || manifestCache.isEnabled()
+            ? HttpRequestProfilerFactory.createListDicomStudiesRequest(dicomStoreConfig,
+                QidoResponseParser.NUMBER_OF_STUDY_RELATED_INSTANCES)
+            : HttpRequestProfilerFactory.createListDicomStudiesRequest(dicomStoreConfig);
+    final HttpRequestMetrics queryStudiesMetrics;
+    // Latency of the listing itself, without time its consumer was blocked by the download window
+    final long queryStudiesLatency;
+    final int threadCount;
     final long iterationStartTime = System.currentTimeMillis();
-    final HttpRequestMetrics queryStudiesMetrics = queryStudiesRequest.execute(buffer);
-    final List<Attributes> studies = MAPPER.readValue(buffer.toByteArray(),
-        new TypeReference<List<Attributes>>() {});
-    final int threadCount = Math.min(commonConfig.getMaxThreads(), studies.size());
-    printStudiesFound(studies.size(), threadCount);
-    
-    if (studies.size() > 0) {
-      // Create separate task for each study
-      final ExecutorService pool = Executors.newFixedThreadPool(threadCount);
-      final List<Callable<HttpRequestMetrics>> tasks = new ArrayList<>();
-      for (Attributes study : studies) {
-        final String studyId = study.getStudyUID();
-        if (studyId != null) {
-          tasks.add(new Callable<HttpRequestMetrics>() {
-            @Override public HttpRequestMetrics call() throws Exception {
-              // Execute request
-              final HttpRequestProfiler request =
-                  HttpRequestProfilerFactory.createRetrieveDicomStudyRequest(dicomStoreConfig, studyId);
-              final HttpRequestMetrics metrics = request.execute(NullOutputStream.NULL_OUTPUT_STREAM);
-              
-              // Update first response and first study metrics
-              firstResponseMetrics.updateAndGet(m -> {
-                return m == null || metrics.getResponseTime() < m.getResponseTime() ? metrics : m;
-              });
-              firstStudyMetrics.updateAndGet(m -> {
-                return m == null || metrics.getEndTime() < m.getEndTime() ? metrics : m;
-              });
-              
-              // Print progress
-              printProgress();
-              return metrics;
+    journal = journalFile == null ? null : new DownloadJournal(journalFile, iteration,
+        downloadDatasetConfig.isResume() || iteration > 0);
+    try {
+      if (downloadDatasetConfig.isPipelined()) {
+        // Retrieve each study as soon as it is parsed from the listing
+        threadCount = commonConfig.getMaxThreads();
+        printStudiesPipelined(threadCount);
+        final AtomicInteger studyCount = new AtomicInteger();
+        final long[] submitTime = {0L};
+        try (RequestExecutor executor = createRequestExecutor(threadCount, stats)) {
+          queryStudiesMetrics = queryStudiesRequest.execute(content -> QidoResponseParser.parse(
+              content, (studyId, seriesId, instanceId, frames, instances) -> {
+                if (studyId != null && !completed.contains(studyId)) {
+                  final long submitStartTime = System.currentTimeMillis();
+                  try {
+                    executor.submit(createRetrieveStudyTask(studyId));
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(e.getMessage());
+                  }
+                  submitTime[0] += System.currentTimeMillis() - submitStartTime;
+                  studyCount.incrementAndGet();
+                }
+              }));
+          queryStudiesLatency = Math.max(0L, queryStudiesMetrics.getTotalLatency() - submitTime[0]);
+          printStudiesFound(studyCount.get(), threadCount);
+          executor.awaitCompletion();
+        }
+      } else {
+        // Fetch the whole listing first
+        final ManifestCache.Listing listing = manifestCache.list(queryStudiesRequest);
+        final DicomCatalog studies = listing.getCatalog();
+        queryStudiesMetrics = listing.getMetrics();
+        queryStudiesLatency = queryStudiesMetrics.getTotalLatency();
+        threadCount = Math.min(commonConfig.getMaxThreads(), studies.size());
+        printStudiesFound(studies.size(), threadCount);
+        if (studies.size() == 0) {
+          return;
+        }
+        
+        // Submit separate task for each study (or each series of large studies)
+        final int[] rows =
+            schedule == Schedule.LARGEST_FIRST ? studies.getRowsLargestFirst() : null;
+        try (RequestExecutor executor = createRequestExecutor(threadCount, stats)) {
+          if (splitThreshold <= 0) {
+            // Number of series tasks of split studies is not known in advance
+            executor.setExpectedRequests(studies.size() - completed.size());
+          }
+          
+          // Series of large studies are listed by request threads, which hand the series tasks
+          // back to this thread, so only this thread ever blocks on the window
+          final BlockingQueue<List<Callable<HttpRequestMetrics>>> seriesTasks =
+              new LinkedBlockingQueue<>();
+          int pendingListings = 0;
+          for (int i = 0; i < studies.size(); i++) {
+            final int row = rows == null ? i : rows[i];
+            final String studyId = studies.getStudyUID(row);
+            if (studyId != null && !completed.contains(studyId)) {
+              if (splitThreshold > 0 && studies.getNumberOfInstances(row) > splitThreshold) {
+                executor.submit(createListSeriesTask(studyId, schedule, completed, seriesTasks));
+                pendingListings++;
+              } else {
+                executor.submit(createRetrieveStudyTask(studyId));
+              }
             }
-          });
+            for (List<Callable<HttpRequestMetrics>> tasks = seriesTasks.poll(); tasks != null;
+                tasks = seriesTasks.poll()) {
+              submitAll(executor, tasks);
+              pendingListings--;
+            }
+          }
+          for (; pendingListings > 0; pendingListings--) {
+            submitAll(executor, seriesTasks.take());
+          }
+          executor.awaitCompletion();
         }
       }
-      
-      // Wait for completion
-      final List<Future<HttpRequestMetrics>> futures = pool.invokeAll(tasks);
-      final long totalLatency = System.currentTimeMillis() - iterationStartTime;
-      
-      // Print requests metrics and count bytes read
-      int cacheHits = 0;
-      int cacheMisses = 0;
-      long totalBytesRead = queryStudiesMetrics.getBytesRead();
-      for (Future<HttpRequestMetrics> future : futures) {
-        try {
-          final HttpRequestMetrics metrics = future.get();
-          totalBytesRead += metrics.getBytesRead();
-          cacheHits = metrics.getCacheStatus().incrementHits(cacheHits);
-          cacheMisses = metrics.getCacheStatus().incrementMisses(cacheMisses);
-        } catch (Exception e) {
-          printRequestFailed(e);
-        }
+    } finally {
+      if (journal != null) {
+        journal.close();
+        journal = null;
       }
+    }
+    final long totalLatency = System.currentTimeMillis() - iterationStartTime + resumedLatency;
+    
+    if (stats.getRequestCount() + resumedStats.getRequestCount() > 0) {
+      // The first study was retrieved by the interrupted run if any
+      final IterationStats firstStats = resumedStats.getRequestCount() > 0 ? resumedStats : stats;
+      final HttpRequestMetrics firstResponseMetrics = firstStats.getFirstResponseMetrics();
+      final HttpRequestMetrics firstStudyMetrics = firstStats.getFirstCompletedMetrics();
+      final long totalBytesRead = queryStudiesMetrics.getBytesRead() + stats.getBytesRead()
+          + resumedStats.getBytesRead();
       
       // Update aggregates
       final double transferRate = (double) totalBytesRead / (double) totalLatency / 1048.576;
-      queryStudiesAggregates.addValue(queryStudiesMetrics.getTotalLatency());
-      firstResponseAggregates.addValue(firstResponseMetrics.get().getResponseLatency());
-      firstStudyAggregates.addValue(firstStudyMetrics.get().getTotalLatency());
+      queryStudiesAggregates.addValue(queryStudiesLatency);
+      firstResponseAggregates.addValue(firstResponseMetrics.getResponseLatency());
+      firstStudyAggregates.addValue(firstStudyMetrics.getTotalLatency());
       totalAggregates.addValue(totalLatency);
       transferRateAggregates.addValue(transferRate);
       
       // Print iteration metrics to stdout
-      printDownloadDatasetMetrics(queryStudiesMetrics.getTotalLatency(),
-          firstResponseMetrics.get().getResponseLatency(), firstStudyMetrics.get().getTotalLatency(),
-          totalLatency, totalBytesRead, transferRate, cacheHits, cacheMisses);
+      printDownloadDatasetMetrics(queryStudiesLatency,
+          firstResponseMetrics.getResponseLatency(), firstStudyMetrics.getTotalLatency(),
+          totalLatency, totalBytesRead, transferRate,
+          stats.getCacheHits() + resumedStats.getCacheHits(),
+          stats.getCacheMisses() + resumedStats.getCacheMisses());
+      if (stats.getRequestCount() > 0) {
+        printListingOverlap(stats.getFirstCompletedMetrics().getEndTime() - iterationStartTime,
+            Math.max(0L, queryStudiesMetrics.getStartTime() + queryStudiesLatency
+                - stats.getFirstStartTime()));
+        printThreadUtilization(stats.getThreadUtilization(threadCount), stats.getBusyTime(),
+            threadCount);
+      }
+      printAdaptiveConcurrency();
+      recordLatencies(resumedStats);
+      recordLatencies(stats);
       
       // Print iteration metrics to CSV file if output option is specified
       if (output != null) {
@@ -191,11 +288,11 @@ public class DownloadDatasetBenchmark extends Benchmark {
         }
         output.print(iteration);
         output.print(", ");
-        output.print(queryStudiesMetrics.getTotalLatency());
+        output.print(queryStudiesLatency);
         output.print(", ");
-        output.print(firstResponseMetrics.get().getResponseLatency());
+        output.print(firstResponseMetrics.getResponseLatency());
         output.print(", ");
-        output.print(firstStudyMetrics.get().getTotalLatency());
+        output.print(firstStudyMetrics.getTotalLatency());
         output.print(", ");
         output.print(totalLatency);
         output.print(", ");
@@ -207,6 +304,96 @@ public class DownloadDatasetBenchmark extends Benchmark {
     }
   }
   
+  /**
+   * Creates task which retrieves the specified study.
+   * 
+   * @param studyId ID of the study to retrieve.
+   * @return Task which retrieves the specified study.
+   */
+  private Callable<HttpRequestMetrics> createRetrieveStudyTask(String studyId) {
+    return cacheReported(studyId, journaled(studyId, () -> HttpRequestProfilerFactory
+        .createRetrieveDicomStudyRequest(dicomStoreConfig, studyId)
+        .execute(NullOutputStream.NULL_OUTPUT_STREAM)));
+  }
+  
+  /**
+   * Wraps the specified task so that it is recorded to the journal once it completes.
+   * 
+   * @param key Key of the task in the journal.
+   * @param task Task to wrap.
+   * @return Task recorded to the journal or the specified task if journal is disabled.
+   */
+  private Callable<HttpRequestMetrics> journaled(String key, Callable<HttpRequestMetrics> task) {
+    final DownloadJournal journal = this.journal;
+    if (journal == null) {
+      return task;
+    }
+    return () -> {
+      final HttpRequestMetrics metrics = task.call();
+      journal.append(key, metrics);
+      return metrics;
+    };
+  }
+  
+  /**
+   * Creates task which lists series of the specified study and adds tasks which retrieve each
+   * series to the specified queue. The listing is executed by a request thread, so its metrics are
+   * folded into the iteration like metrics of any other request. If the listing fails, the failure
+   * is counted and a task which retrieves the whole study is added instead. Exactly one list of
+   * tasks is added to the queue once the listing task completes.
+   * 
+   * @param studyId ID of the study to retrieve.
+   * @param schedule Order in which series are retrieved.
+   * @param completed Keys of tasks completed by the interrupted run.
+   * @param seriesTasks Queue to add tasks which retrieve the study to.
+   * @return Task which lists series of the specified study.
+   */
+  private Callable<HttpRequestMetrics> createListSeriesTask(String studyId, Schedule schedule,
+      Set<String> completed, Queue<List<Callable<HttpRequestMetrics>>> seriesTasks) {
+    return () -> {
+      final List<Callable<HttpRequestMetrics>> tasks = new ArrayList<>();
+      try {
+        final ManifestCache.Listing listing = manifestCache.list(
+            HttpRequestProfilerFactory.createListDicomStudySeriesRequest(dicomStoreConfig,
+                studyId, QidoResponseParser.NUMBER_OF_SERIES_RELATED_INSTANCES));
+        final DicomCatalog series = listing.getCatalog();
+        final int[] rows =
+            schedule == Schedule.LARGEST_FIRST ? series.getRowsLargestFirst() : null;
+        for (int i = 0; i < series.size(); i++) {
+          final String seriesId = series.getSeriesUID(rows == null ? i : rows[i]);
+          final String key = studyId + "/" + seriesId;
+          if (seriesId != null && !completed.contains(key)) {
+            tasks.add(cacheReported(studyId, journaled(key, () -> HttpRequestProfilerFactory
+                .createRetrieveDicomSeriesRequest(dicomStoreConfig, studyId, seriesId)
+                .execute(NullOutputStream.NULL_OUTPUT_STREAM))));
+          }
+        }
+        return listing.getMetrics();
+      } catch (Exception e) {
+        // Retrieve the whole study instead, the failed listing is counted by the executor
+        tasks.clear();
+        tasks.add(createRetrieveStudyTask(studyId));
+        throw e;
+      } finally {
+        seriesTasks.add(tasks);
+      }
+    };
+  }
+  
+  /**
+   * Submits the specified tasks to the specified executor.
+   * 
+   * @param executor Executor to submit tasks to.
+   * @param tasks Tasks to submit.
+   * @throws InterruptedException if the current thread was interrupted while waiting.
+   */
+  private static void submitAll(RequestExecutor executor, List<Callable<HttpRequestMetrics>> tasks)
+      throws InterruptedException {
+    for (Callable<HttpRequestMetrics> task : tasks) {
+      executor.submit(task);
+    }
+  }
+  
   /**
    * Prints calculated aggreagtes for all iterations to stdout.
    */
@@ -216,8 +403,4 @@ public class DownloadDatasetBenchmark extends Benchmark {
         firstStudyAggregates, totalAggregates, transferRateAggregates);
   }
   
-  /* Object mapper to convert JSON response */
-  private static final ObjectMapper MAPPER = new ObjectMapper()
-      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-  
 }
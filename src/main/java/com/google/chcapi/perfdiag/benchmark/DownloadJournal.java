@@ -0,0 +1,242 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark;
+
+import java.io.File;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.chcapi.perfdiag.benchmark.stats.IterationStats;
+import com.google.chcapi.perfdiag.profiler.CacheStatus;
+import com.google.chcapi.perfdiag.profiler.HttpRequestMetrics;
+
+/**
+ * Append-only journal of retrieval tasks completed by the download dataset benchmark. Each line
+ * holds the iteration number, the task key (study UID or study UID and series UID separated by
+ * slash) and the metrics of the task:
+ * <pre>
+ * ITERATION,KEY,START_TIME,RESPONSE_TIME,END_TIME,BYTES_READ,CACHE_STATUS
+ * </pre>
+ * Lines are buffered and flushed every {@link #FLUSH_BATCH} tasks, so the journal does not add a
+ * disk write to every request. A background thread also flushes buffered lines every
+ * {@link #FLUSH_INTERVAL} milliseconds, so a task is never buffered longer than that even if no
+ * other task completes for hours. If the run is killed, at most the tasks completed within the
+ * last {@link #FLUSH_INTERVAL} milliseconds are retrieved again on resume. A truncated last line is
+ * ignored. The first error writing the journal is reported once and stops journaling for the rest
+ * of the run, tasks keep running, they are just retrieved again on resume.
+ */
+public class DownloadJournal implements Closeable {
+  
+  /**
+   * Maximum number of tasks buffered before the journal is flushed.
+   */
+  public static final int FLUSH_BATCH = 100;
+  
+  /**
+   * Maximum time in milliseconds tasks are buffered before the journal is flushed.
+   */
+  public static final long FLUSH_INTERVAL = 1000L;
+  
+  /* Number of fields in journal line */
+  private static final int FIELDS = 7;
+  
+  /**
+   * Iteration number tasks are recorded for.
+   */
+  private final int iteration;
+  
+  /**
+   * Path of journal file.
+   */
+  private final String path;
+  
+  /**
+   * Writer of journal lines.
+   */
+  private final Writer writer;
+  
+  /**
+   * Thread flushing buffered lines periodically.
+   */
+  private final ScheduledExecutorService flusher;
+  
+  /**
+   * Number of lines written since the last flush, guarded by {@code this}.
+   */
+  private int pending;
+  
+  /**
+   * Whether writing the journal failed and journaling stopped, guarded by {@code this}.
+   */
+  private boolean failed;
+  
+  /**
+   * Opens the journal file for recording tasks of the specified iteration.
+   *
+   * @param file Journal file.
+   * @param iteration Iteration number.
+   * @param append Whether existing journal lines are kept, otherwise the file is truncated.
+   * @throws IOException if an IO error occurred.
+   */
+  public DownloadJournal(File file, int iteration, boolean append) throws IOException {
+    final boolean terminate = append && !isTerminated(file);
+    this.iteration = iteration;
+    this.path = file.getPath();
+    this.writer = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(file, append), StandardCharsets.UTF_8), 1 << 16);
+    if (terminate) {
+      // Finish line truncated by the killed run, so it does not swallow the next record
+      writer.write('\n');
+    }
+    this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "download-journal");
+      thread.setDaemon(true);
+      return thread;
+    });
+    flusher.scheduleWithFixedDelay(this::flushPending, FLUSH_INTERVAL, FLUSH_INTERVAL,
+        TimeUnit.MILLISECONDS);
+  }
+  
+  /**
+   * Records the specified completed task. Does nothing if journaling stopped after an error.
+   *
+   * @param key Key of the task.
+   * @param metrics Metrics of the task.
+   */
+  public synchronized void append(String key, HttpRequestMetrics metrics) {
+    if (failed) {
+      return;
+    }
+    try {
+      writer.write(iteration + "," + key + "," + metrics.getStartTime() + ","
+          + metrics.getResponseTime() + "," + metrics.getEndTime() + "," + metrics.getBytesRead()
+          + "," + metrics.getCacheStatus() + "\n");
+      if (++pending >= FLUSH_BATCH) {
+        writer.flush();
+        pending = 0;
+      }
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+  
+  /**
+   * Flushes buffered tasks and closes the journal file. A write error is reported rather than
+   * thrown, since the retrieved data is not affected by it.
+   */
+  @Override
+  public void close() {
+    flusher.shutdownNow();
+    synchronized (this) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+  }
+  
+  /* Flushes buffered lines if any */
+  private synchronized void flushPending() {
+    if (pending > 0 && !failed) {
+      try {
+        writer.flush();
+        pending = 0;
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+  }
+  
+  /* Reports the first write error and stops journaling */
+  private void fail(IOException e) {
+    if (!failed) {
+      failed = true;
+      BenchmarkMessages.printJournalFailed(path, e.getMessage());
+    }
+  }
+  
+  /**
+   * Reads keys of tasks completed in the specified iteration and adds their metrics to the
+   * specified stats.
+   *
+   * @param file Journal file.
+   * @param iteration Iteration number.
+   * @param stats Stats to add metrics of completed tasks to.
+   * @return Keys of completed tasks, empty if journal file does not exist.
+   * @throws IOException if an IO error occurred.
+   */
+  public static Set<String> read(File file, int iteration, IterationStats stats)
+      throws IOException {
+    final Set<String> keys = new HashSet<>();
+    if (!file.isFile()) {
+      return keys;
+    }
+    final String prefix = iteration + ",";
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if (line.startsWith(prefix)) {
+          final String[] fields = line.split(",");
+          final HttpRequestMetrics metrics = parseMetrics(fields);
+          if (metrics != null && keys.add(fields[1])) {
+            stats.add(metrics);
+          }
+        }
+      }
+    }
+    return keys;
+  }
+  
+  /* Parses metrics of journal line or returns null if the line is truncated */
+  private static HttpRequestMetrics parseMetrics(String[] fields) {
+    if (fields.length != FIELDS) {
+      return null;
+    }
+    try {
+      return new HttpRequestMetrics(Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+          Long.parseLong(fields[4]), Long.parseLong(fields[5]), CacheStatus.valueOf(fields[6]));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+  
+  /* Returns true if the file does not exist, is empty or ends with line separator */
+  private static boolean isTerminated(File file) throws IOException {
+    if (!file.isFile() || file.length() == 0L) {
+      return true;
+    }
+    try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+      input.seek(input.length() - 1L);
+      return input.read() == '\n';
+    }
+  }
+  
+}
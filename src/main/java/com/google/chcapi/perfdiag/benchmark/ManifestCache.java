@@ -0,0 +1,196 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.chcapi.perfdiag.model.DicomCatalog;
+import com.google.chcapi.perfdiag.model.ManifestFile;
+import com.google.chcapi.perfdiag.model.QidoResponseParser;
+import com.google.chcapi.perfdiag.benchmark.config.ManifestConfig;
+import com.google.chcapi.perfdiag.profiler.CacheStatus;
+import com.google.chcapi.perfdiag.profiler.HttpRequestMetrics;
+import com.google.chcapi.perfdiag.profiler.HttpRequestProfiler;
+
+/**
+ * Cache of QIDO listings stored as {@link ManifestFile manifest files}. Each listing is keyed by
+ * its request URI, so the same listing of the same DICOM store or study is reused by all
+ * benchmarks, iterations and runs until the file expires or refresh is requested.
+ */
+public class ManifestCache {
+  
+  /**
+   * Extension of manifest files.
+   */
+  public static final String FILE_EXTENSION = ".manifest";
+  
+  /**
+   * Manifest cache configuration.
+   */
+  private final ManifestConfig config;
+  
+  /**
+   * Keys refreshed during this run, each key is refreshed only once.
+   */
+  private final Set<String> refreshedKeys = ConcurrentHashMap.newKeySet();
+  
+  /**
+   * Constructs a new {@code ManifestCache} with the specified configuration.
+   *
+   * @param config Manifest cache configuration.
+   */
+  public ManifestCache(ManifestConfig config) {
+    this.config = config;
+  }
+  
+  /**
+   * Returns {@code true} if manifest cache directory is configured.
+   *
+   * @return {@code true} if manifest cache is enabled.
+   */
+  public boolean isEnabled() {
+    return config.getDirectory() != null;
+  }
+  
+  /**
+   * Loads catalog from the manifest file of the specified listing request if it is cached and not
+   * expired. Otherwise executes the request, parses the listing and writes the manifest file if
+   * manifest cache is enabled. If refresh is requested, each listing is executed again once per
+   * run and later loaded from the rewritten manifest file.
+   *
+   * @param request QIDO listing request.
+   * @return Catalog of listed DICOM objects and metrics of listing, metrics of cached listing
+   *         contain time of loading the manifest file and zero bytes read.
+   * @throws IOException if an IO error occurred or request failed.
+   */
+  public Listing list(HttpRequestProfiler request) throws IOException {
+    final DicomCatalog catalog = new DicomCatalog();
+    if (!isEnabled()) {
+      return new Listing(catalog, request.execute(
+          content -> QidoResponseParser.parse(content, catalog)));
+    }
+    final String key = request.toString();
+    final File file = getFile(key);
+    if (!(config.isRefresh() && refreshedKeys.add(key))) {
+      final long startTime = System.currentTimeMillis();
+      final DicomCatalog cached = ManifestFile.read(file, key, config.getTtl() * 1000L);
+      if (cached != null) {
+        final long endTime = System.currentTimeMillis();
+        BenchmarkMessages.printManifestLoaded(cached.size(), file.getPath(), endTime - startTime);
+        return new Listing(cached,
+            new HttpRequestMetrics(startTime, endTime, endTime, 0L, CacheStatus.NA));
+      }
+    }
+    final HttpRequestMetrics metrics =
+        request.execute(content -> QidoResponseParser.parse(content, catalog));
+    store(file, key, catalog);
+    return new Listing(catalog, metrics);
+  }
+  
+  /**
+   * Writes manifest file of the specified listing request.
+   *
+   * @param request QIDO listing request.
+   * @param catalog Catalog of listed DICOM objects.
+   * @return Manifest file.
+   * @throws IOException if an IO error occurred.
+   */
+  public File store(HttpRequestProfiler request, DicomCatalog catalog) throws IOException {
+    final String key = request.toString();
+    final File file = getFile(key);
+    store(file, key, catalog);
+    return file;
+  }
+  
+  /* Writes manifest file */
+  private void store(File file, String key, DicomCatalog catalog) throws IOException {
+    final File directory = file.getParentFile();
+    if (!(directory.isDirectory() || directory.mkdirs())) {
+      throw new IOException("Could not create manifest cache directory: " + directory);
+    }
+    ManifestFile.write(file, key, catalog);
+    BenchmarkMessages.printManifestStored(catalog.size(), file.getPath());
+  }
+  
+  /* Returns manifest file of the specified key, file name is SHA-256 hash of the key */
+  private File getFile(String key) {
+    try {
+      final byte[] hash = MessageDigest.getInstance("SHA-256")
+          .digest(key.getBytes(StandardCharsets.UTF_8));
+      final StringBuilder name = new StringBuilder();
+      for (int i = 0; i < 16; i++) {
+        name.append(String.format("%02x", hash[i]));
+      }
+      return new File(config.getDirectory(), name.append(FILE_EXTENSION).toString());
+    } catch (NoSuchAlgorithmException e) {
+      // SHA-256 is supported by every Java platform
+      throw new IllegalStateException(e);
+    }
+  }
+  
+  /**
+   * Catalog of listed DICOM objects with metrics of the listing.
+   */
+  public static class Listing {
+    
+    /**
+     * Catalog of listed DICOM objects.
+     */
+    private final DicomCatalog catalog;
+    
+    /**
+     * Metrics of the listing request or of loading the manifest file.
+     */
+    private final HttpRequestMetrics metrics;
+    
+    /**
+     * Constructs a new {@code Listing}.
+     *
+     * @param catalog Catalog of listed DICOM objects.
+     * @param metrics Metrics of the listing.
+     */
+    public Listing(DicomCatalog catalog, HttpRequestMetrics metrics) {
+      this.catalog = catalog;
+      this.metrics = metrics;
+    }
+    
+    /**
+     * Returns catalog of listed DICOM objects.
+     *
+     * @return Catalog of listed DICOM objects.
+     */
+    public DicomCatalog getCatalog() {
+      return catalog;
+    }
+    
+    /**
+     * Returns metrics of the listing request or of loading the manifest file.
+     *
+     * @return Metrics of the listing.
+     */
+    public HttpRequestMetrics getMetrics() {
+      return metrics;
+    }
+  
+  }
+  
+}
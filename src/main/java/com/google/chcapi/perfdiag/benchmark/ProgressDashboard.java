@@ -0,0 +1,236 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.chcapi.perfdiag.benchmark.config.CommonConfig.Progress;
+import com.google.chcapi.perfdiag.benchmark.stats.IterationStats;
+import com.google.chcapi.perfdiag.profiler.HttpRequestMetrics;
+
+/**
+ * Progress of requests of a {@link RequestExecutor} rendered to stdout by a background thread.
+ * Worker threads only update lock-free counters, nothing is printed on the request path. The
+ * progress shows completed and total requests, requests in flight, transfer rate and frame rate
+ * over the last {@link #RATE_WINDOW} milliseconds (the last interval in log mode), median and
+ * 99th percentile of total latency of the last {@link #LATENCY_WINDOW} requests, number of failed
+ * requests and cache hit ratio. In {@link Progress#LIVE} mode the progress line is redrawn every
+ * {@link #LIVE_INTERVAL} milliseconds, in {@link Progress#LOG} mode a new line is printed every
+ * {@link #LOG_INTERVAL} milliseconds, which suits output redirected to a file.
+ */
+public class ProgressDashboard implements AutoCloseable {
+  
+  /**
+   * Interval in milliseconds of redrawing the progress line in live mode.
+   */
+  public static final long LIVE_INTERVAL = 250L;
+  
+  /**
+   * Interval in milliseconds of printing progress lines in log mode.
+   */
+  public static final long LOG_INTERVAL = 10000L;
+  
+  /**
+   * Width in milliseconds of the window transfer rate and frame rate are calculated over.
+   */
+  public static final long RATE_WINDOW = 2000L;
+  
+  /**
+   * Number of the most recent requests latency percentiles are calculated from.
+   */
+  public static final int LATENCY_WINDOW = 1024;
+  
+  /**
+   * Statistics of completed requests.
+   */
+  private final IterationStats stats;
+  
+  /**
+   * Whether the progress line is redrawn in place.
+   */
+  private final boolean live;
+  
+  /**
+   * Time in milliseconds when the dashboard started.
+   */
+  private final long startTime = System.currentTimeMillis();
+  
+  /**
+   * Number of submitted requests.
+   */
+  private final LongAdder submitted = new LongAdder();
+  
+  /**
+   * Number of requests being executed.
+   */
+  private final LongAdder inFlight = new LongAdder();
+  
+  /**
+   * Number of frames read by completed requests.
+   */
+  private final LongAdder framesRead = new LongAdder();
+  
+  /**
+   * Ring of total latencies of the most recent requests.
+   */
+  private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_WINDOW);
+  
+  /**
+   * Number of latencies ever recorded to the ring.
+   */
+  private final AtomicLong latencyCount = new AtomicLong();
+  
+  /**
+   * Thread rendering the progress.
+   */
+  private final ScheduledExecutorService renderer;
+  
+  /**
+   * Ring of samples of elapsed time, bytes read and frames read, one sample per render.
+   */
+  private final long[][] samples;
+  
+  /**
+   * Number of samples taken, guarded by {@code this}.
+   */
+  private int sampleCount;
+  
+  /**
+   * Expected total number of requests or zero if unknown.
+   */
+  private volatile long expectedRequests;
+  
+  /**
+   * Creates dashboard of the specified statistics and starts rendering it.
+   *
+   * @param stats Statistics of completed requests.
+   * @param progress Rendering mode, either {@link Progress#LIVE} or {@link Progress#LOG}.
+   */
+  public ProgressDashboard(IterationStats stats, Progress progress) {
+    this.stats = stats;
+    this.live = progress == Progress.LIVE;
+    final long interval = live ? LIVE_INTERVAL : LOG_INTERVAL;
+    this.samples = new long[(int) Math.max(1L, RATE_WINDOW / interval) + 1][];
+    this.renderer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "progress-dashboard");
+      thread.setDaemon(true);
+      return thread;
+    });
+    renderer.scheduleAtFixedRate(this::render, interval, interval, TimeUnit.MILLISECONDS);
+  }
+  
+  /**
+   * Sets expected total number of requests, shown along with the number of completed requests.
+   *
+   * @param requests Expected total number of requests.
+   */
+  public void setExpectedRequests(long requests) {
+    this.expectedRequests = requests;
+  }
+  
+  /**
+   * Counts submitted request.
+   */
+  public void requestSubmitted() {
+    submitted.increment();
+  }
+  
+  /**
+   * Counts request which started execution.
+   */
+  public void requestStarted() {
+    inFlight.increment();
+  }
+  
+  /**
+   * Counts completed request and records its latency.
+   *
+   * @param metrics Metrics of the completed request.
+   * @param frames Number of frames read by the request.
+   */
+  public void requestCompleted(HttpRequestMetrics metrics, int frames) {
+    inFlight.decrement();
+    framesRead.add(frames);
+    final long index = latencyCount.getAndIncrement();
+    latencies.set((int) (index % LATENCY_WINDOW), metrics.getTotalLatency());
+  }
+  
+  /**
+   * Counts failed request.
+   */
+  public void requestFailed() {
+    inFlight.decrement();
+  }
+  
+  /**
+   * Stops rendering and renders the final progress, the progress line is terminated in live
+   * mode. Does nothing if the dashboard is already closed.
+   */
+  @Override
+  public void close() {
+    if (renderer.isShutdown()) {
+      return;
+    }
+    renderer.shutdownNow();
+    try {
+      renderer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    render();
+    if (live) {
+      System.out.println();
+    }
+  }
+  
+  /* Samples counters and prints the progress line */
+  private synchronized void render() {
+    final long now = System.currentTimeMillis();
+    final long[] sample = {now, stats.getBytesRead(), framesRead.sum()};
+    final long[] oldest = sampleCount < samples.length
+        ? (sampleCount == 0 ? new long[] {startTime, 0L, 0L} : samples[0])
+        : samples[sampleCount % samples.length];
+    samples[sampleCount % samples.length] = sample;
+    sampleCount++;
+    final double seconds = Math.max(1L, sample[0] - oldest[0]) / 1000.0;
+    final double transferRate = (sample[1] - oldest[1]) / seconds / 1048576.0;
+    final double frameRate = sample[2] == 0L ? Double.NaN : (sample[2] - oldest[2]) / seconds;
+    
+    // Copy the latency ring, slots may be overwritten while copying which is fine for a preview
+    final int count = (int) Math.min(latencyCount.get(), LATENCY_WINDOW);
+    final long[] recent = new long[count];
+    for (int i = 0; i < count; i++) {
+      recent[i] = latencies.get(i);
+    }
+    Arrays.sort(recent);
+    final double p50 = count == 0 ? Double.NaN : recent[(int) Math.ceil(0.5 * count) - 1];
+    final double p99 = count == 0 ? Double.NaN : recent[(int) Math.ceil(0.99 * count) - 1];
+    
+    final long hits = stats.getCacheHits();
+    final long misses = stats.getCacheMisses();
+    final double hitRatio = hits + misses == 0L ? Double.NaN : 100.0 * hits / (hits + misses);
+    final long total = Math.max(expectedRequests, submitted.sum());
+    BenchmarkMessages.printProgress(live, (now - startTime) / 1000.0,
+        stats.getRequestCount(), expectedRequests > 0L ? total : -1L, inFlight.sum(),
+        transferRate, frameRate, p50, p99, stats.getFailureCount(), hitRatio);
+  }
+  
+}
@@ -0,0 +1,318 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.chcapi.perfdiag.benchmark.config.CommonConfig.Progress;
+import com.google.chcapi.perfdiag.benchmark.stats.IterationStats;
+import com.google.chcapi.perfdiag.benchmark.stats.MetricsEndpoint;
+import com.google.chcapi.perfdiag.benchmark.stats.RequestLog;
+import com.google.chcapi.perfdiag.benchmark.stats.Timeline;
+import com.google.chcapi.perfdiag.profiler.HttpRequestMetrics;
+
+/**
+ * Executes profiling requests in parallel using a fixed number of threads. At most a bounded
+ * number of requests may be submitted but not yet completed, so {@link #submit(Callable)} blocks
+ * the caller until there is free room in the window. This allows benchmarks to generate tasks
+ * lazily while iterating over their working set and keeps memory constant regardless of the number
+ * of requests. Metrics of completed requests are folded into {@link IterationStats} immediately.
+ * If a {@link ConcurrencyLimiter} is provided, the number of requests executed in parallel is
+ * adjusted by the limiter and the number of threads is only the upper bound. If a
+ * {@link Timeline} is provided, started, completed and failed requests are counted in it as well.
+ * If a {@link RequestLog} is provided, completed and failed requests are logged to it. If a
+ * {@link MetricsEndpoint} is provided, requests are counted in its live metrics. Only the first
+ * {@link #PRINTED_FAILURES} failed requests are printed with their error, the rest are counted and
+ * summarized by HTTP status once all requests complete. Unless progress is disabled, requests are
+ * also counted in a {@link ProgressDashboard} which is rendered until the executor completes.
+ */
+public class RequestExecutor implements AutoCloseable {
+  
+  /**
+   * Maximum number of submitted but not completed requests per thread.
+   */
+  public static final int WINDOW_SIZE_PER_THREAD = 4;
+  
+  /**
+   * Prefix of names of the threads executing requests.
+   */
+  public static final String THREAD_NAME_PREFIX = "request-worker-";
+  
+  /**
+   * Number of failed requests printed with their error, later failures are only counted.
+   */
+  public static final int PRINTED_FAILURES = 3;
+  
+  /**
+   * Number of threads executing requests created by all executors.
+   */
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+  
+  /**
+   * Thread pool executing requests.
+   */
+  private final ExecutorService pool;
+  
+  /**
+   * Permits for submitted but not completed requests.
+   */
+  private final Semaphore window;
+  
+  /**
+   * Statistics of completed requests.
+   */
+  private final IterationStats stats;
+  
+  /**
+   * Adaptive limit of requests executed in parallel or {@code null} if all threads are used.
+   */
+  private final ConcurrencyLimiter limiter;
+  
+  /**
+   * Timeline of requests or {@code null} if timeline is not recorded.
+   */
+  private final Timeline timeline;
+  
+  /**
+   * Log of requests or {@code null} if requests are not logged.
+   */
+  private final RequestLog requestLog;
+  
+  /**
+   * Endpoint of live metrics or {@code null} if metrics are not served.
+   */
+  private final MetricsEndpoint metricsEndpoint;
+  
+  /**
+   * Progress of requests or {@code null} if progress is not shown.
+   */
+  private final ProgressDashboard dashboard;
+  
+  /**
+   * Number of failed requests so far, only the first {@link #PRINTED_FAILURES} are printed.
+   */
+  private final AtomicInteger failures = new AtomicInteger();
+  
+  /**
+   * Constructs a new {@code RequestExecutor} with the specified number of threads.
+   * 
+   * @param threads Number of threads to run in parallel.
+   * @param stats Statistics to fold metrics of completed requests into.
+   */
+  public RequestExecutor(int threads, IterationStats stats) {
+    this(threads, null, null, null, null, Progress.NONE, stats);
+  }
+  
+  /**
+   * Constructs a new {@code RequestExecutor} with the specified number of threads and adaptive
+   * limit of requests executed in parallel.
+   * 
+   * @param threads Maximum number of threads to run in parallel.
+   * @param limiter Adaptive limit of requests executed in parallel or {@code null} if all threads
+   *        should be used.
+   * @param timeline Timeline to count requests in or {@code null} if timeline is not recorded.
+   * @param requestLog Log of requests or {@code null} if requests are not logged.
+   * @param metricsEndpoint Endpoint of live metrics or {@code null} if metrics are not served.
+   * @param progress How progress of requests is shown, {@link Progress#AUTO} is not resolved.
+   * @param stats Statistics to fold metrics of completed requests into.
+   */
+  public RequestExecutor(int threads, ConcurrencyLimiter limiter, Timeline timeline,
+      RequestLog requestLog, MetricsEndpoint metricsEndpoint, Progress progress,
+      IterationStats stats) {
+    this.pool = Executors.newFixedThreadPool(threads,
+        runnable -> new Thread(runnable, THREAD_NAME_PREFIX + THREAD_COUNT.incrementAndGet()));
+    this.window = new Semaphore(threads * WINDOW_SIZE_PER_THREAD);
+    this.stats = stats;
+    this.limiter = limiter;
+    this.timeline = timeline;
+    this.requestLog = requestLog;
+    this.metricsEndpoint = metricsEndpoint;
+    this.dashboard = progress == Progress.LIVE || progress == Progress.LOG
+        ? new ProgressDashboard(stats, progress) : null;
+  }
+  
+  /**
+   * Sets expected total number of requests shown in progress.
+   * 
+   * @param requests Expected total number of requests.
+   */
+  public void setExpectedRequests(long requests) {
+    if (dashboard != null) {
+      dashboard.setExpectedRequests(requests);
+    }
+  }
+  
+  /**
+   * Submits the specified request task for execution. Blocks until there is free room in the
+   * window of submitted but not completed requests.
+   * 
+   * @param task Task which executes request and returns its metrics.
+   * @throws InterruptedException if the current thread was interrupted while waiting.
+   */
+  public void submit(Callable<HttpRequestMetrics> task) throws InterruptedException {
+    submit(task, 0);
+  }
+  
+  /**
+   * Submits the specified request task which reads the specified number of frames for execution.
+   * Blocks until there is free room in the window of submitted but not completed requests.
+   * 
+   * @param task Task which executes request and returns its metrics.
+   * @param frames Number of frames read by the request, counted in progress once it completes.
+   * @throws InterruptedException if the current thread was interrupted while waiting.
+   */
+  public void submit(Callable<HttpRequestMetrics> task, int frames) throws InterruptedException {
+    window.acquire();
+    if (dashboard != null) {
+      dashboard.requestSubmitted();
+    }
+    try {
+      pool.execute(() -> {
+        try {
+          if (limiter == null) {
+            execute(task, frames);
+          } else {
+            executeLimited(task, frames);
+          }
+        } finally {
+          window.release();
+        }
+      });
+    } catch (RuntimeException e) {
+      window.release();
+      throw e;
+    }
+  }
+  
+  /* Executes request task and folds its metrics */
+  private void execute(Callable<HttpRequestMetrics> task, int frames) {
+    final HttpRequestMetrics metrics;
+    try {
+      metrics = call(task);
+    } catch (Exception e) {
+      return;
+    }
+    stats.add(metrics);
+    if (dashboard != null) {
+      dashboard.requestCompleted(metrics, frames);
+    }
+  }
+  
+  /* Executes request task once admitted by the limiter and reports its outcome to the limiter */
+  private void executeLimited(Callable<HttpRequestMetrics> task, int frames) {
+    final long admitTime;
+    try {
+      admitTime = limiter.acquire();
+    } catch (InterruptedException e) {
+      // Executor is being closed
+      Thread.currentThread().interrupt();
+      return;
+    }
+    final HttpRequestMetrics metrics;
+    try {
+      metrics = call(task);
+    } catch (Exception e) {
+      limiter.onFailure(admitTime, e);
+      return;
+    }
+    limiter.onSuccess(admitTime, metrics.getResponseLatency());
+    stats.add(metrics);
+    if (dashboard != null) {
+      dashboard.requestCompleted(metrics, frames);
+    }
+  }
+  
+  /* Calls request task counting it in the timeline, log and metrics, failure is folded first */
+  private HttpRequestMetrics call(Callable<HttpRequestMetrics> task) throws Exception {
+    if (timeline != null) {
+      timeline.requestStarted();
+    }
+    if (dashboard != null) {
+      dashboard.requestStarted();
+    }
+    if (metricsEndpoint != null) {
+      metricsEndpoint.requestStarted();
+    }
+    final long startTime = System.currentTimeMillis();
+    final HttpRequestMetrics metrics;
+    try {
+      metrics = task.call();
+    } catch (Exception e) {
+      if (requestLog != null) {
+        requestLog.requestFailed(startTime, e);
+      }
+      if (metricsEndpoint != null) {
+        metricsEndpoint.requestFailed(e);
+      }
+      if (timeline != null) {
+        timeline.requestFailed();
+      }
+      if (dashboard != null) {
+        dashboard.requestFailed();
+      }
+      stats.addFailure(e);
+      if (failures.get() < PRINTED_FAILURES && failures.incrementAndGet() <= PRINTED_FAILURES) {
+        BenchmarkMessages.printRequestFailed(e);
+      }
+      throw e;
+    }
+    if (timeline != null) {
+      timeline.requestCompleted(metrics);
+    }
+    if (requestLog != null) {
+      requestLog.requestCompleted(metrics);
+    }
+    if (metricsEndpoint != null) {
+      metricsEndpoint.requestCompleted(metrics);
+    }
+    return metrics;
+  }
+  
+  /**
+   * Waits until all submitted requests are completed and shuts down the thread pool. If any
+   * request failed, prints number of failed requests by HTTP status code.
+   * 
+   * @throws InterruptedException if the current thread was interrupted while waiting.
+   */
+  public void awaitCompletion() throws InterruptedException {
+    pool.shutdown();
+    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    if (dashboard != null) {
+      dashboard.close();
+    }
+    if (stats.getFailureCount() > 0L) {
+      BenchmarkMessages.printRequestFailures(stats.getFailureCount(),
+          stats.getFailureCountsByStatus());
+    }
+  }
+  
+  /**
+   * Shuts down the thread pool cancelling requests which are not yet completed and stops showing
+   * progress.
+   */
+  @Override
+  public void close() {
+    pool.shutdownNow();
+    if (dashboard != null) {
+      dashboard.close();
+    }
+  }
+  
+}
@@ -0,0 +1,227 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark;
+
+import java.io.PrintStream;
+
+import picocli.CommandLine.Mixin;
+import picocli.CommandLine.Command;
+
+import org.apache.commons.io.output.NullOutputStream;
+
+import com.google.chcapi.perfdiag.model.DicomCatalog;
+import com.google.chcapi.perfdiag.model.QidoResponseParser;
+import com.google.chcapi.perfdiag.benchmark.config.DicomSeriesConfig;
+import com.google.chcapi.perfdiag.benchmark.stats.IterationStats;
+import com.google.chcapi.perfdiag.benchmark.stats.MetricAggregates;
+import com.google.chcapi.perfdiag.profiler.HttpRequestProfiler;
+import com.google.chcapi.perfdiag.profiler.HttpRequestProfilerFactory;
+import com.google.chcapi.perfdiag.profiler.HttpRequestMetrics;
+
+/**
+ * This benchmark shows how fast it can be to retrieve data series by series. It involves sending
+ * request to get series information (QIDO) of a study or a whole DICOM store and sending paralleled
+ * requests to retrieve each series (WADO). Comparing it with {@link RetrieveStudyBenchmark} and
+ * {@link DownloadDatasetBenchmark} for the same data shows which retrieval granularity is the
+ * fastest.
+ */
+@Command
+public class RetrieveSeriesBenchmark extends Benchmark {
+  
+  /**
+   * DICOM series configuration from command line.
+   */
+  @Mixin
+  protected DicomSeriesConfig dicomSeriesConfig;
+  
+  /**
+   * Aggregates for latency of querying series.
+   */
+  private MetricAggregates querySeriesAggregates;
+  
+  /**
+   * Aggregates for latency of first byte received.
+   */
+  private MetricAggregates firstResponseAggregates;
+  
+  /**
+   * Aggregates for latency of reading first series.
+   */
+  private MetricAggregates firstSeriesAggregates;
+  
+  /**
+   * Aggregates for latency of reading all series.
+   */
+  private MetricAggregates totalAggregates;
+  
+  /**
+   * Aggregates for transfer rate of reading all series.
+   */
+  private MetricAggregates transferRateAggregates;
+  
+  /**
+   * Aggregates for series rate of reading all series.
+   */
+  private MetricAggregates seriesRateAggregates;
+  
+  /**
+   * Validates configuration and initializes aggregates.
+   */
+  @Override
+  protected void validateConfig() {
+    super.validateConfig();
+    final int iterations = commonConfig.getIterations();
+    querySeriesAggregates = new MetricAggregates(iterations);
+    firstResponseAggregates = new MetricAggregates(iterations);
+    firstSeriesAggregates = new MetricAggregates(iterations);
+    totalAggregates = new MetricAggregates(iterations);
+    transferRateAggregates = new MetricAggregates(iterations);
+    seriesRateAggregates = new MetricAggregates(iterations);
+  }
+  
+  /**
+   * Retrieves DICOM series in parallel and stores metrics for each request to the specified output
+   * stream if any.
+   *
+   * @param iteration Iteration number.
+   * @param output Output stream to write metrics or {@code null} if output file is not specified.
+   * @throws Exception if an error occurred.
+   */
+  @Override
+  protected void runIteration(int iteration, PrintStream output) throws Exception {
+    final IterationStats stats = new IterationStats();
+    
+    // Fetch list of series of the study or the whole DICOM store
+    final String studyId = dicomSeriesConfig.getDicomStudyId();
+    final HttpRequestProfiler querySeriesRequest = studyId == null
+        ? HttpRequestProfilerFactory.createListDicomSeriesRequest(dicomSeriesConfig,
+            QidoResponseParser.STUDY_UID, QidoResponseParser.NUMBER_OF_SERIES_RELATED_INSTANCES)
+        : HttpRequestProfilerFactory.createListDicomStudySeriesRequest(dicomSeriesConfig, studyId,
+            QidoResponseParser.NUMBER_OF_SERIES_RELATED_INSTANCES);
+    final long iterationStartTime = System.currentTimeMillis();
+    final ManifestCache.Listing listing = manifestCache.list(querySeriesRequest);
+    final DicomCatalog series = listing.getCatalog();
+    final HttpRequestMetrics querySeriesMetrics = listing.getMetrics();
+    long instanceCount = 0L;
+    for (int row = 0; row < series.size(); row++) {
+      instanceCount += series.getNumberOfInstances(row);
+    }
+    final int threadCount = Math.min(commonConfig.getMaxThreads(), series.size());
+    printSeriesFound(series.size(), instanceCount, threadCount);
+    
+    if (series.size() > 0) {
+      // Submit separate task for each series
+      final MetricAggregates seriesLatencyAggregates = new MetricAggregates();
+      final MetricAggregates seriesTransferRateAggregates = new MetricAggregates();
+      try (RequestExecutor executor = createRequestExecutor(threadCount, stats)) {
+        executor.setExpectedRequests(series.size());
+        for (int row = 0; row < series.size(); row++) {
+          final String seriesStudyId = studyId == null ? series.getStudyUID(row) : studyId;
+          final String seriesId = series.getSeriesUID(row);
+          if (!(seriesStudyId == null || seriesId == null)) {
+            executor.submit(cacheReported(seriesStudyId, () -> {
+              final HttpRequestMetrics metrics = HttpRequestProfilerFactory
+                  .createRetrieveDicomSeriesRequest(dicomSeriesConfig, seriesStudyId, seriesId)
+                  .execute(NullOutputStream.NULL_OUTPUT_STREAM);
+              
+              // Update per series aggregates
+              synchronized (seriesLatencyAggregates) {
+                seriesLatencyAggregates.addValue(metrics.getTotalLatency());
+                if (metrics.getTotalLatency() > 0L) {
+                  seriesTransferRateAggregates.addValue(metrics.getTransferRate() / 1048576.0);
+                }
+              }
+              return metrics;
+            }));
+          }
+        }
+        
+        // Wait for completion
+        executor.awaitCompletion();
+      }
+      final long totalLatency = System.currentTimeMillis() - iterationStartTime;
+      
+      if (stats.getRequestCount() == 0) {
+        // All requests failed
+        return;
+      }
+      final HttpRequestMetrics firstResponseMetrics = stats.getFirstResponseMetrics();
+      final HttpRequestMetrics firstSeriesMetrics = stats.getFirstCompletedMetrics();
+      final long totalBytesRead = querySeriesMetrics.getBytesRead() + stats.getBytesRead();
+      
+      // Update aggregates
+      final double transferRate = (double) totalBytesRead / (double) totalLatency / 1048.576;
+      final double seriesRate = (double) stats.getRequestCount() / ((double) totalLatency / 1000.0);
+      final double instanceRate = (double) instanceCount / ((double) totalLatency / 1000.0);
+      querySeriesAggregates.addValue(querySeriesMetrics.getTotalLatency());
+      firstResponseAggregates.addValue(firstResponseMetrics.getResponseLatency());
+      firstSeriesAggregates.addValue(firstSeriesMetrics.getTotalLatency());
+      totalAggregates.addValue(totalLatency);
+      transferRateAggregates.addValue(transferRate);
+      seriesRateAggregates.addValue(seriesRate);
+      
+      // Print metrics
+      printRetrieveSeriesMetrics(querySeriesMetrics.getTotalLatency(),
+          firstResponseMetrics.getResponseLatency(), firstSeriesMetrics.getTotalLatency(),
+          totalLatency, totalBytesRead, transferRate, seriesRate, instanceRate,
+          seriesLatencyAggregates, seriesTransferRateAggregates, stats.getCacheHits(),
+          stats.getCacheMisses());
+      printAdaptiveConcurrency();
+      recordLatencies(stats);
+      
+      // Print iteration metrics to CSV file if output option is specified
+      if (output != null) {
+        if (iteration == 0) {
+          output.println("ITERATION, QUERYING_SERIES_LATENCY, FIRST_BYTE_RECEIVED_LATENCY, "
+              + "READING_FIRST_SERIES_LATENCY, READING_ALL_SERIES_LATENCY, "
+              + "TOTAL_BYTES_READ, MB_READ_PER_SECOND, SERIES_READ_PER_SECOND, "
+              + "INSTANCES_READ_PER_SECOND, SERIES_LATENCY_MEDIAN, SERIES_LATENCY_P99");
+        }
+        output.print(iteration);
+        output.print(", ");
+        output.print(querySeriesMetrics.getTotalLatency());
+        output.print(", ");
+        output.print(firstResponseMetrics.getResponseLatency());
+        output.print(", ");
+        output.print(firstSeriesMetrics.getTotalLatency());
+        output.print(", ");
+        output.print(totalLatency);
+        output.print(", ");
+        output.print(totalBytesRead);
+        output.print(", ");
+        output.print(transferRate);
+        output.print(", ");
+        output.print(seriesRate);
+        output.print(", ");
+        output.print(instanceRate);
+        output.print(", ");
+        output.print(seriesLatencyAggregates.getPercentile(MetricAggregates.MEDIAN));
+        output.print(", ");
+        output.print(seriesLatencyAggregates.getPercentile(MetricAggregates.P99));
+        output.println();
+      }
+    }
+  }
+  
+  /**
+   * Prints calculated aggregates for all iterations to stdout.
+   */
+  @Override
+  protected void printAggregates() {
+    printRetrieveSeriesAggregates(querySeriesAggregates, firstResponseAggregates,
+        firstSeriesAggregates, totalAggregates, transferRateAggregates, seriesRateAggregates);
+  }
+  
+}
@@ -14,37 +14,27 @@
 
 package com.google.chcapi.perfdiag.benchmark;
 
-import java.util.List;
-import java.util.ArrayList;
-import java.util.concurrent.Future;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicReference;
-
 import java.io.PrintStream;
-import java.io.ByteArrayOutputStream;
+import java.util.List;
 
 import picocli.CommandLine.Mixin;
 import picocli.CommandLine.Command;
 
-import org.apache.commons.io.output.NullOutputStream;
-
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-
-import com.google.chcapi.perfdiag.model.Attributes;
+import com.google.chcapi.perfdiag.model.DicomCatalog;
 import com.google.chcapi.perfdiag.benchmark.config.DicomStudyConfig;
+import com.google.chcapi.perfdiag.benchmark.config.RetrieveStudyConfig;
+import com.google.chcapi.perfdiag.benchmark.stats.IterationStats;
 import com.google.chcapi.perfdiag.benchmark.stats.MetricAggregates;
 import com.google.chcapi.perfdiag.profiler.HttpRequestProfiler;
 import com.google.chcapi.perfdiag.profiler.HttpRequestProfilerFactory;
 import com.google.chcapi.perfdiag.profiler.HttpRequestMetrics;
+import com.google.chcapi.perfdiag.profiler.MultipartFrameReader;
 
 /**
  * This benchmark shows how fast it can be to retrieve a whole study with Google Cloud Healthcare
  * Imaging API. It involves sending request to get instance information (QIDO) and sending
- * paralleled GET requests to retrieve each instance (WADO).
+ * paralleled GET requests to retrieve frames of each instance (WADO). Several frames can be
+ * requested at once to compare latency and throughput of different batch sizes.
  * 
  * @author Mikhail Ukhlin
  */
@@ -57,35 +47,48 @@ public class RetrieveStudyBenchmark extends Benchmark {
   @Mixin
   protected DicomStudyConfig dicomStudyConfig;
   
+  /**
+   * Retrieve study configuration from command line.
+   */
+  @Mixin
+  protected RetrieveStudyConfig retrieveStudyConfig;
+  
   /**
    * Aggregates for latency of querying instances.
    */
   private MetricAggregates queryInstancesAggregates;
   
   /**
-   * Aggregates for latency of first byte received.
+   * Aggregates for latency of first byte received for each number of frames per request.
    */
-  private MetricAggregates firstResponseAggregates;
+  private MetricAggregates[] firstResponseAggregates;
   
   /**
-   * Aggregates for latency of reading first frame.
+   * Aggregates for latency of reading first frame for each number of frames per request.
    */
-  private MetricAggregates firstFrameAggregates;
+  private MetricAggregates[] firstFrameAggregates;
   
   /**
-   * Aggregates for latency of reading whole study.
+   * Aggregates for latency of reading whole study for each number of frames per request.
    */
-  private MetricAggregates totalAggregates;
+  private MetricAggregates[] totalAggregates;
   
   /**
-   * Aggregates for transfer rate of downloading the whole study.
+   * Aggregates for transfer rate of downloading the whole study for each number of frames per
+   * request.
    */
-  private MetricAggregates transferRateAggregates;
+  private MetricAggregates[] transferRateAggregates;
   
   /**
-   * Aggregates for frame rate of downloading the whole study.
+   * Aggregates for frame rate of downloading the whole study for each number of frames per
+   * request.
    */
-  private MetricAggregates frameRateAggregates;
+  private MetricAggregates[] frameRateAggregates;
+  
+  /**
+   * Aggregates for bytes read per request for each number of frames per request.
+   */
+  private MetricAggregates[] requestSizeAggregates;
   
   /**
    * Validates configuration and initializes aggregates.
@@ -93,18 +96,35 @@ public class RetrieveStudyBenchmark extends Benchmark {
   @Override
   protected void validateConfig() {
     super.validateConfig();
+    final List<Integer> framesPerRequest = retrieveStudyConfig.getFramesPerRequest();
+    for (Integer frames : framesPerRequest) {
+      if (frames == null || frames < 1) {
+        throw BenchmarkException.framesPerRequestInvalid(frames == null ? 0 : frames);
+      }
+    }
     final int iterations = commonConfig.getIterations();
+    final int batchSizes = framesPerRequest.size();
     queryInstancesAggregates = new MetricAggregates(iterations);
-    firstResponseAggregates = new MetricAggregates(iterations);
-    firstFrameAggregates = new MetricAggregates(iterations);
-    totalAggregates = new MetricAggregates(iterations);
-    transferRateAggregates = new MetricAggregates(iterations);
-    frameRateAggregates = new MetricAggregates(iterations);
+    firstResponseAggregates = new MetricAggregates[batchSizes];
+    firstFrameAggregates = new MetricAggregates[batchSizes];
+    totalAggregates = new MetricAggregates[batchSizes];
+    transferRateAggregates = new MetricAggregates[batchSizes];
+    frameRateAggregates = new MetricAggregates[batchSizes];
+    requestSizeAggregates = new MetricAggregates[batchSizes];
+    for (int i = 0; i < batchSizes; i++) {
+      firstResponseAggregates[i] = new MetricAggregates(iterations);
+      firstFrameAggregates[i] = new MetricAggregates(iterations);
+      totalAggregates[i] = new MetricAggregates(iterations);
+      transferRateAggregates[i] = new MetricAggregates(iterations);
+      frameRateAggregates[i] = new MetricAggregates(iterations);
+      requestSizeAggregates[i] = new MetricAggregates(iterations);
+    }
   }
   
   /**
    * Retrieves DICOM study instances in parallel and stores metrics for each request to the
-   * specified output stream if any.
+   * specified output stream if any. Instances are queried once and then the study is retrieved
+   * once for each configured number of frames per request.
    * 
    * @param iteration Iteration number.
    * @param output Output stream to write metrics or {@code null} if output file is not specified.
@@ -112,134 +132,182 @@ public class RetrieveStudyBenchmark extends Benchmark {
    */
   @Override
   protected void runIteration(int iteration, PrintStream output) throws Exception {
-    final AtomicReference<HttpRequestMetrics> firstResponseMetrics = new AtomicReference<>();
-    final AtomicReference<HttpRequestMetrics> firstFrameMetrics = new AtomicReference<>();
-    
     // Fetch list of available study instances
     final HttpRequestProfiler queryInstancesRequest =
         HttpRequestProfilerFactory.createListDicomStudyInstancesRequest(dicomStudyConfig);
-    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-    final long iterationStartTime = System.currentTimeMillis();
-    final HttpRequestMetrics queryInstancesMetrics = queryInstancesRequest.execute(buffer);
-    final List<Attributes> instances = MAPPER.readValue(buffer.toByteArray(),
-        new TypeReference<List<Attributes>>() {});
-    int frameCount = instances.stream().mapToInt(Attributes::getNumberOfFrames).sum();
+    final ManifestCache.Listing listing = manifestCache.list(queryInstancesRequest);
+    final DicomCatalog instances = listing.getCatalog();
+    final HttpRequestMetrics queryInstancesMetrics = listing.getMetrics();
+    final int frameCount = (int) Math.min(instances.getTotalFrames(), Integer.MAX_VALUE);
     final int threadCount = Math.min(commonConfig.getMaxThreads(), frameCount);
     printInstancesFound(instances.size(), frameCount, threadCount);
+    queryInstancesAggregates.addValue(queryInstancesMetrics.getTotalLatency());
     
     if (instances.size() > 0) {
-      // Create separate task for each frame
-      final ExecutorService pool = Executors.newFixedThreadPool(threadCount);
-      final List<Callable<HttpRequestMetrics>> tasks = new ArrayList<>();
-      for (Attributes instance : instances) {
-        final String seriesId = instance.getSeriesUID();
-        final String instanceId = instance.getInstanceUID();
+      final List<Integer> framesPerRequest = retrieveStudyConfig.getFramesPerRequest();
+      for (int i = 0; i < framesPerRequest.size(); i++) {
+        retrieveFrames(iteration, i, framesPerRequest.get(i), instances, frameCount, threadCount,
+            queryInstancesMetrics, output);
+      }
+    }
+  }
+  
+  /**
+   * Retrieves all frames of the study requesting the specified number of frames at once and
+   * updates aggregates of the specified batch size.
+   * 
+   * @param iteration Iteration number.
+   * @param batch Index of the number of frames per request.
+   * @param batchSize Number of frames per request.
+   * @param instances Study instances.
+   * @param frameCount Total number of frames.
+   * @param threadCount Number of threads to retrieve frames.
+   * @param queryInstancesMetrics Metrics of querying instances request.
+   * @param output Output stream to write metrics or {@code null} if output file is not specified.
+   * @throws Exception if an error occurred.
+   */
+  private void retrieveFrames(int iteration, int batch, int batchSize, DicomCatalog instances,
+      int frameCount, int threadCount, HttpRequestMetrics queryInstancesMetrics, PrintStream output)
+      throws Exception {
+    final IterationStats stats = new IterationStats();
+    
+    // Time of the earliest frame read and latency of its request
+    final long[] firstFrame = {Long.MAX_VALUE, 0L};
+    final long startTime = System.currentTimeMillis();
+    
+    // Submit separate task for each batch of frames, tasks are generated as the window allows
+    try (RequestExecutor executor = createRequestExecutor(threadCount, stats)) {
+      long requestCount = 0L;
+      for (int row = 0; row < instances.size(); row++) {
+        if (instances.getSeriesIndex(row) >= 0 && instances.getInstanceIndex(row) >= 0) {
+          requestCount += (instances.getNumberOfFrames(row) + batchSize - 1) / batchSize;
+        }
+      }
+      executor.setExpectedRequests(requestCount);
+      for (int row = 0; row < instances.size(); row++) {
+        final String seriesId = instances.getSeriesUID(row);
+        final String instanceId = instances.getInstanceUID(row);
         if (!(seriesId == null || instanceId == null)) {
-          for (int i = 0; i < instance.getNumberOfFrames(); i++) {
-            final int frameIndex = i + 1;
-            tasks.add(new Callable<HttpRequestMetrics>() {
-              @Override public HttpRequestMetrics call() throws Exception {
-                // Execute request
-                final HttpRequestProfiler request =
-                    HttpRequestProfilerFactory.createRetrieveDicomInstanceFrameRequest(dicomStudyConfig,
-                        seriesId, instanceId, frameIndex);
-                final HttpRequestMetrics metrics = request.execute(NullOutputStream.NULL_OUTPUT_STREAM);
-                
-                // Update first response and first frame metrics
-                firstResponseMetrics.updateAndGet(m -> {
-                  return m == null || metrics.getResponseTime() < m.getResponseTime() ? metrics : m;
-                });
-                firstFrameMetrics.updateAndGet(m -> {
-                  return m == null || metrics.getEndTime() < m.getEndTime() ? metrics : m;
-                });
-                
-                // Print progress
-                printProgress();
-                return metrics;
+          final int frames = instances.getNumberOfFrames(row);
+          // Frames URI of the instance is built once for all of its requests
+          final String framesUri = HttpRequestProfilerFactory.getDicomInstanceFramesUri(
+              dicomStudyConfig, seriesId, instanceId);
+          for (int i = 0; i < frames; i += batchSize) {
+            final int firstFrameIndex = i + 1;
+            final int batchFrames = Math.min(batchSize, frames - i);
+            executor.submit(cacheReported(dicomStudyConfig.getDicomStudyId(), () -> {
+              final HttpRequestProfiler request =
+                  HttpRequestProfilerFactory.createRetrieveDicomInstanceFramesRequest(framesUri,
+                      firstFrameIndex, batchFrames);
+              final MultipartFrameReader reader = new MultipartFrameReader();
+              final HttpRequestMetrics metrics = request.execute(reader);
+              if (reader.getFrameCount() > 0) {
+                synchronized (firstFrame) {
+                  if (reader.getFirstFrameTime() < firstFrame[0]) {
+                    firstFrame[0] = reader.getFirstFrameTime();
+                    firstFrame[1] = reader.getFirstFrameTime() - metrics.getStartTime();
+                  }
+                }
               }
-            });
+              return metrics;
+            }), batchFrames);
           }
         }
       }
       
       // Wait for completion
-      final List<Future<HttpRequestMetrics>> futures = pool.invokeAll(tasks);
-      final long totalLatency = System.currentTimeMillis() - iterationStartTime;
-      
-      if (output == System.out) {
-        // New line after progress
-        output.println();
-      }
-      
-      // Print requests metrics and count bytes read
-      int cacheHits = 0;
-      int cacheMisses = 0;
-      long totalBytesRead = queryInstancesMetrics.getBytesRead();
-      for (Future<HttpRequestMetrics> future : futures) {
-        try {
-          final HttpRequestMetrics metrics = future.get();
-          totalBytesRead += metrics.getBytesRead();
-          cacheHits = metrics.getCacheStatus().incrementHits(cacheHits);
-          cacheMisses = metrics.getCacheStatus().incrementMisses(cacheMisses);
-        } catch (Exception e) {
-          printRequestFailed(e);
-        }
-      }
-      
-      // Update aggregates
-      final double transferRate = (double) totalBytesRead / (double) totalLatency / 1048.576;
-      final double frameRate = (double) frameCount / ((double) totalLatency / 1000.0);
-      queryInstancesAggregates.addValue(queryInstancesMetrics.getTotalLatency());
-      firstResponseAggregates.addValue(firstResponseMetrics.get().getResponseLatency());
-      firstFrameAggregates.addValue(firstFrameMetrics.get().getTotalLatency());
-      totalAggregates.addValue(totalLatency);
-      transferRateAggregates.addValue(transferRate);
-      frameRateAggregates.addValue(frameRate);
-      
-      // Print metrics
-      printRetrieveStudyMetrics(queryInstancesMetrics.getTotalLatency(),
-          firstResponseMetrics.get().getResponseLatency(),
-          firstFrameMetrics.get().getTotalLatency(), totalLatency, totalBytesRead,
-          transferRate, frameRate, cacheHits, cacheMisses);
-      
-      // Print iteration metrics to CSV file if output option is specified
-      if (output != null) {
-        if (iteration == 0) {
-          output.println("ITERATION, QUERYING_INSTANCES_LATENCY, FIRST_BYTE_RECEIVED_LATENCY, "
-              + "READING_FIRST_FRAME_LATENCY, READING_WHOLE_STUDY_LATENCY, "
-              + "TOTAL_BYTES_READ, MB_READ_PER_SECOND, FRAMES_READ_PER_SECOND");
-        }
-        output.print(iteration);
-        output.print(", ");
-        output.print(queryInstancesMetrics.getTotalLatency());
-        output.print(", ");
-        output.print(firstResponseMetrics.get().getResponseLatency());
-        output.print(", ");
-        output.print(firstFrameMetrics.get().getTotalLatency());
-        output.print(", ");
-        output.print(totalLatency);
-        output.print(", ");
-        output.print(totalBytesRead);
-        output.print(", ");
-        output.print(transferRate);
-        output.print(", ");
-        output.print(frameRate);
-        output.println();
+      executor.awaitCompletion();
+    }
+    final long totalLatency =
+        queryInstancesMetrics.getTotalLatency() + System.currentTimeMillis() - startTime;
+    
+    if (stats.getRequestCount() == 0) {
+      // All requests failed
+      return;
+    }
+    final HttpRequestMetrics firstResponseMetrics = stats.getFirstResponseMetrics();
+    final long firstFrameLatency = firstFrame[0] == Long.MAX_VALUE
+        ? stats.getFirstCompletedMetrics().getTotalLatency()
+        : firstFrame[1];
+    final long totalBytesRead = queryInstancesMetrics.getBytesRead() + stats.getBytesRead();
+    
+    // Update aggregates
+    final double transferRate = (double) totalBytesRead / (double) totalLatency / 1048.576;
+    final double frameRate = (double) frameCount / ((double) totalLatency / 1000.0);
+    final double requestSize = (double) stats.getBytesRead() / (double) stats.getRequestCount();
+    firstResponseAggregates[batch].addValue(firstResponseMetrics.getResponseLatency());
+    firstFrameAggregates[batch].addValue(firstFrameLatency);
+    totalAggregates[batch].addValue(totalLatency);
+    transferRateAggregates[batch].addValue(transferRate);
+    frameRateAggregates[batch].addValue(frameRate);
+    requestSizeAggregates[batch].addValue(requestSize);
+    
+    // Print metrics
+    if (isFramesPerRequestSweep()) {
+      printFramesPerRequest(batchSize);
+    }
+    printRetrieveStudyMetrics(queryInstancesMetrics.getTotalLatency(),
+        firstResponseMetrics.getResponseLatency(), firstFrameLatency, totalLatency,
+        totalBytesRead, transferRate, frameRate, stats.getCacheHits(), stats.getCacheMisses());
+    printAdaptiveConcurrency();
+    recordLatencies(stats);
+    
+    // Print iteration metrics to CSV file if output option is specified
+    if (output != null) {
+      if (iteration == 0 && batch == 0) {
+        output.println("ITERATION, QUERYING_INSTANCES_LATENCY, FIRST_BYTE_RECEIVED_LATENCY, "
+            + "READING_FIRST_FRAME_LATENCY, READING_WHOLE_STUDY_LATENCY, "
+            + "TOTAL_BYTES_READ, MB_READ_PER_SECOND, FRAMES_READ_PER_SECOND, "
+            + "FRAMES_PER_REQUEST");
       }
+      output.print(iteration);
+      output.print(", ");
+      output.print(queryInstancesMetrics.getTotalLatency());
+      output.print(", ");
+      output.print(firstResponseMetrics.getResponseLatency());
+      output.print(", ");
+      output.print(firstFrameLatency);
+      output.print(", ");
+      output.print(totalLatency);
+      output.print(", ");
+      output.print(totalBytesRead);
+      output.print(", ");
+      output.print(transferRate);
+      output.print(", ");
+      output.print(frameRate);
+      output.print(", ");
+      output.print(batchSize);
+      output.println();
     }
   }
   
+  /**
+   * Returns {@code true} if frames are retrieved in batches, i.e. other than a single number of
+   * frames per request equal to {@code 1} is configured.
+   */
+  private boolean isFramesPerRequestSweep() {
+    final List<Integer> framesPerRequest = retrieveStudyConfig.getFramesPerRequest();
+    return framesPerRequest.size() > 1 || framesPerRequest.get(0) != 1;
+  }
+  
   /**
    * Prints calculated aggregates for all iterations to stdout.
    */
   @Override
   protected void printAggregates() {
-    printRetrieveStudyAggregates(queryInstancesAggregates, firstResponseAggregates,
-        firstFrameAggregates, totalAggregates, transferRateAggregates, frameRateAggregates);
+    final List<Integer> framesPerRequest = retrieveStudyConfig.getFramesPerRequest();
+    for (int i = 0; i < framesPerRequest.size(); i++) {
+      if (isFramesPerRequestSweep()) {
+        printFramesPerRequest(framesPerRequest.get(i));
+      }
+      printRetrieveStudyAggregates(queryInstancesAggregates, firstResponseAggregates[i],
+          firstFrameAggregates[i], totalAggregates[i], transferRateAggregates[i],
+          frameRateAggregates[i]);
+    }
+    if (framesPerRequest.size() > 1) {
+      printFramesPerRequestSweep(framesPerRequest, requestSizeAggregates, firstFrameAggregates,
+          totalAggregates, transferRateAggregates, frameRateAggregates);
+    }
   }
   
-  /* Object mapper to convert JSON response */
-  private static final ObjectMapper MAPPER = new ObjectMapper()
-      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-  
 }
@@ -16,26 +16,16 @@ package com.google.chcapi.perfdiag.benchmark.config;
 
 import java.io.File;
 
-import java.net.URL;
-
 import picocli.CommandLine.Option;
 
+import com.google.chcapi.perfdiag.benchmark.stats.RequestLog;
+
 /**
  * Common benchmark configuration.
  * 
  * @author Mikhail Ukhlin
  */
-public class CommonConfig {
-  
-  /**
-   * URL of DICOM API endpoint.
-   */
-  @Option(
-      names = {"-e", "--endpoint"},
-      descriptionKey = "option.endpoint.description",
-      required = false
-  )
-  private URL endpoint = null;
+public class CommonConfig extends EndpointConfig {
   
   /**
    * How many times the routine is executed.
@@ -57,6 +47,26 @@ public class CommonConfig {
   )
   private int maxThreads = 10;
   
+  /**
+   * Number of independent HTTP clients requests are spread across.
+   */
+  @Option(
+      names = {"--http-clients"},
+      descriptionKey = "option.http-clients.description",
+      required = false
+  )
+  private int httpClients = 1;
+  
+  /**
+   * Whether number of requests executed in parallel is adjusted to the service response.
+   */
+  @Option(
+      names = {"--adaptive-concurrency"},
+      descriptionKey = "option.adaptive-concurrency.description",
+      required = false
+  )
+  private boolean adaptiveConcurrency = false;
+  
   /**
    * File to write the result to.
    */
@@ -68,13 +78,114 @@ public class CommonConfig {
   private File outputFile = null;
   
   /**
-   * Returns URL of DICOM API endpoint.
-   * 
-   * @return URL of DICOM API endpoint.
+   * File to write histogram log of request latencies to.
    */
-  public URL getEndpoint() {
-    return endpoint;
-  }
+  @Option(
+      names = {"--histogram-log"},
+      descriptionKey = "option.histogram-log.description",
+      required = false
+  )
+  private File histogramLogFile = null;
+  
+  /**
+   * File to write timeline of requests to.
+   */
+  @Option(
+      names = {"--timeline"},
+      descriptionKey = "option.timeline.description",
+      required = false
+  )
+  private File timelineFile = null;
+  
+  /**
+   * Width of timeline bucket in milliseconds.
+   */
+  @Option(
+      names = {"--timeline-interval"},
+      descriptionKey = "option.timeline-interval.description",
+      required = false
+  )
+  private long timelineInterval = 1000L;
+  
+  /**
+   * File to write cache effectiveness of each study to.
+   */
+  @Option(
+      names = {"--cache-report"},
+      descriptionKey = "option.cache-report.description",
+      required = false
+  )
+  private File cacheReportFile = null;
+  
+  /**
+   * File to write the slowest requests to.
+   */
+  @Option(
+      names = {"--slowest-requests"},
+      descriptionKey = "option.slowest-requests.description",
+      required = false
+  )
+  private File slowestRequestsFile = null;
+  
+  /**
+   * File to log every request to.
+   */
+  @Option(
+      names = {"--request-log"},
+      descriptionKey = "option.request-log.description",
+      required = false
+  )
+  private File requestLogFile = null;
+  
+  /**
+   * Format of the request log.
+   */
+  @Option(
+      names = {"--request-log-format"},
+      descriptionKey = "option.request-log-format.description",
+      required = false
+  )
+  private RequestLog.Format requestLogFormat = RequestLog.Format.BINARY;
+  
+  /**
+   * Port of the metrics endpoint.
+   */
+  @Option(
+      names = {"--metrics-port"},
+      descriptionKey = "option.metrics-port.description",
+      required = false
+  )
+  private Integer metricsPort = null;
+  
+  /**
+   * File to write Flight Recorder recording of the benchmark to.
+   */
+  @Option(
+      names = {"--jfr"},
+      descriptionKey = "option.jfr.description",
+      required = false
+  )
+  private File jfrFile = null;
+  
+  /**
+   * Minimum duration in milliseconds of requests recorded by Flight Recorder.
+   */
+  @Option(
+      names = {"--jfr-threshold"},
+      descriptionKey = "option.jfr-threshold.description",
+      required = false
+  )
+  private long jfrThreshold = 100L;
+  
+  /**
+   * How progress of requests is shown.
+   */
+  @Option(
+      names = {"--progress"},
+      descriptionKey = "option.progress.description",
+      required = false
+  )
+  private Progress progress = Progress.AUTO;
   
   /**
    * Returns number of iterations the routine is executed.
@@ -94,6 +205,26 @@ public class CommonConfig {
     return maxThreads;
   }
   
+  /**
+   * Returns number of independent HTTP clients, each with its own connection pool, requests are
+   * spread across.
+   * 
+   * @return Number of independent HTTP clients.
+   */
+  public int getHttpClients() {
+    return httpClients;
+  }
+  
+  /**
+   * Returns {@code true} if number of requests executed in parallel should be adjusted to the
+   * service response, so the maximum number of threads is only the upper bound.
+   * 
+   * @return {@code true} if adaptive concurrency is enabled.
+   */
+  public boolean isAdaptiveConcurrency() {
+    return adaptiveConcurrency;
+  }
+  
   /**
    * Returns file to write the result to. If not provided, the result will be written to stdout.
    * 
@@ -103,4 +234,138 @@ public class CommonConfig {
     return outputFile;
   }
   
+  /**
+   * Returns file to write histogram log of request latencies to or {@code null} if histogram log
+   * is not written.
+   * 
+   * @return File to write histogram log to.
+   */
+  public File getHistogramLogFile() {
+    return histogramLogFile;
+  }
+  
+  /**
+   * Returns file to write timeline of requests to or {@code null} if timeline is not written.
+   * 
+   * @return File to write timeline to.
+   */
+  public File getTimelineFile() {
+    return timelineFile;
+  }
+  
+  /**
+   * Returns width of timeline bucket in milliseconds.
+   * 
+   * @return Width of timeline bucket in milliseconds.
+   */
+  public long getTimelineInterval() {
+    return timelineInterval;
+  }
+  
+  /**
+   * Returns file to write cache effectiveness of each study to or {@code null} if the report is
+   * not written.
+   * 
+   * @return File to write cache report to.
+   */
+  public File getCacheReportFile() {
+    return cacheReportFile;
+  }
+  
+  /**
+   * Returns file to write the slowest requests to or {@code null} if they are not written.
+   * 
+   * @return File to write the slowest requests to.
+   */
+  public File getSlowestRequestsFile() {
+    return slowestRequestsFile;
+  }
+  
+  /**
+   * Returns file to log every request to or {@code null} if requests are not logged.
+   * 
+   * @return File to log requests to.
+   */
+  public File getRequestLogFile() {
+    return requestLogFile;
+  }
+  
+  /**
+   * Returns format of the request log.
+   * 
+   * @return Format of the request log.
+   */
+  public RequestLog.Format getRequestLogFormat() {
+    return requestLogFormat;
+  }
+  
+  /**
+   * Returns port of the metrics endpoint or {@code null} if metrics are not served.
+   * 
+   * @return Port of the metrics endpoint.
+   */
+  public Integer getMetricsPort() {
+    return metricsPort;
+  }
+  
+  /**
+   * Returns file to write Flight Recorder recording to or {@code null} if the benchmark is not
+   * recorded.
+   * 
+   * @return File to write Flight Recorder recording to.
+   */
+  public File getJfrFile() {
+    return jfrFile;
+  }
+  
+  /**
+   * Returns minimum duration in milliseconds of requests and request phases recorded by Flight
+   * Recorder.
+   * 
+   * @return Minimum duration of recorded requests in milliseconds.
+   */
+  public long getJfrThreshold() {
+    return jfrThreshold;
+  }
+  
+  /**
+   * Returns how progress of requests is shown, {@link Progress#AUTO} is resolved to
+   * {@link Progress#LIVE} if stdout is a terminal and to {@link Progress#LOG} otherwise.
+   * 
+   * @return How progress of requests is shown.
+   */
+  public Progress getProgress() {
+    if (progress == Progress.AUTO) {
+      return System.console() != null ? Progress.LIVE : Progress.LOG;
+    }
+    return progress;
+  }
+  
+  /**
+   * Enumerates ways progress of requests is shown.
+   */
+  public enum Progress {
+    
+    /**
+     * Live progress if stdout is a terminal, progress log otherwise.
+     */
+    AUTO,
+    
+    /**
+     * Progress line is redrawn in place several times per second.
+     */
+    LIVE,
+    
+    /**
+     * Progress line is printed periodically.
+     */
+    LOG,
+    
+    /**
+     * Progress is not shown.
+     */
+    NONE
+    
+  }
+  
 }
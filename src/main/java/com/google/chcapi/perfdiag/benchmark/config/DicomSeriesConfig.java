@@ -0,0 +1,45 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.config;
+
+import picocli.CommandLine.Option;
+
+/**
+ * Configuration parameters of DICOM series to retrieve: all series of the specified study or all
+ * series of the DICOM store if study is not specified.
+ */
+public class DicomSeriesConfig extends DicomStoreConfig {
+  
+  /**
+   * DICOM study ID.
+   */
+  @Option(
+      names = {"-y", "--dicom-study"},
+      descriptionKey = "option.series-study.description",
+      required = false
+  )
+  private String dicomStudyId;
+  
+  /**
+   * Returns ID of DICOM study which series are retrieved or {@code null} if all series of the
+   * DICOM store are retrieved.
+   * 
+   * @return DICOM study ID.
+   */
+  public String getDicomStudyId() {
+    return dicomStudyId;
+  }
+  
+}
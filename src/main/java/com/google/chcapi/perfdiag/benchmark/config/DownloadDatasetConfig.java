@@ -0,0 +1,142 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.config;
+
+import java.io.File;
+
+import picocli.CommandLine.Option;
+
+/**
+ * Configuration of the download dataset benchmark.
+ */
+public class DownloadDatasetConfig {
+  
+  /**
+   * Whether studies are retrieved while the study listing is still being received.
+   */
+  @Option(
+      names = {"--pipelined"},
+      descriptionKey = "option.pipelined.description",
+      required = false
+  )
+  private boolean pipelined = false;
+  
+  /**
+   * Order in which studies are retrieved.
+   */
+  @Option(
+      names = {"--schedule"},
+      descriptionKey = "option.schedule.description",
+      required = false
+  )
+  private Schedule schedule = Schedule.LISTING;
+  
+  /**
+   * Number of instances above which a study is retrieved series by series.
+   */
+  @Option(
+      names = {"--split-threshold"},
+      descriptionKey = "option.split-threshold.description",
+      required = false
+  )
+  private int splitThreshold = 0;
+  
+  /**
+   * Journal file of completed retrieval tasks.
+   */
+  @Option(
+      names = {"--journal"},
+      descriptionKey = "option.journal.description",
+      required = false
+  )
+  private File journal = null;
+  
+  /**
+   * Whether tasks recorded in the journal are skipped.
+   */
+  @Option(
+      names = {"--resume"},
+      descriptionKey = "option.resume.description",
+      required = false
+  )
+  private boolean resume = false;
+  
+  /**
+   * Returns {@code true} if studies should be retrieved while the study listing is still being
+   * received instead of waiting for the whole listing.
+   * 
+   * @return {@code true} if pipelined mode is enabled.
+   */
+  public boolean isPipelined() {
+    return pipelined;
+  }
+  
+  /**
+   * Returns order in which studies are retrieved.
+   * 
+   * @return Order in which studies are retrieved.
+   */
+  public Schedule getSchedule() {
+    return schedule;
+  }
+  
+  /**
+   * Returns number of instances above which a study is split into separate series requests or
+   * {@code 0} if studies should never be split.
+   * 
+   * @return Number of instances above which a study is split into series.
+   */
+  public int getSplitThreshold() {
+    return splitThreshold;
+  }
+  
+  /**
+   * Returns journal file of completed retrieval tasks or {@code null} if journal is disabled.
+   * 
+   * @return Journal file of completed retrieval tasks.
+   */
+  public File getJournal() {
+    return journal;
+  }
+  
+  /**
+   * Returns {@code true} if studies and series recorded in the journal should be skipped and their
+   * recorded metrics merged into the metrics of the iteration.
+   * 
+   * @return {@code true} if interrupted run should be resumed.
+   */
+  public boolean isResume() {
+    return resume;
+  }
+  
+  /**
+   * Enumerates orders in which studies are retrieved.
+   */
+  public enum Schedule {
+    
+    /**
+     * Studies are retrieved in the order they are listed by QIDO.
+     */
+    LISTING,
+    
+    /**
+     * Studies with the largest number of instances are retrieved first, so the longest requests do
+     * not end up running alone at the end of the iteration.
+     */
+    LARGEST_FIRST
+    
+  }
+  
+}
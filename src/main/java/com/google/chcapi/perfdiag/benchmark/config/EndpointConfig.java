@@ -0,0 +1,45 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.config;
+
+import java.net.URL;
+
+import picocli.CommandLine.Option;
+
+/**
+ * Configuration of DICOM API endpoint.
+ */
+public class EndpointConfig {
+  
+  /**
+   * URL of DICOM API endpoint.
+   */
+  @Option(
+      names = {"-e", "--endpoint"},
+      descriptionKey = "option.endpoint.description",
+      required = false
+  )
+  private URL endpoint = null;
+  
+  /**
+   * Returns URL of DICOM API endpoint.
+   * 
+   * @return URL of DICOM API endpoint.
+   */
+  public URL getEndpoint() {
+    return endpoint;
+  }
+  
+}
@@ -0,0 +1,84 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.config;
+
+import java.io.File;
+
+import picocli.CommandLine.Option;
+
+/**
+ * Configuration of manifest cache of QIDO listings.
+ */
+public class ManifestConfig {
+  
+  /**
+   * Directory of manifest files.
+   */
+  @Option(
+      names = {"--manifest-cache"},
+      descriptionKey = "option.manifest-cache.description",
+      required = false
+  )
+  private File directory = null;
+  
+  /**
+   * Maximum age of manifest file in seconds.
+   */
+  @Option(
+      names = {"--manifest-ttl"},
+      descriptionKey = "option.manifest-ttl.description",
+      required = false
+  )
+  private long ttl = 0L;
+  
+  /**
+   * Whether manifest files should be listed again and rewritten.
+   */
+  @Option(
+      names = {"--refresh-manifest"},
+      descriptionKey = "option.refresh-manifest.description",
+      required = false
+  )
+  private boolean refresh = false;
+  
+  /**
+   * Returns directory of manifest files or {@code null} if manifest cache is disabled.
+   * 
+   * @return Directory of manifest files.
+   */
+  public File getDirectory() {
+    return directory;
+  }
+  
+  /**
+   * Returns maximum age of manifest file in seconds, older files are listed again. Zero means that
+   * manifest files never expire.
+   * 
+   * @return Maximum age of manifest file in seconds.
+   */
+  public long getTtl() {
+    return ttl;
+  }
+  
+  /**
+   * Returns {@code true} if existing manifest files should be ignored, listed again and rewritten.
+   * 
+   * @return {@code true} if manifest files should be refreshed.
+   */
+  public boolean isRefresh() {
+    return refresh;
+  }
+  
+}
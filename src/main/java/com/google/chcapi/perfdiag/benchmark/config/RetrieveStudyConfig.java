@@ -0,0 +1,50 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.config;
+
+import java.util.List;
+import java.util.Collections;
+
+import picocli.CommandLine.Option;
+
+/**
+ * Configuration of the retrieve study benchmark.
+ */
+public class RetrieveStudyConfig {
+  
+  /**
+   * Numbers of frames retrieved by a single request.
+   */
+  @Option(
+      names = {"--frames-per-request"},
+      descriptionKey = "option.frames-per-request.description",
+      split = ",",
+      required = false
+  )
+  private List<Integer> framesPerRequest;
+  
+  /**
+   * Returns numbers of frames retrieved by a single request. Each iteration retrieves the study
+   * once for each number, so several numbers allow to compare batch sizes.
+   * 
+   * @return Numbers of frames retrieved by a single request (default is single frame).
+   */
+  public List<Integer> getFramesPerRequest() {
+    return framesPerRequest == null || framesPerRequest.isEmpty()
+        ? Collections.singletonList(1)
+        : framesPerRequest;
+  }
+  
+}
@@ -0,0 +1,117 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.io.FileNotFoundException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.chcapi.perfdiag.profiler.CacheStatus;
+import com.google.chcapi.perfdiag.profiler.HttpRequestMetrics;
+
+/**
+ * Cache effectiveness report of each study written to CSV file when the benchmark completes.
+ * Requests of a study are counted over all iterations, so the report shows which studies stay
+ * uncached after repeated retrievals. Each row has the following columns:
+ * <pre>
+ * STUDY, REQUESTS, CACHE_HITS, CACHE_MISSES, HIT_RATIO, BYTES_READ, HIT_LATENCY_MEAN,
+ * MISS_LATENCY_MEAN
+ * </pre>
+ * where {@code HIT_RATIO} is the fraction of hits among requests with known cache status and
+ * latencies are mean total latencies of hits and misses in milliseconds. Columns which cannot be
+ * calculated are empty.
+ */
+public class CacheReport implements AutoCloseable {
+
+  /* Indexes of counters of a study */
+  private static final int REQUESTS = 0;
+  private static final int HITS = 1;
+  private static final int MISSES = 2;
+  private static final int BYTES_READ = 3;
+  private static final int HIT_LATENCY = 4;
+  private static final int MISS_LATENCY = 5;
+
+  /**
+   * Stream to write rows to.
+   */
+  private final PrintStream output;
+
+  /**
+   * Counters of each study, each array is guarded by itself.
+   */
+  private final ConcurrentMap<String, long[]> studies = new ConcurrentHashMap<>();
+
+  /**
+   * Creates the specified report file, rows are written on {@link #close()}.
+   *
+   * @param file Report file.
+   * @throws FileNotFoundException if the file could not be created.
+   */
+  public CacheReport(File file) throws FileNotFoundException {
+    this.output = new PrintStream(file);
+  }
+
+  /**
+   * Counts completed request of the specified study.
+   *
+   * @param studyId ID of the study.
+   * @param metrics Metrics of the completed request.
+   */
+  public void add(String studyId, HttpRequestMetrics metrics) {
+    final long[] counters = studies.computeIfAbsent(studyId, id -> new long[MISS_LATENCY + 1]);
+    synchronized (counters) {
+      counters[REQUESTS]++;
+      counters[BYTES_READ] += metrics.getBytesRead();
+      if (metrics.getCacheStatus() == CacheStatus.HIT) {
+        counters[HITS]++;
+        counters[HIT_LATENCY] += metrics.getTotalLatency();
+      } else if (metrics.getCacheStatus() == CacheStatus.MISS) {
+        counters[MISSES]++;
+        counters[MISS_LATENCY] += metrics.getTotalLatency();
+      }
+    }
+  }
+
+  /**
+   * Writes rows of all studies ordered by study ID and closes the report file.
+   */
+  @Override
+  public void close() {
+    output.println("STUDY, REQUESTS, CACHE_HITS, CACHE_MISSES, HIT_RATIO, BYTES_READ, "
+        + "HIT_LATENCY_MEAN, MISS_LATENCY_MEAN");
+    for (Map.Entry<String, long[]> entry : new TreeMap<>(studies).entrySet()) {
+      final long[] counters = entry.getValue();
+      synchronized (counters) {
+        output.printf(Locale.US, "%s, %d, %d, %d, %s, %d, %s, %s%n", entry.getKey(),
+            counters[REQUESTS], counters[HITS], counters[MISSES],
+            format(counters[HITS], counters[HITS] + counters[MISSES]), counters[BYTES_READ],
+            format(counters[HIT_LATENCY], counters[HITS]),
+            format(counters[MISS_LATENCY], counters[MISSES]));
+      }
+    }
+    output.close();
+  }
+
+  /* Formats quotient or returns empty string if divisor is zero */
+  private static String format(long dividend, long divisor) {
+    return divisor == 0L ? "" : String.format(Locale.US, "%.3f", (double) dividend / divisor);
+  }
+
+}
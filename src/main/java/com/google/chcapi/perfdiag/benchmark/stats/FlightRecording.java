@@ -0,0 +1,101 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.time.Duration;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import com.google.chcapi.perfdiag.profiler.HttpRequestEvent;
+import com.google.chcapi.perfdiag.profiler.HttpRequestPhaseEvent;
+
+/**
+ * Flight Recorder recording covering the benchmark. The recording uses the {@code profile}
+ * settings of the JDK, so GC pauses, thread stalls, allocations and method samples of the client
+ * are recorded along with {@link HttpRequestEvent HTTP requests} and
+ * {@link HttpRequestPhaseEvent their phases} lasting longer than the threshold. The recording is
+ * written to the file when it is closed and can be opened in JDK Mission Control or printed by the
+ * {@code jfr} tool.
+ */
+public class FlightRecording implements AutoCloseable {
+  
+  /**
+   * Name of the JDK recording settings used.
+   */
+  public static final String SETTINGS = "profile";
+  
+  /**
+   * Recording of the benchmark.
+   */
+  private final Recording recording;
+  
+  /**
+   * Returns {@code true} if the running JVM supports Flight Recorder. The JFR API is looked up
+   * reflectively, so this method is safe to call on JVMs without it.
+   * 
+   * @return {@code true} if recordings can be started.
+   */
+  public static boolean isAvailable() {
+    try {
+      return (Boolean) Class.forName("jdk.jfr.FlightRecorder").getMethod("isAvailable")
+          .invoke(null);
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return false;
+    }
+  }
+  
+  /**
+   * Starts recording to the specified file.
+   * 
+   * @param file File to write the recording to.
+   * @param threshold Minimum duration in milliseconds of recorded requests and their phases.
+   * @throws IOException if the file is not writable or the recording settings are invalid.
+   */
+  public FlightRecording(File file, long threshold) throws IOException {
+    final Configuration settings;
+    try {
+      settings = Configuration.getConfiguration(SETTINGS);
+    } catch (ParseException e) {
+      throw new IOException(e);
+    }
+    recording = new Recording(settings);
+    recording.setName("perfdiag");
+    recording.setToDisk(true);
+    recording.setDestination(file.toPath());
+    recording.enable(HttpRequestEvent.NAME).withThreshold(Duration.ofMillis(threshold));
+    recording.enable(HttpRequestPhaseEvent.NAME).withThreshold(Duration.ofMillis(threshold));
+    recording.start();
+  }
+  
+  /**
+   * Stops the recording and writes it to the file. Does nothing if the recording is already
+   * closed.
+   */
+  @Override
+  public void close() {
+    try {
+      recording.stop();
+    } catch (IllegalStateException e) {
+      // Already stopped
+    } finally {
+      recording.close();
+    }
+  }
+  
+}
@@ -0,0 +1,84 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.io.FileNotFoundException;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Writer of histogram log in HdrHistogram log format (version 1.3). Each line holds a tag, start
+ * time relative to the start of the log and length of the interval in seconds, maximum value in
+ * milliseconds and {@link LatencyHistogram#encode() compressed histogram} of the interval.
+ */
+public class HistogramLog implements AutoCloseable {
+  
+  /**
+   * Histogram log format version.
+   */
+  public static final String FORMAT_VERSION = "1.3";
+  
+  /**
+   * Stream to write log to.
+   */
+  private final PrintStream output;
+  
+  /**
+   * Time in milliseconds interval start times are relative to.
+   */
+  private final long baseTime;
+  
+  /**
+   * Creates the specified log file and writes its header.
+   *
+   * @param file Log file.
+   * @throws FileNotFoundException if the file could not be created.
+   */
+  public HistogramLog(File file) throws FileNotFoundException {
+    this.output = new PrintStream(file);
+    this.baseTime = System.currentTimeMillis();
+    output.println("#[Histogram log format version " + FORMAT_VERSION + "]");
+    output.printf(Locale.US, "#[StartTime: %.3f (seconds since epoch), %s]%n",
+        baseTime / 1000.0, new Date(baseTime));
+    output.printf(Locale.US, "#[BaseTime: %.3f (seconds since epoch)]%n", baseTime / 1000.0);
+    output.println("#[Values in milliseconds]");
+    output.println("\"StartTimestamp\",\"Interval_Length\",\"Interval_Max\","
+        + "\"Interval_Compressed_Histogram\"");
+  }
+  
+  /**
+   * Writes histogram of the specified interval.
+   *
+   * @param tag Tag of the histogram, must not contain commas or whitespaces.
+   * @param startTime Time in milliseconds when the interval started.
+   * @param endTime Time in milliseconds when the interval ended.
+   * @param histogram Histogram of the interval.
+   */
+  public void write(String tag, long startTime, long endTime, LatencyHistogram histogram) {
+    output.printf(Locale.US, "Tag=%s,%.3f,%.3f,%.3f,%s%n", tag, (startTime - baseTime) / 1000.0,
+        (endTime - startTime) / 1000.0, (double) histogram.getMaxValue(), histogram.encode());
+  }
+  
+  /**
+   * Closes the log file.
+   */
+  @Override
+  public void close() {
+    output.close();
+  }
+  
+}
@@ -0,0 +1,397 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.chcapi.perfdiag.profiler.CacheStatus;
+import com.google.chcapi.perfdiag.profiler.HttpRequestException;
+import com.google.chcapi.perfdiag.profiler.HttpRequestMetrics;
+
+/**
+ * Thread-safe accumulator of request metrics of a single benchmark iteration. Metrics are folded
+ * as requests complete, so individual {@link HttpRequestMetrics} instances do not have to be kept
+ * until the end of the iteration.
+ */
+public class IterationStats {
+
+  /**
+   * Number of completed requests.
+   */
+  private final LongAdder requests = new LongAdder();
+
+  /**
+   * Number of failed requests.
+   */
+  private final LongAdder failures = new LongAdder();
+
+  /**
+   * Number of failed requests by HTTP status code, {@code 0} if no response was received.
+   */
+  private final ConcurrentMap<Integer, LongAdder> failuresByStatus = new ConcurrentHashMap<>();
+
+  /**
+   * Number of bytes read by completed requests.
+   */
+  private final LongAdder bytesRead = new LongAdder();
+
+  /**
+   * Number of cache hits.
+   */
+  private final LongAdder cacheHits = new LongAdder();
+
+  /**
+   * Number of cache misses.
+   */
+  private final LongAdder cacheMisses = new LongAdder();
+
+  /**
+   * Metrics of the request with the earliest response.
+   */
+  private final AtomicReference<HttpRequestMetrics> firstResponseMetrics =
+      new AtomicReference<>();
+
+  /**
+   * Metrics of the request completed first.
+   */
+  private final AtomicReference<HttpRequestMetrics> firstCompletedMetrics =
+      new AtomicReference<>();
+
+  /**
+   * Time in milliseconds when the first request has been sent.
+   */
+  private final AtomicLong firstStartTime = new AtomicLong(Long.MAX_VALUE);
+
+  /**
+   * Time in milliseconds when the last request has been completed.
+   */
+  private final AtomicLong lastEndTime = new AtomicLong(Long.MIN_VALUE);
+
+  /**
+   * Sum of latencies of completed requests in milliseconds.
+   */
+  private final LongAdder busyTime = new LongAdder();
+
+  /**
+   * Per-thread histograms of response latencies of completed requests.
+   */
+  private final LatencyRecorder responseLatencies = new LatencyRecorder();
+
+  /**
+   * Per-thread histograms of total latencies of completed requests.
+   */
+  private final LatencyRecorder totalLatencies = new LatencyRecorder();
+
+  /**
+   * The slowest completed requests.
+   */
+  private final SlowestRequests slowestRequests = new SlowestRequests();
+
+  /**
+   * Per-thread histograms of response latencies of completed requests by cache status.
+   */
+  private final Map<CacheStatus, LatencyRecorder> cacheStatusResponseLatencies =
+      createCacheStatusRecorders();
+
+  /**
+   * Per-thread histograms of total latencies of completed requests by cache status.
+   */
+  private final Map<CacheStatus, LatencyRecorder> cacheStatusTotalLatencies =
+      createCacheStatusRecorders();
+
+  /**
+   * Per-thread histograms of transfer rates of completed requests in KiB per second by cache
+   * status.
+   */
+  private final Map<CacheStatus, LatencyRecorder> cacheStatusTransferRates =
+      createCacheStatusRecorders();
+
+  /**
+   * Breakdowns by response size of all threads which have completed a request.
+   */
+  private final Queue<PayloadSizeBreakdown> payloadSizeBreakdowns = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Breakdown by response size of the current thread.
+   */
+  private final ThreadLocal<PayloadSizeBreakdown> threadPayloadSizeBreakdown =
+      ThreadLocal.withInitial(() -> {
+        final PayloadSizeBreakdown breakdown = new PayloadSizeBreakdown();
+        payloadSizeBreakdowns.add(breakdown);
+        return breakdown;
+      });
+
+  /**
+   * Folds metrics of the completed request.
+   *
+   * @param metrics Metrics of the completed request.
+   */
+  public void add(HttpRequestMetrics metrics) {
+    requests.increment();
+    bytesRead.add(metrics.getBytesRead());
+    if (metrics.getCacheStatus() == CacheStatus.HIT) {
+      cacheHits.increment();
+    } else if (metrics.getCacheStatus() == CacheStatus.MISS) {
+      cacheMisses.increment();
+    }
+    firstResponseMetrics.updateAndGet(m -> {
+      return m == null || metrics.getResponseTime() < m.getResponseTime() ? metrics : m;
+    });
+    firstCompletedMetrics.updateAndGet(m -> {
+      return m == null || metrics.getEndTime() < m.getEndTime() ? metrics : m;
+    });
+    firstStartTime.accumulateAndGet(metrics.getStartTime(), Math::min);
+    lastEndTime.accumulateAndGet(metrics.getEndTime(), Math::max);
+    busyTime.add(metrics.getTotalLatency());
+    responseLatencies.record(metrics.getResponseLatency());
+    totalLatencies.record(metrics.getTotalLatency());
+    slowestRequests.add(metrics);
+    final CacheStatus cacheStatus = metrics.getCacheStatus();
+    cacheStatusResponseLatencies.get(cacheStatus).record(metrics.getResponseLatency());
+    cacheStatusTotalLatencies.get(cacheStatus).record(metrics.getTotalLatency());
+    if (metrics.getTotalLatency() > 0L) {
+      cacheStatusTransferRates.get(cacheStatus)
+          .record(Math.round(metrics.getTransferRate() / 1024.0));
+    }
+    threadPayloadSizeBreakdown.get().add(metrics);
+  }
+
+  /**
+   * Counts failed request by its HTTP status code.
+   *
+   * @param cause Exception the request failed with.
+   */
+  public void addFailure(Exception cause) {
+    failures.increment();
+    final int status = HttpRequestException.getStatusCode(cause);
+    failuresByStatus.computeIfAbsent(status, s -> new LongAdder()).increment();
+  }
+
+  /**
+   * Returns number of completed requests.
+   *
+   * @return Number of completed requests.
+   */
+  public long getRequestCount() {
+    return requests.sum();
+  }
+
+  /**
+   * Returns number of failed requests.
+   *
+   * @return Number of failed requests.
+   */
+  public long getFailureCount() {
+    return failures.sum();
+  }
+
+  /**
+   * Returns number of failed requests by HTTP status code, status code {@code 0} counts requests
+   * which failed without response (e.g. connection errors).
+   *
+   * @return Number of failed requests by HTTP status code in ascending order of status codes.
+   */
+  public SortedMap<Integer, Long> getFailureCountsByStatus() {
+    final SortedMap<Integer, Long> counts = new TreeMap<>();
+    failuresByStatus.forEach((status, count) -> counts.put(status, count.sum()));
+    return counts;
+  }
+
+  /**
+   * Returns number of bytes read by completed requests.
+   *
+   * @return Number of bytes read.
+   */
+  public long getBytesRead() {
+    return bytesRead.sum();
+  }
+
+  /**
+   * Returns number of cache hits.
+   *
+   * @return Number of cache hits.
+   */
+  public int getCacheHits() {
+    return cacheHits.intValue();
+  }
+
+  /**
+   * Returns number of cache misses.
+   *
+   * @return Number of cache misses.
+   */
+  public int getCacheMisses() {
+    return cacheMisses.intValue();
+  }
+
+  /**
+   * Returns metrics of the request with the earliest response or {@code null} if no request has
+   * been completed.
+   *
+   * @return Metrics of the request with the earliest response.
+   */
+  public HttpRequestMetrics getFirstResponseMetrics() {
+    return firstResponseMetrics.get();
+  }
+
+  /**
+   * Returns metrics of the request completed first or {@code null} if no request has been
+   * completed.
+   *
+   * @return Metrics of the request completed first.
+   */
+  public HttpRequestMetrics getFirstCompletedMetrics() {
+    return firstCompletedMetrics.get();
+  }
+
+  /**
+   * Returns time in milliseconds when the first completed request has been sent or
+   * {@link Long#MAX_VALUE} if no request has been completed.
+   *
+   * @return Time in milliseconds when the first request has been sent.
+   */
+  public long getFirstStartTime() {
+    return firstStartTime.get();
+  }
+
+  /**
+   * Returns time in milliseconds when the last request has been completed or
+   * {@link Long#MIN_VALUE} if no request has been completed.
+   *
+   * @return Time in milliseconds when the last request has been completed.
+   */
+  public long getLastEndTime() {
+    return lastEndTime.get();
+  }
+
+  /**
+   * Returns sum of latencies of completed requests in milliseconds, i.e. total time threads spent
+   * executing requests.
+   *
+   * @return Sum of latencies of completed requests.
+   */
+  public long getBusyTime() {
+    return busyTime.sum();
+  }
+
+  /**
+   * Returns histogram of response latencies (time to first byte) of completed requests. Should be
+   * called once all requests are completed.
+   *
+   * @return Histogram of response latencies.
+   */
+  public LatencyHistogram getResponseLatencyHistogram() {
+    return responseLatencies.getHistogram();
+  }
+
+  /**
+   * Returns histogram of total latencies of completed requests. Should be called once all requests
+   * are completed.
+   *
+   * @return Histogram of total latencies.
+   */
+  public LatencyHistogram getTotalLatencyHistogram() {
+    return totalLatencies.getHistogram();
+  }
+
+  /**
+   * Returns the slowest completed requests.
+   *
+   * @return The slowest completed requests.
+   */
+  public SlowestRequests getSlowestRequests() {
+    return slowestRequests;
+  }
+
+  /**
+   * Returns histogram of response latencies (time to first byte) of completed requests with the
+   * specified cache status. Should be called once all requests are completed.
+   *
+   * @param cacheStatus Cache status of requests.
+   * @return Histogram of response latencies.
+   */
+  public LatencyHistogram getResponseLatencyHistogram(CacheStatus cacheStatus) {
+    return cacheStatusResponseLatencies.get(cacheStatus).getHistogram();
+  }
+
+  /**
+   * Returns histogram of total latencies of completed requests with the specified cache status.
+   * Should be called once all requests are completed.
+   *
+   * @param cacheStatus Cache status of requests.
+   * @return Histogram of total latencies.
+   */
+  public LatencyHistogram getTotalLatencyHistogram(CacheStatus cacheStatus) {
+    return cacheStatusTotalLatencies.get(cacheStatus).getHistogram();
+  }
+
+  /**
+   * Returns histogram of transfer rates in KiB per second of completed requests with the specified
+   * cache status. Requests completed within the same millisecond are not counted. Should be called
+   * once all requests are completed.
+   *
+   * @param cacheStatus Cache status of requests.
+   * @return Histogram of transfer rates in KiB per second.
+   */
+  public LatencyHistogram getTransferRateHistogram(CacheStatus cacheStatus) {
+    return cacheStatusTransferRates.get(cacheStatus).getHistogram();
+  }
+
+  /**
+   * Returns breakdown of completed requests by response size. Should be called once all requests
+   * are completed.
+   *
+   * @return Breakdown by response size.
+   */
+  public PayloadSizeBreakdown getPayloadSizeBreakdown() {
+    final PayloadSizeBreakdown merged = new PayloadSizeBreakdown();
+    for (PayloadSizeBreakdown breakdown : payloadSizeBreakdowns) {
+      merged.add(breakdown);
+    }
+    return merged;
+  }
+
+  /**
+   * Returns fraction of time the specified number of threads spent executing requests between
+   * the first request has been sent and the last request has been completed.
+   *
+   * @param threads Number of threads executing requests.
+   * @return Thread utilization from {@code 0.0} to {@code 1.0}.
+   */
+  public double getThreadUtilization(int threads) {
+    final long elapsed = getLastEndTime() - getFirstStartTime();
+    return elapsed <= 0L ? 0.0 : (double) getBusyTime() / ((double) elapsed * threads);
+  }
+
+  /* Creates recorder for each cache status */
+  private static Map<CacheStatus, LatencyRecorder> createCacheStatusRecorders() {
+    final Map<CacheStatus, LatencyRecorder> recorders = new EnumMap<>(CacheStatus.class);
+    for (CacheStatus cacheStatus : CacheStatus.values()) {
+      recorders.put(cacheStatus, new LatencyRecorder());
+    }
+    return recorders;
+  }
+
+}
@@ -0,0 +1,382 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * High dynamic range histogram of latencies in milliseconds. Values are counted in buckets of
+ * exponentially growing width, each split into 128 linear sub-buckets, so every value above 255 ms
+ * is stored with a relative error below 1% (two significant digits) and values up to 255 ms are
+ * exact. Memory is fixed (about 21 KB) regardless of the number of recorded values.
+ *
+ * <p>The bucket layout and the compressed encoding are the same as of HdrHistogram with lowest
+ * discernible value of 1, highest trackable value of {@link #HIGHEST_TRACKABLE_VALUE} and 2
+ * significant digits, so the histograms written to a histogram log can be read by HdrHistogram
+ * tools.
+ *
+ * <p>This class is not thread-safe, each thread should record to its own histogram and the
+ * histograms should be merged by {@link #add(LatencyHistogram)}, see {@link LatencyRecorder}.
+ */
+public class LatencyHistogram {
+  
+  /**
+   * Highest trackable latency in milliseconds, greater values are recorded as this value.
+   */
+  public static final long HIGHEST_TRACKABLE_VALUE = TimeUnit.DAYS.toMillis(1L);
+  
+  /**
+   * Number of significant decimal digits of recorded values.
+   */
+  public static final int SIGNIFICANT_DIGITS = 2;
+  
+  /* Magnitude of number of sub-buckets, 2^8 is the smallest power of two above 2 * 10^2 */
+  private static final int SUB_BUCKET_COUNT_MAGNITUDE = 8;
+  
+  /* Magnitude of half of number of sub-buckets */
+  private static final int SUB_BUCKET_HALF_COUNT_MAGNITUDE = SUB_BUCKET_COUNT_MAGNITUDE - 1;
+  
+  /* Number of sub-buckets in a bucket */
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_COUNT_MAGNITUDE;
+  
+  /* Half of number of sub-buckets, only the upper half of buckets above the first is used */
+  private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+  
+  /* Mask of values falling into the first bucket */
+  private static final long SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+  
+  /* Number of leading zeros of values falling into the first bucket */
+  private static final int LEADING_ZERO_COUNT_BASE = 64 - SUB_BUCKET_COUNT_MAGNITUDE;
+  
+  /* Number of buckets covering values up to the highest trackable value */
+  private static final int BUCKET_COUNT = getBucketsNeeded(HIGHEST_TRACKABLE_VALUE);
+  
+  /* Length of counts array */
+  private static final int COUNTS_LENGTH = (BUCKET_COUNT + 1) * SUB_BUCKET_HALF_COUNT;
+  
+  /* Cookie of uncompressed encoding, low bits mark zero run-length encoding of 8-byte words */
+  private static final int ENCODING_COOKIE = 0x1c849303 | 0x10;
+  
+  /* Cookie of compressed encoding */
+  private static final int COMPRESSED_ENCODING_COOKIE = 0x1c849304 | 0x10;
+  
+  /* Size of header of uncompressed encoding */
+  private static final int ENCODING_HEADER_SIZE = 40;
+  
+  /**
+   * Number of recorded values by index of sub-bucket.
+   */
+  private final long[] counts = new long[COUNTS_LENGTH];
+  
+  /**
+   * Total number of recorded values.
+   */
+  private long totalCount;
+  
+  /**
+   * Sum of recorded values.
+   */
+  private long totalSum;
+  
+  /**
+   * Maximum recorded value.
+   */
+  private long maxValue;
+  
+  /**
+   * Records the specified value. Negative values are recorded as zero and values above
+   * {@link #HIGHEST_TRACKABLE_VALUE} are recorded as the highest trackable value.
+   *
+   * @param value Latency in milliseconds.
+   */
+  public void recordValue(long value) {
+    final long clamped = Math.min(Math.max(value, 0L), HIGHEST_TRACKABLE_VALUE);
+    counts[getIndex(clamped)]++;
+    totalCount++;
+    totalSum += clamped;
+    maxValue = Math.max(maxValue, clamped);
+  }
+  
+  /**
+   * Adds all values recorded by the specified histogram to this histogram.
+   *
+   * @param other Histogram to add.
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < COUNTS_LENGTH; i++) {
+      counts[i] += other.counts[i];
+    }
+    totalCount += other.totalCount;
+    totalSum += other.totalSum;
+    maxValue = Math.max(maxValue, other.maxValue);
+  }
+  
+  /**
+   * Returns total number of recorded values.
+   *
+   * @return Total number of recorded values.
+   */
+  public long getTotalCount() {
+    return totalCount;
+  }
+  
+  /**
+   * Returns exact mean of recorded values or {@code 0.0} if no value has been recorded.
+   *
+   * @return Mean of recorded values.
+   */
+  public double getMean() {
+    return totalCount == 0L ? 0.0 : (double) totalSum / (double) totalCount;
+  }
+  
+  /**
+   * Returns maximum recorded value, rounded up to the highest value of its sub-bucket.
+   *
+   * @return Maximum recorded value.
+   */
+  public long getMaxValue() {
+    return maxValue == 0L ? 0L : getHighestEquivalentValue(maxValue);
+  }
+  
+  /**
+   * Returns value at the specified percentile, i.e. the highest value of the sub-bucket containing
+   * the value such that the specified percentage of recorded values is less than or equal to it.
+   *
+   * @param percentile Percentile from {@code 0.0} to {@code 100.0}.
+   * @return Value at the specified percentile or {@code 0} if no value has been recorded.
+   */
+  public long getValueAtPercentile(double percentile) {
+    final double requested = Math.min(Math.max(percentile, 0.0), 100.0);
+    final long countAtPercentile =
+        Math.max(1L, (long) Math.ceil(requested / 100.0 * (double) totalCount));
+    long total = 0L;
+    for (int i = 0; i < COUNTS_LENGTH; i++) {
+      total += counts[i];
+      if (total >= countAtPercentile) {
+        final long value = getValueFromIndex(i);
+        return requested == 0.0 ? value : getHighestEquivalentValue(value);
+      }
+    }
+    return 0L;
+  }
+  
+  /**
+   * Returns compressed encoding of the histogram encoded in Base64, as stored in histogram log.
+   *
+   * @return Base64 encoded compressed histogram.
+   */
+  public String encode() {
+    // Header followed by counts with runs of zeros encoded as negative numbers
+    final int countsLimit = getIndex(maxValue) + 1;
+    final ByteBuffer buffer = ByteBuffer.allocate(ENCODING_HEADER_SIZE + countsLimit * 9);
+    buffer.putInt(ENCODING_COOKIE);
+    buffer.putInt(0);
+    buffer.putInt(0);
+    buffer.putInt(SIGNIFICANT_DIGITS);
+    buffer.putLong(1L);
+    buffer.putLong(HIGHEST_TRACKABLE_VALUE);
+    buffer.putDouble(1.0);
+    for (int i = 0; i < countsLimit;) {
+      final long count = counts[i++];
+      long zeros = 0L;
+      if (count == 0L) {
+        zeros = 1L;
+        while (i < countsLimit && counts[i] == 0L) {
+          zeros++;
+          i++;
+        }
+      }
+      putZigZag(buffer, zeros > 1L ? -zeros : count);
+    }
+    final int length = buffer.position();
+    buffer.putInt(4, length - ENCODING_HEADER_SIZE);
+    
+    // Compressed cookie and length followed by deflated encoding
+    final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    final byte[] compressed = new byte[length + 64];
+    try {
+      deflater.setInput(buffer.array(), 0, length);
+      deflater.finish();
+      final int compressedLength = deflater.deflate(compressed, 8, compressed.length - 8);
+      ByteBuffer.wrap(compressed).putInt(COMPRESSED_ENCODING_COOKIE).putInt(compressedLength);
+      return Base64.getEncoder().encodeToString(Arrays.copyOf(compressed, compressedLength + 8));
+    } finally {
+      deflater.end();
+    }
+  }
+  
+  /**
+   * Returns recorded values as an array of at most the specified number of values. Each value is
+   * represented by the middle of its sub-bucket. If more values have been recorded, counts of all
+   * sub-buckets are scaled down proportionally, which keeps the shape of the distribution.
+   * 
+   * @param maxCount Maximum number of returned values.
+   * @return Recorded values in ascending order.
+   */
+  public double[] getValues(int maxCount) {
+    final double scale = totalCount <= maxCount ? 1.0 : (double) maxCount / (double) totalCount;
+    final double[] values = new double[(int) Math.min(totalCount, maxCount)];
+    int length = 0;
+    for (int i = 0; i < COUNTS_LENGTH && length < values.length; i++) {
+      final long count = Math.min(Math.round(counts[i] * scale), values.length - length);
+      if (count > 0L) {
+        final long lowest = getValueFromIndex(i);
+        final double middle = (lowest + getHighestEquivalentValue(lowest)) / 2.0;
+        Arrays.fill(values, length, length + (int) count, middle);
+        length += (int) count;
+      }
+    }
+    return Arrays.copyOf(values, length);
+  }
+  
+  /**
+   * Decodes histogram encoded by {@link #encode()} or by HdrHistogram with the same bucket layout
+   * (lowest discernible value of 1 and 2 significant digits). The sum of values of the decoded
+   * histogram is estimated from middles of sub-buckets.
+   * 
+   * @param encoded Base64 encoded compressed histogram.
+   * @return Decoded histogram.
+   * @throws IllegalArgumentException if the histogram is malformed or has different layout.
+   */
+  public static LatencyHistogram decode(String encoded) {
+    final ByteBuffer compressed = ByteBuffer.wrap(Base64.getDecoder().decode(encoded));
+    if (compressed.getInt() != COMPRESSED_ENCODING_COOKIE) {
+      throw new IllegalArgumentException("Not a compressed histogram");
+    }
+    final int compressedLength = compressed.getInt();
+    final Inflater inflater = new Inflater();
+    final ByteBuffer buffer;
+    try {
+      inflater.setInput(compressed.array(), 8, compressedLength);
+      final byte[] header = new byte[ENCODING_HEADER_SIZE];
+      if (inflater.inflate(header) != ENCODING_HEADER_SIZE) {
+        throw new IllegalArgumentException("Truncated histogram");
+      }
+      final ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+      if (headerBuffer.getInt() != ENCODING_COOKIE) {
+        throw new IllegalArgumentException("Unsupported histogram encoding");
+      }
+      final int payloadLength = headerBuffer.getInt();
+      headerBuffer.getInt();
+      if (headerBuffer.getInt() != SIGNIFICANT_DIGITS || headerBuffer.getLong() != 1L) {
+        throw new IllegalArgumentException("Unsupported histogram layout");
+      }
+      final byte[] payload = new byte[payloadLength];
+      if (inflater.inflate(payload) != payloadLength) {
+        throw new IllegalArgumentException("Truncated histogram");
+      }
+      buffer = ByteBuffer.wrap(payload);
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("Malformed histogram", e);
+    } finally {
+      inflater.end();
+    }
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; buffer.hasRemaining();) {
+      final long count = getZigZag(buffer);
+      if (count < 0L) {
+        i += (int) -count;
+      } else {
+        if (count > 0L) {
+          final int index = Math.min(i, COUNTS_LENGTH - 1);
+          final long lowest = getValueFromIndex(index);
+          histogram.counts[index] += count;
+          histogram.totalCount += count;
+          histogram.totalSum += count * ((lowest + getHighestEquivalentValue(lowest)) / 2L);
+          histogram.maxValue = Math.max(histogram.maxValue, lowest);
+        }
+        i++;
+      }
+    }
+    return histogram;
+  }
+  
+  /* Returns index of sub-bucket counting the specified value */
+  private static int getIndex(long value) {
+    final int bucketIndex = getBucketIndex(value);
+    final int subBucketIndex = (int) (value >>> bucketIndex);
+    return ((bucketIndex + 1) << SUB_BUCKET_HALF_COUNT_MAGNITUDE)
+        + (subBucketIndex - SUB_BUCKET_HALF_COUNT);
+  }
+  
+  /* Returns index of bucket of the specified value */
+  private static int getBucketIndex(long value) {
+    return LEADING_ZERO_COUNT_BASE - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK);
+  }
+  
+  /* Returns the lowest value counted by sub-bucket with the specified index */
+  private static long getValueFromIndex(int index) {
+    int bucketIndex = (index >> SUB_BUCKET_HALF_COUNT_MAGNITUDE) - 1;
+    int subBucketIndex = (index & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+    if (bucketIndex < 0) {
+      subBucketIndex -= SUB_BUCKET_HALF_COUNT;
+      bucketIndex = 0;
+    }
+    return (long) subBucketIndex << bucketIndex;
+  }
+  
+  /* Returns the highest value counted by the same sub-bucket as the specified value */
+  private static long getHighestEquivalentValue(long value) {
+    final int bucketIndex = getBucketIndex(value);
+    final long lowest = (value >>> bucketIndex) << bucketIndex;
+    return lowest + (1L << bucketIndex) - 1L;
+  }
+  
+  /* Returns number of buckets needed to cover values up to the specified value */
+  private static int getBucketsNeeded(long highestValue) {
+    long smallestUntrackableValue = SUB_BUCKET_COUNT;
+    int bucketsNeeded = 1;
+    while (smallestUntrackableValue <= highestValue) {
+      smallestUntrackableValue <<= 1;
+      bucketsNeeded++;
+    }
+    return bucketsNeeded;
+  }
+  
+  /* Reads ZigZag encoded LEB128 variable length number written by putZigZag */
+  private static long getZigZag(ByteBuffer buffer) {
+    long v = 0L;
+    for (int shift = 0; shift < 56; shift += 7) {
+      final int b = buffer.get();
+      v |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return (v >>> 1) ^ -(v & 1L);
+      }
+    }
+    v |= (long) (buffer.get() & 0xFF) << 56;
+    return (v >>> 1) ^ -(v & 1L);
+  }
+  
+  /* Writes ZigZag encoded LEB128 variable length number, the ninth byte holds all 8 bits */
+  private static void putZigZag(ByteBuffer buffer, long value) {
+    long v = (value << 1) ^ (value >> 63);
+    for (int i = 0; i < 8; i++) {
+      if ((v >>> 7) == 0L) {
+        buffer.put((byte) v);
+        return;
+      }
+      buffer.put((byte) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    buffer.put((byte) v);
+  }
+  
+}
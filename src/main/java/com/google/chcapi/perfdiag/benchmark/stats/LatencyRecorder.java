@@ -0,0 +1,64 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Lock-free recorder of latencies from many threads. Each thread records to its own
+ * {@link LatencyHistogram}, so recording is a plain array increment without contention. The
+ * per-thread histograms are merged on {@link #getHistogram()}, which should be called once the
+ * recording threads are done (e.g. after the thread pool has terminated).
+ */
+public class LatencyRecorder {
+  
+  /**
+   * Histograms of all threads which have recorded a value.
+   */
+  private final Queue<LatencyHistogram> histograms = new ConcurrentLinkedQueue<>();
+  
+  /**
+   * Histogram of the current thread.
+   */
+  private final ThreadLocal<LatencyHistogram> threadHistogram = ThreadLocal.withInitial(() -> {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histograms.add(histogram);
+    return histogram;
+  });
+  
+  /**
+   * Records the specified value to the histogram of the current thread.
+   *
+   * @param value Latency in milliseconds.
+   */
+  public void record(long value) {
+    threadHistogram.get().recordValue(value);
+  }
+  
+  /**
+   * Returns histogram of values recorded by all threads.
+   *
+   * @return Merged histogram.
+   */
+  public LatencyHistogram getHistogram() {
+    final LatencyHistogram merged = new LatencyHistogram();
+    for (LatencyHistogram histogram : histograms) {
+      merged.add(histogram);
+    }
+    return merged;
+  }
+  
+}
@@ -23,7 +23,12 @@ import org.apache.commons.math3.stat.descriptive.rank.Min;
 import org.apache.commons.math3.stat.descriptive.rank.Percentile;
 
 /**
- * Accumulates metric values from iterations and allows to calculate statistics.
+ * Accumulates metric values from iterations and allows to calculate statistics. Aggregates
+ * created with the number of iterations keep every value and calculate exact statistics.
+ * Aggregates created without the number of values keep bounded memory regardless of the number of
+ * values: minimum, maximum, mean and standard deviation are still exact and percentiles are
+ * estimated by {@link QuantileSketch} within {@link QuantileSketch#DEFAULT_RELATIVE_ACCURACY}
+ * relative error.
  * 
  * @author Mikhail Ukhlin
  */
@@ -75,10 +80,21 @@ public class MetricAggregates {
   public static final double P99 = 99.0;
   
   /**
-   * Buffer to store metric values from iterations for further statistics calculations.
+   * 99.9th percentile.
+   */
+  public static final double P99_9 = 99.9;
+  
+  /**
+   * Buffer to store metric values from iterations for further statistics calculations or
+   * {@code null} if values are accumulated in the sketch.
    */
   private final double[] values;
   
+  /**
+   * Sketch to accumulate values in bounded memory or {@code null} if values are stored.
+   */
+  private final QuantileSketch sketch;
+  
   /**
    * Current number of completed iterations.
    */
@@ -101,6 +117,16 @@ public class MetricAggregates {
    */
   public MetricAggregates(int iterations) {
     this.values = new double[iterations];
+    this.sketch = null;
+  }
+  
+  /**
+   * Constructs a new {@code MetricAggregates} for unknown number of values, percentiles are
+   * estimated by {@link QuantileSketch}.
+   */
+  public MetricAggregates() {
+    this.values = null;
+    this.sketch = new QuantileSketch();
   }
   
   /**
@@ -109,7 +135,20 @@ public class MetricAggregates {
    * @param value The value to add.
    */
   public void addValue(double value) {
-    values[count++] = value;
+    if (sketch != null) {
+      sketch.add(value);
+    } else {
+      values[count++] = value;
+    }
+  }
+  
+  /**
+   * Returns number of added values.
+   * 
+   * @return Number of added values.
+   */
+  public long getCount() {
+    return sketch != null ? sketch.getCount() : count;
   }
   
   /**
@@ -118,6 +157,9 @@ public class MetricAggregates {
    * @return Minimum value.
    */
   public double getMin() {
+    if (sketch != null) {
+      return sketch.getMin();
+    }
     return new Min().evaluate(values, 0, count);
   }
   
@@ -127,6 +169,9 @@ public class MetricAggregates {
    * @return Maximum value.
    */
   public double getMax() {
+    if (sketch != null) {
+      return sketch.getMax();
+    }
     return new Max().evaluate(values, 0, count);
   }
   
@@ -136,7 +181,9 @@ public class MetricAggregates {
    * @return Mean value.
    */
   public double getMean() {
-    if (mean == null) {
+    if (sketch != null) {
+      return sketch.getMean();
+    } else if (mean == null) {
       mean = new Mean().evaluate(values, 0, count);
     }
     return mean;
@@ -148,6 +195,9 @@ public class MetricAggregates {
    * @return Standard deviation.
    */
   public double getStddev() {
+    if (sketch != null) {
+      return sketch.getStddev();
+    }
     return new StandardDeviation().evaluate(values, getMean(), 0, count);
   }
   
@@ -158,7 +208,10 @@ public class MetricAggregates {
    * @return Evaluated percentile.
    */
   public double getPercentile(double p) {
-    if (percentile == null) {
+    if (sketch != null) {
+      // Same position as the default estimation of Percentile: p * (n + 1) / 100, one-based
+      return sketch.getValueAtRank(p / 100.0 * (sketch.getCount() + 1L) - 1.0);
+    } else if (percentile == null) {
       percentile = new Percentile();
       Arrays.sort(values, 0, count);
       percentile.setData(values, 0, count);
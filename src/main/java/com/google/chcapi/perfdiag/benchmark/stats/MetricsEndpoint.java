@@ -0,0 +1,358 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import com.google.chcapi.perfdiag.profiler.CacheStatus;
+import com.google.chcapi.perfdiag.profiler.HttpRequestException;
+import com.google.chcapi.perfdiag.profiler.HttpRequestMetrics;
+import com.google.chcapi.perfdiag.profiler.HttpRequestProfiler;
+
+/**
+ * Embedded HTTP endpoint exposing live metrics of requests in the OpenMetrics text format at
+ * {@code /metrics}, so a Prometheus compatible scraper can follow long runs while they execute.
+ * The endpoint uses the HTTP server built into the JDK. Worker threads only update
+ * {@link LongAdder counters}, the exposition is rendered on each scrape. The following metric
+ * families are exposed:
+ * <ul>
+ *   <li>{@code perfdiag_requests_total} - completed requests by cache status</li>
+ *   <li>{@code perfdiag_read_bytes_total} - bytes read by completed requests by cache status</li>
+ *   <li>{@code perfdiag_request_errors_total} - failed requests by HTTP status code, {@code 0}
+ *   if no response was received</li>
+ *   <li>{@code perfdiag_request_retries_total} - requests retried after the access token
+ *   expired</li>
+ *   <li>{@code perfdiag_requests_in_flight} - requests being executed</li>
+ *   <li>{@code perfdiag_iteration} - current iteration number</li>
+ *   <li>{@code perfdiag_request_duration_seconds} - histogram of latencies by phase
+ *   ({@code response} is time to first byte, {@code read} is time to read the content,
+ *   {@code total} is the whole request) and cache status</li>
+ *   <li>{@code perfdiag_jvm_*} - heap, garbage collection, threads and CPU of the benchmark
+ *   process</li>
+ * </ul>
+ */
+public class MetricsEndpoint implements AutoCloseable {
+  
+  /**
+   * Path of the metrics endpoint.
+   */
+  public static final String PATH = "/metrics";
+  
+  /**
+   * Content type of the OpenMetrics text format.
+   */
+  public static final String CONTENT_TYPE =
+      "application/openmetrics-text; version=1.0.0; charset=utf-8";
+  
+  /* Upper bounds of histogram buckets in milliseconds, the last bucket is unbounded */
+  private static final long[] BUCKET_BOUNDS = {
+    5L, 10L, 25L, 50L, 100L, 250L, 500L, 1000L, 2500L, 5000L, 10000L, 30000L, 60000L
+  };
+  
+  /* Phases of request latency */
+  private static final String[] PHASES = {"response", "read", "total"};
+  
+  /* Cache statuses, cached as values() clones the array on each call */
+  private static final CacheStatus[] CACHE_STATUSES = CacheStatus.values();
+  
+  /**
+   * Embedded HTTP server.
+   */
+  private final HttpServer server;
+  
+  /**
+   * Thread serving scrapes.
+   */
+  private final ExecutorService handler = Executors.newSingleThreadExecutor(runnable -> {
+    final Thread thread = new Thread(runnable, "metrics-endpoint");
+    thread.setDaemon(true);
+    return thread;
+  });
+  
+  /**
+   * Number of completed requests by cache status.
+   */
+  private final LongAdder[] requests = createAdders(CACHE_STATUSES.length);
+  
+  /**
+   * Number of bytes read by cache status.
+   */
+  private final LongAdder[] bytesRead = createAdders(CACHE_STATUSES.length);
+  
+  /**
+   * Number of failed requests by HTTP status code.
+   */
+  private final ConcurrentMap<Integer, LongAdder> errors = new ConcurrentHashMap<>();
+  
+  /**
+   * Number of requests being executed.
+   */
+  private final LongAdder inFlight = new LongAdder();
+  
+  /**
+   * Counts of histogram buckets (not cumulative) by phase and cache status, the last element of
+   * each row is the sum of latencies in milliseconds.
+   */
+  private final LongAdder[][] histograms =
+      new LongAdder[PHASES.length * CACHE_STATUSES.length][];
+  
+  /**
+   * Current iteration number.
+   */
+  private volatile int iteration;
+  
+  /**
+   * Starts HTTP server serving metrics on the specified port of all interfaces.
+   *
+   * @param port Port to listen on, {@code 0} picks an ephemeral port.
+   * @throws IOException if the server could not be started.
+   */
+  public MetricsEndpoint(int port) throws IOException {
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = createAdders(BUCKET_BOUNDS.length + 2);
+    }
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    server.createContext(PATH, this::handle);
+    server.setExecutor(handler);
+    server.start();
+  }
+  
+  /**
+   * Returns port the server listens on.
+   *
+   * @return Port of the server.
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+  
+  /**
+   * Sets current iteration number.
+   *
+   * @param iteration Iteration number.
+   */
+  public void setIteration(int iteration) {
+    this.iteration = iteration;
+  }
+  
+  /**
+   * Counts request which started execution.
+   */
+  public void requestStarted() {
+    inFlight.increment();
+  }
+  
+  /**
+   * Counts completed request and records its latencies.
+   *
+   * @param metrics Metrics of the completed request.
+   */
+  public void requestCompleted(HttpRequestMetrics metrics) {
+    inFlight.decrement();
+    final int cacheStatus = metrics.getCacheStatus().ordinal();
+    requests[cacheStatus].increment();
+    bytesRead[cacheStatus].add(metrics.getBytesRead());
+    record(0, cacheStatus, metrics.getResponseLatency());
+    record(1, cacheStatus, metrics.getReadLatency());
+    record(2, cacheStatus, metrics.getTotalLatency());
+  }
+  
+  /**
+   * Counts failed request by its HTTP status code.
+   *
+   * @param cause Exception the request failed with.
+   */
+  public void requestFailed(Exception cause) {
+    inFlight.decrement();
+    final int status = HttpRequestException.getStatusCode(cause);
+    errors.computeIfAbsent(status, s -> new LongAdder()).increment();
+  }
+  
+  /**
+   * Stops the HTTP server.
+   */
+  @Override
+  public void close() {
+    server.stop(0);
+    handler.shutdownNow();
+  }
+  
+  /* Records latency to the histogram of the specified phase and cache status */
+  private void record(int phase, int cacheStatus, long latency) {
+    final LongAdder[] histogram = histograms[phase * CACHE_STATUSES.length + cacheStatus];
+    int bucket = 0;
+    while (bucket < BUCKET_BOUNDS.length && latency > BUCKET_BOUNDS[bucket]) {
+      bucket++;
+    }
+    histogram[bucket].increment();
+    histogram[BUCKET_BOUNDS.length + 1].add(latency);
+  }
+  
+  /* Serves metrics exposition */
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      final byte[] body = render().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream output = exchange.getResponseBody()) {
+        output.write(body);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+  
+  /* Renders all metric families in the OpenMetrics text format */
+  private String render() {
+    final StringBuilder out = new StringBuilder(16384);
+    
+    family(out, "perfdiag_requests", "counter", "Completed requests.");
+    for (CacheStatus cacheStatus : CACHE_STATUSES) {
+      sample(out, "perfdiag_requests_total", "cache=\"" + cacheStatus + "\"",
+          requests[cacheStatus.ordinal()].sum());
+    }
+    family(out, "perfdiag_read_bytes", "counter", "Bytes read by completed requests.");
+    for (CacheStatus cacheStatus : CACHE_STATUSES) {
+      sample(out, "perfdiag_read_bytes_total", "cache=\"" + cacheStatus + "\"",
+          bytesRead[cacheStatus.ordinal()].sum());
+    }
+    family(out, "perfdiag_request_errors", "counter",
+        "Failed requests by HTTP status code, 0 if no response was received.");
+    for (Map.Entry<Integer, LongAdder> entry : new TreeMap<>(errors).entrySet()) {
+      sample(out, "perfdiag_request_errors_total", "status=\"" + entry.getKey() + "\"",
+          entry.getValue().sum());
+    }
+    family(out, "perfdiag_request_retries", "counter",
+        "Requests retried after the access token expired.");
+    sample(out, "perfdiag_request_retries_total", null, HttpRequestProfiler.getRetryCount());
+    family(out, "perfdiag_requests_in_flight", "gauge", "Requests being executed.");
+    sample(out, "perfdiag_requests_in_flight", null, inFlight.sum());
+    family(out, "perfdiag_iteration", "gauge", "Current iteration number.");
+    sample(out, "perfdiag_iteration", null, iteration);
+    
+    family(out, "perfdiag_request_duration_seconds", "histogram",
+        "Request latency by phase and cache status.");
+    for (int phase = 0; phase < PHASES.length; phase++) {
+      for (CacheStatus cacheStatus : CACHE_STATUSES) {
+        final LongAdder[] histogram =
+            histograms[phase * CACHE_STATUSES.length + cacheStatus.ordinal()];
+        final String labels = "phase=\"" + PHASES[phase] + "\",cache=\"" + cacheStatus + "\"";
+        long count = 0L;
+        for (int bucket = 0; bucket <= BUCKET_BOUNDS.length; bucket++) {
+          count += histogram[bucket].sum();
+          final String bound = bucket < BUCKET_BOUNDS.length
+              ? formatSeconds(BUCKET_BOUNDS[bucket]) : "+Inf";
+          sample(out, "perfdiag_request_duration_seconds_bucket",
+              labels + ",le=\"" + bound + "\"", count);
+        }
+        sample(out, "perfdiag_request_duration_seconds_count", labels, count);
+        out.append("perfdiag_request_duration_seconds_sum{").append(labels).append("} ")
+            .append(formatSeconds(histogram[BUCKET_BOUNDS.length + 1].sum())).append('\n');
+      }
+    }
+    
+    renderJvm(out);
+    out.append("# EOF\n");
+    return out.toString();
+  }
+  
+  /* Renders heap, garbage collection, threads and CPU of the process */
+  private static void renderJvm(StringBuilder out) {
+    final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    family(out, "perfdiag_jvm_heap_used_bytes", "gauge", "Used heap memory.");
+    sample(out, "perfdiag_jvm_heap_used_bytes", null, heap.getUsed());
+    family(out, "perfdiag_jvm_heap_committed_bytes", "gauge", "Committed heap memory.");
+    sample(out, "perfdiag_jvm_heap_committed_bytes", null, heap.getCommitted());
+    family(out, "perfdiag_jvm_gc_collections", "counter", "Garbage collections by collector.");
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      sample(out, "perfdiag_jvm_gc_collections_total", "gc=\"" + escape(gc.getName()) + "\"",
+          Math.max(0L, gc.getCollectionCount()));
+    }
+    family(out, "perfdiag_jvm_gc_collection_seconds", "counter",
+        "Time spent in garbage collection by collector.");
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      out.append("perfdiag_jvm_gc_collection_seconds_total{gc=\"").append(escape(gc.getName()))
+          .append("\"} ").append(formatSeconds(Math.max(0L, gc.getCollectionTime())))
+          .append('\n');
+    }
+    family(out, "perfdiag_jvm_threads", "gauge", "Live threads.");
+    sample(out, "perfdiag_jvm_threads", null,
+        ManagementFactory.getThreadMXBean().getThreadCount());
+    final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      final long cpuTime = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+      if (cpuTime >= 0L) {
+        family(out, "perfdiag_jvm_cpu_seconds", "counter", "CPU time used by the process.");
+        out.append("perfdiag_jvm_cpu_seconds_total ")
+            .append(String.format(Locale.US, "%.3f", cpuTime / 1e9)).append('\n');
+      }
+    }
+    family(out, "perfdiag_jvm_available_processors", "gauge", "Processors available to the JVM.");
+    sample(out, "perfdiag_jvm_available_processors", null, os.getAvailableProcessors());
+  }
+  
+  /* Appends metric family metadata */
+  private static void family(StringBuilder out, String name, String type, String help) {
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+  }
+  
+  /* Appends sample with optional labels */
+  private static void sample(StringBuilder out, String name, String labels, long value) {
+    out.append(name);
+    if (labels != null) {
+      out.append('{').append(labels).append('}');
+    }
+    out.append(' ').append(value).append('\n');
+  }
+  
+  /* Formats milliseconds as seconds */
+  private static String formatSeconds(long millis) {
+    return String.format(Locale.US, "%.3f", millis / 1000.0);
+  }
+  
+  /* Escapes label value */
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+  
+  /* Creates array of the specified number of counters */
+  private static LongAdder[] createAdders(int count) {
+    final LongAdder[] adders = new LongAdder[count];
+    for (int i = 0; i < count; i++) {
+      adders[i] = new LongAdder();
+    }
+    return adders;
+  }
+  
+}
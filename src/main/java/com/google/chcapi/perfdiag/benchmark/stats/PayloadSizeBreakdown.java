@@ -0,0 +1,205 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import org.apache.commons.math3.stat.regression.SimpleRegression;
+
+import com.google.chcapi.perfdiag.profiler.HttpRequestMetrics;
+
+/**
+ * Breakdown of request latencies by response size and linear model of latency as a function of
+ * response size. Requests are counted in buckets of powers of two: bucket {@code b} counts
+ * responses of {@code 2^b} to {@code 2^(b+1) - 1} bytes, bucket {@code 0} also counts empty
+ * responses. Each bucket keeps histograms of response and total latencies and sums of bytes and
+ * latencies. The model
+ * <pre>
+ * totalLatency = overhead + bytesRead / bandwidth
+ * </pre>
+ * is fitted to all requests by ordinary least squares: the intercept is the fixed per-request
+ * overhead (round trip, authorization, server processing) and the inverse slope is the effective
+ * bandwidth of a single request. Memory does not depend on the number of requests, histograms are
+ * allocated for non-empty buckets only.
+ *
+ * <p>This class is not thread-safe.
+ */
+public class PayloadSizeBreakdown {
+  
+  /**
+   * Number of size buckets.
+   */
+  public static final int BUCKET_COUNT = Long.SIZE;
+  
+  /**
+   * Histograms of response latencies by bucket, {@code null} for empty buckets.
+   */
+  private final LatencyHistogram[] responseLatencies = new LatencyHistogram[BUCKET_COUNT];
+  
+  /**
+   * Histograms of total latencies by bucket, {@code null} for empty buckets.
+   */
+  private final LatencyHistogram[] totalLatencies = new LatencyHistogram[BUCKET_COUNT];
+  
+  /**
+   * Number of bytes read by bucket.
+   */
+  private final long[] bytesRead = new long[BUCKET_COUNT];
+  
+  /**
+   * Sum of total latencies in milliseconds by bucket.
+   */
+  private final long[] busyTime = new long[BUCKET_COUNT];
+  
+  /**
+   * Regression of total latency in milliseconds on number of bytes read.
+   */
+  private final SimpleRegression regression = new SimpleRegression();
+  
+  /**
+   * Adds metrics of the completed request.
+   *
+   * @param metrics Metrics of the completed request.
+   */
+  public void add(HttpRequestMetrics metrics) {
+    final int bucket = getBucket(metrics.getBytesRead());
+    if (totalLatencies[bucket] == null) {
+      responseLatencies[bucket] = new LatencyHistogram();
+      totalLatencies[bucket] = new LatencyHistogram();
+    }
+    responseLatencies[bucket].recordValue(metrics.getResponseLatency());
+    totalLatencies[bucket].recordValue(metrics.getTotalLatency());
+    bytesRead[bucket] += metrics.getBytesRead();
+    busyTime[bucket] += metrics.getTotalLatency();
+    regression.addData(metrics.getBytesRead(), metrics.getTotalLatency());
+  }
+  
+  /**
+   * Adds all requests of the specified breakdown to this breakdown.
+   *
+   * @param other Breakdown to add.
+   */
+  public void add(PayloadSizeBreakdown other) {
+    for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+      if (other.totalLatencies[bucket] != null) {
+        if (totalLatencies[bucket] == null) {
+          responseLatencies[bucket] = new LatencyHistogram();
+          totalLatencies[bucket] = new LatencyHistogram();
+        }
+        responseLatencies[bucket].add(other.responseLatencies[bucket]);
+        totalLatencies[bucket].add(other.totalLatencies[bucket]);
+        bytesRead[bucket] += other.bytesRead[bucket];
+        busyTime[bucket] += other.busyTime[bucket];
+      }
+    }
+    regression.append(other.regression);
+  }
+  
+  /**
+   * Returns lowest number of bytes counted in the specified bucket.
+   *
+   * @param bucket Index of bucket.
+   * @return Lowest number of bytes of the bucket.
+   */
+  public static long getBucketLowestSize(int bucket) {
+    return bucket == 0 ? 0L : 1L << bucket;
+  }
+  
+  /**
+   * Returns histogram of response latencies of the specified bucket.
+   *
+   * @param bucket Index of bucket.
+   * @return Histogram of response latencies or {@code null} if the bucket is empty.
+   */
+  public LatencyHistogram getResponseLatencyHistogram(int bucket) {
+    return responseLatencies[bucket];
+  }
+  
+  /**
+   * Returns histogram of total latencies of the specified bucket.
+   *
+   * @param bucket Index of bucket.
+   * @return Histogram of total latencies or {@code null} if the bucket is empty.
+   */
+  public LatencyHistogram getTotalLatencyHistogram(int bucket) {
+    return totalLatencies[bucket];
+  }
+  
+  /**
+   * Returns aggregate transfer rate of requests of the specified bucket, i.e. number of bytes read
+   * divided by sum of total latencies.
+   *
+   * @param bucket Index of bucket.
+   * @return Bytes read per second or {@link Double#NaN} if the bucket is empty.
+   */
+  public double getTransferRate(int bucket) {
+    return busyTime[bucket] == 0L ? Double.NaN : bytesRead[bucket] * 1000.0 / busyTime[bucket];
+  }
+  
+  /**
+   * Returns number of requests the model is fitted to.
+   *
+   * @return Number of requests.
+   */
+  public long getRequestCount() {
+    return regression.getN();
+  }
+  
+  /**
+   * Returns estimated fixed per-request overhead, the intercept of the model.
+   *
+   * @return Overhead in milliseconds or {@link Double#NaN} if there are less than two requests or
+   *         all responses have the same size.
+   */
+  public double getOverhead() {
+    return regression.getIntercept();
+  }
+  
+  /**
+   * Returns standard error of the estimated overhead.
+   *
+   * @return Standard error in milliseconds or {@link Double#NaN} if there are less than three
+   *         requests or all responses have the same size.
+   */
+  public double getOverheadError() {
+    return regression.getInterceptStdErr();
+  }
+  
+  /**
+   * Returns estimated effective bandwidth of a single request, the inverse slope of the model.
+   *
+   * @return Bytes per second or {@link Double#NaN} if latency does not grow with size or the model
+   *         cannot be fitted.
+   */
+  public double getBandwidth() {
+    final double slope = regression.getSlope();
+    return slope > 0.0 ? 1000.0 / slope : Double.NaN;
+  }
+  
+  /**
+   * Returns coefficient of determination of the model, i.e. fraction of variance of total
+   * latencies explained by response size.
+   *
+   * @return R-square from {@code 0.0} to {@code 1.0} or {@link Double#NaN} if the model cannot be
+   *         fitted.
+   */
+  public double getRSquare() {
+    return regression.getRSquare();
+  }
+  
+  /* Returns index of bucket of the specified number of bytes */
+  private static int getBucket(long bytes) {
+    return bytes <= 1L ? 0 : Long.SIZE - 1 - Long.numberOfLeadingZeros(bytes);
+  }
+  
+}
@@ -0,0 +1,335 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+/**
+ * Mergeable streaming quantile sketch with relative error guarantee (DDSketch). A positive value
+ * {@code x} is counted in the bin {@code ceil(log(x) / log(gamma))}, where
+ * {@code gamma = (1 + a) / (1 - a)} and {@code a} is the relative accuracy. All values counted in a
+ * bin are within relative distance {@code a} of the bin's representative value, so:
+ * <ul>
+ *   <li>any quantile is estimated with relative error at most {@code a}: the estimate of value
+ *   {@code x} at the requested rank lies in {@code [x * (1 - a), x * (1 + a)]};</li>
+ *   <li>the error does not depend on the number of values or their distribution;</li>
+ *   <li>memory is bounded by {@link #MAX_BINS} bins, which for 1% accuracy covers values
+ *   spanning 17 orders of magnitude. If the values span a wider range, the lowest bins are
+ *   collapsed and the guarantee is kept for quantiles above the collapsed bins.</li>
+ * </ul>
+ * Zero and negative values are counted as zero. Count, minimum, maximum, mean and standard
+ * deviation are tracked exactly, so are the lowest and the highest quantiles.
+ *
+ * <p>This class is not thread-safe.
+ */
+public class QuantileSketch {
+  
+  /**
+   * Default relative accuracy.
+   */
+  public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+  
+  /**
+   * Maximum number of bins.
+   */
+  public static final int MAX_BINS = 2048;
+  
+  /* Initial number of bins */
+  private static final int INITIAL_BINS = 128;
+  
+  /**
+   * Relative accuracy of quantiles.
+   */
+  private final double relativeAccuracy;
+  
+  /**
+   * Logarithm of ratio of bin bounds.
+   */
+  private final double logGamma;
+  
+  /**
+   * Multiplier of bin lower bound giving the representative value of the bin.
+   */
+  private final double valueMultiplier;
+  
+  /**
+   * Counts of bins, the first element counts bin with index {@link #offset}.
+   */
+  private long[] bins = new long[INITIAL_BINS];
+  
+  /**
+   * Index of bin counted by the first element of {@link #bins}.
+   */
+  private int offset;
+  
+  /**
+   * Lowest index of non-empty bin.
+   */
+  private int minIndex;
+  
+  /**
+   * Highest index of non-empty bin.
+   */
+  private int maxIndex;
+  
+  /**
+   * Number of values counted in bins.
+   */
+  private long binnedCount;
+  
+  /**
+   * Number of zero or negative values.
+   */
+  private long zeroCount;
+  
+  /**
+   * Minimum value.
+   */
+  private double min = Double.POSITIVE_INFINITY;
+  
+  /**
+   * Maximum value.
+   */
+  private double max = Double.NEGATIVE_INFINITY;
+  
+  /**
+   * Running mean of values.
+   */
+  private double mean;
+  
+  /**
+   * Running sum of squared differences from the mean.
+   */
+  private double m2;
+  
+  /**
+   * Constructs a new empty {@code QuantileSketch} with {@link #DEFAULT_RELATIVE_ACCURACY}.
+   */
+  public QuantileSketch() {
+    this(DEFAULT_RELATIVE_ACCURACY);
+  }
+  
+  /**
+   * Constructs a new empty {@code QuantileSketch} with the specified relative accuracy.
+   *
+   * @param relativeAccuracy Relative accuracy of quantiles, between {@code 0.0} and {@code 1.0}
+   *        exclusive.
+   */
+  public QuantileSketch(double relativeAccuracy) {
+    if (!(relativeAccuracy > 0.0 && relativeAccuracy < 1.0)) {
+      throw new IllegalArgumentException("Relative accuracy should be in (0, 1): "
+          + relativeAccuracy);
+    }
+    final double gamma = (1.0 + relativeAccuracy) / (1.0 - relativeAccuracy);
+    this.relativeAccuracy = relativeAccuracy;
+    this.logGamma = Math.log(gamma);
+    this.valueMultiplier = 2.0 / (1.0 + gamma);
+  }
+  
+  /**
+   * Adds the specified value.
+   *
+   * @param value The value to add.
+   */
+  public void add(double value) {
+    if (value > 0.0) {
+      addToBin((int) Math.ceil(Math.log(value) / logGamma), 1L);
+    } else {
+      zeroCount++;
+    }
+    final long count = getCount();
+    final double delta = value - mean;
+    mean += delta / count;
+    m2 += delta * (value - mean);
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+  
+  /**
+   * Adds all values of the specified sketch to this sketch.
+   *
+   * @param other Sketch with the same relative accuracy.
+   * @throws IllegalArgumentException if relative accuracy of the sketches differs.
+   */
+  public void merge(QuantileSketch other) {
+    if (other.relativeAccuracy != relativeAccuracy) {
+      throw new IllegalArgumentException("Sketches have different relative accuracy");
+    }
+    final long count = getCount();
+    final long otherCount = other.getCount();
+    if (otherCount == 0L) {
+      return;
+    }
+    for (int index = other.minIndex; other.binnedCount > 0L && index <= other.maxIndex; index++) {
+      final long binCount = other.bins[index - other.offset];
+      if (binCount != 0L) {
+        addToBin(index, binCount);
+      }
+    }
+    zeroCount += other.zeroCount;
+    final long total = count + otherCount;
+    final double delta = other.mean - mean;
+    mean += delta * otherCount / total;
+    m2 += other.m2 + delta * delta * ((double) count * otherCount / total);
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+  
+  /**
+   * Returns number of added values.
+   *
+   * @return Number of added values.
+   */
+  public long getCount() {
+    return binnedCount + zeroCount;
+  }
+  
+  /**
+   * Returns relative accuracy of quantiles.
+   *
+   * @return Relative accuracy of quantiles.
+   */
+  public double getRelativeAccuracy() {
+    return relativeAccuracy;
+  }
+  
+  /**
+   * Returns exact minimum value or {@link Double#NaN} if sketch is empty.
+   *
+   * @return Minimum value.
+   */
+  public double getMin() {
+    return getCount() == 0L ? Double.NaN : min;
+  }
+  
+  /**
+   * Returns exact maximum value or {@link Double#NaN} if sketch is empty.
+   *
+   * @return Maximum value.
+   */
+  public double getMax() {
+    return getCount() == 0L ? Double.NaN : max;
+  }
+  
+  /**
+   * Returns exact mean value or {@link Double#NaN} if sketch is empty.
+   *
+   * @return Mean value.
+   */
+  public double getMean() {
+    return getCount() == 0L ? Double.NaN : mean;
+  }
+  
+  /**
+   * Returns sample standard deviation, {@code 0.0} for a single value or {@link Double#NaN} if
+   * sketch is empty.
+   *
+   * @return Standard deviation.
+   */
+  public double getStddev() {
+    final long count = getCount();
+    return count == 0L ? Double.NaN : count == 1L ? 0.0 : Math.sqrt(m2 / (count - 1L));
+  }
+  
+  /**
+   * Returns estimate of the specified quantile within the relative accuracy. The quantile is
+   * interpolated between the values of neighbouring ranks around {@code quantile * (count - 1)}.
+   *
+   * @param quantile Quantile from {@code 0.0} to {@code 1.0}.
+   * @return Estimated quantile or {@link Double#NaN} if sketch is empty.
+   */
+  public double getQuantile(double quantile) {
+    return getValueAtRank(Math.min(Math.max(quantile, 0.0), 1.0) * (getCount() - 1L));
+  }
+  
+  /**
+   * Returns estimate of the value of the specified zero-based rank within the relative accuracy.
+   * Fractional rank is interpolated linearly between the values of neighbouring ranks, which keeps
+   * the relative error bound. Ranks are clamped to the range of values, the lowest and the highest
+   * ranks return exact minimum and maximum.
+   *
+   * @param rank Zero-based rank, {@code 0.0} is the minimum and {@code count - 1} the maximum.
+   * @return Estimated value or {@link Double#NaN} if sketch is empty.
+   */
+  public double getValueAtRank(double rank) {
+    final long count = getCount();
+    if (count == 0L) {
+      return Double.NaN;
+    }
+    final double clamped = Math.min(Math.max(rank, 0.0), count - 1L);
+    final long lower = (long) Math.floor(clamped);
+    final double fraction = clamped - lower;
+    final double lowerValue = getValueAtRank(lower);
+    return fraction == 0.0 ? lowerValue
+        : lowerValue + fraction * (getValueAtRank(lower + 1L) - lowerValue);
+  }
+  
+  /* Returns estimate of the value of the specified integer rank */
+  private double getValueAtRank(long rank) {
+    if (rank == 0L) {
+      return min;
+    } else if (rank >= getCount() - 1L) {
+      return max;
+    }
+    long cumulative = zeroCount;
+    if (cumulative > rank) {
+      return Math.max(min, 0.0);
+    }
+    for (int index = minIndex; index <= maxIndex; index++) {
+      cumulative += bins[index - offset];
+      if (cumulative > rank) {
+        final double value = Math.exp(index * logGamma) * valueMultiplier;
+        return Math.min(Math.max(value, min), max);
+      }
+    }
+    return max;
+  }
+  
+  /* Adds count to the bin with the specified index collapsing the lowest bins if needed */
+  private void addToBin(int index, long count) {
+    int target = index;
+    if (binnedCount == 0L) {
+      offset = index - bins.length / 2;
+      minIndex = index;
+      maxIndex = index;
+    } else {
+      final int hi = Math.max(maxIndex, index);
+      final int lo = Math.max(Math.min(minIndex, index), hi - MAX_BINS + 1);
+      target = Math.max(index, lo);
+      if (lo < offset || hi >= offset + bins.length || lo > minIndex) {
+        relocate(lo, hi);
+      }
+      minIndex = lo;
+      maxIndex = hi;
+    }
+    bins[target - offset] += count;
+    binnedCount += count;
+  }
+  
+  /* Moves bins to array covering the specified range, bins below the range are collapsed */
+  private void relocate(int lo, int hi) {
+    final int span = hi - lo + 1;
+    final int length = Math.min(MAX_BINS, Math.max(bins.length, Integer.highestOneBit(span) << 1));
+    final int relocatedOffset = lo - (length - span) / 2;
+    final long[] relocated = new long[length];
+    for (int index = minIndex; index <= maxIndex; index++) {
+      final long binCount = bins[index - offset];
+      if (binCount != 0L) {
+        relocated[Math.max(index, lo) - relocatedOffset] += binCount;
+      }
+    }
+    bins = relocated;
+    offset = relocatedOffset;
+  }
+  
+}
@@ -0,0 +1,527 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import com.google.chcapi.perfdiag.profiler.CacheStatus;
+import com.google.chcapi.perfdiag.profiler.HttpRequestException;
+import com.google.chcapi.perfdiag.profiler.HttpRequestMetrics;
+
+/**
+ * Log of every completed and failed request written while the benchmark runs. Worker threads only
+ * offer records to a bounded ring buffer, a dedicated thread writes them to the log file, so
+ * requests are never blocked by the file system. If the writer falls behind by more than
+ * {@link #CAPACITY} records, further records are dropped and counted rather than slowing down the
+ * benchmark. Each record has the iteration, start time, response latency (time to first byte),
+ * read latency, number of bytes read, HTTP status code (zero if no response was received), cache
+ * status, connection reuse, failure flag and URI of the request. Records are written in the order
+ * requests complete.
+ *
+ * <p>The log is written either as JSON Lines, one JSON object per record, or in a compact binary
+ * format which {@link #decode(File, File)} converts to JSON Lines. The binary format starts with
+ * the {@code RQLG} magic, a version byte and the 8-byte start time of the log in milliseconds.
+ * Each record is then encoded as
+ * <pre>
+ * flags, iteration, start time delta, response latency, read latency, bytes read, status,
+ * URI prefix length, URI suffix length, URI suffix
+ * </pre>
+ * where {@code flags} is a byte with the cache status ordinal in bits 0-1, connection reuse in
+ * bit 2 and failure in bit 3, the start time delta is the zig-zag encoded difference from the start
+ * time of the previous record, the URI is encoded as the number of leading UTF-8 bytes shared with
+ * the URI of the previous record followed by the remaining bytes (suffix length is zero for unknown
+ * URI and one more than the number of bytes otherwise) and all numbers are unsigned LEB128
+ * varints. A typical frame request takes about 20 bytes.
+ */
+public class RequestLog implements AutoCloseable {
+  
+  /**
+   * Formats of the log file.
+   */
+  public enum Format {
+    
+    /** Compact binary format. */
+    BINARY,
+    
+    /** One JSON object per line. */
+    JSON
+  
+  }
+  
+  /**
+   * Maximum number of records waiting to be written.
+   */
+  public static final int CAPACITY = 65536;
+  
+  /* Magic bytes of binary format */
+  private static final byte[] MAGIC = {'R', 'Q', 'L', 'G'};
+  
+  /* Version of binary format */
+  private static final int VERSION = 1;
+  
+  /* Flags of binary record */
+  private static final int CACHE_STATUS_MASK = 0x03;
+  private static final int CONNECTION_REUSED = 0x04;
+  private static final int FAILED = 0x08;
+  
+  /* Maximum number of records written at once */
+  private static final int BATCH_SIZE = 1024;
+  
+  /* Record which stops the writer */
+  private static final Record END = new Record(0, 0L, 0L, 0L, 0L, 0, CacheStatus.NA, false,
+      false, null);
+  
+  /**
+   * Records waiting to be written.
+   */
+  private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(CAPACITY);
+  
+  /**
+   * Number of records dropped because the queue was full.
+   */
+  private final LongAdder dropped = new LongAdder();
+  
+  /**
+   * Encoder of records to the log file.
+   */
+  private final Encoder encoder;
+  
+  /**
+   * Thread writing records.
+   */
+  private final Thread writer;
+  
+  /**
+   * Current iteration number.
+   */
+  private volatile int iteration;
+  
+  /**
+   * Number of records written, updated by the writer thread.
+   */
+  private volatile long written;
+  
+  /**
+   * Error which stopped the writer or {@code null}.
+   */
+  private volatile IOException error;
+  
+  /**
+   * Creates the specified log file and starts the writer thread.
+   *
+   * @param file Log file.
+   * @param format Format of the log file.
+   * @throws IOException if the file could not be created.
+   */
+  public RequestLog(File file, Format format) throws IOException {
+    final OutputStream output = new BufferedOutputStream(new FileOutputStream(file), 65536);
+    this.encoder = format == Format.JSON ? new JsonEncoder(output)
+        : new BinaryEncoder(output, System.currentTimeMillis());
+    this.writer = new Thread(this::writeRecords, "request-log-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+  
+  /**
+   * Sets current iteration number, requests completed later are attributed to this iteration.
+   *
+   * @param iteration Iteration number.
+   */
+  public void setIteration(int iteration) {
+    this.iteration = iteration;
+  }
+  
+  /**
+   * Logs completed request.
+   *
+   * @param metrics Metrics of the completed request.
+   */
+  public void requestCompleted(HttpRequestMetrics metrics) {
+    offer(new Record(iteration, metrics.getStartTime(), metrics.getResponseTime(),
+        metrics.getEndTime(), metrics.getBytesRead(), metrics.getStatus(),
+        metrics.getCacheStatus(), metrics.isConnectionReused(), false, metrics.getUri()));
+  }
+  
+  /**
+   * Logs failed request. The response latency of failed request is its total latency, its URI is
+   * known if the request has been executed by the profiler.
+   *
+   * @param startTime Time in milliseconds when the request has been started.
+   * @param cause Exception the request failed with.
+   */
+  public void requestFailed(long startTime, Exception cause) {
+    final long endTime = System.currentTimeMillis();
+    final int status = HttpRequestException.getStatusCode(cause);
+    offer(new Record(iteration, startTime, endTime, endTime, 0L, status, CacheStatus.NA, false,
+        true, HttpRequestException.getUri(cause)));
+  }
+  
+  /**
+   * Returns number of records written so far.
+   *
+   * @return Number of written records.
+   */
+  public long getWrittenCount() {
+    return written;
+  }
+  
+  /**
+   * Returns number of records dropped because the writer could not keep up.
+   *
+   * @return Number of dropped records.
+   */
+  public long getDroppedCount() {
+    return dropped.sum();
+  }
+  
+  /**
+   * Writes remaining records and closes the log file. Does nothing if the log is already closed.
+   *
+   * @throws IOException if records could not be written.
+   */
+  @Override
+  public void close() throws IOException {
+    if (writer.isAlive()) {
+      try {
+        queue.put(END);
+        writer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+  
+  /**
+   * Converts binary log file to JSON Lines file.
+   *
+   * @param input Binary log file.
+   * @param output JSON Lines file.
+   * @return Number of converted records.
+   * @throws IOException if an IO error occurred or the input is not a binary log file.
+   */
+  public static long decode(File input, File output) throws IOException {
+    try (InputStream in = new BufferedInputStream(new FileInputStream(input), 65536);
+        Encoder encoder = new JsonEncoder(
+            new BufferedOutputStream(new FileOutputStream(output), 65536))) {
+      final byte[] magic = new byte[MAGIC.length];
+      if (readFully(in, magic) < magic.length || !Arrays.equals(magic, MAGIC)) {
+        throw new IOException("Not a binary request log");
+      }
+      final int version = in.read();
+      if (version != VERSION) {
+        throw new IOException("Unsupported request log version " + version);
+      }
+      long previousStartTime = 0L;
+      for (int i = 0; i < Long.BYTES; i++) {
+        previousStartTime = (previousStartTime << 8) | readByte(in);
+      }
+      byte[] previousUri = new byte[0];
+      long records = 0L;
+      int flags;
+      while ((flags = in.read()) >= 0) {
+        final int iteration = (int) readVarint(in);
+        final long startTime = previousStartTime + decodeZigZag(readVarint(in));
+        final long responseTime = startTime + readVarint(in);
+        final long endTime = responseTime + readVarint(in);
+        final long bytesRead = readVarint(in);
+        final int status = (int) readVarint(in);
+        final int prefix = (int) readVarint(in);
+        final int suffix = (int) readVarint(in);
+        String uri = null;
+        if (suffix > 0) {
+          if (prefix > previousUri.length) {
+            throw new IOException("Corrupted request log record " + records);
+          }
+          final byte[] bytes = Arrays.copyOf(previousUri, prefix + suffix - 1);
+          if (readFully(in, bytes, prefix, suffix - 1) < suffix - 1) {
+            throw new EOFException("Truncated request log record " + records);
+          }
+          uri = new String(bytes, StandardCharsets.UTF_8);
+          previousUri = bytes;
+        }
+        encoder.encode(new Record(iteration, startTime, responseTime, endTime, bytesRead, status,
+            CacheStatus.values()[flags & CACHE_STATUS_MASK], (flags & CONNECTION_REUSED) != 0,
+            (flags & FAILED) != 0, uri));
+        previousStartTime = startTime;
+        records++;
+      }
+      return records;
+    }
+  }
+  
+  /* Offers record to the queue or counts it as dropped if the queue is full */
+  private void offer(Record record) {
+    if (error != null || !queue.offer(record)) {
+      dropped.increment();
+    }
+  }
+  
+  /* Writes records from the queue until the end record is taken */
+  private void writeRecords() {
+    final List<Record> batch = new ArrayList<>(BATCH_SIZE);
+    try {
+      while (true) {
+        batch.add(queue.take());
+        queue.drainTo(batch, BATCH_SIZE - 1);
+        for (Record record : batch) {
+          if (record == END) {
+            return;
+          }
+          encoder.encode(record);
+          written++;
+        }
+        batch.clear();
+      }
+    } catch (IOException e) {
+      error = e;
+      queue.clear();
+    } catch (InterruptedException e) {
+      // Log is being closed
+    } finally {
+      try {
+        encoder.close();
+      } catch (IOException e) {
+        error = error == null ? e : error;
+      }
+    }
+  }
+  
+  /* Reads byte or throws exception at the end of stream */
+  private static int readByte(InputStream in) throws IOException {
+    final int b = in.read();
+    if (b < 0) {
+      throw new EOFException("Truncated request log");
+    }
+    return b;
+  }
+  
+  /* Reads unsigned LEB128 varint */
+  private static long readVarint(InputStream in) throws IOException {
+    long value = 0L;
+    for (int shift = 0; shift < Long.SIZE; shift += 7) {
+      final int b = readByte(in);
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint in request log");
+  }
+  
+  /* Decodes zig-zag encoded value */
+  private static long decodeZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1L);
+  }
+  
+  /* Reads bytes until the buffer is full or the stream ends, returns number of bytes read */
+  private static int readFully(InputStream in, byte[] buffer) throws IOException {
+    return readFully(in, buffer, 0, buffer.length);
+  }
+  
+  /* Reads bytes until the range is full or the stream ends, returns number of bytes read */
+  private static int readFully(InputStream in, byte[] buffer, int offset, int length)
+      throws IOException {
+    int read = 0;
+    while (read < length) {
+      final int n = in.read(buffer, offset + read, length - read);
+      if (n < 0) {
+        break;
+      }
+      read += n;
+    }
+    return read;
+  }
+  
+  /**
+   * Logged request, times are in milliseconds since the epoch.
+   */
+  private static class Record {
+    
+    private final int iteration;
+    private final long startTime;
+    private final long responseTime;
+    private final long endTime;
+    private final long bytesRead;
+    private final int status;
+    private final CacheStatus cacheStatus;
+    private final boolean connectionReused;
+    private final boolean failed;
+    private final String uri;
+    
+    Record(int iteration, long startTime, long responseTime, long endTime, long bytesRead,
+        int status, CacheStatus cacheStatus, boolean connectionReused, boolean failed, String uri) {
+      this.iteration = iteration;
+      this.startTime = startTime;
+      this.responseTime = responseTime;
+      this.endTime = endTime;
+      this.bytesRead = bytesRead;
+      this.status = status;
+      this.cacheStatus = cacheStatus;
+      this.connectionReused = connectionReused;
+      this.failed = failed;
+      this.uri = uri;
+    }
+  
+  }
+  
+  /**
+   * Encoder of records to the log file.
+   */
+  private interface Encoder extends AutoCloseable {
+    
+    /**
+     * Writes the specified record.
+     */
+    void encode(Record record) throws IOException;
+    
+    /**
+     * Flushes written records and closes the output stream.
+     */
+    @Override
+    void close() throws IOException;
+  
+  }
+  
+  /**
+   * Encoder of records to JSON Lines.
+   */
+  private static class JsonEncoder implements Encoder {
+    
+    private final JsonGenerator json;
+    
+    JsonEncoder(OutputStream output) throws IOException {
+      this.json = new JsonFactory().createGenerator(output, JsonEncoding.UTF8);
+      json.setRootValueSeparator(null);
+    }
+    
+    @Override
+    public void encode(Record record) throws IOException {
+      json.writeStartObject();
+      json.writeNumberField("iteration", record.iteration);
+      json.writeStringField("startTime", Instant.ofEpochMilli(record.startTime).toString());
+      json.writeNumberField("responseLatency", record.responseTime - record.startTime);
+      json.writeNumberField("readLatency", record.endTime - record.responseTime);
+      json.writeNumberField("totalLatency", record.endTime - record.startTime);
+      json.writeNumberField("bytesRead", record.bytesRead);
+      json.writeNumberField("status", record.status);
+      json.writeStringField("cacheStatus", record.cacheStatus.name());
+      json.writeBooleanField("connectionReused", record.connectionReused);
+      json.writeBooleanField("failed", record.failed);
+      if (record.uri != null) {
+        json.writeStringField("uri", record.uri);
+      }
+      json.writeEndObject();
+      json.writeRaw('\n');
+    }
+    
+    @Override
+    public void close() throws IOException {
+      json.close();
+    }
+  
+  }
+  
+  /**
+   * Encoder of records to the compact binary format.
+   */
+  private static class BinaryEncoder implements Encoder {
+    
+    private final OutputStream output;
+    
+    /** Start time of the previous record, start times are encoded as deltas. */
+    private long previousStartTime;
+    
+    /** UTF-8 bytes of the previous known URI, URIs are encoded as suffixes. */
+    private byte[] previousUri = new byte[0];
+    
+    BinaryEncoder(OutputStream output, long startTime) throws IOException {
+      this.output = output;
+      this.previousStartTime = startTime;
+      output.write(MAGIC);
+      output.write(VERSION);
+      for (int shift = Long.SIZE - 8; shift >= 0; shift -= 8) {
+        output.write((int) (startTime >>> shift));
+      }
+    }
+    
+    @Override
+    public void encode(Record record) throws IOException {
+      output.write(record.cacheStatus.ordinal() & CACHE_STATUS_MASK
+          | (record.connectionReused ? CONNECTION_REUSED : 0) | (record.failed ? FAILED : 0));
+      writeVarint(record.iteration);
+      final long delta = record.startTime - previousStartTime;
+      writeVarint((delta << 1) ^ (delta >> 63));
+      writeVarint(record.responseTime - record.startTime);
+      writeVarint(record.endTime - record.responseTime);
+      writeVarint(record.bytesRead);
+      writeVarint(record.status);
+      previousStartTime = record.startTime;
+      if (record.uri == null) {
+        writeVarint(0L);
+        writeVarint(0L);
+        return;
+      }
+      final byte[] uri = record.uri.getBytes(StandardCharsets.UTF_8);
+      final int limit = Math.min(uri.length, previousUri.length);
+      int prefix = 0;
+      while (prefix < limit && uri[prefix] == previousUri[prefix]) {
+        prefix++;
+      }
+      writeVarint(prefix);
+      writeVarint(uri.length - prefix + 1L);
+      output.write(uri, prefix, uri.length - prefix);
+      previousUri = uri;
+    }
+    
+    @Override
+    public void close() throws IOException {
+      output.close();
+    }
+    
+    /* Writes unsigned LEB128 varint */
+    private void writeVarint(long value) throws IOException {
+      while ((value & ~0x7FL) != 0L) {
+        output.write((int) (value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      output.write((int) value);
+    }
+  
+  }
+  
+}
@@ -0,0 +1,200 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math3.stat.inference.MannWhitneyUTest;
+
+/**
+ * Statistical comparison of a metric sampled in two benchmark runs. The difference is expressed as
+ * relative change of the median of the candidate run to the median of the baseline run with
+ * percentile bootstrap confidence interval. Whether the samples come from the same distribution is
+ * tested by two-sided Mann-Whitney U test, which does not assume normally distributed values and is
+ * robust to the long tails typical for latencies.
+ */
+public class SampleComparison {
+  
+  /**
+   * Maximum number of values of a sample, larger samples should be reduced before comparison
+   * (e.g. by {@link LatencyHistogram#getValues(int)}).
+   */
+  public static final int MAX_SAMPLE_SIZE = 10000;
+  
+  /**
+   * Confidence level of the confidence interval.
+   */
+  public static final double CONFIDENCE_LEVEL = 0.95;
+  
+  /* Number of bootstrap resamples */
+  private static final int RESAMPLES = 1000;
+  
+  /* Seed of bootstrap resampling, so the same files always give the same interval */
+  private static final long SEED = 0x5EEDL;
+  
+  /**
+   * Median of the baseline sample.
+   */
+  private final double baselineMedian;
+  
+  /**
+   * Median of the candidate sample.
+   */
+  private final double candidateMedian;
+  
+  /**
+   * Lower bound of confidence interval of relative change in percent.
+   */
+  private final double lowerChange;
+  
+  /**
+   * Upper bound of confidence interval of relative change in percent.
+   */
+  private final double upperChange;
+  
+  /**
+   * P-value of Mann-Whitney U test.
+   */
+  private final double pValue;
+  
+  /**
+   * Compares the specified samples.
+   *
+   * @param baseline Values of the baseline run.
+   * @param candidate Values of the candidate run.
+   * @throws IllegalArgumentException if any sample is empty or larger than
+   *         {@link #MAX_SAMPLE_SIZE}.
+   */
+  public SampleComparison(double[] baseline, double[] candidate) {
+    if (baseline.length == 0 || candidate.length == 0) {
+      throw new IllegalArgumentException("Samples should not be empty");
+    } else if (baseline.length > MAX_SAMPLE_SIZE || candidate.length > MAX_SAMPLE_SIZE) {
+      throw new IllegalArgumentException("Samples should not exceed " + MAX_SAMPLE_SIZE);
+    }
+    final double[] sortedBaseline = baseline.clone();
+    final double[] sortedCandidate = candidate.clone();
+    Arrays.sort(sortedBaseline);
+    Arrays.sort(sortedCandidate);
+    this.baselineMedian = getMedian(sortedBaseline);
+    this.candidateMedian = getMedian(sortedCandidate);
+    
+    // Percentile bootstrap of relative change of medians
+    final Random random = new Random(SEED);
+    final double[] changes = new double[RESAMPLES];
+    final int[] baselineCounts = new int[baseline.length];
+    final int[] candidateCounts = new int[candidate.length];
+    for (int i = 0; i < RESAMPLES; i++) {
+      changes[i] = getChange(getResampledMedian(random, sortedBaseline, baselineCounts),
+          getResampledMedian(random, sortedCandidate, candidateCounts));
+    }
+    Arrays.sort(changes);
+    final double tail = (1.0 - CONFIDENCE_LEVEL) / 2.0;
+    this.lowerChange = changes[(int) Math.floor(tail * (RESAMPLES - 1))];
+    this.upperChange = changes[(int) Math.ceil((1.0 - tail) * (RESAMPLES - 1))];
+    this.pValue = new MannWhitneyUTest().mannWhitneyUTest(baseline, candidate);
+  }
+  
+  /**
+   * Returns median of the baseline sample.
+   *
+   * @return Median of the baseline sample.
+   */
+  public double getBaselineMedian() {
+    return baselineMedian;
+  }
+  
+  /**
+   * Returns median of the candidate sample.
+   *
+   * @return Median of the candidate sample.
+   */
+  public double getCandidateMedian() {
+    return candidateMedian;
+  }
+  
+  /**
+   * Returns relative change of the candidate median to the baseline median in percent.
+   *
+   * @return Relative change in percent or {@link Double#NaN} if the baseline median is zero.
+   */
+  public double getChange() {
+    return getChange(baselineMedian, candidateMedian);
+  }
+  
+  /**
+   * Returns lower bound of {@link #CONFIDENCE_LEVEL} confidence interval of relative change.
+   *
+   * @return Lower bound of confidence interval in percent.
+   */
+  public double getLowerChange() {
+    return lowerChange;
+  }
+  
+  /**
+   * Returns upper bound of {@link #CONFIDENCE_LEVEL} confidence interval of relative change.
+   *
+   * @return Upper bound of confidence interval in percent.
+   */
+  public double getUpperChange() {
+    return upperChange;
+  }
+  
+  /**
+   * Returns p-value of two-sided Mann-Whitney U test, i.e. probability of observing samples that
+   * differ at least as much if both runs had the same distribution of the metric.
+   *
+   * @return P-value from {@code 0.0} to {@code 1.0}.
+   */
+  public double getPValue() {
+    return pValue;
+  }
+  
+  /* Returns relative change in percent */
+  private static double getChange(double baseline, double candidate) {
+    return baseline == 0.0 ? Double.NaN : (candidate - baseline) / baseline * 100.0;
+  }
+  
+  /**
+   * Returns median of values drawn from the sorted sample with replacement. Instead of sorting the
+   * resample, the number of draws of each rank is counted and the median is found by walking the
+   * counts, which takes linear time.
+   */
+  private static double getResampledMedian(Random random, double[] sorted, int[] counts) {
+    Arrays.fill(counts, 0);
+    for (int i = 0; i < sorted.length; i++) {
+      counts[random.nextInt(sorted.length)]++;
+    }
+    final int middle = sorted.length / 2;
+    double lower = Double.NaN;
+    for (int rank = 0, cumulative = 0; rank < sorted.length; rank++) {
+      cumulative += counts[rank];
+      if (sorted.length % 2 == 0 && Double.isNaN(lower) && cumulative > middle - 1) {
+        lower = sorted[rank];
+      }
+      if (cumulative > middle) {
+        return Double.isNaN(lower) ? sorted[rank] : (lower + sorted[rank]) / 2.0;
+      }
+    }
+    return sorted[sorted.length - 1];
+  }
+  
+  /* Returns median of sorted values */
+  private static double getMedian(double[] sorted) {
+    final int middle = sorted.length / 2;
+    return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2.0;
+  }
+  
+}
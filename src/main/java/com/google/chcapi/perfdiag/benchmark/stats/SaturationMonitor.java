@@ -0,0 +1,477 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import java.lang.Thread.State;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples resources of the benchmark process through the platform MXBeans while the benchmark
+ * runs, so it can be told whether the client rather than the server limited the measured
+ * latencies. Every {@link #INTERVAL} milliseconds a background thread samples process CPU time,
+ * garbage collection time, bytes allocated by threads, used heap and states of the threads whose
+ * names start with the configured prefix (the worker threads executing requests). A worker thread
+ * in {@link State#RUNNABLE} state executing a native method is counted as waiting for I/O, since
+ * the JVM reports threads reading from sockets as runnable. Values which are not supported by the
+ * JVM are reported as {@link Double#NaN}.
+ */
+public class SaturationMonitor implements AutoCloseable {
+  
+  /**
+   * Interval in milliseconds between samples.
+   */
+  public static final long INTERVAL = 1000L;
+  
+  /**
+   * Process CPU usage in a sample above which the client is likely the bottleneck.
+   */
+  public static final double CPU_THRESHOLD = 0.85;
+  
+  /**
+   * Fraction of time of a sample spent in garbage collection above which the client is likely the
+   * bottleneck.
+   */
+  public static final double GC_THRESHOLD = 0.05;
+  
+  /**
+   * Fraction of samples exceeding a threshold from which the client is reported as saturated, so
+   * bursts of saturation are not averaged away by idle parts of the run.
+   */
+  public static final double SATURATED_SAMPLES = 0.1;
+  
+  /* Indexes of states of worker threads */
+  private static final int RUNNING = 0;
+  private static final int IO = 1;
+  private static final int BLOCKED = 2;
+  private static final int WAITING = 3;
+  
+  /**
+   * Operating system MXBean providing process CPU time.
+   */
+  private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+  
+  /**
+   * Thread MXBean providing thread states and allocated bytes.
+   */
+  private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  
+  /**
+   * Memory MXBean providing heap usage.
+   */
+  private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+  
+  /**
+   * Prefix of names of the threads executing requests.
+   */
+  private final String workerPrefix;
+  
+  /**
+   * Thread taking samples.
+   */
+  private final ScheduledExecutorService sampler;
+  
+  /**
+   * Samples of worker threads in each state.
+   */
+  private final long[] workerStates = new long[4];
+  
+  /* Values of the previous sample, process CPU time is -1 if not supported and bytes allocated
+     by each live thread are null if not supported */
+  private long lastTime;
+  private long lastCpuTime;
+  private long lastGcTime;
+  private long lastGcCount;
+  private Map<Long, Long> lastAllocated;
+  
+  /* Totals since the monitor started, times in nanoseconds except GC time in milliseconds */
+  private int sampleCount;
+  private long elapsedTime;
+  private long cpuTime;
+  private double maxCpuUsage;
+  private long gcTime;
+  private long gcCount;
+  private long allocatedBytes;
+  private long maxHeapUsed;
+  private long heapLimit;
+  
+  /* Samples covering at least half of the interval and those of them exceeding the thresholds,
+     shorter samples such as the last one are too noisy to be judged */
+  private int fullSampleCount;
+  private int cpuSaturatedCount;
+  private int gcSaturatedCount;
+  private double maxGcTimeRatio;
+  
+  /**
+   * Creates monitor and starts sampling.
+   * 
+   * @param workerPrefix Prefix of names of the threads executing requests.
+   */
+  public SaturationMonitor(String workerPrefix) {
+    this.workerPrefix = workerPrefix;
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      final com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+      if (allocation.isThreadAllocatedMemorySupported()
+          && !allocation.isThreadAllocatedMemoryEnabled()) {
+        allocation.setThreadAllocatedMemoryEnabled(true);
+      }
+    }
+    lastTime = System.nanoTime();
+    lastCpuTime = readProcessCpuTime();
+    lastGcTime = readGcTime();
+    lastGcCount = readGcCount();
+    lastAllocated = readAllocatedBytes();
+    sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "saturation-monitor");
+      thread.setDaemon(true);
+      return thread;
+    });
+    sampler.scheduleAtFixedRate(this::sample, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+  }
+  
+  /**
+   * Stops sampling and takes the last sample. Does nothing if the monitor is already closed.
+   */
+  @Override
+  public void close() {
+    if (sampler.isShutdown()) {
+      return;
+    }
+    sampler.shutdownNow();
+    try {
+      sampler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    sample();
+  }
+  
+  /**
+   * Returns number of samples taken.
+   * 
+   * @return Number of samples.
+   */
+  public synchronized int getSampleCount() {
+    return sampleCount;
+  }
+  
+  /**
+   * Returns number of processors available to the JVM.
+   * 
+   * @return Number of available processors.
+   */
+  public int getProcessors() {
+    return os.getAvailableProcessors();
+  }
+  
+  /**
+   * Returns mean CPU usage of the process as a fraction of all available processors.
+   * 
+   * @return Mean CPU usage from 0 to 1 or {@link Double#NaN} if not supported or not sampled.
+   */
+  public synchronized double getCpuUsage() {
+    return lastCpuTime < 0L || elapsedTime == 0L ? Double.NaN
+        : (double) cpuTime / elapsedTime / getProcessors();
+  }
+  
+  /**
+   * Returns the highest CPU usage of the process in a single sample.
+   * 
+   * @return Maximum CPU usage from 0 to 1 or {@link Double#NaN} if not supported or not sampled.
+   */
+  public synchronized double getMaxCpuUsage() {
+    return lastCpuTime < 0L || elapsedTime == 0L ? Double.NaN : maxCpuUsage;
+  }
+  
+  /**
+   * Returns fraction of time spent in garbage collection. Concurrent collectors may report time
+   * of concurrent phases as well, so this is an upper bound of time the application was paused.
+   * 
+   * @return Fraction of time spent in garbage collection or {@link Double#NaN} if not sampled.
+   */
+  public synchronized double getGcTimeRatio() {
+    return elapsedTime == 0L ? Double.NaN : gcTime * 1000000.0 / elapsedTime;
+  }
+  
+  /**
+   * Returns the highest fraction of time spent in garbage collection in a single sample.
+   * 
+   * @return Maximum fraction of time spent in garbage collection or {@link Double#NaN} if not
+   *     sampled.
+   */
+  public synchronized double getMaxGcTimeRatio() {
+    return elapsedTime == 0L ? Double.NaN : maxGcTimeRatio;
+  }
+  
+  /**
+   * Returns fraction of samples in which CPU usage exceeded {@link #CPU_THRESHOLD}.
+   * 
+   * @return Fraction of CPU saturated samples or {@link Double#NaN} if not supported or not
+   *     sampled.
+   */
+  public synchronized double getCpuSaturatedRatio() {
+    return lastCpuTime < 0L || fullSampleCount == 0 ? Double.NaN
+        : (double) cpuSaturatedCount / fullSampleCount;
+  }
+  
+  /**
+   * Returns fraction of samples in which time spent in garbage collection exceeded
+   * {@link #GC_THRESHOLD}.
+   * 
+   * @return Fraction of GC saturated samples or {@link Double#NaN} if not sampled.
+   */
+  public synchronized double getGcSaturatedRatio() {
+    return fullSampleCount == 0 ? Double.NaN : (double) gcSaturatedCount / fullSampleCount;
+  }
+  
+  /**
+   * Returns time in milliseconds spent in garbage collection.
+   * 
+   * @return Garbage collection time in milliseconds.
+   */
+  public synchronized long getGcTime() {
+    return gcTime;
+  }
+  
+  /**
+   * Returns number of garbage collections.
+   * 
+   * @return Number of garbage collections.
+   */
+  public synchronized long getGcCount() {
+    return gcCount;
+  }
+  
+  /**
+   * Returns mean allocation rate of live threads in bytes per second.
+   * 
+   * @return Allocation rate or {@link Double#NaN} if not supported or not sampled.
+   */
+  public synchronized double getAllocationRate() {
+    return lastAllocated == null || elapsedTime == 0L ? Double.NaN
+        : allocatedBytes * 1e9 / elapsedTime;
+  }
+  
+  /**
+   * Returns the highest sampled size of used heap in bytes.
+   * 
+   * @return Maximum used heap in bytes.
+   */
+  public synchronized long getMaxHeapUsed() {
+    return maxHeapUsed;
+  }
+  
+  /**
+   * Returns maximum heap size in bytes, or committed heap size if the maximum is undefined.
+   * 
+   * @return Heap limit in bytes.
+   */
+  public synchronized long getHeapLimit() {
+    return heapLimit;
+  }
+  
+  /**
+   * Returns fraction of sampled worker threads running on CPU.
+   * 
+   * @return Fraction of running worker threads or {@link Double#NaN} if none were sampled.
+   */
+  public double getWorkersRunning() {
+    return getWorkerStateRatio(RUNNING);
+  }
+  
+  /**
+   * Returns fraction of sampled worker threads executing a native method, usually socket I/O.
+   * 
+   * @return Fraction of worker threads in I/O or {@link Double#NaN} if none were sampled.
+   */
+  public double getWorkersInIo() {
+    return getWorkerStateRatio(IO);
+  }
+  
+  /**
+   * Returns fraction of sampled worker threads blocked on a monitor.
+   * 
+   * @return Fraction of blocked worker threads or {@link Double#NaN} if none were sampled.
+   */
+  public double getWorkersBlocked() {
+    return getWorkerStateRatio(BLOCKED);
+  }
+  
+  /**
+   * Returns fraction of sampled worker threads waiting, for example for a task, a connection of
+   * the pool or a permit of the concurrency limit.
+   * 
+   * @return Fraction of waiting worker threads or {@link Double#NaN} if none were sampled.
+   */
+  public double getWorkersWaiting() {
+    return getWorkerStateRatio(WAITING);
+  }
+  
+  /**
+   * Returns {@code true} if CPU usage exceeded {@link #CPU_THRESHOLD} in at least
+   * {@link #SATURATED_SAMPLES} of samples.
+   * 
+   * @return Whether the client was likely CPU bound.
+   */
+  public boolean isCpuSaturated() {
+    return getCpuSaturatedRatio() >= SATURATED_SAMPLES;
+  }
+  
+  /**
+   * Returns {@code true} if fraction of time spent in garbage collection exceeded
+   * {@link #GC_THRESHOLD} in at least {@link #SATURATED_SAMPLES} of samples.
+   * 
+   * @return Whether the client was likely slowed down by garbage collection.
+   */
+  public boolean isGcSaturated() {
+    return getGcSaturatedRatio() >= SATURATED_SAMPLES;
+  }
+  
+  /* Returns fraction of worker thread samples in the specified state */
+  private synchronized double getWorkerStateRatio(int state) {
+    long total = 0L;
+    for (long count : workerStates) {
+      total += count;
+    }
+    return total == 0L ? Double.NaN : (double) workerStates[state] / total;
+  }
+  
+  /* Takes a sample and adds differences to the previous sample to the totals */
+  private synchronized void sample() {
+    final long time = System.nanoTime();
+    final long elapsed = time - lastTime;
+    if (elapsed <= 0L) {
+      return;
+    }
+    final long processCpuTime = readProcessCpuTime();
+    final long totalGcTime = readGcTime();
+    final long totalGcCount = readGcCount();
+    final Map<Long, Long> allocated = readAllocatedBytes();
+    sampleCount++;
+    elapsedTime += elapsed;
+    final boolean full = elapsed >= TimeUnit.MILLISECONDS.toNanos(INTERVAL) / 2L;
+    if (full) {
+      fullSampleCount++;
+    }
+    if (processCpuTime >= 0L && lastCpuTime >= 0L) {
+      final double cpuUsage = (double) (processCpuTime - lastCpuTime) / elapsed / getProcessors();
+      cpuTime += processCpuTime - lastCpuTime;
+      maxCpuUsage = Math.max(maxCpuUsage, cpuUsage);
+      if (full && cpuUsage > CPU_THRESHOLD) {
+        cpuSaturatedCount++;
+      }
+    }
+    final double gcTimeRatio = (totalGcTime - lastGcTime) * 1000000.0 / elapsed;
+    maxGcTimeRatio = Math.max(maxGcTimeRatio, gcTimeRatio);
+    if (full && gcTimeRatio > GC_THRESHOLD) {
+      gcSaturatedCount++;
+    }
+    gcTime += totalGcTime - lastGcTime;
+    gcCount += totalGcCount - lastGcCount;
+    if (allocated != null && lastAllocated != null) {
+      for (Map.Entry<Long, Long> entry : allocated.entrySet()) {
+        // Threads which terminated since the previous sample are not counted
+        final Long previous = lastAllocated.get(entry.getKey());
+        allocatedBytes += Math.max(0L, entry.getValue() - (previous == null ? 0L : previous));
+      }
+    }
+    lastTime = time;
+    lastCpuTime = processCpuTime;
+    lastGcTime = totalGcTime;
+    lastGcCount = totalGcCount;
+    lastAllocated = allocated;
+    
+    final MemoryUsage heap = memory.getHeapMemoryUsage();
+    maxHeapUsed = Math.max(maxHeapUsed, heap.getUsed());
+    heapLimit = heap.getMax() < 0L ? heap.getCommitted() : heap.getMax();
+    sampleWorkers();
+  }
+  
+  /* Counts states of worker threads */
+  private void sampleWorkers() {
+    for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds(), 1)) {
+      if (info == null || !info.getThreadName().startsWith(workerPrefix)) {
+        continue;
+      }
+      switch (info.getThreadState()) {
+        case RUNNABLE:
+          final StackTraceElement[] stack = info.getStackTrace();
+          workerStates[stack.length > 0 && stack[0].isNativeMethod() ? IO : RUNNING]++;
+          break;
+        case BLOCKED:
+          workerStates[BLOCKED]++;
+          break;
+        case WAITING:
+        case TIMED_WAITING:
+          workerStates[WAITING]++;
+          break;
+        default:
+          break;
+      }
+    }
+  }
+  
+  /* Returns CPU time of the process in nanoseconds or -1 if not supported */
+  private long readProcessCpuTime() {
+    return os instanceof com.sun.management.OperatingSystemMXBean
+        ? ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() : -1L;
+  }
+  
+  /* Returns total time of garbage collections in milliseconds */
+  private static long readGcTime() {
+    long time = 0L;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      time += Math.max(0L, gc.getCollectionTime());
+    }
+    return time;
+  }
+  
+  /* Returns total number of garbage collections */
+  private static long readGcCount() {
+    long count = 0L;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0L, gc.getCollectionCount());
+    }
+    return count;
+  }
+  
+  /* Returns bytes allocated by each live thread or null if not supported */
+  private Map<Long, Long> readAllocatedBytes() {
+    if (!(threads instanceof com.sun.management.ThreadMXBean)
+        || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled()) {
+      return null;
+    }
+    final long[] ids = threads.getAllThreadIds();
+    final long[] bytes = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(ids);
+    final Map<Long, Long> allocated = new HashMap<>(ids.length * 2);
+    for (int i = 0; i < ids.length; i++) {
+      if (bytes[i] >= 0L) {
+        allocated.put(ids[i], bytes[i]);
+      }
+    }
+    return allocated;
+  }
+  
+}
@@ -0,0 +1,164 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import com.google.chcapi.perfdiag.profiler.HttpRequestMetrics;
+
+/**
+ * Thread-safe bounded collection of the slowest requests by total latency. Requests are kept in a
+ * min-heap of at most {@link #CAPACITY} elements, so memory is constant regardless of the number
+ * of requests. Once the heap is full, the latency of its fastest request is published as the
+ * threshold and faster requests are rejected without locking, so the vast majority of requests
+ * only pay for a volatile read. Only requests with known URI are kept.
+ */
+public class SlowestRequests {
+  
+  /**
+   * Maximum number of kept requests.
+   */
+  public static final int CAPACITY = 20;
+  
+  /* Order of requests from the fastest to the slowest, earlier request first on ties */
+  private static final Comparator<HttpRequestMetrics> ORDER =
+      Comparator.comparingLong(HttpRequestMetrics::getTotalLatency)
+          .thenComparing(Comparator.comparingLong(HttpRequestMetrics::getStartTime).reversed());
+  
+  /* DICOMweb path of study, series, instance and frames */
+  private static final Pattern DICOMWEB_PATH = Pattern.compile(
+      "/studies/([^/?]+)(?:/series/([^/?]+))?(?:/instances/([^/?]+))?(?:/frames/([^/?]+))?");
+  
+  /* Names of DICOMweb path components */
+  private static final String[] DICOMWEB_FIELDS = {"study", "series", "instance", "frames"};
+  
+  /**
+   * Min-heap of the slowest requests guarded by itself.
+   */
+  private final PriorityQueue<HttpRequestMetrics> heap = new PriorityQueue<>(CAPACITY, ORDER);
+  
+  /**
+   * Total latency of the fastest kept request once the heap is full, requests which are not slower
+   * are rejected.
+   */
+  private volatile long threshold = Long.MIN_VALUE;
+  
+  /**
+   * Adds the specified request if it is one of the slowest requests.
+   *
+   * @param metrics Metrics of the completed request.
+   */
+  public void add(HttpRequestMetrics metrics) {
+    if (metrics.getTotalLatency() <= threshold || metrics.getUri() == null) {
+      return;
+    }
+    synchronized (heap) {
+      if (heap.size() < CAPACITY) {
+        heap.add(metrics);
+      } else if (ORDER.compare(metrics, heap.peek()) > 0) {
+        heap.poll();
+        heap.add(metrics);
+      }
+      if (heap.size() == CAPACITY) {
+        threshold = heap.peek().getTotalLatency();
+      }
+    }
+  }
+  
+  /**
+   * Adds the slowest requests of the specified collection.
+   *
+   * @param other Collection of the slowest requests.
+   */
+  public void addAll(SlowestRequests other) {
+    for (HttpRequestMetrics metrics : other.getRequests()) {
+      add(metrics);
+    }
+  }
+  
+  /**
+   * Returns kept requests from the slowest to the fastest.
+   *
+   * @return The slowest requests.
+   */
+  public List<HttpRequestMetrics> getRequests() {
+    final List<HttpRequestMetrics> requests;
+    synchronized (heap) {
+      requests = new ArrayList<>(heap);
+    }
+    requests.sort(ORDER.reversed());
+    return requests;
+  }
+  
+  /**
+   * Writes kept requests from the slowest to the fastest to the specified JSON file. Each request
+   * has its start time, URI with study, series, instance and frames it retrieves, latencies in
+   * milliseconds, number of bytes read, cache status, connection reuse and traced response
+   * headers.
+   *
+   * @param file JSON file.
+   * @throws IOException if an IO error occurred.
+   */
+  public void write(File file) throws IOException {
+    try (JsonGenerator json = new JsonFactory().createGenerator(file, JsonEncoding.UTF8)) {
+      json.useDefaultPrettyPrinter();
+      json.writeStartObject();
+      json.writeArrayFieldStart("requests");
+      int rank = 1;
+      for (HttpRequestMetrics metrics : getRequests()) {
+        json.writeStartObject();
+        json.writeNumberField("rank", rank++);
+        json.writeStringField("startTime", Instant.ofEpochMilli(metrics.getStartTime()).toString());
+        json.writeStringField("uri", metrics.getUri());
+        final Matcher matcher = DICOMWEB_PATH.matcher(metrics.getUri());
+        if (matcher.find()) {
+          for (int i = 0; i < DICOMWEB_FIELDS.length; i++) {
+            if (matcher.group(i + 1) != null) {
+              json.writeStringField(DICOMWEB_FIELDS[i], matcher.group(i + 1));
+            }
+          }
+        }
+        json.writeNumberField("responseLatency", metrics.getResponseLatency());
+        json.writeNumberField("readLatency", metrics.getReadLatency());
+        json.writeNumberField("totalLatency", metrics.getTotalLatency());
+        json.writeNumberField("bytesRead", metrics.getBytesRead());
+        json.writeStringField("cacheStatus", metrics.getCacheStatus().name());
+        json.writeBooleanField("connectionReused", metrics.isConnectionReused());
+        json.writeObjectFieldStart("responseHeaders");
+        for (Map.Entry<String, String> header : metrics.getResponseHeaders().entrySet()) {
+          json.writeStringField(header.getKey(), header.getValue());
+        }
+        json.writeEndObject();
+        json.writeEndObject();
+      }
+      json.writeEndArray();
+      json.writeEndObject();
+    }
+  }
+  
+}
@@ -0,0 +1,349 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.io.FileNotFoundException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.chcapi.perfdiag.profiler.CacheStatus;
+import com.google.chcapi.perfdiag.profiler.HttpRequestMetrics;
+
+/**
+ * Timeline of requests in fixed-width time buckets written to CSV file while the benchmark runs.
+ * Each bucket counts requests completed within its interval, their bytes and latencies, and failed
+ * requests. Counters are striped ({@link LongAdder}) and latencies are recorded to striped
+ * {@link QuantileSketch sketches}, so worker threads rarely contend. A background thread writes
+ * a row for each elapsed bucket, including empty buckets, and discards it, so memory does not grow
+ * with the length of the run. A bucket is closed before it is written: requests being counted in
+ * it are waited for and requests completed later are counted in the next bucket to be written, so
+ * no request is lost. Each row has the following columns:
+ * <pre>
+ * TIME, ITERATION, REQUESTS, FAILURES, BYTES_READ, MB_READ_PER_SECOND, IN_FLIGHT,
+ * LATENCY_P50, LATENCY_P90, LATENCY_P99, LATENCY_MAX, CACHE_HITS, CACHE_MISSES
+ * </pre>
+ * where {@code TIME} is the end of the bucket in seconds since the start of the timeline,
+ * {@code IN_FLIGHT} is the number of requests being executed at the time the row is written and
+ * latencies are total latencies of completed requests in milliseconds. Completed requests with
+ * unknown cache status are counted neither as cache hits nor as misses.
+ */
+public class Timeline implements AutoCloseable {
+  
+  /* Number of latency sketches of a bucket */
+  private static final int STRIPES = 8;
+  
+  /* Bit of bucket state set once the bucket is closed */
+  private static final int CLOSED = 1 << 30;
+  
+  /**
+   * Stream to write rows to.
+   */
+  private final PrintStream output;
+  
+  /**
+   * Width of bucket in milliseconds.
+   */
+  private final long interval;
+  
+  /**
+   * Time in milliseconds when the timeline started.
+   */
+  private final long startTime;
+  
+  /**
+   * Buckets which have not been written yet by bucket index.
+   */
+  private final ConcurrentMap<Long, Bucket> buckets = new ConcurrentHashMap<>();
+  
+  /**
+   * Number of requests being executed.
+   */
+  private final LongAdder inFlight = new LongAdder();
+  
+  /**
+   * Thread writing elapsed buckets.
+   */
+  private final ScheduledExecutorService writer;
+  
+  /**
+   * Current iteration number.
+   */
+  private volatile int iteration;
+  
+  /**
+   * Index of the next bucket to write, buckets with lower index are closed or being closed.
+   */
+  private volatile long nextBucket;
+  
+  /**
+   * Creates the specified timeline file and starts writing buckets of the specified width.
+   *
+   * @param file Timeline file.
+   * @param interval Width of bucket in milliseconds.
+   * @throws FileNotFoundException if the file could not be created.
+   */
+  public Timeline(File file, long interval) throws FileNotFoundException {
+    this.output = new PrintStream(file);
+    this.interval = interval;
+    this.startTime = System.currentTimeMillis();
+    output.println("TIME, ITERATION, REQUESTS, FAILURES, BYTES_READ, MB_READ_PER_SECOND, "
+        + "IN_FLIGHT, LATENCY_P50, LATENCY_P90, LATENCY_P99, LATENCY_MAX, CACHE_HITS, "
+        + "CACHE_MISSES");
+    this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "timeline-writer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // A request completing late may still be counted in the previous bucket, so buckets are
+    // written one interval after they elapse
+    writer.scheduleAtFixedRate(
+        () -> writeBuckets(getBucketIndex(System.currentTimeMillis()) - 1L),
+        interval, interval, TimeUnit.MILLISECONDS);
+  }
+  
+  /**
+   * Sets current iteration number, buckets created later are attributed to this iteration.
+   *
+   * @param iteration Iteration number.
+   */
+  public void setIteration(int iteration) {
+    this.iteration = iteration;
+  }
+  
+  /**
+   * Counts request which started execution.
+   */
+  public void requestStarted() {
+    inFlight.increment();
+  }
+  
+  /**
+   * Counts completed request in the bucket of its end time.
+   *
+   * @param metrics Metrics of the completed request.
+   */
+  public void requestCompleted(HttpRequestMetrics metrics) {
+    inFlight.decrement();
+    final Bucket bucket = enterBucket(metrics.getEndTime());
+    try {
+      bucket.requests.increment();
+      bucket.bytesRead.add(metrics.getBytesRead());
+      if (metrics.getCacheStatus() == CacheStatus.HIT) {
+        bucket.cacheHits.increment();
+      } else if (metrics.getCacheStatus() == CacheStatus.MISS) {
+        bucket.cacheMisses.increment();
+      }
+      final QuantileSketch latencies =
+          bucket.latencies[(int) (Thread.currentThread().getId() % STRIPES)];
+      synchronized (latencies) {
+        latencies.add(metrics.getTotalLatency());
+      }
+    } finally {
+      bucket.exit();
+    }
+  }
+  
+  /**
+   * Counts failed request in the current bucket.
+   */
+  public void requestFailed() {
+    inFlight.decrement();
+    final Bucket bucket = enterBucket(System.currentTimeMillis());
+    try {
+      bucket.failures.increment();
+    } finally {
+      bucket.exit();
+    }
+  }
+  
+  /**
+   * Writes remaining buckets and closes the timeline file.
+   */
+  @Override
+  public void close() {
+    writer.shutdownNow();
+    try {
+      writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    writeBuckets(getBucketIndex(System.currentTimeMillis()));
+    output.close();
+  }
+  
+  /* Returns index of bucket of the specified time */
+  private long getBucketIndex(long time) {
+    return Math.max(0L, time - startTime) / interval;
+  }
+  
+  /* Enters bucket of the specified time or the next bucket to write if it is already closed */
+  private Bucket enterBucket(long time) {
+    while (true) {
+      final Bucket bucket = buckets.computeIfAbsent(Math.max(getBucketIndex(time), nextBucket),
+          this::createBucket);
+      if (bucket != null && bucket.enter()) {
+        return bucket;
+      }
+      // The bucket was closed in the meantime, count the request in the next bucket to write
+    }
+  }
+  
+  /* Creates bucket with the specified index or returns null if the bucket is already closed */
+  private Bucket createBucket(long index) {
+    return index < nextBucket ? null : new Bucket(iteration);
+  }
+  
+  /* Closes, writes and discards buckets up to the specified index inclusive */
+  private synchronized void writeBuckets(long lastBucket) {
+    for (long index = nextBucket; index <= lastBucket; index++) {
+      // Requests completed from now on are counted in later buckets, the bucket is removed only
+      // then, so it cannot be created again, and closed once requests being counted in it exit
+      nextBucket = index + 1L;
+      final Bucket bucket = buckets.remove(index);
+      final QuantileSketch latencies = new QuantileSketch();
+      long requests = 0L;
+      long failures = 0L;
+      long bytesRead = 0L;
+      long cacheHits = 0L;
+      long cacheMisses = 0L;
+      int bucketIteration = iteration;
+      if (bucket != null) {
+        bucket.close();
+        for (QuantileSketch stripe : bucket.latencies) {
+          latencies.merge(stripe);
+        }
+        requests = bucket.requests.sum();
+        failures = bucket.failures.sum();
+        bytesRead = bucket.bytesRead.sum();
+        cacheHits = bucket.cacheHits.sum();
+        cacheMisses = bucket.cacheMisses.sum();
+        bucketIteration = bucket.iteration;
+      }
+      final double transferRate = (double) bytesRead / (double) interval / 1048.576;
+      output.printf(Locale.US, "%.3f, %d, %d, %d, %d, %.3f, %d, %.0f, %.0f, %.0f, %.0f, %d, %d%n",
+          (index + 1L) * interval / 1000.0, bucketIteration, requests, failures, bytesRead,
+          transferRate, inFlight.sum(), getQuantile(latencies, 0.5), getQuantile(latencies, 0.9),
+          getQuantile(latencies, 0.99), getQuantile(latencies, 1.0), cacheHits, cacheMisses);
+    }
+    output.flush();
+  }
+  
+  /* Returns quantile of the sketch or zero if the sketch is empty */
+  private static double getQuantile(QuantileSketch sketch, double quantile) {
+    return sketch.getCount() == 0L ? 0.0 : sketch.getQuantile(quantile);
+  }
+  
+  /**
+   * Counters of a single bucket.
+   */
+  private static class Bucket {
+    
+    /**
+     * Iteration the bucket was created in.
+     */
+    private final int iteration;
+    
+    /**
+     * Number of completed requests.
+     */
+    private final LongAdder requests = new LongAdder();
+    
+    /**
+     * Number of failed requests.
+     */
+    private final LongAdder failures = new LongAdder();
+    
+    /**
+     * Number of bytes read by completed requests.
+     */
+    private final LongAdder bytesRead = new LongAdder();
+    
+    /**
+     * Number of completed requests which were cache hits.
+     */
+    private final LongAdder cacheHits = new LongAdder();
+    
+    /**
+     * Number of completed requests which were cache misses.
+     */
+    private final LongAdder cacheMisses = new LongAdder();
+    
+    /**
+     * Striped sketches of total latencies of completed requests.
+     */
+    private final QuantileSketch[] latencies = new QuantileSketch[STRIPES];
+    
+    /**
+     * Number of threads counting requests in the bucket, {@link #CLOSED} bit is set once the
+     * bucket is closed.
+     */
+    private final AtomicInteger state = new AtomicInteger();
+    
+    /**
+     * Constructs a new empty {@code Bucket}.
+     *
+     * @param iteration Iteration the bucket is created in.
+     */
+    Bucket(int iteration) {
+      this.iteration = iteration;
+      for (int i = 0; i < STRIPES; i++) {
+        latencies[i] = new QuantileSketch();
+      }
+    }
+    
+    /**
+     * Enters the bucket to count a request in it unless the bucket is closed.
+     *
+     * @return {@code true} if the bucket was entered and must be exited.
+     */
+    boolean enter() {
+      while (true) {
+        final int current = state.get();
+        if ((current & CLOSED) != 0) {
+          return false;
+        } else if (state.compareAndSet(current, current + 1)) {
+          return true;
+        }
+      }
+    }
+    
+    /**
+     * Exits the bucket entered by {@link #enter()}.
+     */
+    void exit() {
+      state.decrementAndGet();
+    }
+    
+    /**
+     * Closes the bucket and waits until all threads counting requests in it exit.
+     */
+    void close() {
+      state.getAndUpdate(current -> current | CLOSED);
+      while (state.get() != CLOSED) {
+        Thread.yield();
+      }
+    }
+  
+  }
+  
+}
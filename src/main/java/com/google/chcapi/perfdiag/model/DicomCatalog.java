@@ -0,0 +1,305 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.model;
+
+import java.util.Arrays;
+
+/**
+ * Compact list of DICOM objects returned by QIDO requests. Only the attributes required by the
+ * benchmarks are kept (study, series and instance UIDs, number of frames and number of related
+ * instances), stored in parallel primitive arrays instead of one object per row. UIDs are kept as
+ * UTF-8 bytes in a shared {@link UidArena} and rows refer to them by index; study and series UIDs
+ * are deduplicated, so rows of the same study or series share the same index. Rows are accessed by
+ * index and UID strings are decoded only when requested.
+ *
+ * @see QidoResponseParser
+ */
+public class DicomCatalog implements QidoResponseParser.Handler {
+
+  /** Default initial capacity. */
+  private static final int DEFAULT_CAPACITY = 64;
+
+  /** Index of UID not available. */
+  public static final int NO_UID = -1;
+
+  /** Storage of UIDs. */
+  private final UidArena uids;
+
+  /** Indexes of study UIDs. */
+  private int[] studyUIDs;
+
+  /** Indexes of series UIDs. */
+  private int[] seriesUIDs;
+
+  /** Indexes of instance UIDs. */
+  private int[] instanceUIDs;
+
+  /** Number of frames. */
+  private int[] frameCounts;
+
+  /** Number of related instances. */
+  private int[] instanceCounts;
+
+  /** Number of rows. */
+  private int size;
+
+  /** Total number of frames of all rows. */
+  private long totalFrames;
+
+  /**
+   * Constructs a new empty {@code DicomCatalog}.
+   */
+  public DicomCatalog() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructs a new empty {@code DicomCatalog} with the specified initial capacity.
+   *
+   * @param capacity Initial capacity.
+   */
+  public DicomCatalog(int capacity) {
+    final int initialCapacity = Math.max(capacity, 1);
+    this.uids = new UidArena();
+    this.studyUIDs = new int[initialCapacity];
+    this.seriesUIDs = new int[initialCapacity];
+    this.instanceUIDs = new int[initialCapacity];
+    this.frameCounts = new int[initialCapacity];
+    this.instanceCounts = new int[initialCapacity];
+  }
+
+  /**
+   * Constructs a new {@code DicomCatalog} with the specified content.
+   *
+   * @param uids Storage of UIDs.
+   * @param columns Indexes of study, series and instance UIDs, number of frames and number of
+   *        related instances.
+   * @param size Number of rows.
+   */
+  DicomCatalog(UidArena uids, int[][] columns, int size) {
+    this.uids = uids;
+    this.studyUIDs = columns[0];
+    this.seriesUIDs = columns[1];
+    this.instanceUIDs = columns[2];
+    this.frameCounts = columns[3];
+    this.instanceCounts = columns[4];
+    this.size = size;
+    for (int row = 0; row < size; row++) {
+      totalFrames += frameCounts[row];
+    }
+  }
+
+  /**
+   * Adds a new row to the catalog.
+   *
+   * @param studyUID UID of DICOM study or {@code null} if not available.
+   * @param seriesUID UID of DICOM series or {@code null} if not available.
+   * @param instanceUID UID of DICOM instance or {@code null} if not available.
+   * @param numberOfFrames Number of frames.
+   * @param numberOfInstances Number of related instances or {@code 0} if not available.
+   */
+  @Override
+  public void onAttributes(String studyUID, String seriesUID, String instanceUID,
+      int numberOfFrames, int numberOfInstances) {
+    if (size == frameCounts.length) {
+      final int capacity = size + (size >> 1) + 1;
+      studyUIDs = Arrays.copyOf(studyUIDs, capacity);
+      seriesUIDs = Arrays.copyOf(seriesUIDs, capacity);
+      instanceUIDs = Arrays.copyOf(instanceUIDs, capacity);
+      frameCounts = Arrays.copyOf(frameCounts, capacity);
+      instanceCounts = Arrays.copyOf(instanceCounts, capacity);
+    }
+    studyUIDs[size] = studyUID == null ? NO_UID : uids.intern(studyUID);
+    seriesUIDs[size] = seriesUID == null ? NO_UID : uids.intern(seriesUID);
+    instanceUIDs[size] = instanceUID == null ? NO_UID : uids.add(instanceUID);
+    frameCounts[size] = numberOfFrames;
+    instanceCounts[size] = numberOfInstances;
+    totalFrames += numberOfFrames;
+    size++;
+  }
+
+  /**
+   * Returns number of rows.
+   *
+   * @return Number of rows.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns total number of frames of all rows.
+   *
+   * @return Total number of frames.
+   */
+  public long getTotalFrames() {
+    return totalFrames;
+  }
+
+  /**
+   * Returns UID of DICOM study at the specified row or {@code null} if not available.
+   *
+   * @param row Row index.
+   * @return UID of DICOM study.
+   */
+  public String getStudyUID(int row) {
+    return decode(studyUIDs[checkRow(row)]);
+  }
+
+  /**
+   * Returns index of DICOM study UID at the specified row or {@link #NO_UID} if not available. Rows
+   * of the same study have the same index, so rows can be grouped without decoding UIDs.
+   *
+   * @param row Row index.
+   * @return Index of DICOM study UID.
+   */
+  public int getStudyIndex(int row) {
+    return studyUIDs[checkRow(row)];
+  }
+
+  /**
+   * Returns UID of DICOM series at the specified row or {@code null} if not available.
+   *
+   * @param row Row index.
+   * @return UID of DICOM series.
+   */
+  public String getSeriesUID(int row) {
+    return decode(seriesUIDs[checkRow(row)]);
+  }
+
+  /**
+   * Returns index of DICOM series UID at the specified row or {@link #NO_UID} if not available.
+   * Rows of the same series have the same index, so rows can be grouped without decoding UIDs.
+   *
+   * @param row Row index.
+   * @return Index of DICOM series UID.
+   */
+  public int getSeriesIndex(int row) {
+    return seriesUIDs[checkRow(row)];
+  }
+
+  /**
+   * Returns UID of DICOM instance at the specified row or {@code null} if not available.
+   *
+   * @param row Row index.
+   * @return UID of DICOM instance.
+   */
+  public String getInstanceUID(int row) {
+    return decode(instanceUIDs[checkRow(row)]);
+  }
+
+  /**
+   * Returns index of DICOM instance UID at the specified row or {@link #NO_UID} if not available,
+   * so the availability of the UID can be checked without decoding it.
+   *
+   * @param row Row index.
+   * @return Index of DICOM instance UID.
+   */
+  public int getInstanceIndex(int row) {
+    return instanceUIDs[checkRow(row)];
+  }
+
+  /**
+   * Returns number of frames at the specified row.
+   *
+   * @param row Row index.
+   * @return Number of frames.
+   */
+  public int getNumberOfFrames(int row) {
+    return frameCounts[checkRow(row)];
+  }
+
+  /**
+   * Returns number of study or series related instances at the specified row or {@code 0} if not
+   * available.
+   *
+   * @param row Row index.
+   * @return Number of related instances.
+   */
+  public int getNumberOfInstances(int row) {
+    return instanceCounts[checkRow(row)];
+  }
+
+  /**
+   * Returns row indexes ordered by number of related instances, largest first. Rows with equal
+   * number of instances keep their listing order.
+   *
+   * @return Row indexes ordered by number of related instances.
+   */
+  public int[] getRowsLargestFirst() {
+    // Sort (inverted size, row) pairs packed into primitive longs
+    final long[] keys = new long[size];
+    for (int row = 0; row < size; row++) {
+      keys[row] = ((long) (Integer.MAX_VALUE - instanceCounts[row]) << 32) | row;
+    }
+    Arrays.sort(keys);
+    final int[] rows = new int[size];
+    for (int i = 0; i < size; i++) {
+      rows[i] = (int) keys[i];
+    }
+    return rows;
+  }
+
+  /**
+   * Returns number of distinct UIDs stored in the catalog.
+   *
+   * @return Number of distinct UIDs.
+   */
+  public int getUidCount() {
+    return uids.size();
+  }
+
+  /**
+   * Returns number of bytes used by encoded UIDs.
+   *
+   * @return Number of bytes used by encoded UIDs.
+   */
+  public int getUidByteCount() {
+    return uids.getByteCount();
+  }
+
+  /**
+   * Returns storage of UIDs.
+   *
+   * @return Storage of UIDs.
+   */
+  UidArena getUids() {
+    return uids;
+  }
+
+  /**
+   * Returns columns of the catalog: indexes of study, series and instance UIDs, number of frames and
+   * number of related instances. Only first {@link #size()} values of each column are used.
+   *
+   * @return Columns of the catalog.
+   */
+  int[][] getColumns() {
+    return new int[][] {studyUIDs, seriesUIDs, instanceUIDs, frameCounts, instanceCounts};
+  }
+
+  /* Decodes UID with the specified index */
+  private String decode(int index) {
+    return index == NO_UID ? null : uids.get(index);
+  }
+
+  /* Checks row index bounds */
+  private int checkRow(int row) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size);
+    }
+    return row;
+  }
+
+}
@@ -0,0 +1,162 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary file storing {@link DicomCatalog} so that QIDO listing does not have to be repeated. The
+ * file holds the key the catalog was listed for (the listing request URI), creation time, the UID
+ * arena and the primitive columns of the catalog. The file is memory-mapped on load and the
+ * columns are copied in bulk, so loading takes milliseconds even for millions of rows.
+ *
+ * <p>All numbers are big-endian. The layout is:
+ * <pre>
+ * int     magic ('DCAT')
+ * int     version
+ * long    creation time in milliseconds
+ * int     key length, followed by UTF-8 bytes of key
+ * int     number of rows
+ * int     number of UIDs
+ * int     number of UID bytes
+ * int[]   end offsets of UIDs
+ * byte[]  UTF-8 bytes of UIDs
+ * int[][] study, series and instance UID indexes, number of frames, number of related instances
+ * </pre>
+ */
+public final class ManifestFile {
+
+  /** Magic number of manifest file. */
+  private static final int MAGIC = 0x44434154;
+
+  /** Version of file layout. */
+  private static final int VERSION = 1;
+
+  /** Number of catalog columns. */
+  private static final int COLUMNS = 5;
+
+  /* Do not allow instances */
+  private ManifestFile() {
+    throw new IllegalAccessError();
+  }
+
+  /**
+   * Writes the catalog to the specified file. The file is written next to the target and then
+   * moved, so readers never see a partially written file.
+   *
+   * @param file File to write to.
+   * @param key Key the catalog was listed for.
+   * @param catalog Catalog to write.
+   * @throws IOException if an IO error occurred.
+   */
+  public static void write(File file, String key, DicomCatalog catalog) throws IOException {
+    final File temp = new File(file.getPath() + ".tmp");
+    final UidArena uids = catalog.getUids();
+    final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    try (DataOutputStream output = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeLong(System.currentTimeMillis());
+      output.writeInt(keyBytes.length);
+      output.write(keyBytes);
+      output.writeInt(catalog.size());
+      output.writeInt(uids.size());
+      output.writeInt(uids.getByteCount());
+      final int[] ends = uids.getEnds();
+      for (int i = 0; i < uids.size(); i++) {
+        output.writeInt(ends[i]);
+      }
+      output.write(uids.getBytes(), 0, uids.getByteCount());
+      for (int[] column : catalog.getColumns()) {
+        for (int row = 0; row < catalog.size(); row++) {
+          output.writeInt(column[row]);
+        }
+      }
+    }
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads catalog from the specified file if it exists, was written for the specified key and is
+   * not older than the specified age.
+   *
+   * @param file File to read from.
+   * @param key Key the catalog should be listed for.
+   * @param maxAge Maximum age of the file in milliseconds or {@code 0} if the file never expires.
+   * @return Catalog read from the file or {@code null} if file does not exist, was written for
+   *         another key or expired.
+   * @throws IOException if an IO error occurred or the file is not a manifest file.
+   */
+  public static DicomCatalog read(File file, String key, long maxAge) throws IOException {
+    if (!file.isFile()) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final MappedByteBuffer buffer =
+          channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+      if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        throw new IOException("Not a manifest file: " + file);
+      }
+      final long createdTime = buffer.getLong();
+      if (maxAge > 0L && System.currentTimeMillis() - createdTime > maxAge) {
+        return null;
+      }
+      final byte[] keyBytes = new byte[buffer.getInt()];
+      buffer.get(keyBytes);
+      if (!key.equals(new String(keyBytes, StandardCharsets.UTF_8))) {
+        return null;
+      }
+      final int size = buffer.getInt();
+      final int uidCount = buffer.getInt();
+      final int uidBytes = buffer.getInt();
+      final int[] ends = readInts(buffer, uidCount);
+      final byte[] bytes = new byte[uidBytes];
+      buffer.get(bytes);
+      final int[][] columns = new int[COLUMNS][];
+      for (int i = 0; i < COLUMNS; i++) {
+        columns[i] = readInts(buffer, size);
+      }
+      return new DicomCatalog(new UidArena(bytes, uidBytes, ends, uidCount), columns, size);
+    } catch (RuntimeException e) {
+      // Truncated or corrupted file
+      throw new IOException("Malformed manifest file: " + file, e);
+    }
+  }
+
+  /* Reads array of integers in bulk and advances buffer position */
+  private static int[] readInts(ByteBuffer buffer, int count) {
+    final int[] values = new int[count];
+    buffer.asIntBuffer().get(values);
+    // Cast keeps the call binary compatible with Java 8 runtime
+    ((Buffer) buffer).position(buffer.position() + count * Integer.BYTES);
+    return values;
+  }
+
+}
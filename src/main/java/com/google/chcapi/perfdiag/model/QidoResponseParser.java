@@ -0,0 +1,189 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Streaming parser of QIDO (DICOM JSON) responses. Unlike mapping the response to a list of
+ * {@link Attributes}, the parser reads the response directly from the input stream and extracts
+ * only the attributes required by the benchmarks, so the whole response never has to be buffered.
+ *
+ * @see DicomCatalog
+ */
+public final class QidoResponseParser {
+
+  /* Do not allow instances */
+  private QidoResponseParser() {
+    throw new IllegalAccessError();
+  }
+
+  /**
+   * Callback which receives attributes of each DICOM object as soon as it is parsed.
+   */
+  public interface Handler {
+
+    /**
+     * Invoked for each DICOM object of the QIDO response.
+     *
+     * @param studyUID UID of DICOM study or {@code null} if not available.
+     * @param seriesUID UID of DICOM series or {@code null} if not available.
+     * @param instanceUID UID of DICOM instance or {@code null} if not available.
+     * @param numberOfFrames Number of frames or {@code 1} if not available.
+     * @param numberOfInstances Number of study or series related instances or {@code 0} if not
+     *        available.
+     * @throws IOException if the object could not be handled.
+     */
+    void onAttributes(String studyUID, String seriesUID, String instanceUID, int numberOfFrames,
+        int numberOfInstances) throws IOException;
+
+  }
+
+  /** DICOM study UID tag. */
+  public static final String STUDY_UID = "0020000D";
+
+  /** DICOM series UID tag. */
+  public static final String SERIES_UID = "0020000E";
+
+  /** DICOM instance UID tag. */
+  public static final String INSTANCE_UID = "00080018";
+
+  /** DICOM number of frames tag. */
+  public static final String NUMBER_OF_FRAMES = "00280008";
+
+  /** DICOM number of study related instances tag. */
+  public static final String NUMBER_OF_STUDY_RELATED_INSTANCES = "00201208";
+
+  /** DICOM number of series related instances tag. */
+  public static final String NUMBER_OF_SERIES_RELATED_INSTANCES = "00201209";
+
+  /** DICOM JSON attribute value property. */
+  private static final String VALUE = "Value";
+
+  /* Factory of JSON parsers */
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  /**
+   * Parses QIDO response from the specified stream into a new {@link DicomCatalog}.
+   *
+   * @param input Stream to read QIDO response from.
+   * @return Catalog of parsed DICOM objects.
+   * @throws IOException if an IO error occurred or response is malformed.
+   */
+  public static DicomCatalog parse(InputStream input) throws IOException {
+    final DicomCatalog catalog = new DicomCatalog();
+    parse(input, catalog);
+    return catalog;
+  }
+
+  /**
+   * Parses QIDO response from the specified stream and passes attributes of each DICOM object to
+   * the specified handler. The stream is not closed.
+   *
+   * @param input Stream to read QIDO response from.
+   * @param handler Handler of parsed DICOM objects.
+   * @throws IOException if an IO error occurred or response is malformed.
+   */
+  public static void parse(InputStream input, Handler handler) throws IOException {
+    try (JsonParser parser = FACTORY.createParser(input)) {
+      parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+      JsonToken token = parser.nextToken();
+      if (token == null) {
+        // Empty response (HTTP 204 or empty body)
+        return;
+      }
+      if (token != JsonToken.START_ARRAY) {
+        throw new JsonParseException(parser, "Array of DICOM objects expected");
+      }
+      while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+        parseObject(parser, handler);
+      }
+      if (token != JsonToken.END_ARRAY) {
+        throw new JsonParseException(parser, "DICOM object expected");
+      }
+    }
+  }
+
+  /* Parses single DICOM object and passes its attributes to the handler */
+  private static void parseObject(JsonParser parser, Handler handler) throws IOException {
+    String studyUID = null;
+    String seriesUID = null;
+    String instanceUID = null;
+    int numberOfFrames = 1;
+    int numberOfInstances = 0;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final String tag = parser.getCurrentName();
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        // Not a DICOM attribute
+        parser.skipChildren();
+      } else if (STUDY_UID.equals(tag)) {
+        studyUID = parseFirstValue(parser);
+      } else if (SERIES_UID.equals(tag)) {
+        seriesUID = parseFirstValue(parser);
+      } else if (INSTANCE_UID.equals(tag)) {
+        instanceUID = parseFirstValue(parser);
+      } else if (NUMBER_OF_FRAMES.equals(tag)) {
+        numberOfFrames = parseIntValue(parser, numberOfFrames);
+      } else if (NUMBER_OF_STUDY_RELATED_INSTANCES.equals(tag)
+          || NUMBER_OF_SERIES_RELATED_INSTANCES.equals(tag)) {
+        numberOfInstances = parseIntValue(parser, numberOfInstances);
+      } else {
+        parser.skipChildren();
+      }
+    }
+    handler.onAttributes(studyUID, seriesUID, instanceUID, numberOfFrames, numberOfInstances);
+  }
+
+  /* Returns first value of DICOM attribute as integer or default value if not available */
+  private static int parseIntValue(JsonParser parser, int defaultValue) throws IOException {
+    final String value = parseFirstValue(parser);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw new JsonParseException(parser, "Invalid integer value: " + value);
+    }
+  }
+
+  /* Returns first value of DICOM attribute as text or null if not available */
+  private static String parseFirstValue(JsonParser parser) throws IOException {
+    String result = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final String name = parser.getCurrentName();
+      final JsonToken token = parser.nextToken();
+      if (VALUE.equals(name) && token == JsonToken.START_ARRAY) {
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          if (result == null && parser.currentToken().isScalarValue()) {
+            result = parser.getValueAsString();
+          } else {
+            parser.skipChildren();
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return result;
+  }
+
+}
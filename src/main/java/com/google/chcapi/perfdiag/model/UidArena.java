@@ -0,0 +1,256 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.model;
+
+import java.util.Arrays;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Append-only storage of UIDs encoded as UTF-8 bytes in a single shared byte array. Each stored UID
+ * is identified by its index. UIDs added by {@link #intern(String)} are deduplicated, so the same
+ * study or series UID repeated in many rows is stored only once.
+ */
+final class UidArena {
+
+  /** Initial capacity of byte array. */
+  private static final int INITIAL_BYTES = 4096;
+
+  /** Initial capacity of UID offsets. */
+  private static final int INITIAL_UIDS = 64;
+
+  /** Encoded UIDs. */
+  private byte[] bytes = new byte[INITIAL_BYTES];
+
+  /** Number of used bytes. */
+  private int length;
+
+  /** End offsets of UIDs, start offset of UID is end offset of the previous one. */
+  private int[] ends = new int[INITIAL_UIDS];
+
+  /** Number of stored UIDs. */
+  private int count;
+
+  /** Open addressing hash table of interned UID indexes plus one, zero marks empty slot. */
+  private int[] table = new int[INITIAL_UIDS];
+
+  /** Number of interned UIDs. */
+  private int interned;
+
+  /**
+   * Constructs a new empty {@code UidArena}.
+   */
+  UidArena() {
+    super();
+  }
+
+  /**
+   * Constructs a new {@code UidArena} with the specified content. UIDs are interned again on the
+   * first call of {@link #intern(String)}.
+   *
+   * @param bytes Encoded UIDs.
+   * @param length Number of used bytes.
+   * @param ends End offsets of UIDs.
+   * @param count Number of UIDs.
+   */
+  UidArena(byte[] bytes, int length, int[] ends, int count) {
+    this.bytes = bytes.length == 0 ? new byte[INITIAL_BYTES] : bytes;
+    this.length = length;
+    this.ends = ends.length == 0 ? new int[INITIAL_UIDS] : ends;
+    this.count = count;
+    this.table = null;
+  }
+
+  /**
+   * Stores the specified UID without deduplication.
+   *
+   * @param uid UID to store.
+   * @return Index of the stored UID.
+   */
+  int add(String uid) {
+    return append(uid.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Stores the specified UID unless an equal UID has been already interned.
+   *
+   * @param uid UID to store.
+   * @return Index of the stored UID.
+   */
+  int intern(String uid) {
+    if (table == null) {
+      rebuildTable();
+    }
+    final byte[] encoded = uid.getBytes(StandardCharsets.UTF_8);
+    final int mask = table.length - 1;
+    for (int slot = hash(encoded, 0, encoded.length) & mask;; slot = (slot + 1) & mask) {
+      final int index = table[slot] - 1;
+      if (index < 0) {
+        final int added = append(encoded);
+        table[slot] = added + 1;
+        if (++interned * 2 > table.length) {
+          rehash();
+        }
+        return added;
+      } else if (equals(index, encoded)) {
+        return index;
+      }
+    }
+  }
+
+  /**
+   * Returns UID with the specified index.
+   *
+   * @param index UID index.
+   * @return UID decoded from the arena.
+   */
+  String get(int index) {
+    final int start = start(index);
+    return new String(bytes, start, ends[index] - start, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns number of stored UIDs.
+   *
+   * @return Number of stored UIDs.
+   */
+  int size() {
+    return count;
+  }
+
+  /**
+   * Returns number of bytes used by encoded UIDs.
+   *
+   * @return Number of bytes used by encoded UIDs.
+   */
+  int getByteCount() {
+    return length;
+  }
+
+  /**
+   * Returns array of encoded UIDs, only first {@link #getByteCount()} bytes are used.
+   *
+   * @return Array of encoded UIDs.
+   */
+  byte[] getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Returns array of end offsets of UIDs, only first {@link #size()} offsets are used.
+   *
+   * @return Array of end offsets of UIDs.
+   */
+  int[] getEnds() {
+    return ends;
+  }
+
+  /* Interns all stored UIDs, rows of loaded catalog refer to the first occurrence of UID */
+  private void rebuildTable() {
+    int capacity = INITIAL_UIDS;
+    while (capacity < count * 2) {
+      capacity *= 2;
+    }
+    table = new int[capacity];
+    interned = 0;
+    final int mask = capacity - 1;
+    for (int index = 0; index < count; index++) {
+      final int start = start(index);
+      int slot = hash(bytes, start, ends[index]) & mask;
+      while (table[slot] != 0 && !equals(table[slot] - 1, start, ends[index])) {
+        slot = (slot + 1) & mask;
+      }
+      if (table[slot] == 0) {
+        table[slot] = index + 1;
+        interned++;
+      }
+    }
+  }
+
+  /* Appends encoded UID to the arena */
+  private int append(byte[] encoded) {
+    if (length + encoded.length > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(length + encoded.length, length + (length >> 1)));
+    }
+    if (count == ends.length) {
+      ends = Arrays.copyOf(ends, count + (count >> 1) + 1);
+    }
+    System.arraycopy(encoded, 0, bytes, length, encoded.length);
+    length += encoded.length;
+    ends[count] = length;
+    return count++;
+  }
+
+  /* Returns start offset of UID */
+  private int start(int index) {
+    return index == 0 ? 0 : ends[index - 1];
+  }
+
+  /* Compares two stored UIDs */
+  private boolean equals(int index, int otherStart, int otherEnd) {
+    final int start = start(index);
+    if (ends[index] - start != otherEnd - otherStart) {
+      return false;
+    }
+    for (int i = 0; i < otherEnd - otherStart; i++) {
+      if (bytes[start + i] != bytes[otherStart + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* Compares stored UID with the encoded one */
+  private boolean equals(int index, byte[] encoded) {
+    final int start = start(index);
+    if (ends[index] - start != encoded.length) {
+      return false;
+    }
+    for (int i = 0; i < encoded.length; i++) {
+      if (bytes[start + i] != encoded[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* Doubles hash table and reinserts interned UIDs */
+  private void rehash() {
+    final int[] previous = table;
+    table = new int[previous.length * 2];
+    final int mask = table.length - 1;
+    for (int entry : previous) {
+      if (entry != 0) {
+        final int index = entry - 1;
+        final int start = start(index);
+        int slot = hash(bytes, start, ends[index]) & mask;
+        while (table[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        table[slot] = entry;
+      }
+    }
+  }
+
+  /* Computes hash of bytes range with spread of high bits */
+  private static int hash(byte[] data, int from, int to) {
+    int h = 1;
+    for (int i = from; i < to; i++) {
+      h = 31 * h + data[i];
+    }
+    return h ^ (h >>> 16);
+  }
+
+}
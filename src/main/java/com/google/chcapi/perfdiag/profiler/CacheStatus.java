@@ -14,11 +14,13 @@
 
 package com.google.chcapi.perfdiag.profiler;
 
+import java.util.regex.Pattern;
+
 import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 
 /**
- * Enumerates cache statuses from {@code X-Cache-Status} or {@code X-Cache} response headers.
+ * Enumerates cache statuses from cache headers of responses.
  * 
  * @author Mikhail Ukhlin
  */
@@ -47,6 +49,19 @@ public enum CacheStatus {
     }
   };
   
+  /* Hit parameter of a cache in Cache-Status header */
+  private static final Pattern CACHE_STATUS_HIT = Pattern.compile(";\\s*hit\\b");
+  
+  /* Forward parameter of a cache in Cache-Status header */
+  private static final Pattern CACHE_STATUS_MISS = Pattern.compile(";\\s*fwd\\s*=");
+  
+  /* Hit in a comment of Via header or Apache Traffic Server fresh or RAM cache hit code, host
+     names such as hit-proxy are outside of comments */
+  private static final Pattern VIA_HIT = Pattern.compile("\\([^)]*(?:\\bHIT\\b|\\[C[HR])");
+  
+  /* Miss in a comment of Via header or Apache Traffic Server cache miss or stale code */
+  private static final Pattern VIA_MISS = Pattern.compile("\\([^)]*(?:\\bMISS\\b|\\[C[MS])");
+  
   /**
    * Increments the specified number of cache hits if applicable.
    * 
@@ -68,42 +83,101 @@ public enum CacheStatus {
   }
   
   /**
-   * Returns cache status obtained from {@code X-Cache-Status} or {@code X-Cache} headers of the
-   * specified HTTP response.
+   * Returns cache status obtained from cache headers of the specified HTTP response. Headers are
+   * tried in the following order:
+   * <ul>
+   *   <li>{@code X-Cache-Status} (nginx) and {@code CF-Cache-Status} (Cloudflare)</li>
+   *   <li>{@code X-Cache} (Squid, Varnish, CloudFront, Fastly), where the last of listed caches
+   *   is the closest to the client</li>
+   *   <li>{@code Cache-Status} (RFC 9211), where {@code hit} parameter means hit and
+   *   {@code fwd} parameter means miss</li>
+   *   <li>{@code Via} with hit or miss mentioned in a comment or Apache Traffic Server cache
+   *   codes</li>
+   *   <li>{@code Age} greater than zero, which only a cache adds</li>
+   * </ul>
    * 
    * @param response HTTP response.
-   * @return Cache status obtained from {@code X-Cache-Status} or {@code X-Cache} headers of the
-   *         specified HTTP response.
+   * @return Cache status obtained from cache headers of the specified HTTP response.
    */
   public static CacheStatus fromResponse(HttpResponse response) {
-    Header header;
+    CacheStatus status;
     // Try X-Cache-Status
-    header = response.getFirstHeader("X-Cache-Status");
+    status = fromStatusHeader(response.getFirstHeader("X-Cache-Status"));
+    if (status != NA) {
+      return status;
+    }
+    // Try CF-Cache-Status
+    status = fromStatusHeader(response.getFirstHeader("CF-Cache-Status"));
+    if (status != NA) {
+      return status;
+    }
+    // Try X-Cache, the last of listed caches is the closest to the client
+    Header header = response.getFirstHeader("X-Cache");
     if (header != null) {
       String value = header.getValue();
       if (value != null) {
-        value = value.toUpperCase();
-        if (value.equals("HIT")) {
+        value = value.substring(value.lastIndexOf(',') + 1).trim().toUpperCase();
+        if (value.equals("HIT") || value.contains("HIT FROM")) {
           return HIT;
-        } else if (value.equals("MISS")) {
+        } else if (value.equals("MISS") || value.contains("MISS FROM")) {
           return MISS;
         }
       }
     }
-    // Try X-Cache
-    header = response.getFirstHeader("X-Cache");
+    // Try Cache-Status, the last cache is the closest to the client
+    header = response.getLastHeader("Cache-Status");
+    if (header != null && header.getValue() != null) {
+      final String[] caches = header.getValue().toLowerCase().split(",");
+      final String cache = caches[caches.length - 1];
+      if (CACHE_STATUS_HIT.matcher(cache).find()) {
+        return HIT;
+      } else if (CACHE_STATUS_MISS.matcher(cache).find()) {
+        return MISS;
+      }
+    }
+    // Try Via
+    header = response.getLastHeader("Via");
+    if (header != null && header.getValue() != null) {
+      final String value = header.getValue().toUpperCase();
+      if (VIA_HIT.matcher(value).find()) {
+        return HIT;
+      } else if (VIA_MISS.matcher(value).find()) {
+        return MISS;
+      }
+    }
+    // Try Age
+    header = response.getFirstHeader("Age");
+    if (header != null && header.getValue() != null) {
+      try {
+        if (Long.parseLong(header.getValue().trim()) > 0L) {
+          return HIT;
+        }
+      } catch (NumberFormatException e) {
+        // Ignore malformed age
+      }
+    }
+    // Unknown cache status
+    return NA;
+  }
+  
+  /**
+   * Returns cache status from the value of {@code X-Cache-Status} or {@code CF-Cache-Status}
+   * header. Stale and revalidated responses are served from the cache, expired responses are
+   * fetched from the origin server.
+   */
+  private static CacheStatus fromStatusHeader(Header header) {
     if (header != null) {
       String value = header.getValue();
       if (value != null) {
-        value = value.toUpperCase();
-        if (value.equals("HIT") || value.contains("HIT FROM")) {
+        value = value.trim().toUpperCase();
+        if (value.equals("HIT") || value.equals("STALE") || value.equals("REVALIDATED")
+            || value.equals("UPDATING")) {
           return HIT;
-        } else if (value.equals("MISS") || value.contains("MISS FROM")) {
+        } else if (value.equals("MISS") || value.equals("EXPIRED")) {
           return MISS;
         }
       }
     }
-    // Unknown cache status
     return NA;
   }
   
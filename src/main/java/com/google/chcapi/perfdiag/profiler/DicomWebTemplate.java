@@ -0,0 +1,167 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.profiler;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import com.google.chcapi.perfdiag.benchmark.config.DicomStoreConfig;
+import com.google.chcapi.perfdiag.benchmark.config.DicomStudyConfig;
+
+/**
+ * Precompiled DICOMweb URIs of a DICOM store. The root URI of the store is encoded once when the
+ * template is created, as is the URI of the study if the template is created for a
+ * {@link DicomStudyConfig}. The frames URI of an instance is built once by the caller, which
+ * knows when it moves on to the next instance, so each frame request only appends the frame
+ * indexes. Templates are immutable, so they can be shared by threads.
+ *
+ * @see HttpRequestProfilerFactory
+ */
+final class DicomWebTemplate {
+  
+  /* Maximum number of characters of a frame index */
+  private static final int MAX_INDEX_LENGTH = 11;
+  
+  /* Endpoint and configuration the template was created for */
+  private final String endpoint;
+  private final DicomStoreConfig config;
+  
+  /* Root URI of the DICOM store, ending with /dicomWeb */
+  private final String rootUri;
+  
+  /* URI of studies of the DICOM store */
+  private final String studiesUri;
+  
+  /* ID and URI of the study of the configuration or null if the configuration has no study */
+  private final String studyId;
+  private final String studyUri;
+  
+  /**
+   * Creates template of the DICOM store of the specified configuration.
+   *
+   * @param endpoint Root URL of Google Cloud Healthcare API endpoint.
+   * @param config DICOM store configuration, the study is precompiled as well if it is a
+   *        {@link DicomStudyConfig}.
+   */
+  DicomWebTemplate(String endpoint, DicomStoreConfig config) {
+    this.endpoint = endpoint;
+    this.config = config;
+    this.rootUri = new StringBuilder(endpoint)
+        .append("/projects/")
+        .append(encode(config.getProjectId()))
+        .append("/locations/")
+        .append(encode(config.getLocationId()))
+        .append("/datasets/")
+        .append(encode(config.getDatasetId()))
+        .append("/dicomStores/")
+        .append(encode(config.getDicomStoreId()))
+        .append("/dicomWeb")
+        .toString();
+    this.studiesUri = rootUri + "/studies";
+    if (config instanceof DicomStudyConfig) {
+      this.studyId = ((DicomStudyConfig) config).getDicomStudyId();
+      this.studyUri = studiesUri + "/" + encode(studyId);
+    } else {
+      this.studyId = null;
+      this.studyUri = null;
+    }
+  }
+  
+  /**
+   * Returns {@code true} if this template was created for the specified endpoint and the same
+   * configuration instance.
+   */
+  boolean matches(String endpoint, DicomStoreConfig config) {
+    return this.config == config && this.endpoint.equals(endpoint);
+  }
+  
+  /**
+   * Returns root URI of the DICOM store as a builder for further URI construction.
+   */
+  StringBuilder root() {
+    return new StringBuilder(rootUri.length() + 64).append(rootUri);
+  }
+  
+  /**
+   * Returns URI of studies of the DICOM store as a builder for further URI construction.
+   */
+  StringBuilder studies() {
+    return new StringBuilder(studiesUri.length() + 64).append(studiesUri);
+  }
+  
+  /**
+   * Returns URI of the specified study as a builder for further URI construction.
+   */
+  StringBuilder study(String studyId) {
+    if (studyUri != null && this.studyId.equals(studyId)) {
+      return new StringBuilder(studyUri.length() + 160).append(studyUri);
+    }
+    return studies().append('/').append(encode(studyId));
+  }
+  
+  /**
+   * Returns URI of frames of the specified instance, ending with {@code /frames/}, to be completed
+   * by {@link #frames(String, int, int)}.
+   *
+   * @param studyId ID of the study.
+   * @param seriesId ID of the series.
+   * @param instanceId ID of the instance.
+   * @return URI of frames of the instance.
+   */
+  String frames(String studyId, String seriesId, String instanceId) {
+    return study(studyId)
+        .append("/series/")
+        .append(encode(seriesId))
+        .append("/instances/")
+        .append(encode(instanceId))
+        .append("/frames/")
+        .toString();
+  }
+  
+  /**
+   * Returns URI of the specified consecutive frames of an instance.
+   *
+   * @param framesUri URI of frames of the instance.
+   * @param firstFrameIndex Index of the first frame.
+   * @param frameCount Number of consecutive frames.
+   * @return URI of the frames.
+   */
+  static String frames(String framesUri, int firstFrameIndex, int frameCount) {
+    final StringBuilder uri =
+        new StringBuilder(framesUri.length() + frameCount * MAX_INDEX_LENGTH).append(framesUri)
+            .append(firstFrameIndex);
+    for (int i = 1; i < frameCount; i++) {
+      uri.append(',').append(firstFrameIndex + i);
+    }
+    return uri.toString();
+  }
+  
+  /**
+   * Encodes the specified token to be used in URI address.
+   *
+   * @param token The token to encode.
+   * @return Encoded token to be used in URI address.
+   */
+  static String encode(String token) {
+    try {
+      return URLEncoder.encode(token, StandardCharsets.UTF_8.name());
+    } catch (UnsupportedEncodingException e) {
+      // Should never happen
+      throw new IllegalStateException(e);
+    }
+  }
+  
+}
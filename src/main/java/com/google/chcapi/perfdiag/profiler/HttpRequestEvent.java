@@ -0,0 +1,70 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.profiler;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event spanning a whole HTTP request executed by {@link HttpRequestProfiler},
+ * from sending the request until the response content is read or the request fails. Only
+ * requests lasting longer than the threshold are recorded.
+ */
+@Name(HttpRequestEvent.NAME)
+@Label("HTTP Request")
+@Description("HTTP request executed by the benchmark")
+@Category({"Healthcare Imaging Performance Test", "HTTP"})
+@Threshold(HttpRequestEvent.DEFAULT_THRESHOLD)
+@StackTrace(false)
+public final class HttpRequestEvent extends Event {
+  
+  /**
+   * Name of the event.
+   */
+  public static final String NAME = "com.google.chcapi.perfdiag.HttpRequest";
+  
+  /**
+   * Threshold of the event if it is not configured by the recording.
+   */
+  public static final String DEFAULT_THRESHOLD = "100 ms";
+  
+  @Label("URI")
+  String uri;
+  
+  @Label("Status")
+  @Description("HTTP status code, 0 if no response was received")
+  int status;
+  
+  @Label("Bytes Read")
+  @DataAmount
+  long bytesRead;
+  
+  @Label("Cache Status")
+  String cacheStatus;
+  
+  @Label("Connection Reused")
+  boolean connectionReused;
+  
+  @Label("Failure")
+  @Description("Exception the request failed with")
+  String failure;
+  
+}
@@ -0,0 +1,162 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.profiler;
+
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Flight Recorder events of a single HTTP request: an {@link HttpRequestEvent} spanning the whole
+ * request and an {@link HttpRequestPhaseEvent} for each phase. The events are only created while
+ * a recording has them enabled (see {@link #isRecording()}), and the URI is only formatted for
+ * events which pass their threshold. This class must not be used unless {@link #isSupported()}
+ * returns {@code true}.
+ */
+final class HttpRequestEvents {
+  
+  /* Executed request */
+  private final HttpUriRequest request;
+  
+  /* Event of the whole request */
+  private final HttpRequestEvent event = new HttpRequestEvent();
+  
+  /* Event of the current phase */
+  private HttpRequestPhaseEvent phase = new HttpRequestPhaseEvent();
+  
+  /* Name of the current phase */
+  private String phaseName = HttpRequestPhaseEvent.RESPONSE;
+  
+  /* HTTP status code or 0 if no response has been received yet */
+  private int status;
+  
+  /* Cache status of the response */
+  private CacheStatus cacheStatus = CacheStatus.NA;
+  
+  /* Request URI, formatted on first use */
+  private String uri;
+  
+  /**
+   * Returns {@code true} if the Flight Recorder API is present in the running JVM.
+   */
+  static boolean isSupported() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+  
+  /**
+   * Returns {@code true} if a recording has request or phase events enabled. Event types are only
+   * looked up once Flight Recorder has been initialized by a recording, so JVMs which never record
+   * don't pay for the events.
+   */
+  static boolean isRecording() {
+    return FlightRecorder.isInitialized() && (Types.REQUEST.isEnabled() || Types.PHASE.isEnabled());
+  }
+  
+  /**
+   * Begins events of the specified request which is about to be sent.
+   */
+  HttpRequestEvents(HttpUriRequest request) {
+    this.request = request;
+    event.begin();
+    phase.begin();
+  }
+  
+  /**
+   * Ends the response phase when the response headers have been received and begins the read
+   * phase.
+   */
+  void responseReceived(int status, CacheStatus cacheStatus) {
+    this.status = status;
+    this.cacheStatus = cacheStatus;
+    endPhase(0L);
+    phase = new HttpRequestPhaseEvent();
+    phaseName = HttpRequestPhaseEvent.READ;
+    phase.begin();
+  }
+  
+  /**
+   * Ends the current phase and the whole request when the request has completed.
+   */
+  void requestCompleted(HttpRequestMetrics metrics) {
+    endPhase(metrics.getBytesRead());
+    event.end();
+    if (event.shouldCommit()) {
+      event.uri = uri();
+      event.status = status;
+      event.bytesRead = metrics.getBytesRead();
+      event.cacheStatus = cacheStatus.name();
+      event.connectionReused = metrics.isConnectionReused();
+      event.commit();
+    }
+  }
+  
+  /**
+   * Ends the current phase and the whole request when the request has failed.
+   */
+  void requestFailed(Exception cause) {
+    if (cause instanceof HttpResponseException) {
+      status = ((HttpResponseException) cause).getStatusCode();
+    }
+    endPhase(0L);
+    event.end();
+    if (event.shouldCommit()) {
+      event.uri = uri();
+      event.status = status;
+      event.cacheStatus = cacheStatus.name();
+      event.failure = cause.toString();
+      event.commit();
+    }
+  }
+  
+  /* Ends the current phase and commits it if it passes the threshold */
+  private void endPhase(long bytesRead) {
+    phase.end();
+    if (phase.shouldCommit()) {
+      phase.phase = phaseName;
+      phase.uri = uri();
+      phase.status = status;
+      phase.bytesRead = bytesRead;
+      phase.cacheStatus = cacheStatus.name();
+      phase.commit();
+    }
+  }
+  
+  /* Returns request URI */
+  private String uri() {
+    if (uri == null) {
+      uri = request.getURI().toString();
+    }
+    return uri;
+  }
+  
+  /* Event types registered on first use, after Flight Recorder has been initialized */
+  private static final class Types {
+    
+    /* Type of request events */
+    static final EventType REQUEST = EventType.getEventType(HttpRequestEvent.class);
+    
+    /* Type of phase events */
+    static final EventType PHASE = EventType.getEventType(HttpRequestPhaseEvent.class);
+    
+  }
+  
+}
@@ -0,0 +1,88 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.profiler;
+
+import java.io.IOException;
+
+import org.apache.http.client.HttpResponseException;
+
+/**
+ * Failure of profiled HTTP request which carries the URI of the request, so failed requests can
+ * be reported the same way as completed ones. The original exception is the cause.
+ *
+ * @see HttpRequestProfiler#execute(ResponseContentConsumer)
+ */
+public class HttpRequestException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  /** URI of the failed request. */
+  private final String uri;
+
+  /**
+   * Constructs a new {@code HttpRequestException} of the request with the specified URI.
+   *
+   * @param uri URI of the failed request.
+   * @param cause Exception the request failed with.
+   */
+  public HttpRequestException(String uri, IOException cause) {
+    super(uri + ": " + cause.getMessage(), cause);
+    this.uri = uri;
+  }
+
+  /**
+   * Returns URI of the failed request.
+   *
+   * @return URI of the failed request.
+   */
+  public String getUri() {
+    return uri;
+  }
+
+  /**
+   * Returns HTTP status code of the failed request or zero if no response was received.
+   *
+   * @return HTTP status code of response.
+   */
+  public int getStatusCode() {
+    return getStatusCode(getCause());
+  }
+
+  /**
+   * Returns HTTP status code of response the specified request failure has been caused by, the
+   * failure is either thrown by {@link HttpRequestProfiler} or by the task executing the request.
+   *
+   * @param cause Exception the request failed with.
+   * @return HTTP status code of response or zero if no response was received.
+   */
+  public static int getStatusCode(Throwable cause) {
+    if (cause instanceof HttpRequestException) {
+      return ((HttpRequestException) cause).getStatusCode();
+    }
+    return cause instanceof HttpResponseException
+        ? ((HttpResponseException) cause).getStatusCode() : 0;
+  }
+
+  /**
+   * Returns URI of the request the specified failure has been thrown by.
+   *
+   * @param cause Exception the request failed with.
+   * @return URI of the failed request or {@code null} if unknown.
+   */
+  public static String getUri(Throwable cause) {
+    return cause instanceof HttpRequestException ? ((HttpRequestException) cause).getUri() : null;
+  }
+
+}
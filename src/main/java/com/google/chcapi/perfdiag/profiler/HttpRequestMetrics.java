@@ -14,6 +14,13 @@
 
 package com.google.chcapi.perfdiag.profiler;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+
 /**
  * Metrics of HTTP request.
  *
@@ -21,6 +28,9 @@ package com.google.chcapi.perfdiag.profiler;
  */
 public class HttpRequestMetrics {
 
+  /** Response headers of metrics without response. */
+  private static final Header[] NO_HEADERS = new Header[0];
+
   /** Time in milliseconds when request has been sent. */
   private final long startTime;
 
@@ -33,12 +43,24 @@ public class HttpRequestMetrics {
   /** Number of bytes read. */
   private final long bytesRead;
 
+  /** HTTP status code of response. */
+  private final int status;
+
   /** Response cache status. */
   private final CacheStatus cacheStatus;
 
+  /** URI of request or {@code null} if unknown. */
+  private final String uri;
+
+  /** Whether request was sent over connection which has been used by previous requests. */
+  private final boolean connectionReused;
+
+  /** All response headers, traced headers are picked from them only when requested. */
+  private final Header[] responseHeaders;
+
   /**
-   * Constructs a new HTTP request metrics with the specified start time, response time, end time
-   * and number of bytes read.
+   * Constructs a new HTTP request metrics of successful ({@code 200 OK}) request with the specified
+   * start time, response time, end time and number of bytes read.
    *
    * @param startTime Time in milliseconds when request has been sent.
    * @param responseTime Time in milliseconds when response has been received.
@@ -48,11 +70,36 @@ public class HttpRequestMetrics {
    */
   public HttpRequestMetrics(long startTime, long responseTime, long endTime, long bytesRead,
       CacheStatus cacheStatus) {
+    this(startTime, responseTime, endTime, bytesRead, HttpStatus.SC_OK, cacheStatus, null, false,
+        NO_HEADERS);
+  }
+
+  /**
+   * Constructs a new HTTP request metrics with the specified timings, number of bytes read and
+   * details of the request.
+   *
+   * @param startTime Time in milliseconds when request has been sent.
+   * @param responseTime Time in milliseconds when response has been received.
+   * @param endTime Time in milliseconds when response content has been retrieved.
+   * @param bytesRead Number of bytes read.
+   * @param status HTTP status code of response.
+   * @param cacheStatus Response cache status.
+   * @param uri URI of request.
+   * @param connectionReused Whether connection has been used by previous requests.
+   * @param responseHeaders All response headers.
+   */
+  public HttpRequestMetrics(long startTime, long responseTime, long endTime, long bytesRead,
+      int status, CacheStatus cacheStatus, String uri, boolean connectionReused,
+      Header[] responseHeaders) {
     this.startTime = startTime;
     this.responseTime = responseTime;
     this.endTime = endTime;
     this.bytesRead = bytesRead;
+    this.status = status;
     this.cacheStatus = cacheStatus;
+    this.uri = uri;
+    this.connectionReused = connectionReused;
+    this.responseHeaders = responseHeaders;
   }
 
   /**
@@ -118,6 +165,15 @@ public class HttpRequestMetrics {
     return bytesRead;
   }
   
+  /**
+   * Returns HTTP status code of response.
+   * 
+   * @return HTTP status code of response.
+   */
+  public int getStatus() {
+    return status;
+  }
+  
   /**
    * Returns response cache status.
    * 
@@ -127,6 +183,49 @@ public class HttpRequestMetrics {
     return cacheStatus;
   }
   
+  /**
+   * Returns URI of request or {@code null} if unknown (e.g. metrics restored from journal).
+   * 
+   * @return URI of request.
+   */
+  public String getUri() {
+    return uri;
+  }
+  
+  /**
+   * Returns {@code true} if request was sent over connection which has been used by previous
+   * requests, {@code false} if connection has been opened for this request or it is unknown.
+   * 
+   * @return Whether connection has been reused.
+   */
+  public boolean isConnectionReused() {
+    return connectionReused;
+  }
+  
+  /**
+   * Returns traced response headers (request IDs, tracing and cache headers) by name. The headers
+   * are picked from all response headers on each invocation, so the metrics of the vast majority
+   * of requests, which are never reported individually, don't pay for it.
+   * 
+   * @return Traced response headers, empty if none were present or they are unknown.
+   * @see HttpRequestProfiler#TRACED_HEADERS
+   */
+  public Map<String, String> getResponseHeaders() {
+    Map<String, String> headers = Collections.emptyMap();
+    for (String name : HttpRequestProfiler.TRACED_HEADERS) {
+      for (Header header : responseHeaders) {
+        if (header.getName().equalsIgnoreCase(name)) {
+          if (headers.isEmpty()) {
+            headers = new LinkedHashMap<>();
+          }
+          headers.put(name, header.getValue());
+          break;
+        }
+      }
+    }
+    return headers;
+  }
+  
   /**
    * Returns bytes read per second.
    *
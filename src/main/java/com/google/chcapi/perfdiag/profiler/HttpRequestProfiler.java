@@ -14,20 +14,21 @@
 
 package com.google.chcapi.perfdiag.profiler;
 
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.NullOutputStream;
 
+import org.apache.http.HttpConnection;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
-
 
 /**
  * HTTP request wrapper that allows to execute request, read response and calculate metrics
@@ -38,21 +39,71 @@ import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
  */
 public class HttpRequestProfiler {
 
-  /* HTTP client instance */
-  private static CloseableHttpClient HTTP_CLIENT;
+  /**
+   * Response headers kept in request metrics: request IDs and tracing headers which identify the
+   * request for the service team, and headers of caches and proxies on the path.
+   */
+  public static final String[] TRACED_HEADERS = {
+    "X-Request-Id", "X-Cloud-Trace-Context", "Traceparent", "X-GUploader-UploadID",
+    "Server-Timing", "Via", "Age", "X-Cache", "X-Cache-Status", "CF-Cache-Status", "CF-Ray",
+    "Cache-Status"
+  };
+
+  /** Default number of threads executing requests in parallel. */
+  private static final int DEFAULT_MAX_CONNECTIONS = 30;
+
+  /* Number of requests retried after the access token has been refreshed */
+  private static final LongAdder RETRIES = new LongAdder();
+
+  /* Whether the running JVM supports Flight Recorder events of requests */
+  private static final boolean FLIGHT_RECORDER = HttpRequestEvents.isSupported();
+
+  /* HTTP clients shared by all requests, created on first use if not configured */
+  private static volatile StripedHttpClient httpClients;
 
   /** Prepared HTTP request. */
   private final HttpUriRequest request;
 
+  /**
+   * Replaces HTTP clients shared by all requests with the specified number of independent clients
+   * (stripes), each with its own connection pool. Should be invoked before requests are executed.
+   *
+   * @param stripes Number of independent clients.
+   * @param maxConnections Number of threads executing requests in parallel.
+   * @throws IOException if previous clients could not be closed.
+   */
+  static synchronized void configureHttpClients(int stripes, int maxConnections)
+      throws IOException {
+    final StripedHttpClient previous = httpClients;
+    httpClients = new StripedHttpClient(stripes, maxConnections);
+    if (previous != null) {
+      previous.close();
+    }
+  }
+
+  /* Returns HTTP client of the current thread, clients are created on first use */
   private static CloseableHttpClient httpClient() {
-    if (HTTP_CLIENT == null) {
-      PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
-      cm.setDefaultMaxPerRoute(200);
-      cm.setMaxTotal(30);
-      HTTP_CLIENT = HttpClients.custom().setConnectionManager(cm).build();
+    StripedHttpClient clients = httpClients;
+    if (clients == null) {
+      synchronized (HttpRequestProfiler.class) {
+        clients = httpClients;
+        if (clients == null) {
+          clients = new StripedHttpClient(1, DEFAULT_MAX_CONNECTIONS);
+          httpClients = clients;
+        }
+      }
     }
+    return clients.get();
+  }
 
-    return HTTP_CLIENT;
+  /**
+   * Returns number of requests retried after the access token has expired since the start of the
+   * process.
+   *
+   * @return Number of retried requests.
+   */
+  public static long getRetryCount() {
+    return RETRIES.sum();
   }
 
   /**
@@ -71,56 +122,114 @@ public class HttpRequestProfiler {
    *
    * @param stream Stream to write response content.
    * @return Metrics of the HTTP request.
-   * @throws IOException if an IO error occurred or request failed.
+   * @throws HttpRequestException if an IO error occurred or request failed.
    */
   public HttpRequestMetrics execute(OutputStream stream) throws IOException {
+    return execute(content -> IOUtils.copyLarge(content, stream));
+  }
+
+  /**
+   * Executes HTTP request and passes response content stream to the specified consumer, so the
+   * content can be processed while it is being received. GCP authorization is done the same way as
+   * for {@link #execute(OutputStream)}.
+   *
+   * @param consumer Consumer of response content.
+   * @return Metrics of the HTTP request.
+   * @throws HttpRequestException if an IO error occurred or request failed, the original exception
+   *     is the cause.
+   */
+  public HttpRequestMetrics execute(ResponseContentConsumer consumer) throws IOException {
     try {
-      return doExecute(stream);
-    } catch (HttpResponseException e) {
-      // Token expired?
-      if (e.getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
-        // Refresh token and try again
-        HttpRequestProfilerFactory.refreshToken();
-        return doExecute(stream);
+      try {
+        return doExecute(consumer);
+      } catch (HttpResponseException e) {
+        // Token expired?
+        if (e.getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
+          // Refresh token and try again with the new token
+          HttpRequestProfilerFactory.refreshToken();
+          request.setHeader(HttpRequestProfilerFactory.authorization());
+          RETRIES.increment();
+          return doExecute(consumer);
+        }
+        // Rethrow exception
+        throw e;
       }
-      // Rethrow exception
-      throw e;
+    } catch (IOException e) {
+      // Attach URI of the failed request
+      throw new HttpRequestException(toString(), e);
     }
   }
 
   /**
-   * Executes HTTP request and returns request metrics.
+   * Executes HTTP request and returns request metrics. Emits Flight Recorder events of the request
+   * and its phases if a recording has them enabled.
    *
-   * @param stream Stream to write response content.
+   * @param consumer Consumer of response content.
    * @return Metrics of the HTTP request.
    * @throws IOException if an IO error occurred or request failed.
    */
-  private HttpRequestMetrics doExecute(OutputStream stream) throws IOException {
+  private HttpRequestMetrics doExecute(ResponseContentConsumer consumer) throws IOException {
     // Execute request and measure metrics
+    final HttpRequestEvents events =
+        FLIGHT_RECORDER && HttpRequestEvents.isRecording() ? new HttpRequestEvents(request) : null;
     final long startTime = System.currentTimeMillis();
-    try (CloseableHttpResponse response = httpClient().execute(request)) {
+    final HttpClientContext context = HttpClientContext.create();
+    try (CloseableHttpResponse response = httpClient().execute(request, context)) {
       final long responseTime = System.currentTimeMillis();
+      final boolean connectionReused = isConnectionReused(context);
+      final int status = response.getStatusLine().getStatusCode();
+      final CacheStatus cacheStatus = CacheStatus.fromResponse(response);
+      if (events != null) {
+        events.responseReceived(status, cacheStatus);
+      }
 
       // Check status code
-      final int status = response.getStatusLine().getStatusCode();
       if (status < HttpStatus.SC_OK || status >= HttpStatus.SC_MULTIPLE_CHOICES) {
         // Request failed
         throw new HttpResponseException(status, response.getStatusLine().getReasonPhrase());
       }
 
+      final HttpRequestMetrics metrics;
       // Does content exist?
       if (status == HttpStatus.SC_NO_CONTENT) {
         // No content
-        return new HttpRequestMetrics(startTime, responseTime, System.currentTimeMillis(), 0L,
-          CacheStatus.fromResponse(response));
+        metrics = new HttpRequestMetrics(startTime, responseTime, System.currentTimeMillis(), 0L,
+          status, cacheStatus, toString(), connectionReused, response.getAllHeaders());
+      } else {
+        // Read content
+        try (CountingInputStream input = new CountingInputStream(
+            response.getEntity().getContent())) {
+          consumer.consume(input);
+          // Drain content not read by the consumer
+          IOUtils.copyLarge(input, NullOutputStream.NULL_OUTPUT_STREAM);
+          metrics = new HttpRequestMetrics(startTime, responseTime, System.currentTimeMillis(),
+            input.getByteCount(), status, cacheStatus, toString(), connectionReused,
+            response.getAllHeaders());
+        }
       }
-
-      // Read content
-      try (InputStream input = response.getEntity().getContent()) {
-        final long bytesRead = IOUtils.copyLarge(input, stream);
-        return new HttpRequestMetrics(startTime, responseTime, System.currentTimeMillis(),
-          bytesRead, CacheStatus.fromResponse(response));
+      if (events != null) {
+        events.requestCompleted(metrics);
+      }
+      return metrics;
+    } catch (IOException | RuntimeException e) {
+      if (events != null) {
+        events.requestFailed(e);
       }
+      throw e;
+    }
+  }
+
+  /**
+   * Returns {@code true} if the connection of the executed request has served previous requests.
+   * The connection is still leased while the response is open, so its metrics are available.
+   */
+  private static boolean isConnectionReused(HttpClientContext context) {
+    try {
+      final HttpConnection connection = context.getConnection();
+      return connection != null && connection.getMetrics().getRequestCount() > 1L;
+    } catch (RuntimeException e) {
+      // Connection has been released already
+      return false;
     }
   }
 
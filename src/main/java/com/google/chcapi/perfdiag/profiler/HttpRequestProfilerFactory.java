@@ -17,14 +17,13 @@ package com.google.chcapi.perfdiag.profiler;
 import java.util.Arrays;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.nio.charset.StandardCharsets;
 
 import java.net.URL;
-import java.net.URLEncoder;
 
+import org.apache.http.Header;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicHeader;
 
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
 
@@ -45,21 +44,34 @@ public final class HttpRequestProfilerFactory {
     throw new IllegalAccessError();
   }
 
-  /* OAuth 2.0 credential obtained using Google Application Default Credentials mechanism */
-  private static final GoogleCredential CREDENTIAL;
-  static {
-    try {
-      CREDENTIAL =
-          GoogleCredential.getApplicationDefault()
-              .createScoped(
-                  Arrays.asList(
-                      "https://www.googleapis.com/auth/cloud-healthcare",
-                      "https://www.googleapis.com/auth/cloudplatformprojects.readonly"));
-    } catch (IOException e) {
-      throw new IllegalStateException(e.getMessage());
+  /* OAuth 2.0 credential obtained using Google Application Default Credentials mechanism, loaded
+     on first use so requests may be created without credentials once an access token is set */
+  private static final class Credential {
+    static final GoogleCredential INSTANCE;
+    static {
+      try {
+        INSTANCE =
+            GoogleCredential.getApplicationDefault()
+                .createScoped(
+                    Arrays.asList(
+                        "https://www.googleapis.com/auth/cloud-healthcare",
+                        "https://www.googleapis.com/auth/cloudplatformprojects.readonly"));
+      } catch (IOException e) {
+        throw new IllegalStateException(e.getMessage());
+      }
     }
   }
 
+  /* Accept header of requests which download DICOM instances */
+  private static final Header ACCEPT_DICOM =
+      new BasicHeader("Accept", "multipart/related; type=application/dicom; transfer-syntax=*");
+
+  /* Authorization header shared by all requests, replaced when the access token changes */
+  private static volatile Header authorization;
+
+  /* Precompiled URIs of the most recently used DICOM store */
+  private static volatile DicomWebTemplate template;
+
   /**
    * Root URL of Google Cloud Healthcare API endpoint.
    */
@@ -79,6 +91,18 @@ public final class HttpRequestProfilerFactory {
     }
   }
 
+  /**
+   * Sets number of independent HTTP clients (stripes) requests are spread across and sizes their
+   * connection pools for the specified number of threads.
+   * 
+   * @param stripes Number of independent HTTP clients.
+   * @param threads Maximum number of threads executing requests in parallel.
+   * @throws IOException if previous HTTP clients could not be closed.
+   */
+  public static void setHttpClients(int stripes, int threads) throws IOException {
+    HttpRequestProfiler.configureHttpClients(stripes, threads);
+  }
+
   /**
    * Requests a new access token from the authorization endpoint if previous one is expired or was
    * not requested yet.
@@ -87,12 +111,48 @@ public final class HttpRequestProfilerFactory {
    * @throws BenchmarkException if a new access token was not retrieved.
    */
   public static synchronized void refreshToken() throws IOException {
-    final Long expiresInSeconds = CREDENTIAL.getExpiresInSeconds();
+    final GoogleCredential credential = Credential.INSTANCE;
+    final Long expiresInSeconds = credential.getExpiresInSeconds();
     if (expiresInSeconds == null || expiresInSeconds <= 0L) {
-      if (!CREDENTIAL.refreshToken()) {
+      if (!credential.refreshToken()) {
         throw BenchmarkException.refreshTokenFailed();
       }
     }
+    setAccessToken(credential.getAccessToken());
+  }
+
+  /**
+   * Sets access token sent by requests created after this call. The authorization header is built
+   * once per token and shared by all requests.
+   *
+   * @param accessToken OAuth 2.0 access token.
+   */
+  static void setAccessToken(String accessToken) {
+    final Header current = authorization;
+    final String value = "Bearer " + accessToken;
+    if (current == null || !current.getValue().equals(value)) {
+      authorization = new BasicHeader("Authorization", value);
+    }
+  }
+
+  /**
+   * Returns authorization header with the current access token. The credential is loaded if no
+   * access token has been set yet.
+   *
+   * @return Authorization header shared by requests.
+   */
+  static Header authorization() {
+    Header header = authorization;
+    if (header == null) {
+      synchronized (HttpRequestProfilerFactory.class) {
+        header = authorization;
+        if (header == null) {
+          setAccessToken(Credential.INSTANCE.getAccessToken());
+          header = authorization;
+        }
+      }
+    }
+    return header;
   }
 
   /**
@@ -100,11 +160,14 @@ public final class HttpRequestProfilerFactory {
    * request for the specified DICOM store configuration.
    *
    * @param config DICOM store configuration.
+   * @param includeFields Additional DICOM attribute tags to include in the response.
    * @return The {@link HttpRequestProfiler} instance.
    */
-  public static HttpRequestProfiler createListDicomStudiesRequest(DicomStoreConfig config) {
+  public static HttpRequestProfiler createListDicomStudiesRequest(DicomStoreConfig config,
+      String... includeFields) {
     return new HttpRequestProfiler(
-        createHttpGetRequest(buildDicomWebURI(config).toString(), false));
+        createHttpGetRequest(appendIncludeFields(template(config).studies(), includeFields)
+            .toString(), false));
   }
 
   /**
@@ -119,7 +182,63 @@ public final class HttpRequestProfilerFactory {
       DicomStoreConfig config, String studyId) {
     return new HttpRequestProfiler(
         createHttpGetRequest(
-            buildDicomWebURI(config).append("/").append(encodeURIToken(studyId)).toString(), true));
+            template(config).study(studyId).toString(), true));
+  }
+
+  /**
+   * Constructs the {@code projects.locations.datasets.dicomStores.searchForSeries} profiling
+   * request for the specified DICOM store configuration.
+   *
+   * @param config DICOM store configuration.
+   * @param includeFields Additional DICOM attribute tags to include in the response.
+   * @return The {@link HttpRequestProfiler} instance.
+   */
+  public static HttpRequestProfiler createListDicomSeriesRequest(DicomStoreConfig config,
+      String... includeFields) {
+    return new HttpRequestProfiler(
+        createHttpGetRequest(
+            appendIncludeFields(template(config).root().append("/series"), includeFields)
+                .toString(),
+            false));
+  }
+
+  /**
+   * Constructs the {@code projects.locations.datasets.dicomStores.studies.searchForSeries}
+   * profiling request for the specified DICOM store configuration and study ID.
+   *
+   * @param config DICOM store configuration.
+   * @param studyId ID of the study.
+   * @param includeFields Additional DICOM attribute tags to include in the response.
+   * @return The {@link HttpRequestProfiler} instance.
+   */
+  public static HttpRequestProfiler createListDicomStudySeriesRequest(DicomStoreConfig config,
+      String studyId, String... includeFields) {
+    return new HttpRequestProfiler(
+        createHttpGetRequest(
+            appendIncludeFields(template(config).study(studyId).append("/series"), includeFields)
+                .toString(),
+            false));
+  }
+
+  /**
+   * Constructs the {@code projects.locations.datasets.dicomStores.studies.series.retrieveSeries}
+   * profiling request for the specified DICOM store configuration, study and series IDs.
+   *
+   * @param config DICOM store configuration.
+   * @param studyId ID of the study.
+   * @param seriesId ID of the series to retrieve.
+   * @return The {@link HttpRequestProfiler} instance.
+   */
+  public static HttpRequestProfiler createRetrieveDicomSeriesRequest(DicomStoreConfig config,
+      String studyId, String seriesId) {
+    return new HttpRequestProfiler(
+        createHttpGetRequest(
+            template(config)
+                .study(studyId)
+                .append("/series/")
+                .append(DicomWebTemplate.encode(seriesId))
+                .toString(),
+            true));
   }
 
   /**
@@ -130,13 +249,22 @@ public final class HttpRequestProfilerFactory {
    * @return The {@link HttpRequestProfiler} instance.
    */
   public static HttpRequestProfiler createListDicomStudyInstancesRequest(DicomStudyConfig config) {
+    return createListDicomStudyInstancesRequest(config, config.getDicomStudyId());
+  }
+
+  /**
+   * Constructs the {@code projects.locations.datasets.dicomStores.studies.searchForInstances}
+   * profiling request for the specified DICOM store configuration and study ID.
+   *
+   * @param config DICOM store configuration.
+   * @param studyId ID of the study which instances are listed.
+   * @return The {@link HttpRequestProfiler} instance.
+   */
+  public static HttpRequestProfiler createListDicomStudyInstancesRequest(DicomStoreConfig config,
+      String studyId) {
     return new HttpRequestProfiler(
         createHttpGetRequest(
-            buildDicomWebURI(config)
-                .append("/")
-                .append(encodeURIToken(config.getDicomStudyId()))
-                .append("/instances")
-                .toString(),
+            template(config).study(studyId).append("/instances").toString(),
             false));
   }
 
@@ -154,13 +282,12 @@ public final class HttpRequestProfilerFactory {
       DicomStudyConfig config, String seriesId, String instanceId) {
     return new HttpRequestProfiler(
         createHttpGetRequest(
-            buildDicomWebURI(config)
-                .append("/")
-                .append(encodeURIToken(config.getDicomStudyId()))
+            template(config)
+                .study(config.getDicomStudyId())
                 .append("/series/")
-                .append(encodeURIToken(seriesId))
+                .append(DicomWebTemplate.encode(seriesId))
                 .append("/instances/")
-                .append(encodeURIToken(instanceId))
+                .append(DicomWebTemplate.encode(instanceId))
                 .toString(),
             true));
   }
@@ -181,19 +308,65 @@ public final class HttpRequestProfilerFactory {
       DicomStudyConfig config, String seriesId, String instanceId, int frameIndex) {
     return new HttpRequestProfiler(
         createHttpGetRequest(
-            buildDicomWebURI(config)
-                .append("/")
-                .append(encodeURIToken(config.getDicomStudyId()))
-                .append("/series/")
-                .append(encodeURIToken(seriesId))
-                .append("/instances/")
-                .append(encodeURIToken(instanceId))
-                .append("/frames/")
-                .append(frameIndex)
-                .toString(),
+            DicomWebTemplate.frames(
+                getDicomInstanceFramesUri(config, seriesId, instanceId), frameIndex, 1),
+            false));
+  }
+
+  /**
+   * Constructs the {@code
+   * projects.locations.datasets.dicomStores.studies.series.instances.frames.retrieveFrames}
+   * profiling request which retrieves a batch of consecutive frames in a single request for the
+   * specified DICOM study configuration, series and instance IDs.
+   *
+   * @param config DICOM study configuration.
+   * @param seriesId ID of the series.
+   * @param instanceId ID of the instance.
+   * @param firstFrameIndex Index of the first frame to retrieve.
+   * @param frameCount Number of frames to retrieve.
+   * @return The {@link HttpRequestProfiler} instance.
+   */
+  public static HttpRequestProfiler createRetrieveDicomInstanceFramesRequest(
+      DicomStudyConfig config, String seriesId, String instanceId, int firstFrameIndex,
+      int frameCount) {
+    return createRetrieveDicomInstanceFramesRequest(
+        getDicomInstanceFramesUri(config, seriesId, instanceId), firstFrameIndex, frameCount);
+  }
+
+  /**
+   * Constructs the {@code
+   * projects.locations.datasets.dicomStores.studies.series.instances.frames.retrieveFrames}
+   * profiling request which retrieves a batch of consecutive frames in a single request for the
+   * specified frames URI of an instance. Callers requesting many frames of an instance should
+   * build its frames URI once with {@link #getDicomInstanceFramesUri}.
+   *
+   * @param framesUri URI of frames of the instance.
+   * @param firstFrameIndex Index of the first frame to retrieve.
+   * @param frameCount Number of frames to retrieve, one retrieves a single frame.
+   * @return The {@link HttpRequestProfiler} instance.
+   */
+  public static HttpRequestProfiler createRetrieveDicomInstanceFramesRequest(String framesUri,
+      int firstFrameIndex, int frameCount) {
+    return new HttpRequestProfiler(
+        createHttpGetRequest(
+            DicomWebTemplate.frames(framesUri, firstFrameIndex, frameCount),
             false));
   }
 
+  /**
+   * Returns URI of frames of the specified instance of the DICOM study configuration, to be passed
+   * to {@link #createRetrieveDicomInstanceFramesRequest(String, int, int)}.
+   *
+   * @param config DICOM study configuration.
+   * @param seriesId ID of the series.
+   * @param instanceId ID of the instance.
+   * @return URI of frames of the instance.
+   */
+  public static String getDicomInstanceFramesUri(DicomStudyConfig config, String seriesId,
+      String instanceId) {
+    return template(config).frames(config.getDicomStudyId(), seriesId, instanceId);
+  }
+
   /**
    * Constructs a new HTTP GET request for the specified URI.
    *
@@ -204,43 +377,42 @@ public final class HttpRequestProfilerFactory {
   private static HttpUriRequest createHttpGetRequest(String uri, boolean download) {
     final HttpGet request = new HttpGet(uri);
     if (download) {
-      request.setHeader("Accept", "multipart/related; type=application/dicom; transfer-syntax=*");
+      request.addHeader(ACCEPT_DICOM);
     }
-    request.setHeader("Authorization", "Bearer " + CREDENTIAL.getAccessToken());
+    request.addHeader(authorization());
     return request;
   }
 
   /**
-   * Constructs DICOM Web request URI using parameters from the specified DICOM store configuration.
+   * Returns precompiled URIs of the DICOM store of the specified configuration. The template of
+   * the most recently used configuration is reused, so the store and study are encoded once per
+   * run rather than once per request.
    *
    * @param config DICOM store configuration.
-   * @return DICOM Web request URI as {@code StringBuilder} instance for further URI construction.
+   * @return Precompiled URIs of the DICOM store.
    */
-  private static StringBuilder buildDicomWebURI(DicomStoreConfig config) {
-    return new StringBuilder(endpoint)
-        .append("/projects/")
-        .append(encodeURIToken(config.getProjectId()))
-        .append("/locations/")
-        .append(encodeURIToken(config.getLocationId()))
-        .append("/datasets/")
-        .append(encodeURIToken(config.getDatasetId()))
-        .append("/dicomStores/")
-        .append(encodeURIToken(config.getDicomStoreId()))
-        .append("/dicomWeb/studies");
+  private static DicomWebTemplate template(DicomStoreConfig config) {
+    DicomWebTemplate current = template;
+    if (current == null || !current.matches(endpoint, config)) {
+      current = new DicomWebTemplate(endpoint, config);
+      template = current;
+    }
+    return current;
   }
 
   /**
-   * Encodes the specified token to be used in URI address.
+   * Appends {@code includefield} query parameters for the specified DICOM attribute tags.
    *
-   * @param token The token to encode.
-   * @return Encoded token to be used in URI address.
+   * @param uri DICOM Web request URI.
+   * @param includeFields DICOM attribute tags to include in the response.
+   * @return The specified URI for further URI construction.
    */
-  private static String encodeURIToken(String token) {
-    try {
-      return URLEncoder.encode(token, StandardCharsets.UTF_8.name());
-    } catch (UnsupportedEncodingException e) {
-      // Should never happen
-      throw new IllegalStateException(e);
+  private static StringBuilder appendIncludeFields(StringBuilder uri, String... includeFields) {
+    char separator = '?';
+    for (String includeField : includeFields) {
+      uri.append(separator).append("includefield=").append(DicomWebTemplate.encode(includeField));
+      separator = '&';
     }
+    return uri;
   }
 }
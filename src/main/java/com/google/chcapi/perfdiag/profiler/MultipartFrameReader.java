@@ -0,0 +1,156 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.profiler;
+
+import java.io.InputStream;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads {@code multipart/related} response of the DICOMweb retrieve frames request and detects
+ * boundaries of individual frames while the content is being received. The boundary is taken from
+ * the first delimiter line of the content, so the response headers are not required. If the
+ * content is not a multipart body, the whole content is treated as a single frame.
+ *
+ * @see HttpRequestProfilerFactory#createRetrieveDicomInstanceFramesRequest
+ */
+public class MultipartFrameReader implements ResponseContentConsumer {
+
+  /** Maximum length of the first delimiter line. */
+  private static final int MAX_DELIMITER_LENGTH = 256;
+
+  /** Size of read buffer. */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Number of bytes of the first line of content. */
+  private int firstLineLength;
+
+  /** Number of frames read so far. */
+  private int frameCount;
+
+  /** Time in milliseconds when the first frame has been read or {@code 0} if not read yet. */
+  private long firstFrameTime;
+
+  /**
+   * Reads response content and counts frames.
+   *
+   * @param content Response content stream.
+   * @throws IOException if an IO error occurred.
+   */
+  @Override
+  public void consume(InputStream content) throws IOException {
+    final byte[] buffer = new byte[BUFFER_SIZE];
+    final byte[] delimiter = readDelimiter(content);
+    if (delimiter == null) {
+      // Not a multipart body, the whole content is a single frame
+      boolean empty = firstLineLength == 0;
+      int read;
+      while ((read = content.read(buffer)) >= 0) {
+        empty &= read == 0;
+      }
+      if (!empty) {
+        onFrameRead();
+      }
+      return;
+    }
+
+    // Search for delimiters using KMP algorithm
+    final int[] failure = buildFailureTable(delimiter);
+    int matched = 0;
+    int read;
+    while ((read = content.read(buffer)) >= 0) {
+      for (int i = 0; i < read; i++) {
+        final byte b = buffer[i];
+        while (matched > 0 && delimiter[matched] != b) {
+          matched = failure[matched - 1];
+        }
+        if (delimiter[matched] == b) {
+          matched++;
+        }
+        if (matched == delimiter.length) {
+          // Delimiter closes the current frame
+          onFrameRead();
+          matched = failure[matched - 1];
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns number of frames read.
+   *
+   * @return Number of frames read.
+   */
+  public int getFrameCount() {
+    return frameCount;
+  }
+
+  /**
+   * Returns time in milliseconds when the first frame has been read or {@code 0} if no frame has
+   * been read.
+   *
+   * @return Time in milliseconds when the first frame has been read.
+   */
+  public long getFirstFrameTime() {
+    return firstFrameTime;
+  }
+
+  /* Counts read frame */
+  private void onFrameRead() {
+    if (frameCount++ == 0) {
+      firstFrameTime = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Reads the first line of multipart body and returns delimiter to search for
+   * ({@code CRLF--boundary}) or {@code null} if content is not a multipart body.
+   */
+  private byte[] readDelimiter(InputStream content) throws IOException {
+    final StringBuilder line = new StringBuilder();
+    int b;
+    // Skip empty lines of preamble
+    while ((b = content.read()) == '\r' || b == '\n') {
+      firstLineLength++;
+    }
+    while (b >= 0 && b != '\r' && b != '\n' && line.length() < MAX_DELIMITER_LENGTH) {
+      line.append((char) b);
+      b = content.read();
+    }
+    firstLineLength += line.length() + (b < 0 ? 0 : 1);
+    final String boundary = line.toString().trim();
+    return boundary.startsWith("--") && boundary.length() > 2 && (b == '\r' || b == '\n')
+        ? ("\r\n" + boundary).getBytes(StandardCharsets.ISO_8859_1)
+        : null;
+  }
+
+  /* Builds KMP failure table of the specified pattern */
+  private static int[] buildFailureTable(byte[] pattern) {
+    final int[] failure = new int[pattern.length];
+    int k = 0;
+    for (int i = 1; i < pattern.length; i++) {
+      while (k > 0 && pattern[k] != pattern[i]) {
+        k = failure[k - 1];
+      }
+      if (pattern[k] == pattern[i]) {
+        k++;
+      }
+      failure[i] = k;
+    }
+    return failure;
+  }
+
+}
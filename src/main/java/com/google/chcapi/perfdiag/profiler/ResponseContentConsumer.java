@@ -0,0 +1,37 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.profiler;
+
+import java.io.InputStream;
+import java.io.IOException;
+
+/**
+ * Consumer of HTTP response content which reads the content directly from the response stream.
+ *
+ * @see HttpRequestProfiler#execute(ResponseContentConsumer)
+ */
+@FunctionalInterface
+public interface ResponseContentConsumer {
+
+  /**
+   * Reads response content from the specified stream. The stream does not need to be read to the
+   * end or closed, the remaining content is drained by the profiler.
+   *
+   * @param content Response content stream.
+   * @throws IOException if an IO error occurred.
+   */
+  void consume(InputStream content) throws IOException;
+
+}
@@ -0,0 +1,95 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.profiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * Set of independent HTTP clients, each with its own connection pool. The connection manager of a
+ * client takes a pool-wide lock on every connection lease and release, so with many threads a
+ * single client becomes a point of contention. Each thread is bound to one of the clients (stripes)
+ * round-robin on its first request and keeps using it, so threads contend only within their stripe
+ * and keep reusing the same warm connections.
+ */
+class StripedHttpClient implements Closeable {
+
+  /** Clients of stripes. */
+  private final CloseableHttpClient[] clients;
+
+  /** Index of the stripe assigned to the next new thread. */
+  private final AtomicInteger nextStripe = new AtomicInteger();
+
+  /** Client of the stripe assigned to the current thread. */
+  private final ThreadLocal<CloseableHttpClient> threadClient;
+
+  /**
+   * Constructs a new {@code StripedHttpClient} with the specified number of stripes. Each stripe
+   * gets an equal share of the specified number of connections and one spare connection for a
+   * thread which has been bound to it earlier (e.g. thread reading a listing while worker threads
+   * retrieve data).
+   *
+   * @param stripes Number of independent clients.
+   * @param maxConnections Number of threads executing requests in parallel.
+   */
+  StripedHttpClient(int stripes, int maxConnections) {
+    final int connectionsPerStripe = (maxConnections + stripes - 1) / stripes + 1;
+    this.clients = new CloseableHttpClient[stripes];
+    for (int i = 0; i < stripes; i++) {
+      final PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
+      cm.setDefaultMaxPerRoute(connectionsPerStripe);
+      cm.setMaxTotal(connectionsPerStripe);
+      clients[i] = HttpClients.custom().setConnectionManager(cm).build();
+    }
+    this.threadClient = ThreadLocal.withInitial(
+        () -> clients[Math.floorMod(nextStripe.getAndIncrement(), clients.length)]);
+  }
+
+  /**
+   * Returns client of the stripe bound to the current thread.
+   *
+   * @return HTTP client to execute request of the current thread.
+   */
+  CloseableHttpClient get() {
+    return threadClient.get();
+  }
+
+  /**
+   * Returns number of stripes.
+   *
+   * @return Number of independent clients.
+   */
+  int getStripes() {
+    return clients.length;
+  }
+
+  /**
+   * Closes all clients and their connection pools.
+   *
+   * @throws IOException if an IO error occurred.
+   */
+  @Override
+  public void close() throws IOException {
+    for (CloseableHttpClient client : clients) {
+      client.close();
+    }
+  }
+
+}
@@ -0,0 +1,126 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests compatibility of {@link LatencyHistogram} encoding with HdrHistogram. The fixture
+ * {@code hdrhistogram-2.1.12.hlog} was written by {@code HistogramLogWriter} of HdrHistogram 2.1.12
+ * from a histogram with lowest discernible value of 1, highest trackable value of one day and 2
+ * significant digits. It holds 10,000 log-normal latencies with seed 42 (see
+ * {@link #recordFixtureValues(LatencyHistogram)}), 25 zeros and a single value of one hour. The
+ * expected values were read from the same HdrHistogram instance.
+ */
+public class LatencyHistogramTest {
+  
+  /* Expected values of the fixture as reported by HdrHistogram */
+  private static final long FIXTURE_COUNT = 10026L;
+  private static final long FIXTURE_P50 = 91L;
+  private static final long FIXTURE_P99 = 1447L;
+  private static final long FIXTURE_P999 = 3631L;
+  private static final long FIXTURE_MAX = 3604479L;
+  
+  @Test
+  public void decodesHistogramWrittenByHdrHistogram() throws IOException {
+    final LatencyHistogram histogram = LatencyHistogram.decode(readFixture("total"));
+    assertEquals(FIXTURE_COUNT, histogram.getTotalCount());
+    assertEquals(FIXTURE_P50, histogram.getValueAtPercentile(50.0));
+    assertEquals(FIXTURE_P99, histogram.getValueAtPercentile(99.0));
+    assertEquals(FIXTURE_P999, histogram.getValueAtPercentile(99.9));
+    assertEquals(FIXTURE_MAX, histogram.getMaxValue());
+  }
+  
+  @Test
+  public void recordsSameBucketsAsHdrHistogram() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    recordFixtureValues(histogram);
+    assertEquals(FIXTURE_COUNT, histogram.getTotalCount());
+    assertEquals(FIXTURE_P50, histogram.getValueAtPercentile(50.0));
+    assertEquals(FIXTURE_P99, histogram.getValueAtPercentile(99.0));
+    assertEquals(FIXTURE_P999, histogram.getValueAtPercentile(99.9));
+    assertEquals(FIXTURE_MAX, histogram.getMaxValue());
+  }
+  
+  @Test
+  public void roundTripsEncoding() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    recordFixtureValues(histogram);
+    final LatencyHistogram decoded = LatencyHistogram.decode(histogram.encode());
+    assertEquals(histogram.getTotalCount(), decoded.getTotalCount());
+    assertEquals(histogram.getValueAtPercentile(99.0), decoded.getValueAtPercentile(99.0));
+    assertEquals(histogram.getMaxValue(), decoded.getMaxValue());
+    for (double percentile = 0.0; percentile <= 100.0; percentile += 0.5) {
+      assertEquals(histogram.getValueAtPercentile(percentile),
+          decoded.getValueAtPercentile(percentile));
+    }
+  }
+  
+  @Test
+  public void roundTripsHistogramWrittenByHdrHistogram() throws IOException {
+    final LatencyHistogram decoded = LatencyHistogram.decode(readFixture("total"));
+    final LatencyHistogram reencoded = LatencyHistogram.decode(decoded.encode());
+    assertEquals(FIXTURE_COUNT, reencoded.getTotalCount());
+    assertEquals(FIXTURE_P99, reencoded.getValueAtPercentile(99.0));
+    assertEquals(FIXTURE_MAX, reencoded.getMaxValue());
+  }
+  
+  @Test
+  public void roundTripsEmptyHistogram() {
+    final LatencyHistogram decoded = LatencyHistogram.decode(new LatencyHistogram().encode());
+    assertEquals(0L, decoded.getTotalCount());
+    assertEquals(0L, decoded.getMaxValue());
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUncompressedHistogram() {
+    LatencyHistogram.decode("HISTigAAAAAAAAAA");
+  }
+  
+  /* Records the values of the fixture */
+  private static void recordFixtureValues(LatencyHistogram histogram) {
+    final Random random = new Random(42L);
+    for (int i = 0; i < 10000; i++) {
+      histogram.recordValue(Math.round(Math.exp(random.nextGaussian() * 1.2 + 4.5)));
+    }
+    for (int i = 0; i < 25; i++) {
+      histogram.recordValue(0L);
+    }
+    histogram.recordValue(3600000L);
+  }
+  
+  /* Returns compressed histogram of the fixture with the specified tag */
+  private static String readFixture(String tag) throws IOException {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        LatencyHistogramTest.class.getResourceAsStream("hdrhistogram-2.1.12.hlog"),
+        StandardCharsets.UTF_8))) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if (line.startsWith("Tag=" + tag + ",")) {
+          return line.substring(line.lastIndexOf(',') + 1);
+        }
+      }
+    }
+    throw new IOException("No histogram tagged " + tag);
+  }
+  
+}
@@ -0,0 +1,177 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests accuracy of {@link QuantileSketch} against exact statistics of {@link MetricAggregates}
+ * created with the number of values. Speed of both is compared by
+ * {@code QuantileSketchBenchmark} in the {@code jmh} profile.
+ */
+public class QuantileSketchTest {
+  
+  /* Percentiles reported by the benchmarks */
+  private static final double[] PERCENTILES = {
+      MetricAggregates.MEDIAN, MetricAggregates.P90, MetricAggregates.P99, MetricAggregates.P99_9
+  };
+  
+  /* Tolerance of statistics which are tracked exactly, only differ by rounding */
+  private static final double EXACT_TOLERANCE = 1e-9;
+  
+  @Test
+  public void estimatesPercentilesWithinRelativeAccuracy() {
+    for (int count : new int[] {1000, 100000}) {
+      final double[] values = createLatencies(count, 42L);
+      final MetricAggregates exact = new MetricAggregates(values.length);
+      final MetricAggregates sketched = new MetricAggregates();
+      for (double value : values) {
+        exact.addValue(value);
+        sketched.addValue(value);
+      }
+      for (double p : PERCENTILES) {
+        final double expected = exact.getPercentile(p);
+        assertEquals("p" + p + " of " + count + " values", expected, sketched.getPercentile(p),
+            expected * QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+      }
+    }
+  }
+  
+  @Test
+  public void tracksMinMaxMeanAndStddevExactly() {
+    final double[] values = createLatencies(100000, 7L);
+    final MetricAggregates exact = new MetricAggregates(values.length);
+    final MetricAggregates sketched = new MetricAggregates();
+    for (double value : values) {
+      exact.addValue(value);
+      sketched.addValue(value);
+    }
+    assertEquals(exact.getCount(), sketched.getCount());
+    assertEquals(exact.getMin(), sketched.getMin(), 0.0);
+    assertEquals(exact.getMax(), sketched.getMax(), 0.0);
+    assertEquals(exact.getMean(), sketched.getMean(), exact.getMean() * EXACT_TOLERANCE);
+    assertEquals(exact.getStddev(), sketched.getStddev(), exact.getStddev() * EXACT_TOLERANCE);
+    assertEquals(exact.getPercentile(100.0), sketched.getPercentile(100.0), 0.0);
+  }
+  
+  @Test
+  public void mergesHalvesLikeSingleSketch() {
+    final double[] values = createLatencies(100000, 11L);
+    final QuantileSketch single = new QuantileSketch();
+    final QuantileSketch first = new QuantileSketch();
+    final QuantileSketch second = new QuantileSketch();
+    for (int i = 0; i < values.length; i++) {
+      single.add(values[i]);
+      (i < values.length / 2 ? first : second).add(values[i]);
+    }
+    first.merge(second);
+    assertEquals(single.getCount(), first.getCount());
+    assertEquals(single.getMin(), first.getMin(), 0.0);
+    assertEquals(single.getMax(), first.getMax(), 0.0);
+    assertEquals(single.getMean(), first.getMean(), single.getMean() * EXACT_TOLERANCE);
+    assertEquals(single.getStddev(), first.getStddev(), single.getStddev() * EXACT_TOLERANCE);
+    for (double p : PERCENTILES) {
+      assertEquals("p" + p, single.getQuantile(p / 100.0), first.getQuantile(p / 100.0), 0.0);
+    }
+  }
+  
+  @Test
+  public void collapsesLowestBinsPastMaxBins() {
+    // Values spanning 30 orders of magnitude need more than MAX_BINS bins of 1% accuracy
+    final double accuracy = QuantileSketch.DEFAULT_RELATIVE_ACCURACY;
+    final double logGamma = Math.log((1.0 + accuracy) / (1.0 - accuracy));
+    final int count = 30001;
+    final double[] values = new double[count];
+    final QuantileSketch sketch = new QuantileSketch();
+    for (int i = 0; i < count; i++) {
+      values[i] = Math.pow(10.0, -15.0 + 30.0 * i / (count - 1));
+    }
+    final double[] shuffled = values.clone();
+    shuffle(shuffled, new Random(3L));
+    for (double value : shuffled) {
+      sketch.add(value);
+    }
+    assertTrue(Math.log(values[count - 1] / values[0]) / logGamma > QuantileSketch.MAX_BINS);
+    
+    // Bins below the lowest kept bin are counted in it, so low ranks map to its value
+    final int maxIndex = (int) Math.ceil(Math.log(values[count - 1]) / logGamma);
+    final int lowestIndex = maxIndex - QuantileSketch.MAX_BINS + 1;
+    final double lowestBound = Math.exp((lowestIndex - 1) * logGamma);
+    final double lowestValue = Math.exp(lowestIndex * logGamma) * (1.0 - accuracy);
+    assertEquals(count, sketch.getCount());
+    assertEquals(values[0], sketch.getMin(), 0.0);
+    assertEquals(values[count - 1], sketch.getMax(), 0.0);
+    int collapsed = 0;
+    for (int rank = 1; rank < count - 1; rank++) {
+      final double estimate = sketch.getValueAtRank(rank);
+      if (values[rank] <= lowestBound) {
+        assertEquals("rank " + rank, lowestValue, estimate, lowestValue * 1e-9);
+        collapsed++;
+      } else {
+        assertEquals("rank " + rank, values[rank], estimate, values[rank] * accuracy);
+      }
+    }
+    assertTrue(collapsed > 0 && collapsed < count / 2);
+  }
+  
+  @Test
+  public void mergesCollapsedSketches() {
+    final QuantileSketch low = new QuantileSketch();
+    final QuantileSketch high = new QuantileSketch();
+    for (int i = 0; i < 1000; i++) {
+      low.add(1e-12 * (1.0 + i / 1000.0));
+      high.add(1e12 * (1.0 + i / 1000.0));
+    }
+    low.merge(high);
+    assertEquals(2000L, low.getCount());
+    assertEquals(1e-12, low.getMin(), 0.0);
+    final double p99 = 1e12 * (1.0 + 0.98 * 999 / 1000.0);
+    assertEquals(p99, low.getQuantile(0.99), p99 * 2.0 * QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+  }
+  
+  @Test
+  public void returnsNaNWhenEmpty() {
+    final QuantileSketch sketch = new QuantileSketch();
+    assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+    assertTrue(Double.isNaN(sketch.getMean()));
+    assertTrue(Double.isNaN(new MetricAggregates().getPercentile(MetricAggregates.P99)));
+  }
+  
+  /* Returns log-normal latencies in milliseconds, 10% of them zero */
+  private static double[] createLatencies(int count, long seed) {
+    final Random random = new Random(seed);
+    final double[] values = new double[count];
+    for (int i = 0; i < count; i++) {
+      values[i] = random.nextInt(10) == 0 ? 0.0 : Math.exp(5.0 + 1.5 * random.nextGaussian());
+    }
+    return values;
+  }
+  
+  /* Shuffles the specified values in place */
+  private static void shuffle(double[] values, Random random) {
+    for (int i = values.length - 1; i > 0; i--) {
+      final int j = random.nextInt(i + 1);
+      final double value = values[i];
+      values[i] = values[j];
+      values[j] = value;
+    }
+  }
+  
+}
@@ -0,0 +1,219 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.benchmark.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.http.Header;
+import org.apache.http.client.HttpResponseException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.chcapi.perfdiag.profiler.CacheStatus;
+import com.google.chcapi.perfdiag.profiler.HttpRequestException;
+import com.google.chcapi.perfdiag.profiler.HttpRequestMetrics;
+
+/**
+ * Tests that {@link RequestLog} records written in the binary format and converted by
+ * {@link RequestLog#decode(File, File)} are the same as records written as JSON Lines, and that
+ * truncated or corrupted binary logs are rejected.
+ */
+public class RequestLogTest {
+  
+  /* URI of a frame request, following URIs share a prefix with it */
+  private static final String FRAME_URI = "https://healthcare.googleapis.com/v1/projects/p"
+      + "/locations/l/datasets/d/dicomStores/s/dicomWeb/studies/1.2.3/series/1.2.3.4"
+      + "/instances/1.2.3.4.5/frames/17";
+  
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+  
+  @Test
+  public void decodedBinaryLogMatchesJsonLog() throws IOException {
+    final long now = System.currentTimeMillis();
+    final List<HttpRequestMetrics> requests = new ArrayList<>();
+    requests.add(metrics(now + 5L, 12L, 30L, 4096L, CacheStatus.HIT, true, FRAME_URI));
+    // Shorter URI sharing a prefix with the previous one
+    requests.add(metrics(now + 9L, 7L, 0L, 0L, CacheStatus.MISS, false,
+        FRAME_URI.substring(0, FRAME_URI.indexOf("/frames/"))));
+    // Unknown URI keeps the previous URI as the base of the next one
+    requests.add(metrics(now + 9L, 1L, 1L, 10L, CacheStatus.NA, false, null));
+    requests.add(metrics(now + 20L, 0L, 0L, 1L, CacheStatus.NA, true, FRAME_URI + "8"));
+    // Start times before the previous record and before the log was created
+    requests.add(metrics(now - 3L, 250L, 7000L, 1L << 40, CacheStatus.HIT, true, FRAME_URI));
+    requests.add(metrics(now - 86400000L, 1L, 2L, 3L, CacheStatus.MISS, false,
+        "https://example.com/\u00e9tudes/\u4e00"));
+    requests.add(metrics(now + 1L, 0L, 0L, 0L, CacheStatus.NA, false, ""));
+    
+    final File binary = writeLog(RequestLog.Format.BINARY, requests);
+    final File json = writeLog(RequestLog.Format.JSON, requests);
+    final File decoded = folder.newFile("decoded.jsonl");
+    
+    assertEquals(requests.size(), RequestLog.decode(binary, decoded));
+    assertEquals(read(json), read(decoded));
+  }
+  
+  @Test
+  public void decodesFailedRecords() throws IOException {
+    final File binary = folder.newFile("failed.rqlg");
+    final long startTime = System.currentTimeMillis() - 1500L;
+    try (RequestLog log = new RequestLog(binary, RequestLog.Format.BINARY)) {
+      log.requestCompleted(metrics(startTime, 10L, 20L, 100L, CacheStatus.HIT, true, FRAME_URI));
+      log.requestFailed(startTime, new HttpRequestException(FRAME_URI + "8",
+          new HttpResponseException(503, "Service Unavailable")));
+      log.requestFailed(startTime + 1L, new ConnectException("Connection refused"));
+    }
+    final File decoded = folder.newFile("failed.jsonl");
+    assertEquals(3L, RequestLog.decode(binary, decoded));
+    
+    final List<JsonNode> records = parse(decoded);
+    assertFalse(records.get(0).get("failed").asBoolean());
+    
+    final JsonNode status = records.get(1);
+    assertTrue(status.get("failed").asBoolean());
+    assertEquals(503, status.get("status").asInt());
+    assertEquals(FRAME_URI + "8", status.get("uri").asText());
+    assertEquals(0L, status.get("bytesRead").asLong());
+    assertEquals("NA", status.get("cacheStatus").asText());
+    assertEquals(status.get("totalLatency").asLong(), status.get("responseLatency").asLong());
+    assertTrue(status.get("totalLatency").asLong() >= 1500L);
+    
+    final JsonNode noResponse = records.get(2);
+    assertTrue(noResponse.get("failed").asBoolean());
+    assertEquals(0, noResponse.get("status").asInt());
+    assertFalse(noResponse.has("uri"));
+  }
+  
+  @Test
+  public void decodesEmptyLog() throws IOException {
+    final File binary = writeLog(RequestLog.Format.BINARY, new ArrayList<>());
+    final File decoded = folder.newFile("empty.jsonl");
+    assertEquals(0L, RequestLog.decode(binary, decoded));
+    assertEquals("", read(decoded));
+  }
+  
+  @Test
+  public void rejectsTruncatedRecord() throws IOException {
+    final List<HttpRequestMetrics> requests = new ArrayList<>();
+    requests.add(metrics(System.currentTimeMillis(), 1L, 2L, 3L, CacheStatus.HIT, false,
+        FRAME_URI));
+    final File binary = writeLog(RequestLog.Format.BINARY, requests);
+    final byte[] bytes = Files.readAllBytes(binary.toPath());
+    
+    // Cut within the URI and within the varints of the record
+    for (int length : new int[] {bytes.length - 5, 15}) {
+      final File truncated = folder.newFile();
+      Files.write(truncated.toPath(), Arrays.copyOf(bytes, length));
+      assertThrows(EOFException.class,
+          () -> RequestLog.decode(truncated, folder.newFile()));
+    }
+  }
+  
+  @Test
+  public void rejectsUriPrefixLongerThanPreviousUri() throws IOException {
+    final ByteArrayOutputStream bytes = header(1);
+    // Flags, iteration, start time delta, latencies, bytes read and status
+    bytes.write(new byte[] {0, 0, 0, 0, 0, 0, 0});
+    // Prefix of 5 bytes of no previous URI and empty suffix
+    bytes.write(new byte[] {5, 1});
+    final File corrupted = folder.newFile();
+    Files.write(corrupted.toPath(), bytes.toByteArray());
+    final IOException e = assertThrows(IOException.class,
+        () -> RequestLog.decode(corrupted, folder.newFile()));
+    assertEquals("Corrupted request log record 0", e.getMessage());
+  }
+  
+  @Test
+  public void rejectsOtherFiles() throws IOException {
+    final File json = writeLog(RequestLog.Format.JSON, new ArrayList<>());
+    assertThrows(IOException.class, () -> RequestLog.decode(json, folder.newFile()));
+    
+    final File version = folder.newFile();
+    Files.write(version.toPath(), header(2).toByteArray());
+    final IOException e = assertThrows(IOException.class,
+        () -> RequestLog.decode(version, folder.newFile()));
+    assertEquals("Unsupported request log version 2", e.getMessage());
+  }
+  
+  /* Writes log of the specified completed requests, the latter half in iteration 3 */
+  private File writeLog(RequestLog.Format format, List<HttpRequestMetrics> requests)
+      throws IOException {
+    final File file = folder.newFile();
+    try (RequestLog log = new RequestLog(file, format)) {
+      for (int i = 0; i < requests.size(); i++) {
+        log.setIteration(i < requests.size() / 2 ? 0 : 3);
+        log.requestCompleted(requests.get(i));
+      }
+    }
+    return file;
+  }
+  
+  /* Returns header of binary log with the specified version and zero start time */
+  private static ByteArrayOutputStream header(int version) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write('R');
+    bytes.write('Q');
+    bytes.write('L');
+    bytes.write('G');
+    bytes.write(version);
+    for (int i = 0; i < Long.BYTES; i++) {
+      bytes.write(0);
+    }
+    return bytes;
+  }
+  
+  /* Returns metrics of completed request */
+  private static HttpRequestMetrics metrics(long startTime, long responseLatency, long readLatency,
+      long bytesRead, CacheStatus cacheStatus, boolean connectionReused, String uri) {
+    return new HttpRequestMetrics(startTime, startTime + responseLatency,
+        startTime + responseLatency + readLatency, bytesRead, 200, cacheStatus, uri,
+        connectionReused, new Header[0]);
+  }
+  
+  /* Reads the whole file as UTF-8 */
+  private static String read(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+  }
+  
+  /* Parses JSON Lines file */
+  private static List<JsonNode> parse(File file) throws IOException {
+    final ObjectMapper mapper = new ObjectMapper();
+    final List<JsonNode> records = new ArrayList<>();
+    for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+      records.add(mapper.readTree(line));
+    }
+    return records;
+  }
+  
+}
@@ -0,0 +1,125 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.chcapi.perfdiag.profiler;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+
+import org.junit.Test;
+
+/**
+ * Tests classification of responses by {@link CacheStatus#fromResponse(HttpResponse)}: the order
+ * in which cache headers are tried and how the value of each header is matched.
+ */
+public class CacheStatusTest {
+  
+  @Test
+  public void unknownWithoutCacheHeaders() {
+    assertEquals(CacheStatus.NA, fromHeaders());
+    assertEquals(CacheStatus.NA, fromHeaders("Server", "HIT"));
+  }
+  
+  @Test
+  public void statusHeaders() {
+    assertEquals(CacheStatus.HIT, fromHeaders("X-Cache-Status", "HIT"));
+    assertEquals(CacheStatus.HIT, fromHeaders("X-Cache-Status", " stale "));
+    assertEquals(CacheStatus.HIT, fromHeaders("X-Cache-Status", "REVALIDATED"));
+    assertEquals(CacheStatus.HIT, fromHeaders("X-Cache-Status", "UPDATING"));
+    assertEquals(CacheStatus.MISS, fromHeaders("X-Cache-Status", "EXPIRED"));
+    assertEquals(CacheStatus.MISS, fromHeaders("CF-Cache-Status", "MISS"));
+    assertEquals(CacheStatus.NA, fromHeaders("X-Cache-Status", "BYPASS"));
+  }
+  
+  @Test
+  public void nginxStatusTakesPrecedenceOverCloudflare() {
+    assertEquals(CacheStatus.MISS,
+        fromHeaders("CF-Cache-Status", "HIT", "X-Cache-Status", "MISS"));
+  }
+  
+  @Test
+  public void unclassifiedStatusFallsThroughToOtherHeaders() {
+    assertEquals(CacheStatus.HIT, fromHeaders("CF-Cache-Status", "DYNAMIC", "Age", "10"));
+    assertEquals(CacheStatus.MISS,
+        fromHeaders("X-Cache-Status", "BYPASS", "X-Cache", "Miss from cloudfront"));
+  }
+  
+  @Test
+  public void xCacheUsesCacheClosestToClient() {
+    assertEquals(CacheStatus.MISS, fromHeaders("X-Cache", "Miss from cloudfront"));
+    assertEquals(CacheStatus.HIT, fromHeaders("X-Cache", "HIT from squid.example.com"));
+    assertEquals(CacheStatus.MISS, fromHeaders("X-Cache", "HIT, MISS"));
+    assertEquals(CacheStatus.HIT, fromHeaders("X-Cache", "MISS, HIT"));
+    assertEquals(CacheStatus.NA, fromHeaders("X-Cache", "Error from cloudfront"));
+  }
+  
+  @Test
+  public void xCacheTakesPrecedenceOverCacheStatusAndAge() {
+    assertEquals(CacheStatus.MISS,
+        fromHeaders("X-Cache", "MISS", "Cache-Status", "Edge; hit", "Age", "30"));
+  }
+  
+  @Test
+  public void cacheStatusUsesCacheClosestToClient() {
+    assertEquals(CacheStatus.HIT, fromHeaders("Cache-Status", "ExampleCache; hit"));
+    assertEquals(CacheStatus.MISS, fromHeaders("Cache-Status", "Edge; fwd=uri-miss"));
+    assertEquals(CacheStatus.HIT,
+        fromHeaders("Cache-Status", "Origin; fwd=uri-miss, CDN; hit; ttl=30"));
+    assertEquals(CacheStatus.MISS, fromHeaders("Cache-Status", "CDN; hit, Edge; fwd=stale"));
+    assertEquals(CacheStatus.NA, fromHeaders("Cache-Status", "Edge; stored"));
+  }
+  
+  @Test
+  public void viaMatchesCommentsOnly() {
+    assertEquals(CacheStatus.HIT, fromHeaders("Via", "1.1 proxy (squid HIT)"));
+    assertEquals(CacheStatus.MISS, fromHeaders("Via", "1.1 proxy (cache MISS)"));
+    assertEquals(CacheStatus.NA, fromHeaders("Via", "1.1 hit-proxy, 1.1 varnish (Varnish/6.0)"));
+    assertEquals(CacheStatus.NA, fromHeaders("Via", "1.1 miss.example.com"));
+  }
+  
+  @Test
+  public void viaApacheTrafficServerCodes() {
+    assertEquals(CacheStatus.HIT,
+        fromHeaders("Via", "http/1.1 ats (ApacheTrafficServer [cHs f ])"));
+    assertEquals(CacheStatus.HIT,
+        fromHeaders("Via", "http/1.1 ats (ApacheTrafficServer [cRs f ])"));
+    assertEquals(CacheStatus.MISS,
+        fromHeaders("Via", "http/1.1 ats (ApacheTrafficServer [cMsSf ])"));
+    assertEquals(CacheStatus.MISS,
+        fromHeaders("Via", "http/1.1 ats (ApacheTrafficServer [cSsSf ])"));
+  }
+  
+  @Test
+  public void positiveAgeIsHit() {
+    assertEquals(CacheStatus.HIT, fromHeaders("Age", " 12 "));
+    assertEquals(CacheStatus.HIT, fromHeaders("Via", "1.1 hit-proxy", "Age", "5"));
+    assertEquals(CacheStatus.NA, fromHeaders("Age", "0"));
+    assertEquals(CacheStatus.NA, fromHeaders("Age", "soon"));
+  }
+  
+  /* Classifies response with the specified header names and values */
+  private static CacheStatus fromHeaders(String... headers) {
+    final HttpResponse response =
+        new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+    for (int i = 0; i < headers.length; i += 2) {
+      response.addHeader(headers[i], headers[i + 1]);
+    }
+    return CacheStatus.fromResponse(response);
+  }
+  
+}